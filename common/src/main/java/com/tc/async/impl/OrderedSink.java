@@ -85,6 +85,21 @@ public class OrderedSink<T extends OrderedEventContext> implements Sink<T> {
     }
   }
 
+  /**
+   * Drops the events still waiting for a missing predecessor, for when the sender is gone and will start a new sequence
+   * rather than fill the gap.
+   * @return the number of events dropped
+   */
+  public synchronized int discardPending() {
+    int discarded = pending.size();
+    if (discarded > 0) {
+      logger.info("Discarding " + discarded + " messages in pending queue. Message with ID " + (current + 1)
+          + " never arrived");
+      pending.clear();
+    }
+    return discarded;
+  }
+
   private void processPendingIfNecessary() {
     if (!pending.isEmpty()) {
       for (Iterator<T> i = pending.iterator(); i.hasNext();) {
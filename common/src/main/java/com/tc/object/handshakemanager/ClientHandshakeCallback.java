@@ -18,6 +18,7 @@
  */
 package com.tc.object.handshakemanager;
 
+import com.tc.object.msg.ClientHandshakeAckMessage;
 import com.tc.object.msg.ClientHandshakeMessage;
 
 
@@ -31,5 +32,10 @@ public interface ClientHandshakeCallback {
 
   public void initializeHandshake(ClientHandshakeMessage handshakeMessage);
 
+  /**
+   * Called with the server's acknowledgement of a handshake, before this callback is unpaused.
+   */
+  public void handshakeAcknowledged(ClientHandshakeAckMessage handshakeAck);
+
   public void shutdown(boolean fromShutdownHook);
 }
@@ -102,10 +102,29 @@ public interface TCPropertiesConsts {
    *                                 instance in a cluster with no passives present
    * startuplock.retries.enabled   : If true then L2s will try to lock indefinitely on the data
    *                                 directory while starting up
+   * persistence.log.compaction.threshold : Number of records appended to a persistor log before
+   *                                 it is compacted into a snapshot
+   * persistence.sequence.groupcommit.maxBatch : Maximum number of transaction order updates
+   *                                 written as one group, 1 disables group commit
+   * persistence.sequence.groupcommit.interval.micros : Longest time a transaction order update
+   *                                 waits for its group to fill before it is written
+   * persistence.mmap.directory    : Directory used for the built-in memory-mapped platform persistence
+   *                                 when no other provider is configured, unset keeps it in memory
+   * persistence.mmap.segment.size : Size in bytes of each memory-mapped platform persistence log segment
+   * active-passive.compression.threshold : Replicated payloads of at least this many bytes are deflated
+   *                                 for passives which accept compression, 0 disables compression
+   * active-passive.compression.level : Deflate level used for replicated payloads
    * </code>
    ********************************************************************************************************************/
   public static final String L2_STARTUPLOCK_RETRIES_ENABLED                                 = "l2.startuplock.retries.enabled";
   public static final String ENTITY_DEFERMENT_QUEUE_SIZE                                    = "server.entity.deferment.queue.size";
+  public static final String L2_PERSISTENCE_LOG_COMPACTION_THRESHOLD                       = "l2.persistence.log.compaction.threshold";
+  public static final String L2_PERSISTENCE_SEQUENCE_GROUPCOMMIT_MAXBATCH                  = "l2.persistence.sequence.groupcommit.maxBatch";
+  public static final String L2_PERSISTENCE_SEQUENCE_GROUPCOMMIT_INTERVAL_MICROS           = "l2.persistence.sequence.groupcommit.interval.micros";
+  public static final String L2_PERSISTENCE_MMAP_DIRECTORY                                  = "l2.persistence.mmap.directory";
+  public static final String L2_PERSISTENCE_MMAP_SEGMENT_SIZE                               = "l2.persistence.mmap.segment.size";
+  public static final String ACTIVE_PASSIVE_COMPRESSION_THRESHOLD                           = "active-passive.compression.threshold";
+  public static final String ACTIVE_PASSIVE_COMPRESSION_LEVEL                               = "active-passive.compression.level";
   
   /*********************************************************************************************************************
    * <code>
@@ -127,6 +146,11 @@ public interface TCPropertiesConsts {
   public static final String L1_TRANSACTIONMANAGER_STRINGS_COMPRESS_MINSIZE                 = "l1.transactionmanager.strings.compress.minSize";
   
   public static final String CLIENT_MAX_PENDING_REQUESTS                                    = "client.requests.pending.max";
+  public static final String CLIENT_MAX_BATCHED_REQUESTS                                    = "client.requests.batch.max";
+  public static final String CLIENT_REQUEST_LATENCY_ENABLED                                 = "client.requests.latency.enabled";
+  public static final String CLIENT_RESEND_OFFHEAP_MAX_BYTES                                = "client.requests.resend.offheap.maxBytes";
+  public static final String CLIENT_RESEND_OFFHEAP_SEGMENT_BYTES                            = "client.requests.resend.offheap.segmentBytes";
+  public static final String CLIENT_RESEND_OFFHEAP_MIN_PAYLOAD                              = "client.requests.resend.offheap.minPayload";
 
   public static final String TC_TRANSPORT_HANDSHAKE_TIMEOUT                                 = "tc.transport.handshake.timeout";
   public static final String TC_CONFIG_SOURCEGET_TIMEOUT                                    = "tc.config.getFromSource.timeout";
@@ -383,8 +407,14 @@ public interface TCPropertiesConsts {
       L2_SEDA_STAGE_DISABLE_DIRECT_SINKS,
       L2_NHA_TCGROUPCOMM_RECONNECT_L2PROXY_TO_PORT,
       CLIENT_MAX_PENDING_REQUESTS,
+      CLIENT_MAX_BATCHED_REQUESTS,
+      CLIENT_REQUEST_LATENCY_ENABLED,
+      CLIENT_RESEND_OFFHEAP_MAX_BYTES,
+      CLIENT_RESEND_OFFHEAP_SEGMENT_BYTES,
+      CLIENT_RESEND_OFFHEAP_MIN_PAYLOAD,
       L1_CLUSTEREVENT_EXECUTOR_MAX_THREADS,
-      L1_CLUSTEREVENT_EXECUTOR_MAX_WAIT_SECONDS
+      L1_CLUSTEREVENT_EXECUTOR_MAX_WAIT_SECONDS,
+      L2_PERSISTENCE_MMAP_DIRECTORY
   };
 
 }
@@ -0,0 +1,100 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values in power of two buckets:  bucket 0 holds 0 and bucket i holds the values up to
+ * 2^i - 1, with the last bucket also holding everything larger.  Safe to record from many threads.
+ */
+public class PowerOfTwoHistogram {
+  private final int bucketCount;
+  private final AtomicLongArray buckets;
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong maximum = new AtomicLong();
+
+  public PowerOfTwoHistogram(int bucketCount) {
+    if (bucketCount < 1 || bucketCount > 64) { throw new IllegalArgumentException("bucket count must be between 1 and 64"); }
+    this.bucketCount = bucketCount;
+    this.buckets = new AtomicLongArray(bucketCount);
+  }
+
+  public void add(long value) {
+    value = Math.max(0, value);
+    buckets.incrementAndGet(Math.min(bucketCount - 1, 64 - Long.numberOfLeadingZeros(value)));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    maximum.accumulateAndGet(value, Math::max);
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public double getMean() {
+    long samples = count.get();
+    return samples == 0 ? 0D : (double) total.get() / samples;
+  }
+
+  public long getMaximum() {
+    return maximum.get();
+  }
+
+  /**
+   * @return the upper bound of the bucket holding the given fraction of samples, 0 if there are none
+   */
+  public long percentile(double fraction) {
+    long samples = count.get();
+    if (samples == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(samples * fraction);
+    long seen = 0;
+    for (int i = 0; i < bucketCount; ++i) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return upperBound(i);
+      }
+    }
+    return upperBound(bucketCount - 1);
+  }
+
+  /**
+   * @return the count of each non-empty bucket keyed by its upper bound, "&lt;=n"
+   */
+  public Map<String, Long> getBuckets() {
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    for (int i = 0; i < bucketCount; ++i) {
+      long c = buckets.get(i);
+      if (c > 0) {
+        histogram.put("<=" + upperBound(i), c);
+      }
+    }
+    return histogram;
+  }
+
+  private static long upperBound(int bucket) {
+    return (bucket == 0) ? 0 : (1L << bucket) - 1;
+  }
+}
@@ -61,6 +61,22 @@ public class OrderedSinkTest extends TCTestCase {
     assertFalse(failed);
   }
 
+  public void testDiscardPending() throws Exception {
+    MockSink<OrderedEventContext> des = new MockSink<OrderedEventContext>();
+    OrderedSink<OrderedEventContext> s = new OrderedSink<OrderedEventContext>(LoggerFactory.getLogger(OrderedSink.class), des);
+
+    s.addToSink(new MyOrderedEventContext(1));
+    assertEvents(des, 1, 1);
+    s.addToSink(new MyOrderedEventContext(3));
+    s.addToSink(new MyOrderedEventContext(4));
+    assertEquals(2, s.discardPending());
+
+    // a new sequence can start once the gap is given up on
+    s.addToSink(new MyOrderedEventContext(0));
+    s.addToSink(new MyOrderedEventContext(1));
+    assertEvents(des, 0, 2);
+  }
+
   public void testComplex() throws Exception {
     MockSink<OrderedEventContext> des = new MockSink<OrderedEventContext>();
     Sink<OrderedEventContext> s = new OrderedSink(LoggerFactory.getLogger(OrderedSink.class), des);
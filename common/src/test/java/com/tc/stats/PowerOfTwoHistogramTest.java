@@ -0,0 +1,64 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.stats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class PowerOfTwoHistogramTest extends TestCase {
+
+  public void testBuckets() {
+    PowerOfTwoHistogram histogram = new PowerOfTwoHistogram(8);
+    histogram.add(0);
+    histogram.add(1);
+    histogram.add(5);
+    histogram.add(7);
+    histogram.add(1000);
+    Map<String, Long> expected = new LinkedHashMap<>();
+    expected.put("<=0", 1L);
+    expected.put("<=1", 1L);
+    expected.put("<=7", 2L);
+    expected.put("<=127", 1L);
+    assertEquals(expected, histogram.getBuckets());
+    assertEquals(5, histogram.getCount());
+    assertEquals(1000, histogram.getMaximum());
+    assertEquals(202.6D, histogram.getMean(), 0.001D);
+  }
+
+  public void testPercentile() {
+    PowerOfTwoHistogram histogram = new PowerOfTwoHistogram(40);
+    assertEquals(0, histogram.percentile(0.5));
+    for (int i = 0; i < 99; ++i) {
+      histogram.add(100);
+    }
+    histogram.add(50000);
+    assertEquals(127, histogram.percentile(0.5));
+    assertEquals(127, histogram.percentile(0.99));
+    assertEquals(65535, histogram.percentile(1.0));
+  }
+
+  public void testNegativeCountsAsZero() {
+    PowerOfTwoHistogram histogram = new PowerOfTwoHistogram(4);
+    histogram.add(-5);
+    assertEquals(Long.valueOf(1), histogram.getBuckets().get("<=0"));
+    assertEquals(0, histogram.getMaximum());
+  }
+}
@@ -27,20 +27,25 @@ import org.terracotta.entity.EntityResponse;
 import org.terracotta.exception.EntityNotProvidedException;
 
 import com.tc.object.ClientEntityManager;
+import com.terracotta.connection.entity.FetchedEndpoints;
 import com.terracotta.connection.entity.TerracottaEntityRef;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 
 public class TerracottaConnection implements Connection {
-  private final ClientEntityManager entityManager;
+  private final List<ClientEntityManager> entityManagers;
   private final EntityClientServiceFactory factory = new EntityClientServiceFactory();
   private final EndpointConnector endpointConnector;
   private final Runnable shutdown;
   private final ConcurrentMap<Class<? extends Entity>, EntityClientService<?, ?, ? extends EntityMessage, ? extends EntityResponse, ?>> cachedEntityServices = new ConcurrentHashMap<Class<? extends Entity>, EntityClientService<?, ?, ? extends EntityMessage, ? extends EntityResponse, ?>>();
-  private final AtomicLong  clientIds = new AtomicLong(1); // initialize to 1 because zero client is a special case for uninitialized
+  private final AtomicLong  clientIds;
+  // Null when the clients are shut down with this connection, which releases everything fetched through it anyway.
+  private final FetchedEndpoints fetched;
 
   private boolean isShutdown = false;
 
@@ -49,9 +54,42 @@ public class TerracottaConnection implements Connection {
   }
 
   public TerracottaConnection(ClientEntityManager entityManager, EndpointConnector endpointConnector, Runnable shutdown) {
-    this.entityManager = entityManager;
+    this(Collections.singletonList(entityManager), endpointConnector, shutdown);
+  }
+
+  /**
+   * Creates a connection over several independently connected clients.  Each entity is pinned to one of the given
+   * managers by its type and name so that all of its invokes travel, in order, through the same client.
+   */
+  public TerracottaConnection(List<ClientEntityManager> entityManagers, EndpointConnector endpointConnector, Runnable shutdown) {
+    this(entityManagers, endpointConnector, shutdown, new AtomicLong(1)); // initialize to 1 because zero client is a special case for uninitialized
+  }
+
+  /**
+   * Creates a connection over entity managers which {@code shutdown} shuts down with it, drawing client instance IDs from
+   * {@code clientIds}.
+   */
+  public TerracottaConnection(List<ClientEntityManager> entityManagers, EndpointConnector endpointConnector, Runnable shutdown,
+                              AtomicLong clientIds) {
+    this(entityManagers, endpointConnector, shutdown, clientIds, false);
+  }
+
+  /**
+   * Creates a connection over entity managers that may be shared with other connections.  All connections sharing a
+   * manager must also share {@code clientIds} so that their client instance IDs never collide.  If {@code sharedClients},
+   * the managers outlive this connection, so closing it releases the entities fetched through it before running
+   * {@code shutdown}.
+   */
+  public TerracottaConnection(List<ClientEntityManager> entityManagers, EndpointConnector endpointConnector, Runnable shutdown,
+                              AtomicLong clientIds, boolean sharedClients) {
+    if (entityManagers.isEmpty()) {
+      throw new IllegalArgumentException("at least one entity manager is required");
+    }
+    this.entityManagers = entityManagers;
+    this.clientIds = clientIds;
     this.endpointConnector = endpointConnector;
     this.shutdown = shutdown;
+    this.fetched = sharedClients ? new FetchedEndpoints() : null;
   }
 
   @Override
@@ -63,7 +101,16 @@ public class TerracottaConnection implements Connection {
       // We failed to find a provider for this class.
       throw new EntityNotProvidedException(cls.getName(), name);
     }
-    return new TerracottaEntityRef<T, C, U>(entityManager, endpointConnector, cls, version, name, service, clientIds);
+    return new TerracottaEntityRef<T, C, U>(selectEntityManager(cls, name), endpointConnector, cls, version, name, service, clientIds, fetched);
+  }
+
+  private ClientEntityManager selectEntityManager(Class<?> cls, String name) {
+    int size = entityManagers.size();
+    if (size == 1) {
+      return entityManagers.get(0);
+    }
+    int hash = 31 * cls.getName().hashCode() + name.hashCode();
+    return entityManagers.get(Math.floorMod(hash, size));
   }
 
   private <T extends Entity, U> EntityClientService<T, ?, ? extends EntityMessage, ? extends EntityResponse, U> getEntityService(Class<T> entityClass) {
@@ -83,6 +130,9 @@ public class TerracottaConnection implements Connection {
   @Override
   public synchronized void close() {
     checkShutdown();
+    if (fetched != null) {
+      fetched.releaseAll();
+    }
     shutdown.run();
     isShutdown = true;
   }
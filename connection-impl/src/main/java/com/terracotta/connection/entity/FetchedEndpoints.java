@@ -0,0 +1,96 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.terracotta.connection.entity;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.entity.EntityClientEndpoint;
+
+import com.tc.object.ClientInstanceID;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+
+/**
+ * The endpoints fetched through one connection and not yet closed.  A connection whose clients outlive it (because they
+ * are shared with other connections) releases these when it is closed so the server doesn't keep them fetched.
+ */
+public class FetchedEndpoints {
+  private static final Logger LOGGER = LoggerFactory.getLogger(FetchedEndpoints.class);
+
+  private final Map<ClientInstanceID, EntityClientEndpoint<?, ?>> open = new HashMap<>();
+  private boolean released = false;
+
+  /**
+   * @return the hook to give the fetch of the instance, which forgets its endpoint once it is closed
+   */
+  Runnable closeHook(ClientInstanceID instance) {
+    return () -> {
+      synchronized (this) {
+        open.remove(instance);
+      }
+    };
+  }
+
+  /**
+   * @return false if the endpoints have already been released, in which case the caller must release this one itself
+   */
+  synchronized boolean add(ClientInstanceID instance, EntityClientEndpoint<?, ?> endpoint) {
+    if (released) {
+      return false;
+    }
+    open.put(instance, endpoint);
+    return true;
+  }
+
+  /**
+   * Releases every endpoint still open and waits for the releases to complete.  Endpoints fetched afterwards are not
+   * tracked.
+   */
+  public void releaseAll() {
+    List<EntityClientEndpoint<?, ?>> endpoints;
+    synchronized (this) {
+      released = true;
+      endpoints = new ArrayList<>(open.values());
+    }
+    List<Future<Void>> releases = new ArrayList<>(endpoints.size());
+    for (EntityClientEndpoint<?, ?> endpoint : endpoints) {
+      releases.add(endpoint.release());
+    }
+    boolean interrupted = false;
+    for (Future<Void> release : releases) {
+      try {
+        release.get();
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      } catch (ExecutionException ee) {
+        // The entity was most likely closed by its user at the same time.
+        LOGGER.debug("releasing an endpoint of a closed connection", ee.getCause());
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
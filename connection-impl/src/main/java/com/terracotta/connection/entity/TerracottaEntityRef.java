@@ -60,10 +60,22 @@ public class TerracottaEntityRef<T extends Entity, C, U> implements EntityRef<T,
 
   // Each instance fetched by this ref can be individually addressed by the server so it needs a unique ID.
   private final AtomicLong nextClientInstanceID;
+  // Null unless the connection must release what it fetched when it is closed.
+  private final FetchedEndpoints fetched;
 
   public TerracottaEntityRef(ClientEntityManager entityManager, EndpointConnector endpointConnector,
                              Class<T> type, long version, String name, EntityClientService<T, C, ? extends EntityMessage, ? extends EntityResponse, U> entityClientService,
                              AtomicLong clientIds) {
+    this(entityManager, endpointConnector, type, version, name, entityClientService, clientIds, null);
+  }
+
+  /**
+   * Creates a ref whose fetched endpoints are recorded in {@code fetched} until they are closed.
+   */
+  public TerracottaEntityRef(ClientEntityManager entityManager, EndpointConnector endpointConnector,
+                             Class<T> type, long version, String name, EntityClientService<T, C, ? extends EntityMessage, ? extends EntityResponse, U> entityClientService,
+                             AtomicLong clientIds, FetchedEndpoints fetched) {
+    this.fetched = fetched;
     this.entityManager = entityManager;
     this.endpointConnector = endpointConnector;
     this.type = type;
@@ -80,9 +92,10 @@ public class TerracottaEntityRef<T extends Entity, C, U> implements EntityRef<T,
   @Override
   public synchronized T fetchEntity(U userData) throws EntityNotFoundException, EntityVersionMismatchException {
     EntityClientEndpoint endpoint = null;
+    final ClientInstanceID clientInstanceID = new ClientInstanceID(this.nextClientInstanceID.getAndIncrement());
     try {
-      final ClientInstanceID clientInstanceID = new ClientInstanceID(this.nextClientInstanceID.getAndIncrement());
-      endpoint = entityManager.fetchEntity(this.getEntityID(), this.version, clientInstanceID, entityClientService.getMessageCodec(), null);
+      endpoint = entityManager.fetchEntity(this.getEntityID(), this.version, clientInstanceID, entityClientService.getMessageCodec(),
+                                           (fetched != null) ? fetched.closeHook(clientInstanceID) : null);
     } catch (EntityException e) {
       // In this case, we want to close the endpoint but still throw back the exception.
       // Note that we must externally only present the specific exception types we were expecting.  Thus, we need to check
@@ -102,6 +115,11 @@ public class TerracottaEntityRef<T extends Entity, C, U> implements EntityRef<T,
     if (endpoint == null) {
       Assert.assertNotNull(endpoint);
     }
+    if (fetched != null && !fetched.add(clientInstanceID, endpoint)) {
+      // The connection was closed while this was being fetched.
+      endpoint.release();
+      throw new IllegalStateException("Connection already closed");
+    }
 
     return (T) endpointConnector.connect(endpoint, entityClientService, userData);
   }
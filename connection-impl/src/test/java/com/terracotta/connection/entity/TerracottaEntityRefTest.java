@@ -23,7 +23,9 @@ import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,7 +44,9 @@ import com.tc.object.ClientInstanceID;
 import com.tc.object.EntityID;
 import com.tc.util.Assert;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 
@@ -76,6 +80,44 @@ public class TerracottaEntityRefTest {
     // Note that we don't see the corresponding readUnlockEntity call since it is called by the EntityClientEndpoint, when closed, but that is just a mock.
   }
 
+  @Test
+  /**
+   * Test that the endpoints fetched for a connection are released with it, unless they were already closed, and that
+   * nothing can be fetched for it afterwards.
+   */
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  public void testFetchedEndpointsAreReleased() throws Exception {
+    ClientEntityManager mockClientEntityManager = mock(ClientEntityManager.class);
+    EntityClientService<Entity, Void, ? extends EntityMessage, ? extends EntityResponse, Void> mockEntityClientService = mock(EntityClientService.class);
+    when(mockEntityClientService.create(any(EntityClientEndpoint.class), any(Void.class))).thenReturn(mock(Entity.class));
+    EntityClientEndpoint closedEndpoint = mock(EntityClientEndpoint.class);
+    EntityClientEndpoint openEndpoint = mock(EntityClientEndpoint.class);
+    when(openEndpoint.release()).thenReturn(CompletableFuture.completedFuture(null));
+    when(mockClientEntityManager.fetchEntity(any(EntityID.class), anyLong(), any(ClientInstanceID.class), any(MessageCodec.class), any(Runnable.class)))
+        .thenReturn(closedEndpoint, openEndpoint, openEndpoint);
+
+    FetchedEndpoints fetched = new FetchedEndpoints();
+    TerracottaEntityRef<Entity, Void, Void> testRef = new TerracottaEntityRef(mockClientEntityManager, CONNECTOR, Entity.class, 1, "TEST", mockEntityClientService, new AtomicLong(1), fetched);
+    testRef.fetchEntity(null);
+    testRef.fetchEntity(null);
+    // the first one is closed by its user, which runs the hook given to the fetch
+    ArgumentCaptor<Runnable> closeHook = ArgumentCaptor.forClass(Runnable.class);
+    verify(mockClientEntityManager, times(2)).fetchEntity(any(EntityID.class), anyLong(), any(ClientInstanceID.class), any(MessageCodec.class), closeHook.capture());
+    closeHook.getAllValues().get(0).run();
+
+    fetched.releaseAll();
+    verify(closedEndpoint, never()).release();
+    verify(openEndpoint).release();
+
+    try {
+      testRef.fetchEntity(null);
+      Assert.fail("fetched after the connection was closed");
+    } catch (IllegalStateException expected) {
+      // the endpoint fetched in the meantime was released rather than leaked
+      verify(openEndpoint, times(2)).release();
+    }
+  }
+
   @Test
   /**
    * Test that tryDestroy interacts with the underlying systems as expected when it SUCCEEDED in getting the lock.
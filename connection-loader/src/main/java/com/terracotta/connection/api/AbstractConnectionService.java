@@ -8,7 +8,6 @@ import com.tc.object.ClientBuilderFactory;
 import com.terracotta.connection.EndpointConnector;
 import com.terracotta.connection.EndpointConnectorImpl;
 import com.terracotta.connection.TerracottaConnection;
-import com.terracotta.connection.TerracottaInternalClient;
 import com.terracotta.connection.TerracottaInternalClientFactory;
 import com.terracotta.connection.TerracottaInternalClientFactoryImpl;
 import com.terracotta.connection.client.TerracottaClientConfigParams;
@@ -16,11 +15,28 @@ import java.net.InetSocketAddress;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Properties;
 
 abstract class AbstractConnectionService implements ConnectionService {
 
+  /**
+   * Number of independent internal clients opened for one logical connection, each with its own transport, stages and
+   * server-side client ID.  Each entity is pinned to one of them by type and name, so this spreads many entities over
+   * several connections but gives a single entity no more throughput.
+   */
+  static final String CONNECTION_CLIENTS = "connection.clients";
+
+  /**
+   * When true, logical connections to the same stripe URI with the same properties share one set of internal clients,
+   * which is shut down when the last of them is closed.
+   */
+  static final String CONNECTION_SHARED = "connection.shared";
+
+  private static final SharedClientGroups SHARED_GROUPS = new SharedClientGroups();
+
   private final String scheme;
   private final EndpointConnector endpointConnector;
   private final TerracottaInternalClientFactory clientFactory;
@@ -75,12 +91,26 @@ abstract class AbstractConnectionService implements ConnectionService {
     properties.put(ClientBuilderFactory.CLIENT_BUILDER_TYPE, ClientBuilderFactory.ClientBuilderType.of(scheme));
     clientConfig.addGenericProperties(properties);
 
-    final TerracottaInternalClient client = clientFactory.createL1Client(clientConfig);
+    int clients = parseClients(properties.getProperty(CONNECTION_CLIENTS, "1"));
+    if (Boolean.parseBoolean(properties.getProperty(CONNECTION_SHARED, "false"))) {
+      Object key = Arrays.asList(clientFactory, scheme, uri.getSchemeSpecificPart(), new HashMap<>(properties));
+      ClientGroup group = SHARED_GROUPS.acquire(key, () -> ClientGroup.open(clientFactory, clientConfig, clients));
+      return new TerracottaConnection(group.getEntityManagers(), endpointConnector, () -> SHARED_GROUPS.release(key, group),
+                                      group.getClientIds(), true);
+    }
+    ClientGroup group = ClientGroup.open(clientFactory, clientConfig, clients);
+    return new TerracottaConnection(group.getEntityManagers(), endpointConnector, group::shutdown, group.getClientIds());
+  }
+
+  private static int parseClients(String value) {
     try {
-      client.init();
-    } catch (Exception e) {
-      throw new ConnectionException(e);
+      int clients = Integer.parseInt(value.trim());
+      if (clients < 1) {
+        throw new IllegalArgumentException(CONNECTION_CLIENTS + " must be positive: " + value);
+      }
+      return clients;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(CONNECTION_CLIENTS + " is not a number: " + value, e);
     }
-    return new TerracottaConnection(client.getClientEntityManager(), endpointConnector, client::shutdown);
   }
 }
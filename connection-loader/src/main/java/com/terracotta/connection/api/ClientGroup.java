@@ -0,0 +1,82 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.terracotta.connection.api;
+
+import org.terracotta.connection.ConnectionException;
+
+import com.tc.object.ClientEntityManager;
+import com.terracotta.connection.TerracottaInternalClient;
+import com.terracotta.connection.TerracottaInternalClientFactory;
+import com.terracotta.connection.client.TerracottaClientConfigParams;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The internal clients backing one or more logical connections, together with the client instance ID counter that
+ * every connection over them must draw from.
+ */
+class ClientGroup {
+  private final List<TerracottaInternalClient> clients;
+  private final List<ClientEntityManager> managers;
+  private final AtomicLong clientIds = new AtomicLong(1);
+
+  private ClientGroup(List<TerracottaInternalClient> clients, List<ClientEntityManager> managers) {
+    this.clients = clients;
+    this.managers = Collections.unmodifiableList(managers);
+  }
+
+  static ClientGroup open(TerracottaInternalClientFactory clientFactory, TerracottaClientConfigParams clientConfig,
+                          int count) throws ConnectionException {
+    List<TerracottaInternalClient> clients = new ArrayList<>(count);
+    List<ClientEntityManager> managers = new ArrayList<>(count);
+    try {
+      for (int i = 0; i < count; i++) {
+        TerracottaInternalClient client = clientFactory.createL1Client(clientConfig);
+        clients.add(client);
+        client.init();
+        managers.add(client.getClientEntityManager());
+      }
+    } catch (Exception e) {
+      shutdownAll(clients);
+      throw new ConnectionException(e);
+    }
+    return new ClientGroup(clients, managers);
+  }
+
+  List<ClientEntityManager> getEntityManagers() {
+    return managers;
+  }
+
+  AtomicLong getClientIds() {
+    return clientIds;
+  }
+
+  void shutdown() {
+    shutdownAll(clients);
+  }
+
+  private static void shutdownAll(List<TerracottaInternalClient> clients) {
+    for (TerracottaInternalClient client : clients) {
+      client.shutdown();
+    }
+  }
+}
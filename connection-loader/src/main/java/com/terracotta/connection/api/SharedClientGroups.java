@@ -0,0 +1,103 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.terracotta.connection.api;
+
+import org.terracotta.connection.ConnectionException;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reference counted registry of {@link ClientGroup}s shared by logical connections opened against the same stripe
+ * with the same properties.  The group is shut down when the last connection using it is closed.
+ */
+class SharedClientGroups {
+
+  interface Opener {
+    ClientGroup open() throws ConnectionException;
+  }
+
+  private final Map<Object, Entry> groups = new HashMap<>();
+
+  /**
+   * Returns the group registered under {@code key}, opening it with {@code opener} if there is none.  The first caller
+   * for a key opens the group outside the registry lock while later callers for the same key wait for it, so concurrent
+   * connects to the same stripe never build two groups and connects to other stripes are not held up.
+   */
+  ClientGroup acquire(Object key, Opener opener) throws ConnectionException {
+    Entry entry;
+    boolean opening = false;
+    synchronized (this) {
+      entry = groups.get(key);
+      if (entry == null) {
+        entry = new Entry();
+        groups.put(key, entry);
+        opening = true;
+      }
+      entry.references += 1;
+    }
+    if (opening) {
+      try {
+        ClientGroup group = opener.open();
+        entry.group.complete(group);
+        return group;
+      } catch (ConnectionException | RuntimeException e) {
+        // Nobody holds a failed group, so forget it and fail everyone waiting for it.
+        synchronized (this) {
+          groups.remove(key, entry);
+        }
+        entry.group.completeExceptionally(e);
+        throw e;
+      }
+    }
+    try {
+      return entry.group.join();
+    } catch (CompletionException e) {
+      throw new ConnectionException(e.getCause());
+    }
+  }
+
+  void release(Object key, ClientGroup group) {
+    boolean last = false;
+    synchronized (this) {
+      Entry entry = groups.get(key);
+      if (entry != null && entry.group.getNow(null) == group) {
+        entry.references -= 1;
+        if (entry.references == 0) {
+          groups.remove(key);
+          last = true;
+        }
+      }
+    }
+    if (last) {
+      group.shutdown();
+    }
+  }
+
+  synchronized int size() {
+    return groups.size();
+  }
+
+  private static class Entry {
+    private final CompletableFuture<ClientGroup> group = new CompletableFuture<>();
+    private int references;
+  }
+}
@@ -16,6 +16,9 @@ import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class TerracottaConnectionServiceTest {
@@ -34,6 +37,40 @@ public class TerracottaConnectionServiceTest {
     assertThat(connection, notNullValue());
   }
 
+  @Test
+  public void connectWithMultipleClients() throws Exception {
+    TerracottaInternalClientFactory clientFactoryMock = mock(TerracottaInternalClientFactory.class);
+    TerracottaInternalClient client = mock(TerracottaInternalClient.class);
+    when(clientFactoryMock.createL1Client(any())).thenReturn(client);
+    TerracottaConnectionService terracottaConnectionService =
+        new TerracottaConnectionService(mock(EndpointConnector.class), clientFactoryMock);
+    Properties properties = new Properties();
+    properties.setProperty(AbstractConnectionService.CONNECTION_CLIENTS, "3");
+    Connection connection =
+        terracottaConnectionService.connect(URI.create("terracotta://localhost:9410"), properties);
+    verify(client, times(3)).init();
+    connection.close();
+    verify(client, times(3)).shutdown();
+  }
+
+  @Test
+  public void sharedConnectionsReuseClient() throws Exception {
+    TerracottaInternalClientFactory clientFactoryMock = mock(TerracottaInternalClientFactory.class);
+    TerracottaInternalClient client = mock(TerracottaInternalClient.class);
+    when(clientFactoryMock.createL1Client(any())).thenReturn(client);
+    TerracottaConnectionService terracottaConnectionService =
+        new TerracottaConnectionService(mock(EndpointConnector.class), clientFactoryMock);
+    Properties properties = new Properties();
+    properties.setProperty(AbstractConnectionService.CONNECTION_SHARED, "true");
+    Connection first = terracottaConnectionService.connect(URI.create("terracotta://localhost:9410"), properties);
+    Connection second = terracottaConnectionService.connect(URI.create("terracotta://localhost:9410"), properties);
+    verify(clientFactoryMock, times(1)).createL1Client(any());
+    first.close();
+    verify(client, never()).shutdown();
+    second.close();
+    verify(client, times(1)).shutdown();
+  }
+
   @Test
   public void connectWithNonTerracottaScheme() throws Exception {
     TerracottaInternalClientFactory clientFactoryMock = mock(TerracottaInternalClientFactory.class);
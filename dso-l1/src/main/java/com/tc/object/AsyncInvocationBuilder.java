@@ -0,0 +1,40 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.util.concurrent.CompletionStage;
+import org.terracotta.entity.EntityMessage;
+import org.terracotta.entity.EntityResponse;
+import org.terracotta.entity.InvocationBuilder;
+import org.terracotta.entity.MessageCodecException;
+
+/**
+ * The invocation builders handed out by this client's end-points also implement this, for callers that would rather
+ * be called back than park a thread on each invoke.
+ */
+public interface AsyncInvocationBuilder<M extends EntityMessage, R extends EntityResponse> extends InvocationBuilder<M, R> {
+  /**
+   * Sends the invoke like {@link #invoke()} but returns a stage which completes when {@code get()} on the future would
+   * return.  Dependent actions run on the thread delivering the response unless an executor was given with
+   * {@link #withExecutor(java.util.concurrent.Executor)}.  Failures complete the stage exceptionally with the
+   * EntityException, or a {@link java.util.concurrent.CompletionException} wrapping a MessageCodecException when the
+   * response can't be decoded.
+   */
+  CompletionStage<R> invokeAsync() throws MessageCodecException;
+}
@@ -33,6 +33,11 @@ public class ClientConfigurationContext extends ConfigurationContextImpl {
   public static final String             VOLTRON_ENTITY_MULTI_RESPONSE_STAGE                      = "multi_request_ack_stage";
 
   public static final int                MAX_PENDING_REQUESTS                        = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.CLIENT_MAX_PENDING_REQUESTS, 5000);
+  public static final int                MAX_BATCHED_REQUESTS                        = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.CLIENT_MAX_BATCHED_REQUESTS, 64);
+  public static final boolean            RECORD_REQUEST_LATENCY                      = TCPropertiesImpl.getProperties().getBoolean(TCPropertiesConsts.CLIENT_REQUEST_LATENCY_ENABLED, false);
+  public static final long               RESEND_OFFHEAP_MAX_BYTES                    = TCPropertiesImpl.getProperties().getLong(TCPropertiesConsts.CLIENT_RESEND_OFFHEAP_MAX_BYTES, 0);
+  public static final int                RESEND_OFFHEAP_SEGMENT_BYTES                = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.CLIENT_RESEND_OFFHEAP_SEGMENT_BYTES, 4 * 1024 * 1024);
+  public static final int                RESEND_OFFHEAP_MIN_PAYLOAD                  = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.CLIENT_RESEND_OFFHEAP_MIN_PAYLOAD, 1024);
   
   private final ClientEntityManager       entityManager;
   private final ClientHandshakeManager    clientHandshakeManager;
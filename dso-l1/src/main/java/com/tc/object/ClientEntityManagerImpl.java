@@ -54,6 +54,7 @@ import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.TCMessageType;
 import com.tc.net.protocol.tcm.UnknownNameException;
 import com.tc.object.msg.ClientEntityReferenceContext;
+import com.tc.object.msg.ClientHandshakeAckMessage;
 import com.tc.object.msg.ClientHandshakeMessage;
 import com.tc.object.session.SessionID;
 import com.tc.object.tx.TransactionID;
@@ -65,16 +66,19 @@ import java.nio.ByteBuffer;
 import java.util.Collections;
 
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
+import javax.management.ObjectName;
 import org.terracotta.exception.EntityNotFoundException;
 import org.terracotta.exception.EntityServerUncaughtException;
 
@@ -83,8 +87,17 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
   private final Logger logger;
   
   private final ClientMessageChannel channel;
-  private final ConcurrentMap<TransactionID, InFlightMessage> inFlightMessages;
-  private final MessagePendingCount requestTickets = new MessagePendingCount();
+  private final InFlightTable inFlightMessages;
+  private final RequestPermits requestTickets = new RequestPermits(ClientConfigurationContext.MAX_PENDING_REQUESTS);
+  // asynchronous invokes which found the window full, sent in order as permits come free
+  private final ConcurrentLinkedQueue<InFlightMessage> waitingForPermit = new ConcurrentLinkedQueue<>();
+  // only while connected to a server which decodes multi-messages
+  private volatile InvokeBatcher invokeBatcher;
+  // only a server which advertised it decodes the deadline of an invoke
+  private volatile boolean invokeDeadlines;
+  private final InvokeLatency invokeLatency = ClientConfigurationContext.RECORD_REQUEST_LATENCY ? new InvokeLatency() : null;
+  private final ObjectName invokeLatencyName = (invokeLatency != null) ? invokeLatency.registerMBean() : null;
+  private final ResendPayloadStore resendStore;
   private final AtomicLong currentTransactionID;
 
   private final ClientEntityStateManager stateManager;
@@ -103,13 +116,17 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     
     this.channel = channel;
 
-    this.inFlightMessages = new ConcurrentHashMap<>();
+    this.inFlightMessages = new InFlightTable(ClientConfigurationContext.MAX_PENDING_REQUESTS);
     this.currentTransactionID = new AtomicLong();
     this.stateManager = new ClientEntityStateManager();
     this.objectStoreMap = new ConcurrentHashMap<>(10240, 0.75f, 128);
     this.stages = mgr;
       
     this.reconnectable = channel.getProductId().isReconnectEnabled();
+    // only a client which can reconnect ever resends, so only it needs to keep payloads after the send
+    this.resendStore = (reconnectable && ClientConfigurationContext.RESEND_OFFHEAP_MAX_BYTES >= ClientConfigurationContext.RESEND_OFFHEAP_SEGMENT_BYTES)
+        ? new ResendPayloadStore(ClientConfigurationContext.RESEND_OFFHEAP_MAX_BYTES, ClientConfigurationContext.RESEND_OFFHEAP_SEGMENT_BYTES, ClientConfigurationContext.RESEND_OFFHEAP_MIN_PAYLOAD)
+        : null;
   }
   
   public boolean checkBusy() {
@@ -120,36 +137,47 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     }
   } 
   
-  private synchronized boolean enqueueMessage(InFlightMessage msg, long timeout, TimeUnit unit, boolean waitUntilRunning) throws TimeoutException {
-    boolean enqueued = true;
-    boolean interrupted = false;
+  private boolean enqueueMessage(InFlightMessage msg, long timeout, TimeUnit unit, boolean waitUntilRunning) throws TimeoutException {
     long end = (timeout > 0) ? System.nanoTime() + unit.toNanos(timeout) : 0;
- //  stop drains the permits so even if asked to not waitUntilRunning, stop is still checked
-    while ((waitUntilRunning && !this.stateManager.isRunning()) || !requestTickets.messagePendingSlotAvailable()) {
-      try {
-        if (!this.stateManager.isShutdown()) {
-          long timing = (end > 0) ? end - System.nanoTime() : 0;
-          if (timing < 0) {
-            throw new TimeoutException();
-          } else {
-            wait(timing / TimeUnit.MILLISECONDS.toNanos(1), (int)(timing % TimeUnit.MILLISECONDS.toNanos(1))); 
-          }
-        } else {
-          enqueued = false;
-          break;
-        }
-      } catch (InterruptedException ie) {
-        interrupted = true;
-      }
+ //  stop refuses the permits so even if asked to not waitUntilRunning, stop is still checked
+    if (waitUntilRunning && !waitUntilRunning(end)) {
+      return false;
     }
-    if (interrupted) {
-      Thread.currentThread().interrupt();
+    long timing = (end > 0) ? end - System.nanoTime() : 0;
+    if (end > 0 && timing <= 0) {
+      throw new TimeoutException();
+    }
+    if (requestTickets.acquire(timing, TimeUnit.NANOSECONDS)) {
+      inFlightMessages.put(msg);
+      return true;
+    } else {
+      return false;
     }
-    if (enqueued) {
-      inFlightMessages.put(msg.getTransactionID(), msg);
-      requestTickets.messagePending();
+  }
+  
+  private synchronized boolean waitUntilRunning(long end) throws TimeoutException {
+    boolean interrupted = false;
+    try {
+      while (!this.stateManager.isRunning()) {
+        if (this.stateManager.isShutdown()) {
+          return false;
+        }
+        long timing = (end > 0) ? end - System.nanoTime() : 0;
+        if (timing < 0) {
+          throw new TimeoutException();
+        }
+        try {
+          wait(timing / TimeUnit.MILLISECONDS.toNanos(1), (int)(timing % TimeUnit.MILLISECONDS.toNanos(1)));
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+      return true;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
-    return enqueued;
   }
   
   @SuppressWarnings("rawtypes")
@@ -167,6 +195,12 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
       Assert.fail("transaction " + tid + " not found. Ignoring message.");
     }
   }
+
+  @Override
+  public void creditGranted(int credit) {
+    requestTickets.grant(credit);
+    sendWaiting();
+  }
   
   @Override
   public void handleMessage(ClientInstanceID clientInstance, byte[] message) {
@@ -232,6 +266,10 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     Trace trace = Trace.newTrace(message, "ClientEntityManagerImpl.invokeActionWithTimeout");
     trace.start();
     long start = System.nanoTime();
+    if (invokeTimeout > 0) {
+      // let the server skip the invoke if it only gets to it after the caller gave up
+      message.setDeadline(start + units.toNanos(invokeTimeout));
+    }
     InFlightMessage inFlightMessage = queueInFlightMessage(message, acks, monitor, invokeTimeout, units, shouldBlockGetOnRetire, deferred);
     long timeLeft = System.nanoTime() - start - units.toNanos(invokeTimeout);
     if (timeLeft > 0) {
@@ -258,9 +296,79 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     }
   }
 
+  @Override
+  public InFlightMessage tryInvokeAction(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> requestedAcks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, byte[] payload) {
+    if (!this.stateManager.isRunning() || !requestTickets.tryAcquire()) {
+      return null;
+    }
+    NetworkVoltronEntityMessage message = createMessageWithDescriptor(eid, entityDescriptor, requiresReplication, payload, VoltronEntityMessage.Type.INVOKE_ACTION, requestedAcks);
+    InFlightMessage inFlight = createInFlightMessage(message, requestedAcks, monitor, shouldBlockGetOnRetire, deferred);
+    inFlightMessages.put(inFlight);
+    sendInFlightMessage(inFlight);
+    return inFlight;
+  }
+
+  @Override
+  public InFlightMessage invokeActionAsync(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> requestedAcks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, byte[] payload) {
+    NetworkVoltronEntityMessage message = createMessageWithDescriptor(eid, entityDescriptor, requiresReplication, payload, VoltronEntityMessage.Type.INVOKE_ACTION, requestedAcks);
+    InFlightMessage inFlight = createInFlightMessage(message, requestedAcks, monitor, shouldBlockGetOnRetire, deferred);
+    waitingForPermit.add(inFlight);
+    sendWaiting();
+    if (requestTickets.isStopped()) {
+      failWaiting();
+    }
+    return inFlight;
+  }
+
+  /**
+   * Sends the queued asynchronous invokes, oldest first, for as long as the window has room.  Called whenever an
+   * invoke is queued, a permit is released or the window is widened.
+   */
+  private void sendWaiting() {
+    if (waitingForPermit.isEmpty()) {
+      // whoever queues an invoke tries to send it next, so an empty queue needs nothing
+      return;
+    }
+    synchronized (waitingForPermit) {
+      while (!waitingForPermit.isEmpty() && requestTickets.tryAcquire()) {
+        InFlightMessage inFlight = waitingForPermit.poll();
+        if (inFlight == null) {
+          requestTickets.release();
+        } else {
+          inFlightMessages.put(inFlight);
+          sendInFlightMessage(inFlight);
+        }
+      }
+    }
+  }
+
+  private void failWaiting() {
+    InFlightMessage inFlight = waitingForPermit.poll();
+    while (inFlight != null) {
+      throwClosedExceptionOnMessage(inFlight, "Connection closed before sending message");
+      inFlight = waitingForPermit.poll();
+    }
+  }
+
   @Override
   public Map<String, ?> getStateMap() {
-    return Collections.emptyMap();
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("inFlight", inFlightMessages.size());
+    map.put("maxPendingRequests", requestTickets.getSize());
+    map.put("availablePendingRequests", requestTickets.getAvailable());
+    map.put("grantedPendingRequests", requestTickets.getWindow());
+    map.put("waitingForPermit", waitingForPermit.size());
+    InvokeBatcher batcher = invokeBatcher;
+    if (batcher != null) {
+      map.put("batching", batcher.getStateMap());
+    }
+    if (invokeLatency != null) {
+      map.put("latency", invokeLatency.getStateMap());
+    }
+    if (resendStore != null) {
+      map.put("resendStore", resendStore.getStateMap());
+    }
+    return map;
   }
 
   @Override
@@ -308,10 +416,8 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     InFlightMessage inFlight = inFlightMessages.remove(id);
     if (inFlight != null) {
       inFlight.retired();
-      synchronized (this) {
-        requestTickets.messageRetired();
-        notify();
-      }
+      requestTickets.release();
+      sendWaiting();
     } else {
    // resend result or stop
     }
@@ -322,6 +428,19 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     stateManager.pause();
   }
 
+  @Override
+  public void handshakeAcknowledged(ClientHandshakeAckMessage handshakeAck) {
+    // the server may be an older one after a failover, so this is decided again on every handshake
+    if (ClientConfigurationContext.MAX_BATCHED_REQUESTS > 1 && handshakeAck.isMultiMessageSupported()) {
+      if (invokeBatcher == null) {
+        invokeBatcher = new InvokeBatcher(channel, ClientConfigurationContext.MAX_BATCHED_REQUESTS);
+      }
+    } else {
+      invokeBatcher = null;
+    }
+    invokeDeadlines = handshakeAck.isInvokeDeadlineSupported();
+  }
+
   @Override
   public synchronized void unpause() {
     stateManager.running();
@@ -349,7 +468,7 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     responderMulti.getSink().addToSink(flush);
     flush.waitForAccess();
     // Walk the inFlightMessages, adding them all to the handshake, since we need them to be replayed.
-    for (InFlightMessage inFlight : this.inFlightMessages.values()) {
+    this.inFlightMessages.forEach(inFlight -> {
       VoltronEntityMessage message = inFlight.getMessage();
 //  validate the locking on release and destroy on resends
 
@@ -357,7 +476,7 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
           message.getEntityDescriptor(), message.getVoltronType(), message.doesRequireReplication(), message.getExtendedData(), 
           message.getOldestTransactionOnClient());
       handshakeMessage.addResendMessage(packaged);
-    }
+    });
   }
 
   @Override
@@ -372,9 +491,8 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
         notifyAll();
       }
     }
-    for (InFlightMessage msg : inFlightMessages.values()) {
-      throwClosedExceptionOnMessage(msg, "Connection closed under in-flight message");
-    }
+    inFlightMessages.forEach(msg -> throwClosedExceptionOnMessage(msg, "Connection closed under in-flight message"));
+    failWaiting();
     // We also want to notify any end-points that they have been disconnected.
     for(EntityClientEndpointImpl<?, ?> endpoint : this.objectStoreMap.values()) {
       try {
@@ -385,6 +503,9 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
       }
     }
     this.endpointCloser.shutdownNow(); // ignore the return.  nothing we can do
+    if (invokeLatencyName != null) {
+      InvokeLatency.unregisterMBean(invokeLatencyName);
+    }
     // And then drop them.
     this.objectStoreMap.clear();
   }
@@ -505,26 +626,50 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
   }
 
   private InFlightMessage queueInFlightMessage(NetworkVoltronEntityMessage message, Set<VoltronEntityMessage.Acks> requestedAcks, InFlightMonitor monitor, long timeout, TimeUnit units, boolean shouldBlockGetOnRetire, boolean isDeferred) throws TimeoutException {
-    InFlightMessage inFlight = new InFlightMessage(message.getEntityID(), message, requestedAcks, monitor, shouldBlockGetOnRetire, isDeferred);
+    InFlightMessage inFlight = createInFlightMessage(message, requestedAcks, monitor, shouldBlockGetOnRetire, isDeferred);
     
     // NOTE:  If we are already stop, the handler in outbound will fail this message for us.
         if(enqueueMessage(inFlight, timeout, units, inFlight.getMessage().getVoltronType() != VoltronEntityMessage.Type.INVOKE_ACTION)) {
-          inFlight.sent();
-          if (inFlight.send()) {
+          if (sendInFlightMessage(inFlight)) {
 //  when encountering a send for anything other than an invoke, wait here before sending anything else
 //  this is a bit paranoid but it is to prevent too many resends of lifecycle operations.  Just
 //  make sure those complete before sending any new invokes or lifecycle messages
             if (inFlight.getMessage().getVoltronType() != VoltronEntityMessage.Type.INVOKE_ACTION) {
               inFlight.waitForAcks();
             }
-          } else {
-            logger.debug("message not sent.  Make sure resend happens " + inFlight);
           }
         } else {
           throwClosedExceptionOnMessage(inFlight, "Connection closed before sending message");
         }
         return inFlight;
   }
+  
+  private InFlightMessage createInFlightMessage(NetworkVoltronEntityMessage message, Set<VoltronEntityMessage.Acks> requestedAcks, InFlightMonitor monitor, boolean shouldBlockGetOnRetire, boolean isDeferred) {
+    InFlightMessage inFlight = new InFlightMessage(message.getEntityID(), message, requestedAcks, monitor, shouldBlockGetOnRetire, isDeferred);
+    if (invokeLatency != null) {
+      inFlight.recordLatency(invokeLatency);
+    }
+    if (resendStore != null) {
+      inFlight.retainPayloadIn(resendStore);
+    }
+    return inFlight;
+  }
+
+  private boolean sendInFlightMessage(InFlightMessage inFlight) {
+    if (!invokeDeadlines && inFlight.getMessage().getDeadline() != 0) {
+      // the invoke may have been created before a failover to an older server
+      ((NetworkVoltronEntityMessage)inFlight.getMessage()).setDeadline(0);
+    }
+    inFlight.sent();
+    InvokeBatcher batcher = invokeBatcher;
+    boolean batch = batcher != null && inFlight.getMessage().getVoltronType() == VoltronEntityMessage.Type.INVOKE_ACTION;
+    if (batch ? inFlight.send(batcher::send) : inFlight.send()) {
+      return true;
+    } else {
+      logger.debug("message not sent.  Make sure resend happens " + inFlight);
+      return false;
+    }
+  }
 
   private NetworkVoltronEntityMessage createMessageWithoutClientInstance(EntityID entityID, long version, boolean requiresReplication, byte[] config, VoltronEntityMessage.Type type, Set<VoltronEntityMessage.Acks> acks) {
     // We have no client instance for a create but the request currently requires a full descriptor.
@@ -541,12 +686,7 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
     TransactionID oldestTransactionPending = transactionID;
     // if reconnectable, discover the oldest transaction still being waited for
     if (reconnectable) {
-      for (TransactionID pendingID : this.inFlightMessages.keySet()) {
-        if (oldestTransactionPending.compareTo(pendingID) > 0) {
-          // pendingID is earlier than oldestTransactionPending.
-          oldestTransactionPending = pendingID;
-        }
-      }
+      oldestTransactionPending = this.inFlightMessages.oldest(transactionID);
     }
     // Create the message and populate it.
     NetworkVoltronEntityMessage message = (NetworkVoltronEntityMessage) channel.createMessage(TCMessageType.VOLTRON_ENTITY_MESSAGE);
@@ -656,6 +796,25 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
       throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public int getOperationCount() {
+      return 0;
+    }
+
+    @Override
+    public long getCreationTime() {
+      return 0;
+    }
+
+    @Override
+    public void setCredit(int credit) {
+    }
+
+    @Override
+    public int getCredit() {
+      return -1;
+    }
+
     public synchronized void waitForAccess() {
       boolean interrupted = false;
       while (!accessed) {
@@ -670,28 +829,4 @@ public class ClientEntityManagerImpl implements ClientEntityManager {
       }
     }
   }
-  
-  private static class MessagePendingCount {
-    private int messagesPending = ClientConfigurationContext.MAX_PENDING_REQUESTS;
-  
-    // synchronized by caller
-    private int messagePending() {
-      Assert.assertTrue(messagesPending > 0);
-      return --messagesPending;
-    }
-
-    // synchronized by caller
-    private int messageRetired() {
-      Assert.assertTrue(messagesPending < ClientConfigurationContext.MAX_PENDING_REQUESTS);
-      return ++messagesPending;
-    }
-    
-    private boolean messagePendingSlotAvailable() {
-      return messagesPending > 0;
-    }
-    
-    private void stop() {
-      messagesPending = 0;
-    }
-  }
 }
@@ -35,6 +35,8 @@ import org.terracotta.exception.EntityException;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -42,6 +44,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.terracotta.entity.InvokeMonitor;
 
 
@@ -124,7 +127,7 @@ public class EntityClientEndpointImpl<M extends EntityMessage, R extends EntityR
     return new InvocationBuilderImpl();
   }
 
-  private class InvocationBuilderImpl implements InvocationBuilder<M, R> {
+  private class InvocationBuilderImpl implements AsyncInvocationBuilder<M, R> {
     private boolean invoked = false;
     private M request;
     private final Set<VoltronEntityMessage.Acks> acks = EnumSet.noneOf(VoltronEntityMessage.Acks.class);
@@ -247,6 +250,22 @@ public class EntityClientEndpointImpl<M extends EntityMessage, R extends EntityR
       
     }
 
+    @Override
+    public synchronized CompletionStage<R> invokeAsync() throws MessageCodecException {
+      checkInvoked();
+      invoked = true;
+      InFlightMonitor<R> ifm = (this.monitor != null) ? new InFlightMonitor<>(codec, this.monitor, executor) : null;
+      CompletionStage<byte[]> raw = invocationHandler.invokeActionAsync(entityID, invokeDescriptor, this.acks, ifm, this.requiresReplication, this.shouldBlockGetOnRetire, this.deferred, codec.encodeMessage(request)).getCompletionStage();
+      Function<byte[], R> decode = response -> {
+        try {
+          return codec.decodeResponse(response);
+        } catch (MessageCodecException e) {
+          throw new CompletionException(e);
+        }
+      };
+      return (this.executor != null) ? raw.thenApplyAsync(decode, this.executor) : raw.thenApply(decode);
+    }
+
     private void checkInvoked() {
       if (invoked) {
         throw new IllegalStateException("Already invoked");
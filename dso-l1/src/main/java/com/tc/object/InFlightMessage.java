@@ -20,8 +20,11 @@ package com.tc.object;
 
 import org.terracotta.exception.EntityException;
 
+import org.terracotta.entity.EntityMessage;
+
 import com.tc.tracing.Trace;
 import com.tc.entity.VoltronEntityMessage;
+import com.tc.net.ClientID;
 import com.tc.net.protocol.tcm.TCMessage;
 import com.tc.object.tx.TransactionID;
 import com.tc.util.Assert;
@@ -30,8 +33,11 @@ import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 
 /**
@@ -41,7 +47,8 @@ import java.util.concurrent.TimeoutException;
  * make unit testing more direct.
  */
 public class InFlightMessage {
-  private final VoltronEntityMessage message;
+  // replaced by a copy without the payload once the payload has been moved to the resend store
+  private volatile VoltronEntityMessage message;
   private final EntityID eid;
   private final InFlightMonitor monitor;
   private final boolean isDeferred;
@@ -63,6 +70,17 @@ public class InFlightMessage {
   private boolean getCanComplete;
   private final boolean blockGetOnRetired;
   private final Trace trace;
+  // created on first request so blocking callers don't pay for it
+  private CompletableFuture<byte[]> completion;
+  // phase timestamps, only taken when latency is recorded
+  private InvokeLatency latency;
+  private long createdTime;
+  private long sentTime;
+  private long receivedTime;
+  private long completedTime;
+  private ResendPayloadStore resendStore;
+  private ResendPayloadStore.Payload storedPayload;
+  private boolean isRetired;
   
   public InFlightMessage(EntityID extraInfo, VoltronEntityMessage message, Set<VoltronEntityMessage.Acks> acks, InFlightMonitor monitor, boolean shouldBlockGetOnRetire, boolean isDeferred) {
     this.message = message;
@@ -81,7 +99,8 @@ public class InFlightMessage {
   }
 
   /**
-   * Used when populating the reconnect handshake.
+   * Used when populating the reconnect handshake.  If the payload was moved to the resend store, it is copied back
+   * to the heap when the returned message is asked for it.
    */
   public VoltronEntityMessage getMessage() {
     return this.message;
@@ -91,11 +110,59 @@ public class InFlightMessage {
     return this.message.getTransactionID();
   }
 
+  /**
+   * Times the phases of this message, recording them in the given latency when it retires.  Must be called before
+   * the message is sent.
+   */
+  void recordLatency(InvokeLatency latency) {
+    this.latency = latency;
+    this.createdTime = System.nanoTime();
+  }
+
+  /**
+   * Moves the payload to the given store once the message is sent, so it is only held on heap again if it has to be
+   * resent.  Must be called before the message is sent.
+   */
+  void retainPayloadIn(ResendPayloadStore store) {
+    this.resendStore = store;
+  }
+
   public boolean send() {
+    return send(m -> ((TCMessage)m).send());
+  }
+
+  /**
+   * @param sender puts the message on the wire, possibly along with others
+   */
+  public boolean send(Predicate<VoltronEntityMessage> sender) {
     Trace.activeTrace().log("InFlightMessage.send()");
     Assert.assertFalse(this.isSent);
     this.isSent = true;
-    return ((TCMessage)this.message).send();
+    if (this.latency != null) {
+      synchronized (this) {
+        this.sentTime = System.nanoTime();
+      }
+    }
+    boolean sent = sender.test(this.message);
+    if (this.resendStore != null) {
+      storePayload();
+    }
+    return sent;
+  }
+
+  private void storePayload() {
+    VoltronEntityMessage sent = this.message;
+    ResendPayloadStore.Payload payload = this.resendStore.store(sent.getExtendedData());
+    if (payload != null) {
+      synchronized (this) {
+        if (this.isRetired) {
+          payload.release();
+        } else {
+          this.storedPayload = payload;
+          this.message = new StoredPayloadMessage(sent, payload);
+        }
+      }
+    }
   }
   
   public void waitForAcks() {
@@ -132,6 +199,9 @@ public class InFlightMessage {
   }
 
   public synchronized void received() {
+    if (this.latency != null && this.receivedTime == 0) {
+      this.receivedTime = System.nanoTime();
+    }
     ackDelivered(VoltronEntityMessage.Acks.RECEIVED);
     if (this.pendingAcks.isEmpty()) {
       notifyAll();
@@ -195,8 +265,53 @@ public class InFlightMessage {
     }
   }
 
-  public synchronized void setResult(byte[] value, EntityException error) {
+  /**
+   * @return a stage completed with the same result as {@link #get()}, from the thread which delivers the result
+   */
+  public CompletionStage<byte[]> getCompletionStage() {
+    CompletableFuture<byte[]> stage;
+    synchronized (this) {
+      if (this.completion == null) {
+        this.completion = new CompletableFuture<>();
+      }
+      stage = this.completion;
+    }
+    completeStage();
+    return stage;
+  }
+
+  /**
+   * Completes the stage, if anyone asked for it, outside the lock so dependent actions can't run under it.
+   */
+  private void completeStage() {
+    CompletableFuture<byte[]> stage;
+    byte[] result;
+    EntityException error;
+    synchronized (this) {
+      if (this.completion == null || !this.getCanComplete) {
+        return;
+      }
+      stage = this.completion;
+      result = this.value;
+      error = this.exception;
+    }
+    if (error != null) {
+      stage.completeExceptionally(error);
+    } else {
+      stage.complete(result);
+    }
+  }
+
+  public void setResult(byte[] value, EntityException error) {
+    setResultInternal(value, error);
+    completeStage();
+  }
+
+  private synchronized void setResultInternal(byte[] value, EntityException error) {
     trace.log("Received Result: " + value + " ; Exception: " + (error != null ? error.getLocalizedMessage() : "None"));
+    if (this.latency != null && this.completedTime == 0) {
+      this.completedTime = System.nanoTime();
+    }
     ackDelivered(VoltronEntityMessage.Acks.RECEIVED);
     ackDelivered(VoltronEntityMessage.Acks.COMPLETED);
     if (pendingAcks.isEmpty()) {
@@ -247,8 +362,17 @@ public class InFlightMessage {
     }
   }
 
-  public synchronized void retired() {
+  public void retired() {
+    retiredInternal();
+    completeStage();
+  }
+
+  private synchronized void retiredInternal() {
     ackDelivered(VoltronEntityMessage.Acks.RETIRED);
+    this.isRetired = true;
+    if (this.storedPayload != null) {
+      this.storedPayload.release();
+    }
     if (this.blockGetOnRetired) {
       this.getCanComplete = true;
       if (message.getVoltronType() == VoltronEntityMessage.Type.INVOKE_ACTION) {
@@ -259,5 +383,78 @@ public class InFlightMessage {
     if (monitor != null) {
       monitor.close();
     }
+    if (latency != null) {
+      latency.record(eid.getClassName(), createdTime, sentTime, receivedTime, completedTime, System.nanoTime());
+    }
+  }
+
+  /**
+   * Stands in for a sent message whose payload now lives in the resend store.
+   */
+  private static class StoredPayloadMessage implements VoltronEntityMessage {
+    private final ClientID source;
+    private final TransactionID transactionID;
+    private final EntityDescriptor entityDescriptor;
+    private final Type type;
+    private final boolean requiresReplication;
+    private final boolean requestsReceived;
+    private final TransactionID oldestTransactionPending;
+    private final ResendPayloadStore.Payload payload;
+
+    StoredPayloadMessage(VoltronEntityMessage sent, ResendPayloadStore.Payload payload) {
+      this.source = sent.getSource();
+      this.transactionID = sent.getTransactionID();
+      this.entityDescriptor = sent.getEntityDescriptor();
+      this.type = sent.getVoltronType();
+      this.requiresReplication = sent.doesRequireReplication();
+      this.requestsReceived = sent.doesRequestReceived();
+      this.oldestTransactionPending = sent.getOldestTransactionOnClient();
+      this.payload = payload;
+    }
+
+    @Override
+    public ClientID getSource() {
+      return this.source;
+    }
+
+    @Override
+    public TransactionID getTransactionID() {
+      return this.transactionID;
+    }
+
+    @Override
+    public EntityDescriptor getEntityDescriptor() {
+      return this.entityDescriptor;
+    }
+
+    @Override
+    public boolean doesRequireReplication() {
+      return this.requiresReplication;
+    }
+
+    @Override
+    public boolean doesRequestReceived() {
+      return this.requestsReceived;
+    }
+
+    @Override
+    public Type getVoltronType() {
+      return this.type;
+    }
+
+    @Override
+    public byte[] getExtendedData() {
+      return this.payload.materialize();
+    }
+
+    @Override
+    public TransactionID getOldestTransactionOnClient() {
+      return this.oldestTransactionPending;
+    }
+
+    @Override
+    public EntityMessage getEntityMessage() {
+      return null;
+    }
   }
 }
@@ -0,0 +1,124 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import com.tc.object.tx.TransactionID;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * The client's in-flight messages, keyed by the raw transaction ID.  Transaction IDs are handed out in order and the
+ * number in flight is bounded, so a message normally lives in the slot of a power of two array picked by the low bits
+ * of its ID.  A message still in flight when its slot comes around again (a deferred invoke for example) is
+ * displaced to a small overflow map, so lookups on the response path cost an array read and no allocation.
+ */
+class InFlightTable {
+  private final AtomicReferenceArray<InFlightMessage> slots;
+  private final int mask;
+  private final Map<Long, InFlightMessage> overflow = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+  // no message older than this is in the table
+  private final AtomicLong oldest = new AtomicLong(Long.MAX_VALUE);
+
+  InFlightTable(int window) {
+    int capacity = Integer.highestOneBit(Math.max(2, window) * 2 - 1);
+    this.slots = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+  }
+
+  void put(InFlightMessage message) {
+    long id = message.getTransactionID().toLong();
+    if (!this.slots.compareAndSet(index(id), null, message)) {
+      this.overflow.put(id, message);
+    }
+    this.size.incrementAndGet();
+    this.oldest.accumulateAndGet(id, Math::min);
+  }
+
+  InFlightMessage get(TransactionID tid) {
+    return get(tid.toLong());
+  }
+
+  InFlightMessage get(long id) {
+    InFlightMessage message = this.slots.get(index(id));
+    if (message != null && message.getTransactionID().toLong() == id) {
+      return message;
+    }
+    return this.overflow.isEmpty() ? null : this.overflow.get(id);
+  }
+
+  InFlightMessage remove(TransactionID tid) {
+    long id = tid.toLong();
+    int index = index(id);
+    InFlightMessage message = this.slots.get(index);
+    if (message != null && message.getTransactionID().toLong() == id) {
+      if (!this.slots.compareAndSet(index, message, null)) {
+        return null;
+      }
+    } else {
+      message = this.overflow.isEmpty() ? null : this.overflow.remove(id);
+      if (message == null) {
+        return null;
+      }
+    }
+    this.size.decrementAndGet();
+    return message;
+  }
+
+  int size() {
+    return this.size.get();
+  }
+
+  /**
+   * @return the oldest transaction in flight, or the given transaction if none older is
+   */
+  TransactionID oldest(TransactionID current) {
+    long limit = current.toLong();
+    long id = this.oldest.get();
+    // IDs only grow so the scan forward is amortized over all the messages sent
+    while (id < limit && get(id) == null) {
+      if (this.oldest.compareAndSet(id, id + 1)) {
+        if (get(id) != null) {
+          // put concurrently with the move past it
+          this.oldest.accumulateAndGet(id, Math::min);
+        }
+      }
+      id = this.oldest.get();
+    }
+    return (id < limit) ? new TransactionID(id) : current;
+  }
+
+  void forEach(Consumer<InFlightMessage> action) {
+    for (int x = 0; x < this.slots.length(); x++) {
+      InFlightMessage message = this.slots.get(x);
+      if (message != null) {
+        action.accept(message);
+      }
+    }
+    this.overflow.values().forEach(action);
+  }
+
+  private int index(long id) {
+    return (int) id & this.mask;
+  }
+}
@@ -31,5 +31,20 @@ import java.util.concurrent.TimeoutException;
  */
 public interface InvocationHandler {
   InFlightMessage invokeAction(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, byte[] payload);
+  /**
+   * Sends the invoke only if there is room in the window of in-flight requests, without waiting for room or for any
+   * acks.
+   * 
+   * @return the in-flight invoke or null if the window is full or the connection is not running
+   */
+  InFlightMessage tryInvokeAction(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, byte[] payload);
+  /**
+   * Queues the invoke without waiting for room in the window of in-flight requests or for any acks.  The invoke is sent
+   * as soon as the window has room, in the order invokes were queued, and the result is delivered through
+   * {@link InFlightMessage#getCompletionStage()}.
+   * 
+   * @return the in-flight invoke, which may not have been sent yet
+   */
+  InFlightMessage invokeActionAsync(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, byte[] payload);
   InFlightMessage invokeActionWithTimeout(EntityID eid, EntityDescriptor entityDescriptor, Set<VoltronEntityMessage.Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean deferred, long invokeTimeout, TimeUnit units, byte[] payload) throws InterruptedException, TimeoutException;
 }
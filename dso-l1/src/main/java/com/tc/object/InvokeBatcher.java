@@ -0,0 +1,133 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import com.tc.entity.NetworkVoltronEntityMessage;
+import com.tc.entity.VoltronEntityMessage;
+import com.tc.entity.VoltronEntityMultiMessage;
+import com.tc.net.protocol.tcm.MessageChannel;
+import com.tc.net.protocol.tcm.TCMessageType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces invokes sent on one channel.  Sending threads take turns writing one frame each from the head of the
+ * queue, so everything queued while the previous frame was being written goes out in one
+ * {@link VoltronEntityMultiMessage}.  A thread only takes turns until a frame has carried its own message, so the work
+ * it does is bounded by what was queued ahead of it, however fast others queue behind it.  A message that finds the
+ * queue otherwise empty is sent on its own, as before, so a lone invoke is not delayed.
+ */
+class InvokeBatcher {
+  private final MessageChannel channel;
+  private final int maxBatch;
+  private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+  private final ReentrantLock sending = new ReentrantLock();
+  private final LongAdder singles = new LongAdder();
+  private final LongAdder batches = new LongAdder();
+  private final LongAdder batched = new LongAdder();
+
+  InvokeBatcher(MessageChannel channel, int maxBatch) {
+    this.channel = channel;
+    this.maxBatch = maxBatch;
+  }
+
+  /**
+   * Returns once a frame carrying the message has been written, by this thread or another.
+   * 
+   * @return false if the frame carrying the message failed to send
+   */
+  boolean send(VoltronEntityMessage message) {
+    Pending pending = new Pending((NetworkVoltronEntityMessage)message);
+    queue.add(pending);
+    while (!pending.done) {
+      sending.lock();
+      try {
+        if (!pending.done) {
+          sendFrame();
+        }
+      } finally {
+        sending.unlock();
+      }
+    }
+    return pending.sent;
+  }
+
+  /**
+   * Writes one frame from the head of the queue.  Only called with the turn held and the caller's own message still
+   * queued, so the queue is not empty.
+   */
+  private void sendFrame() {
+    List<Pending> frame = new ArrayList<>();
+    frame.add(queue.poll());
+    Pending next = queue.poll();
+    boolean sent = false;
+    try {
+      if (next == null) {
+        singles.increment();
+        sent = frame.get(0).message.send();
+      } else {
+        VoltronEntityMultiMessage batch = (VoltronEntityMultiMessage)channel.createMessage(TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE);
+        batch.addMessage(frame.get(0).message);
+        do {
+          frame.add(next);
+          batch.addMessage(next.message);
+        } while (frame.size() < maxBatch && (next = queue.poll()) != null);
+        batches.increment();
+        batched.add(frame.size());
+        sent = batch.send();
+      }
+    } finally {
+      // taken off the queue, so whatever happened the owners must stop waiting on them
+      for (Pending carried : frame) {
+        carried.complete(sent);
+      }
+    }
+  }
+
+  Map<String, Object> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("maxBatch", maxBatch);
+    map.put("singleSends", singles.sum());
+    map.put("batchSends", batches.sum());
+    map.put("batchedMessages", batched.sum());
+    map.put("queued", queue.size());
+    return map;
+  }
+
+  private static class Pending {
+    private final NetworkVoltronEntityMessage message;
+    private volatile boolean sent;
+    private volatile boolean done;
+
+    Pending(NetworkVoltronEntityMessage message) {
+      this.message = message;
+    }
+
+    void complete(boolean wasSent) {
+      this.sent = wasSent;
+      this.done = true;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import com.tc.management.TerracottaManagement;
+import com.tc.stats.PowerOfTwoHistogram;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency of requests by entity type, split into the phases of a request's life on the client, each kept as a
+ * histogram in power of two buckets of microseconds:
+ * <ul>
+ * <li>SEND: from creation until it is handed to the transport, including any wait for a free request permit</li>
+ * <li>RECEIVED: from the send until the server acknowledges receipt, network time plus ordering on the server</li>
+ * <li>COMPLETED: from receipt, or the send if receipt was not requested, until the result arrives</li>
+ * <li>RETIRED: from the result until the server retires the request, mostly waiting on passives</li>
+ * <li>TOTAL: from creation until retirement</li>
+ * </ul>
+ * It is published as a {@link RequestLatencyMBean} as well as in the entity manager's state dump.
+ */
+class InvokeLatency implements RequestLatencyMBean {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InvokeLatency.class);
+  private static final int BUCKETS = 40;
+  // tells apart the beans of the connections in one JVM
+  private static final AtomicInteger MBEAN_COUNT = new AtomicInteger();
+
+  enum Phase {
+    SEND, RECEIVED, COMPLETED, RETIRED, TOTAL
+  }
+
+  private final Map<String, Histograms> types = new ConcurrentHashMap<>();
+
+  /**
+   * Records one retired request.  A time of 0 means the request skipped that point.
+   */
+  void record(String entityType, long created, long sent, long received, long completed, long retired) {
+    Histograms histograms = types.computeIfAbsent(entityType, t -> new Histograms());
+    if (sent > 0) {
+      histograms.add(Phase.SEND, sent - created);
+      if (received > 0) {
+        histograms.add(Phase.RECEIVED, received - sent);
+      }
+      if (completed > 0) {
+        histograms.add(Phase.COMPLETED, completed - (received > 0 ? received : sent));
+      }
+    }
+    if (completed > 0) {
+      histograms.add(Phase.RETIRED, retired - completed);
+    }
+    histograms.add(Phase.TOTAL, retired - created);
+  }
+
+  @Override
+  public Map<String, String> getLatencyByEntityType() {
+    Map<String, String> map = new TreeMap<>();
+    for (Map.Entry<String, Histograms> e : types.entrySet()) {
+      map.put(e.getKey(), e.getValue().getStateMap().toString());
+    }
+    return map;
+  }
+
+  /**
+   * @return the name this was registered under, null if it couldn't be registered
+   */
+  ObjectName registerMBean() {
+    try {
+      ObjectName name = TerracottaManagement.createObjectName(TerracottaManagement.Type.Client, "RequestLatency-" + MBEAN_COUNT.incrementAndGet(), TerracottaManagement.MBeanDomain.PUBLIC);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, RequestLatencyMBean.class), name);
+      return name;
+    } catch (Exception e) {
+      LOGGER.warn("Request latency MBean not initialized", e);
+      return null;
+    }
+  }
+
+  static void unregisterMBean(ObjectName name) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    } catch (Exception e) {
+      LOGGER.debug("unable to unregister " + name, e);
+    }
+  }
+
+  Map<String, Object> getStateMap() {
+    Map<String, Object> map = new TreeMap<>();
+    for (Map.Entry<String, Histograms> e : types.entrySet()) {
+      map.put(e.getKey(), e.getValue().getStateMap());
+    }
+    return map;
+  }
+
+  private static class Histograms {
+    private final Map<Phase, PowerOfTwoHistogram> phases = new EnumMap<>(Phase.class);
+
+    Histograms() {
+      for (Phase p : Phase.values()) {
+        phases.put(p, new PowerOfTwoHistogram(BUCKETS));
+      }
+    }
+
+    void add(Phase phase, long nanos) {
+      phases.get(phase).add(TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    Map<String, Object> getStateMap() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      for (Map.Entry<Phase, PowerOfTwoHistogram> e : phases.entrySet()) {
+        PowerOfTwoHistogram histogram = e.getValue();
+        if (histogram.getCount() > 0) {
+          Map<String, Object> phase = new LinkedHashMap<>();
+          phase.put("count", histogram.getCount());
+          phase.put("meanMicros", histogram.getMean());
+          phase.put("p50Micros", histogram.percentile(0.5));
+          phase.put("p99Micros", histogram.percentile(0.99));
+          phase.put("maxMicros", histogram.getMaximum());
+          phase.put("histogramMicros", histogram.getBuckets());
+          map.put(e.getKey().name(), phase);
+        }
+      }
+      return map;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.util.Map;
+
+
+/**
+ * The request latency a client records when client.requests.latency.enabled is set, one bean per connection.
+ */
+public interface RequestLatencyMBean {
+  /**
+   * the count, mean, percentiles, maximum and histogram, in microseconds, of each phase of the requests to each type
+   * of entity: SEND, RECEIVED, COMPLETED, RETIRED and TOTAL.
+   *
+   * @return a description of the phases keyed by entity type
+   */
+  Map<String, String> getLatencyByEntityType();
+}
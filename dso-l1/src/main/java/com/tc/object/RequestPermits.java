@@ -0,0 +1,156 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The window of requests a client may have in flight.  Each request holds a permit from the time it is queued until it
+ * is retired.  Waiters are queued fairly, in arrival order, and acquiring or releasing a permit does not contend on the
+ * entity manager's monitor.
+ * 
+ * The server may narrow the window below its size with a credit grant, and widen it again up to the size.  A narrowed
+ * window takes effect as requests already in flight retire.
+ * 
+ * Stopping the window wakes every waiter and refuses all further acquires.
+ */
+class RequestPermits {
+  private final int size;
+  private final Permits permits;
+  private volatile boolean stopped;
+  private int window;
+
+  RequestPermits(int size) {
+    this.size = size;
+    this.window = size;
+    this.permits = new Permits(size);
+  }
+
+  /**
+   * @return true if a permit was taken, false if the window is full or stopped
+   */
+  boolean tryAcquire() {
+    return !stopped && permits.tryAcquire() && checkRunning();
+  }
+
+  /**
+   * Waits for a permit, ignoring interrupts but preserving the interrupted status of the thread.
+   * 
+   * @param timeout the longest time to wait, 0 to wait until a permit is free
+   * @return true if a permit was taken, false if the window was stopped
+   * @throws TimeoutException if no permit became free in time
+   */
+  boolean acquire(long timeout, TimeUnit unit) throws TimeoutException {
+    if (stopped) {
+      return false;
+    }
+    if (timeout <= 0) {
+      permits.acquireUninterruptibly();
+      return checkRunning();
+    }
+    boolean interrupted = false;
+    long end = System.nanoTime() + unit.toNanos(timeout);
+    try {
+      while (true) {
+        try {
+          if (permits.tryAcquire(end - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return checkRunning();
+          } else if (stopped) {
+            return false;
+          } else {
+            throw new TimeoutException();
+          }
+        } catch (InterruptedException ie) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  void release() {
+    permits.release();
+  }
+
+  /**
+   * Resizes the window to the credit granted by the server, held between 1 and the size of the window.
+   */
+  synchronized void grant(int credit) {
+    if (stopped) {
+      return;
+    }
+    int target = Math.max(1, Math.min(size, credit));
+    int delta = target - window;
+    if (delta > 0) {
+      permits.release(delta);
+    } else if (delta < 0) {
+      permits.reducePermits(-delta);
+    }
+    window = target;
+  }
+
+  synchronized int getWindow() {
+    return window;
+  }
+
+  synchronized void stop() {
+    stopped = true;
+    // A narrowed window can leave the count negative with requests in flight, so hand back the whole size plus the
+    // narrowing.  That leaves at least one permit whatever is in flight:  the waiters wake and each passes it on.
+    permits.release(size + (size - window));
+  }
+
+  boolean isStopped() {
+    return stopped;
+  }
+
+  int getSize() {
+    return size;
+  }
+
+  int getAvailable() {
+    return stopped ? 0 : Math.max(0, permits.availablePermits());
+  }
+
+  private boolean checkRunning() {
+    if (stopped) {
+      permits.release();
+      return false;
+    }
+    return true;
+  }
+
+  private static class Permits extends Semaphore {
+    private static final long serialVersionUID = 1L;
+
+    Permits(int size) {
+      super(size, true);
+    }
+
+    @Override
+    protected void reducePermits(int reduction) {
+      super.reducePermits(reduction);
+    }
+  }
+}
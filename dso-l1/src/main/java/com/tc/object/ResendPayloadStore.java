@@ -0,0 +1,192 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the payloads of sent but unretired requests in direct memory, so a reconnect-enabled client does not hold
+ * them on heap just in case it has to resend them.
+ * <p>
+ * Payloads are appended to fixed-size segments.  Each segment counts the payloads still live in it and goes back on
+ * the free list once all of them are released, so a single long-running request pins at most one segment.  When the
+ * payload is bigger than a segment, or every segment allowed by the budget is in use, the store refuses it and the
+ * caller keeps the payload on heap.
+ */
+class ResendPayloadStore {
+  private final int segmentSize;
+  private final int maxSegments;
+  private final int minPayload;
+  private final Deque<Segment> free = new ArrayDeque<>();
+  private int allocated;
+  private Segment current;
+  private long liveBytes;
+  private long stored;
+  private long refused;
+
+  /**
+   * @param minPayload payloads smaller than this are cheaper to leave on heap than to track here
+   */
+  ResendPayloadStore(long maxBytes, int segmentSize, int minPayload) {
+    this.segmentSize = segmentSize;
+    this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentSize);
+    this.minPayload = minPayload;
+  }
+
+  /**
+   * @return a handle to the stored copy of the payload, or null if it must stay on heap
+   */
+  Payload store(byte[] payload) {
+    if (payload.length < minPayload) {
+      return null;
+    }
+    Payload handle = reserve(payload.length);
+    if (handle != null) {
+      // the reserved range belongs to this handle alone so the copy can be made outside the lock
+      ByteBuffer target = handle.segment.buffer.duplicate();
+      target.position(handle.offset);
+      target.put(payload);
+    }
+    return handle;
+  }
+
+  private synchronized Payload reserve(int length) {
+    if (length > segmentSize) {
+      refused += 1;
+      return null;
+    }
+    if (current == null || segmentSize - current.used < length) {
+      Segment next = nextSegment();
+      if (next == null) {
+        refused += 1;
+        return null;
+      }
+      if (current != null && current.live == 0) {
+        recycle(current);
+      }
+      current = next;
+    }
+    Payload handle = new Payload(this, current, current.used, length);
+    current.used += length;
+    current.live += 1;
+    liveBytes += length;
+    stored += 1;
+    return handle;
+  }
+
+  private Segment nextSegment() {
+    if (!free.isEmpty()) {
+      return free.pop();
+    } else if (allocated < maxSegments) {
+      allocated += 1;
+      return new Segment(ByteBuffer.allocateDirect(segmentSize));
+    } else {
+      return null;
+    }
+  }
+
+  private void recycle(Segment segment) {
+    segment.used = 0;
+    free.push(segment);
+  }
+
+  private synchronized byte[] read(Payload handle) {
+    if (handle.released) {
+      throw new IllegalStateException("payload already released");
+    }
+    byte[] data = new byte[handle.length];
+    ByteBuffer source = handle.segment.buffer.duplicate();
+    source.position(handle.offset);
+    source.get(data);
+    return data;
+  }
+
+  private synchronized void release(Payload handle) {
+    if (handle.released) {
+      return;
+    }
+    handle.released = true;
+    Segment segment = handle.segment;
+    segment.live -= 1;
+    liveBytes -= handle.length;
+    if (segment.live == 0) {
+      if (segment == current) {
+        segment.used = 0;
+      } else {
+        recycle(segment);
+      }
+    }
+  }
+
+  synchronized Map<String, Object> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("segmentSize", segmentSize);
+    map.put("maxSegments", maxSegments);
+    map.put("minPayload", minPayload);
+    map.put("allocatedSegments", allocated);
+    map.put("freeSegments", free.size());
+    map.put("liveBytes", liveBytes);
+    map.put("stored", stored);
+    map.put("refused", refused);
+    return map;
+  }
+
+  private static class Segment {
+    private final ByteBuffer buffer;
+    private int used;
+    private int live;
+
+    Segment(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+
+  /**
+   * A payload held by the store.  It must be released exactly once, when its request retires.
+   */
+  static class Payload {
+    private final ResendPayloadStore store;
+    private final Segment segment;
+    private final int offset;
+    private final int length;
+    private boolean released;
+
+    private Payload(ResendPayloadStore store, Segment segment, int offset, int length) {
+      this.store = store;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * @return a fresh heap copy of the payload
+     */
+    byte[] materialize() {
+      return store.read(this);
+    }
+
+    void release() {
+      store.release(this);
+    }
+  }
+}
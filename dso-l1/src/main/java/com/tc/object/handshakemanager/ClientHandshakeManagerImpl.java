@@ -21,7 +21,6 @@ package com.tc.object.handshakemanager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.tc.net.ClientID;
 import com.tc.object.msg.ClientHandshakeAckMessage;
 import com.tc.object.msg.ClientHandshakeMessage;
 import com.tc.object.msg.ClientHandshakeMessageFactory;
@@ -159,23 +158,19 @@ public class ClientHandshakeManagerImpl implements ClientHandshakeManager {
   }
 
   @Override
-  public void acknowledgeHandshake(ClientHandshakeAckMessage handshakeAck) {
-    acknowledgeHandshake(handshakeAck.getThisNodeId(), handshakeAck.getAllNodes(),
-        handshakeAck.getServerVersion());
-  }
-
-  protected synchronized void acknowledgeHandshake(ClientID thisNodeId, ClientID[] clusterMembers, String serverVersion) {
+  public synchronized void acknowledgeHandshake(ClientHandshakeAckMessage handshakeAck) {
     this.logger.debug("Received Handshake ack");
     if (this.state != State.STARTING) {
       this.logger.warn("Ignoring handshake acknowledgement while " + this.state);
     } else {
-      checkClientServerVersionCompatibility(serverVersion);
+      checkClientServerVersionCompatibility(handshakeAck.getServerVersion());
 
       changeToRunning();
       notifyAll();
+      this.callBacks.handshakeAcknowledged(handshakeAck);
       unpauseCallbacks();
 
-      clusterEventsGun.fireThisNodeJoined(thisNodeId, clusterMembers);
+      clusterEventsGun.fireThisNodeJoined(handshakeAck.getThisNodeId(), handshakeAck.getAllNodes());
     }
   }
 
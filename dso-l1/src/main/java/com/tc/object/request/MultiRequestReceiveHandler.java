@@ -65,5 +65,9 @@ public class MultiRequestReceiveHandler extends AbstractEventHandler<VoltronEnti
         handler.handleMessage(tid, message);
       }
     });
+    int credit = response.getCredit();
+    if (credit >= 0) {
+      handler.creditGranted(credit);
+    }
   }
 }
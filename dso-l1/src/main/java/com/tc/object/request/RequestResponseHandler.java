@@ -75,4 +75,10 @@ public interface RequestResponseHandler {
    * @param message opaque message
    */
   void handleMessage(TransactionID transaction, byte[] message);
+  /**
+   * Called when the server grants a new window of requests this client may have in flight.
+   *
+   * @param credit the number of requests
+   */
+  void creditGranted(int credit);
 }
@@ -30,6 +30,7 @@ import com.tc.object.EntityDescriptor;
 import com.tc.object.EntityID;
 import com.tc.object.InFlightMessage;
 import com.tc.object.InFlightMonitor;
+import com.tc.object.msg.ClientHandshakeAckMessage;
 import com.tc.object.msg.ClientHandshakeMessage;
 import com.tc.object.tx.TransactionID;
 import com.tc.text.PrettyPrinter;
@@ -75,6 +76,11 @@ public class DiagnosticClientEntityManager implements ClientEntityManager {
   @Override
   public void handleMessage(TransactionID entityDescriptor, byte[] message) {
 
+  }
+
+  @Override
+  public void creditGranted(int credit) {
+
   }
   
   @Override
@@ -137,6 +143,11 @@ public class DiagnosticClientEntityManager implements ClientEntityManager {
 
   }
 
+  @Override
+  public void handshakeAcknowledged(ClientHandshakeAckMessage handshakeAck) {
+
+  }
+
   @Override
   public void shutdown(boolean fromShutdownHook) {
 
@@ -151,6 +162,27 @@ public class DiagnosticClientEntityManager implements ClientEntityManager {
     return message;
   }
 
+  @Override
+  public InFlightMessage tryInvokeAction(EntityID eid, EntityDescriptor entityDescriptor, Set<Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean defer, byte[] payload) {
+    // there is no window of requests here, so only a channel which can't take the message turns it away
+    if (!channel.isConnected()) {
+      return null;
+    }
+    DiagnosticMessage network = createMessage(payload);
+    InFlightMessage message = new InFlightMessage(eid, network, Collections.<Acks>emptySet(), null, false, false);
+    waitingForAnswer.put(network.getTransactionID(), message);
+    if (!network.send()) {
+      waitingForAnswer.remove(network.getTransactionID());
+      return null;
+    }
+    return message;
+  }
+
+  @Override
+  public InFlightMessage invokeActionAsync(EntityID eid, EntityDescriptor entityDescriptor, Set<Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean defer, byte[] payload) {
+    return invokeAction(eid, entityDescriptor, acks, monitor, false, false, false, payload);
+  }
+
   @Override
   public InFlightMessage invokeActionWithTimeout(EntityID eid, EntityDescriptor entityDescriptor, Set<Acks> acks, InFlightMonitor monitor, boolean requiresReplication, boolean shouldBlockGetOnRetire, boolean defer, long invokeTimeout, TimeUnit units, byte[] payload) throws InterruptedException, TimeoutException {
     return invokeAction(eid, entityDescriptor, acks, monitor, false, false, false, payload);
@@ -44,6 +44,7 @@ import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.TCMessage;
 import com.tc.net.protocol.tcm.TCMessageType;
 import com.tc.net.protocol.tcm.UnknownNameException;
+import com.tc.object.msg.ClientHandshakeAckMessage;
 import com.tc.object.session.SessionID;
 import com.tc.object.tx.TransactionID;
 import com.tc.stats.Stats;
@@ -55,6 +56,7 @@ import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -552,6 +554,53 @@ public class ClientEntityManagerTest extends TestCase {
     assertThat(t.isAlive(), is(false));
   }
 
+  @Test
+  public void testAsyncInvokeDoesNotWaitForAcks() throws Exception {
+    TestRequestBatchMessage message = new TestRequestBatchMessage(this.manager, null, null, false);
+    when(channel.createMessage(TCMessageType.VOLTRON_ENTITY_MESSAGE)).thenReturn(message);
+    EnumSet<VoltronEntityMessage.Acks> requestedAcks = EnumSet.of(VoltronEntityMessage.Acks.RECEIVED);
+    // returns without any acks, the stage completes from the result
+    CompletableFuture<byte[]> stage = this.manager.invokeActionAsync(entityID, descriptor, requestedAcks, null, false, true, false, new byte[0]).getCompletionStage().toCompletableFuture();
+    assertThat(stage.isDone(), is(false));
+
+    this.manager.received(message.getTransactionID());
+    byte[] resultObject = new byte[0];
+    message.explicitComplete(resultObject, null);
+    assertTrue(resultObject == stage.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBatchingFollowsServerSupport() throws Exception {
+    ClientHandshakeAckMessage ack = mock(ClientHandshakeAckMessage.class);
+    assertFalse(this.manager.getStateMap().containsKey("batching"));
+    when(ack.isMultiMessageSupported()).thenReturn(true);
+    this.manager.handshakeAcknowledged(ack);
+    assertTrue(this.manager.getStateMap().containsKey("batching"));
+    // reconnected to a server which doesn't decode multi-messages
+    when(ack.isMultiMessageSupported()).thenReturn(false);
+    this.manager.handshakeAcknowledged(ack);
+    assertFalse(this.manager.getStateMap().containsKey("batching"));
+  }
+
+  @Test
+  public void testDeadlineOnlySentToServerWhichAdvertisesIt() throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    TestRequestBatchMessage message = new TestRequestBatchMessage(this.manager, new byte[0], null, true);
+    message.setDeadline(deadline);
+    when(channel.createMessage(TCMessageType.VOLTRON_ENTITY_MESSAGE)).thenReturn(message);
+    this.manager.invokeAction(entityID, descriptor, Collections.<Acks>emptySet(), null, false, true, false, new byte[0]);
+    assertEquals(0, message.getDeadline());
+
+    ClientHandshakeAckMessage ack = mock(ClientHandshakeAckMessage.class);
+    when(ack.isInvokeDeadlineSupported()).thenReturn(true);
+    this.manager.handshakeAcknowledged(ack);
+    message = new TestRequestBatchMessage(this.manager, new byte[0], null, true);
+    message.setDeadline(deadline);
+    when(channel.createMessage(TCMessageType.VOLTRON_ENTITY_MESSAGE)).thenReturn(message);
+    this.manager.invokeAction(entityID, descriptor, Collections.<Acks>emptySet(), null, false, true, false, new byte[0]);
+    assertEquals(deadline, message.getDeadline());
+  }
+
   private boolean didFindEndpoint(TestFetcher fetcher) throws Exception {
     boolean didFind = false;
     try {
@@ -628,6 +677,7 @@ public class ClientEntityManagerTest extends TestCase {
     private byte[] extendedData;
     private boolean requiresReplication;
     private Type type;
+    private long deadline;
     
     public TestRequestBatchMessage(ClientEntityManager clientEntityManager, byte[] resultObject, EntityException resultException, boolean autoComplete) {
       this.clientEntityManager = clientEntityManager;
@@ -662,6 +712,16 @@ public class ClientEntityManagerTest extends TestCase {
       throw new UnsupportedOperationException();
     }
 
+    @Override
+    public void setDeadline(long deadline) {
+      this.deadline = deadline;
+    }
+
+    @Override
+    public long getDeadline() {
+      return this.deadline;
+    }
+
     @Override
     public boolean doesRequestReceived() {
       return true;
@@ -30,7 +30,9 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -70,6 +72,26 @@ public class InFlightMessageTest extends TestCase {
     }
   }
   
+  public void testPayloadMovedToResendStore() throws Exception {
+    Set<VoltronEntityMessage.Acks> acks = EnumSet.of(VoltronEntityMessage.Acks.RETIRED);
+    byte[] payload = new byte[64];
+    payload[7] = 7;
+    VoltronEntityMessage msg = mock(VoltronEntityMessage.class);
+    when(msg.getExtendedData()).thenReturn(payload);
+    when(msg.getVoltronType()).thenReturn(VoltronEntityMessage.Type.INVOKE_ACTION);
+    ResendPayloadStore store = new ResendPayloadStore(1024, 256, 0);
+    InFlightMessage inf = new InFlightMessage(mock(EntityID.class), msg, acks, null, false, false);
+    inf.retainPayloadIn(store);
+    inf.send(m -> true);
+    assertNotSame(msg, inf.getMessage());
+    assertEquals(VoltronEntityMessage.Type.INVOKE_ACTION, inf.getMessage().getVoltronType());
+    assertEquals(7, inf.getMessage().getExtendedData()[7]);
+    assertEquals(64L, store.getStateMap().get("liveBytes"));
+    inf.setResult(new byte[0], null);
+    inf.retired();
+    assertEquals(0L, store.getStateMap().get("liveBytes"));
+  }
+
   public void testUninterruptability() throws Exception {
     Set<VoltronEntityMessage.Acks> acks = EnumSet.of(VoltronEntityMessage.Acks.RECEIVED);
     VoltronEntityMessage msg = mock(VoltronEntityMessage.class);
@@ -150,6 +172,41 @@ public class InFlightMessageTest extends TestCase {
     assertTrue(thread.didInterrupt);
   }
 
+  public void testCompletionStageOnRetire() throws Exception {
+    VoltronEntityMessage msg = mock(VoltronEntityMessage.class);
+    final InFlightMessage inf = new InFlightMessage(mock(EntityID.class), msg, Collections.<Acks>emptySet(), null, true, false);
+    CompletableFuture<byte[]> stage = inf.getCompletionStage().toCompletableFuture();
+    byte[] value = new byte[] {1};
+    inf.setResult(value, null);
+    assertFalse(stage.isDone());
+    inf.retired();
+    assertTrue(stage.isDone());
+    assertSame(value, stage.get());
+  }
+
+  public void testCompletionStageAfterResult() throws Exception {
+    VoltronEntityMessage msg = mock(VoltronEntityMessage.class);
+    final InFlightMessage inf = new InFlightMessage(mock(EntityID.class), msg, Collections.<Acks>emptySet(), null, false, false);
+    byte[] value = new byte[] {1};
+    inf.setResult(value, null);
+    assertSame(value, inf.getCompletionStage().toCompletableFuture().get());
+  }
+
+  public void testCompletionStageOnError() throws Exception {
+    VoltronEntityMessage msg = mock(VoltronEntityMessage.class);
+    final InFlightMessage inf = new InFlightMessage(mock(EntityID.class), msg, Collections.<Acks>emptySet(), null, true, false);
+    CompletableFuture<byte[]> stage = inf.getCompletionStage().toCompletableFuture();
+    VoltronWrapperException error = new VoltronWrapperException(new ConnectionClosedException("test"));
+    inf.setResult(null, error);
+    assertTrue(stage.isCompletedExceptionally());
+    try {
+      stage.get();
+      fail();
+    } catch (ExecutionException expected) {
+      assertSame(error, expected.getCause());
+    }
+  }
+
   /**
    * This thread just calls get() on the given message and records whether or not it was interrupted.
    */
@@ -0,0 +1,99 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import com.tc.object.tx.TransactionID;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+public class InFlightTableTest {
+
+  @Test
+  public void testPutGetRemove() throws Exception {
+    InFlightTable table = new InFlightTable(4);
+    InFlightMessage one = message(1);
+    InFlightMessage two = message(2);
+    table.put(one);
+    table.put(two);
+    assertEquals(2, table.size());
+    assertSame(one, table.get(new TransactionID(1)));
+    assertSame(two, table.get(new TransactionID(2)));
+    assertNull(table.get(new TransactionID(3)));
+    assertSame(one, table.remove(new TransactionID(1)));
+    assertNull(table.remove(new TransactionID(1)));
+    assertNull(table.get(new TransactionID(1)));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void testLongLivedMessageDisplacesToOverflow() throws Exception {
+    InFlightTable table = new InFlightTable(4);
+    InFlightMessage deferred = message(1);
+    table.put(deferred);
+    // 5 and 9 land in the same slot as 1 in a table of 4
+    for (long id = 2; id <= 9; id++) {
+      table.put(message(id));
+    }
+    for (long id = 1; id <= 9; id++) {
+      assertEquals(id, table.get(new TransactionID(id)).getTransactionID().toLong());
+    }
+    assertEquals(9, table.size());
+    Set<Long> seen = new HashSet<>();
+    table.forEach(m -> seen.add(m.getTransactionID().toLong()));
+    assertEquals(9, seen.size());
+    for (long id = 9; id >= 1; id--) {
+      assertEquals(id, table.remove(new TransactionID(id)).getTransactionID().toLong());
+    }
+    assertEquals(0, table.size());
+  }
+
+  @Test
+  public void testOldest() throws Exception {
+    InFlightTable table = new InFlightTable(8);
+    assertEquals(new TransactionID(1), table.oldest(new TransactionID(1)));
+    table.put(message(1));
+    table.put(message(2));
+    table.put(message(3));
+    assertEquals(new TransactionID(1), table.oldest(new TransactionID(4)));
+    table.remove(new TransactionID(2));
+    assertEquals(new TransactionID(1), table.oldest(new TransactionID(4)));
+    table.remove(new TransactionID(1));
+    assertEquals(new TransactionID(3), table.oldest(new TransactionID(4)));
+    table.remove(new TransactionID(3));
+    assertEquals(new TransactionID(4), table.oldest(new TransactionID(4)));
+    // a message put late, after newer ones were created, is still seen
+    table.put(message(5));
+    table.put(message(4));
+    assertEquals(new TransactionID(4), table.oldest(new TransactionID(6)));
+  }
+
+  private static InFlightMessage message(long id) {
+    InFlightMessage message = mock(InFlightMessage.class);
+    when(message.getTransactionID()).thenReturn(new TransactionID(id));
+    return message;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import com.tc.entity.NetworkVoltronEntityMessage;
+import com.tc.entity.VoltronEntityMultiMessage;
+import com.tc.net.protocol.tcm.MessageChannel;
+import com.tc.net.protocol.tcm.TCMessageType;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+public class InvokeBatcherTest {
+
+  @Test
+  public void testLoneMessageIsSentAlone() throws Exception {
+    MessageChannel channel = mock(MessageChannel.class);
+    InvokeBatcher batcher = new InvokeBatcher(channel, 64);
+    NetworkVoltronEntityMessage message = mock(NetworkVoltronEntityMessage.class);
+    when(message.send()).thenReturn(true);
+    assertTrue(batcher.send(message));
+    verify(message).send();
+    verify(channel, never()).createMessage(any(TCMessageType.class));
+  }
+
+  @Test
+  public void testMessagesQueuedDuringSendAreBatched() throws Exception {
+    MessageChannel channel = mock(MessageChannel.class);
+    VoltronEntityMultiMessage batch = mock(VoltronEntityMultiMessage.class);
+    when(channel.createMessage(TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE)).thenReturn(batch);
+    when(batch.getMessageCount()).thenReturn(2);
+    when(batch.send()).thenReturn(true);
+    InvokeBatcher batcher = new InvokeBatcher(channel, 2);
+
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    NetworkVoltronEntityMessage first = mock(NetworkVoltronEntityMessage.class);
+    doAnswer(invocation -> {
+      sending.countDown();
+      release.await();
+      return true;
+    }).when(first).send();
+    AtomicReference<Boolean> result = new AtomicReference<>();
+    Thread t = new Thread(() -> result.set(batcher.send(first)));
+    t.start();
+    assertTrue(sending.await(10, TimeUnit.SECONDS));
+
+    // the first thread is still writing its frame so these queue and wait for their turn
+    NetworkVoltronEntityMessage second = mock(NetworkVoltronEntityMessage.class);
+    NetworkVoltronEntityMessage third = mock(NetworkVoltronEntityMessage.class);
+    AtomicReference<Boolean> secondResult = new AtomicReference<>();
+    AtomicReference<Boolean> thirdResult = new AtomicReference<>();
+    Thread t2 = new Thread(() -> secondResult.set(batcher.send(second)));
+    t2.start();
+    waitForQueued(batcher, 1);
+    Thread t3 = new Thread(() -> thirdResult.set(batcher.send(third)));
+    t3.start();
+    waitForQueued(batcher, 2);
+    release.countDown();
+    t.join();
+    t2.join();
+    t3.join();
+
+    assertTrue(result.get());
+    assertTrue(secondResult.get());
+    assertTrue(thirdResult.get());
+    verify(batch).addMessage(second);
+    verify(batch).addMessage(third);
+    verify(batch).send();
+    verify(second, never()).send();
+    verify(third, never()).send();
+    assertEquals(1L, batcher.getStateMap().get("batchSends"));
+  }
+
+  @Test
+  public void testFrameIsBoundedByMaxBatch() throws Exception {
+    MessageChannel channel = mock(MessageChannel.class);
+    VoltronEntityMultiMessage batch = mock(VoltronEntityMultiMessage.class);
+    when(channel.createMessage(TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE)).thenReturn(batch);
+    when(batch.send()).thenReturn(true);
+    InvokeBatcher batcher = new InvokeBatcher(channel, 2);
+
+    CountDownLatch sending = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    NetworkVoltronEntityMessage first = mock(NetworkVoltronEntityMessage.class);
+    doAnswer(invocation -> {
+      sending.countDown();
+      release.await();
+      return true;
+    }).when(first).send();
+    Thread t = new Thread(() -> batcher.send(first));
+    t.start();
+    assertTrue(sending.await(10, TimeUnit.SECONDS));
+
+    Thread[] queued = new Thread[4];
+    for (int i = 0; i < queued.length; ++i) {
+      NetworkVoltronEntityMessage message = mock(NetworkVoltronEntityMessage.class);
+      queued[i] = new Thread(() -> batcher.send(message));
+      queued[i].start();
+      waitForQueued(batcher, i + 1);
+    }
+    release.countDown();
+    t.join();
+    for (Thread q : queued) {
+      q.join();
+    }
+    // four messages queued behind the first go out as two frames of two
+    assertEquals(2L, batcher.getStateMap().get("batchSends"));
+    assertEquals(4L, batcher.getStateMap().get("batchedMessages"));
+    assertEquals(0, batcher.getStateMap().get("queued"));
+  }
+
+  private static void waitForQueued(InvokeBatcher batcher, int count) throws InterruptedException {
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while ((Integer) batcher.getStateMap().get("queued") < count) {
+      assertTrue(System.nanoTime() < end);
+      Thread.sleep(1);
+    }
+  }
+}
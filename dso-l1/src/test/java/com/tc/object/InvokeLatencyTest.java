@@ -0,0 +1,92 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class InvokeLatencyTest {
+  private static final long MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPhasesAreSplit() throws Exception {
+    InvokeLatency latency = new InvokeLatency();
+    latency.record("Type", 0, 10 * MICRO, 110 * MICRO, 1110 * MICRO, 2110 * MICRO);
+    Map<String, Object> phases = (Map<String, Object>) latency.getStateMap().get("Type");
+    assertEquals(10L, ((Map<String, Object>) phases.get("SEND")).get("maxMicros"));
+    assertEquals(100L, ((Map<String, Object>) phases.get("RECEIVED")).get("maxMicros"));
+    assertEquals(1000L, ((Map<String, Object>) phases.get("COMPLETED")).get("maxMicros"));
+    assertEquals(1000L, ((Map<String, Object>) phases.get("RETIRED")).get("maxMicros"));
+    assertEquals(2110L, ((Map<String, Object>) phases.get("TOTAL")).get("maxMicros"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCompletedWithoutReceived() throws Exception {
+    InvokeLatency latency = new InvokeLatency();
+    latency.record("Type", 0, 10 * MICRO, 0, 50 * MICRO, 60 * MICRO);
+    Map<String, Object> phases = (Map<String, Object>) latency.getStateMap().get("Type");
+    assertFalse(phases.containsKey("RECEIVED"));
+    assertEquals(40L, ((Map<String, Object>) phases.get("COMPLETED")).get("maxMicros"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testTypesAreSeparate() throws Exception {
+    InvokeLatency latency = new InvokeLatency();
+    latency.record("A", 0, MICRO, MICRO, MICRO, MICRO);
+    latency.record("A", 0, MICRO, MICRO, MICRO, MICRO);
+    latency.record("B", 0, MICRO, MICRO, MICRO, MICRO);
+    Map<String, Object> state = latency.getStateMap();
+    assertEquals(2, state.size());
+    Map<String, Object> total = (Map<String, Object>) ((Map<String, Object>) state.get("A")).get("TOTAL");
+    assertEquals(2L, total.get("count"));
+    assertTrue(((Map<String, Long>) total.get("histogramMicros")).containsKey("<=1"));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testPublishedAsMBean() throws Exception {
+    InvokeLatency latency = new InvokeLatency();
+    latency.record("A", 0, MICRO, MICRO, MICRO, MICRO);
+    latency.record("B", 0, MICRO, MICRO, MICRO, MICRO);
+    ObjectName name = latency.registerMBean();
+    assertNotNull(name);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      Map<String, String> types = (Map<String, String>) server.getAttribute(name, "LatencyByEntityType");
+      assertEquals(2, types.size());
+      assertTrue(types.get("A").contains("TOTAL"));
+    } finally {
+      InvokeLatency.unregisterMBean(name);
+    }
+    assertFalse(server.isRegistered(name));
+  }
+}
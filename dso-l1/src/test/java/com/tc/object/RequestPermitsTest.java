@@ -0,0 +1,161 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class RequestPermitsTest {
+
+  @Test
+  public void testTryAcquireFailsWhenFull() throws Exception {
+    RequestPermits permits = new RequestPermits(2);
+    assertTrue(permits.tryAcquire());
+    assertTrue(permits.tryAcquire());
+    assertFalse(permits.tryAcquire());
+    permits.release();
+    assertEquals(1, permits.getAvailable());
+    assertTrue(permits.tryAcquire());
+  }
+
+  @Test
+  public void testGrantNarrowsAndWidensWindow() throws Exception {
+    RequestPermits permits = new RequestPermits(4);
+    assertTrue(permits.tryAcquire());
+    assertTrue(permits.tryAcquire());
+    assertTrue(permits.tryAcquire());
+    permits.grant(1);
+    assertEquals(1, permits.getWindow());
+    assertEquals(0, permits.getAvailable());
+    permits.release();
+    permits.release();
+    assertFalse(permits.tryAcquire());
+    permits.release();
+    assertTrue(permits.tryAcquire());
+    assertFalse(permits.tryAcquire());
+    permits.grant(10);
+    assertEquals(4, permits.getWindow());
+    assertEquals(3, permits.getAvailable());
+  }
+
+  @Test
+  public void testGrantNeverClosesWindow() throws Exception {
+    RequestPermits permits = new RequestPermits(4);
+    permits.grant(0);
+    assertEquals(1, permits.getWindow());
+    assertTrue(permits.tryAcquire());
+  }
+
+  @Test
+  public void testAcquireTimesOut() throws Exception {
+    RequestPermits permits = new RequestPermits(1);
+    assertTrue(permits.acquire(0, TimeUnit.MILLISECONDS));
+    long start = System.nanoTime();
+    try {
+      permits.acquire(100, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (TimeoutException expected) {
+      assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+  }
+
+  @Test
+  public void testReleaseWakesWaiter() throws Exception {
+    RequestPermits permits = new RequestPermits(1);
+    assertTrue(permits.tryAcquire());
+    AtomicBoolean acquired = new AtomicBoolean();
+    Thread waiter = new Thread(() -> {
+      try {
+        acquired.set(permits.acquire(10, TimeUnit.SECONDS));
+      } catch (TimeoutException e) {
+        // leave unset
+      }
+    });
+    waiter.start();
+    permits.release();
+    waiter.join();
+    assertTrue(acquired.get());
+  }
+
+  @Test
+  public void testStopWakesAllWaiters() throws Exception {
+    RequestPermits permits = new RequestPermits(1);
+    assertTrue(permits.tryAcquire());
+    int count = 4;
+    CountDownLatch refused = new CountDownLatch(count);
+    for (int x = 0; x < count; ++x) {
+      new Thread(() -> {
+        try {
+          if (!permits.acquire(0, TimeUnit.MILLISECONDS)) {
+            refused.countDown();
+          }
+        } catch (TimeoutException e) {
+          // not refused
+        }
+      }).start();
+    }
+    permits.stop();
+    assertTrue(refused.await(10, TimeUnit.SECONDS));
+    assertFalse(permits.tryAcquire());
+    assertEquals(0, permits.getAvailable());
+  }
+
+  @Test
+  public void testStopAfterNarrowingWakesWaiters() throws Exception {
+    RequestPermits permits = new RequestPermits(8);
+    for (int x = 0; x < 8; ++x) {
+      assertTrue(permits.tryAcquire());
+    }
+    // the count goes negative with every permit still in flight
+    permits.grant(1);
+    int count = 4;
+    CountDownLatch refused = new CountDownLatch(count);
+    for (int x = 0; x < count; ++x) {
+      new Thread(() -> {
+        try {
+          if (!permits.acquire(0, TimeUnit.MILLISECONDS)) {
+            refused.countDown();
+          }
+        } catch (TimeoutException e) {
+          // not refused
+        }
+      }).start();
+    }
+    permits.stop();
+    assertTrue(refused.await(10, TimeUnit.SECONDS));
+    assertFalse(permits.acquire(0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testInterruptIsPreserved() throws Exception {
+    RequestPermits permits = new RequestPermits(1);
+    Thread.currentThread().interrupt();
+    assertTrue(permits.acquire(1, TimeUnit.SECONDS));
+    assertTrue(Thread.interrupted());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+
+public class ResendPayloadStoreTest {
+
+  @Test
+  public void testPayloadRoundTrip() throws Exception {
+    ResendPayloadStore store = new ResendPayloadStore(1024, 256, 0);
+    byte[] first = payload(100, 1);
+    byte[] second = payload(100, 2);
+    ResendPayloadStore.Payload a = store.store(first);
+    ResendPayloadStore.Payload b = store.store(second);
+    assertArrayEquals(first, a.materialize());
+    assertArrayEquals(second, b.materialize());
+    assertEquals(200L, store.getStateMap().get("liveBytes"));
+    a.release();
+    b.release();
+    assertEquals(0L, store.getStateMap().get("liveBytes"));
+  }
+
+  @Test
+  public void testSmallAndOversizedPayloadsStayOnHeap() throws Exception {
+    ResendPayloadStore store = new ResendPayloadStore(1024, 256, 16);
+    assertNull(store.store(payload(8, 1)));
+    assertNull(store.store(payload(300, 1)));
+    assertNotNull(store.store(payload(256, 1)));
+    assertEquals(1L, store.getStateMap().get("refused"));
+  }
+
+  @Test
+  public void testBudgetIsEnforced() throws Exception {
+    ResendPayloadStore store = new ResendPayloadStore(512, 256, 0);
+    List<ResendPayloadStore.Payload> held = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      held.add(store.store(payload(128, i)));
+    }
+    assertNull(store.store(payload(128, 5)));
+    // freeing the whole first segment makes room again
+    held.get(0).release();
+    held.get(1).release();
+    ResendPayloadStore.Payload reused = store.store(payload(128, 6));
+    assertNotNull(reused);
+    assertArrayEquals(payload(128, 6), reused.materialize());
+    assertArrayEquals(payload(128, 3), held.get(3).materialize());
+    assertEquals(2, store.getStateMap().get("allocatedSegments"));
+  }
+
+  @Test
+  public void testLiveRequestPinsOnlyItsSegment() throws Exception {
+    ResendPayloadStore store = new ResendPayloadStore(768, 256, 0);
+    ResendPayloadStore.Payload pinned = store.store(payload(200, 0));
+    for (int i = 1; i < 20; i++) {
+      ResendPayloadStore.Payload p = store.store(payload(200, i));
+      assertNotNull(p);
+      p.release();
+    }
+    Map<String, Object> state = store.getStateMap();
+    assertEquals(200L, state.get("liveBytes"));
+    assertEquals(2, state.get("allocatedSegments"));
+    assertArrayEquals(payload(200, 0), pinned.materialize());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReleasedPayloadCannotBeRead() throws Exception {
+    ResendPayloadStore store = new ResendPayloadStore(1024, 256, 0);
+    ResendPayloadStore.Payload p = store.store(payload(10, 1));
+    p.release();
+    p.materialize();
+  }
+
+  private static byte[] payload(int size, int seed) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) (seed * 31 + i);
+    }
+    return data;
+  }
+}
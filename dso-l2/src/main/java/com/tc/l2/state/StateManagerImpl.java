@@ -42,6 +42,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
 
 public class StateManagerImpl implements StateManager {
@@ -73,6 +74,9 @@ public class StateManagerImpl implements StateManager {
   // Known servers from current election
   Set<NodeID> currKnownServers = new HashSet<>();
 
+  // Standbys which rejoin with state that can still be caught up by replication rather than being zapped
+  private volatile Predicate<NodeID> resumablePassives = node -> false;
+
   public StateManagerImpl(Logger consoleLogger, GroupManager<AbstractGroupMessage> groupManager,
                           Sink<StateChangedEvent> stateChangeSink, StageManager mgr, 
                           int expectedServers, int electionTimeInSec, WeightGeneratorFactory weightFactory,
@@ -514,6 +518,14 @@ public class StateManagerImpl implements StateManager {
     validateResponse(nodeID, response);
   }
 
+  /**
+   * Sets the test for standbys which should be let back in with their existing state because replication can catch
+   * them up, rather than zapped for a dirty db.
+   */
+  public void setResumablePassives(Predicate<NodeID> resumable) {
+    this.resumablePassives = resumable;
+  }
+
   //used in testing
   public synchronized void addKnownServersList(Set<NodeID> nodeIDs) {
     currKnownServers.addAll(nodeIDs);
@@ -525,6 +537,8 @@ public class StateManagerImpl implements StateManager {
       logger.error(error);
       // throwing this exception will initiate a zap elsewhere
       throw new GroupException(error);
+    } else if (response.getState().equals(PASSIVE_STANDBY) && !currKnownServers.contains(nodeID) && resumablePassives.test(nodeID)) {
+      logger.info(nodeID + " rejoined as PASSIVE STANDBY and is expected to resume replication");
     } else if (response.getState().equals(PASSIVE_STANDBY) && !currKnownServers.contains(nodeID)) {
       final String errMesg = "A Terracotta server tried to join the mirror group as PASSIVE STANDBY but with dirty db, "
         + " Zapping " +  nodeID + " to allow it to resync data from active";
@@ -60,5 +60,10 @@ public interface GroupManager<M extends GroupMessage> extends PrettyPrintable {
 
   public boolean isServerConnected(String nodeName);
 
+  /**
+   * @return true if the node said, when it joined, that it can read compressed replication payloads
+   */
+  public boolean acceptsCompression(NodeID node);
+
   public void closeMember(ServerID serverID);
 }
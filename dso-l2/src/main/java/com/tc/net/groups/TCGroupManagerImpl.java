@@ -131,6 +131,8 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
   private final ConcurrentHashMap<MessageChannel, ServerID> channelToNodeID             = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<ServerID, TCGroupMember>  members                     = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<String, TCGroupMember>    nodenameToMembers           = new ConcurrentHashMap<>();
+  // Peers which said in the handshake that they can read compressed replication payloads.
+  private final Set<ServerID>                               compressionPeers            = ConcurrentHashMap.newKeySet();
   private final Timer                                       handshakeTimer              = new Timer(
                                                                                                     "TC Group Manager Handshake timer",
                                                                                                     true);
@@ -329,6 +331,7 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
   private void membersRemove(TCGroupMember member) {
     ServerID nodeID = member.getPeerNodeID();
     members.remove(nodeID);
+    compressionPeers.remove(nodeID);
     nodenameToMembers.remove(nodeID.getName());
   }
 
@@ -498,6 +501,7 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
   @Override
   public void sendAll(AbstractGroupMessage msg, Set<? extends NodeID> nodeIDs) {
     final boolean debug = msg instanceof L2StateMessage;
+    List<TCGroupMember> recipients = new ArrayList<>(members.size());
     for (TCGroupMember m : members.values()) {
       if (!nodeIDs.contains(m.getPeerNodeID())) {
         if (debug) {
@@ -513,11 +517,37 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
             debugInfo("Sending msg to " + m.getPeerNodeID() + ", " + msg + ", channel: " + m.getChannel());
           }
         }
-        m.sendIgnoreNotReady(msg);
+        recipients.add(m);
       } else {
         logger.warn("Ignored sending msg to a not ready member=" + m + ", msg=" + msg);
       }
     }
+    sendToAll(msg, recipients);
+  }
+
+  /**
+   * Serializes the message once and writes read-only views of the same buffers to each recipient's channel, rather
+   * than dehydrating a new wrapper for every member.
+   */
+  static void sendToAll(AbstractGroupMessage msg, List<TCGroupMember> recipients) {
+    if (recipients.isEmpty()) {
+      return;
+    } else if (recipients.size() == 1) {
+      recipients.get(0).sendIgnoreNotReady(msg);
+      return;
+    }
+    TCGroupMessageWrapper serialized = (TCGroupMessageWrapper) recipients.get(0).getChannel()
+        .createMessage(TCMessageType.GROUP_WRAPPER_MESSAGE);
+    serialized.setGroupMessage(msg);
+    serialized.dehydrate();
+    try {
+      for (TCGroupMember m : recipients) {
+        m.sendIgnoreNotReady(serialized);
+      }
+    } finally {
+      // the buffers go back to the pool once the last member's copy has been written
+      serialized.releasePayload();
+    }
   }
 
   @Override
@@ -649,8 +679,18 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
   /*
    * receivedNodeID -- Store NodeID of connected channels
    */
-  void receivedNodeID(MessageChannel channel, ServerID nodeID) {
+  void receivedNodeID(MessageChannel channel, ServerID nodeID, boolean acceptsCompression) {
     channelToNodeID.put(channel, nodeID);
+    if (acceptsCompression) {
+      compressionPeers.add(nodeID);
+    } else {
+      compressionPeers.remove(nodeID);
+    }
+  }
+
+  @Override
+  public boolean acceptsCompression(NodeID node) {
+    return compressionPeers.contains(node);
   }
 
   private TCGroupMember getMember(MessageChannel channel) {
@@ -883,6 +923,7 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
 
     public synchronized void sendAll(AbstractGroupMessage msg, Set<? extends NodeID> nodeIDs) {
       final boolean debug = msg instanceof L2StateMessage;
+      List<TCGroupMember> recipients = new ArrayList<>();
       for (TCGroupMember m : manager.getMembers()) {
         if (!nodeIDs.contains(m.getPeerNodeID())) {
           if (debug) {
@@ -900,11 +941,12 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
               debugInfo("Sending msg to " + m.getPeerNodeID() + ", msg: " + msg + ", channel: " + m.getChannel());
             }
           }
-          m.sendIgnoreNotReady(msg);
+          recipients.add(m);
         } else {
           logger.warn("SendAllAndWait to a not ready member " + m);
         }
       }
+      sendToAll(msg, recipients);
     }
 
     public synchronized void addResponseFrom(ServerID nodeID, AbstractGroupMessage gmsg) {
@@ -1222,13 +1264,16 @@ public class TCGroupManagerImpl implements GroupManager<AbstractGroupMessage>, C
 
       void setPeerNodeID(TCGroupHandshakeMessage msg) {
         peerNodeID = msg.getNodeID();
-        manager.receivedNodeID(channel, peerNodeID);
+        manager.receivedNodeID(channel, peerNodeID, msg.acceptsCompression());
       }
 
       void writeNodeIDMessage() {
         TCGroupHandshakeMessage msg = (TCGroupHandshakeMessage) channel
             .createMessage(TCMessageType.GROUP_HANDSHAKE_MESSAGE);
-        msg.initializeNodeID(localNodeID, version, weightGeneratorFactory.generateWeightSequence());
+        // Only a server with compression enabled says it can read compressed replication payloads, so the handshake is
+        // unchanged when compression is off.
+        boolean compression = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.ACTIVE_PASSIVE_COMPRESSION_THRESHOLD, 0) > 0;
+        msg.initializeNodeID(localNodeID, version, weightGeneratorFactory.generateWeightSequence(), compression);
         if (isDebugLogging()) {
           debugInfo("Sending group nodeID message to " + channel);
         }
@@ -33,6 +33,12 @@ public interface TCGroupMember {
   
   public void sendIgnoreNotReady(AbstractGroupMessage msg);
 
+  /**
+   * Sends a message that has already been serialized by {@link TCGroupMessageWrapper#dehydrate()}, sharing its payload
+   * buffers instead of serializing the group message again for this member's channel.
+   */
+  public void sendIgnoreNotReady(TCGroupMessageWrapper serialized);
+
   public void setTCGroupManager(TCGroupManagerImpl manager);
 
   public TCGroupManagerImpl getTCGroupManager();
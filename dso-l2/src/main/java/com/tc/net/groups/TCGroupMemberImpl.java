@@ -30,6 +30,7 @@ import com.tc.net.protocol.tcm.ChannelEventType;
 import com.tc.net.protocol.tcm.MessageChannel;
 import com.tc.net.protocol.tcm.TCMessageType;
 
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
@@ -80,6 +81,23 @@ public class TCGroupMemberImpl implements TCGroupMember, ChannelEventListener {
     sendMessage(msg, sentCallback);
   }
 
+  @Override
+  public void sendIgnoreNotReady(TCGroupMessageWrapper serialized) {
+    if (!channel.isOpen()) {
+      logger.warn("Attempting send to a not ready member " + this + ", msg will not be sent: " + serialized.getGroupMessage());
+      return;
+    }
+    TCGroupMessageWrapper wrapper = (TCGroupMessageWrapper) channel.createMessage(TCMessageType.GROUP_WRAPPER_MESSAGE);
+    wrapper.setGroupMessage(serialized.getGroupMessage());
+    try {
+      wrapper.cloneAndSend(serialized);
+    } catch (IOException ioe) {
+      if (channel.isOpen()) {
+        logger.info("Message not sent to " + this + ": " + ioe.getMessage());
+      }
+    }
+  }
+
   private void sendMessage(AbstractGroupMessage msg, Runnable sentCallback) {
     TCGroupMessageWrapper wrapper = (TCGroupMessageWrapper) channel.createMessage(TCMessageType.GROUP_WRAPPER_MESSAGE);
     wrapper.setGroupMessage(msg);
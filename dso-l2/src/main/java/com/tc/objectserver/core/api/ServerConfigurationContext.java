@@ -46,6 +46,8 @@ public interface ServerConfigurationContext extends ConfigurationContext {
   public static final String PASSIVE_REPLICATION_STAGE                            = "passive_replication_stage";
   public static final String PASSIVE_OUTGOING_RESPONSE_STAGE                            = "passive_outgoing_response_stage";
   public static final String PASSIVE_REPLICATION_ACK_STAGE                            = "passive_replication_ack_stage";
+  // not a stage, the name of the threads a passive applies replicated invokes on, by concurrency key
+  public static final String PASSIVE_APPLY_LANE                                   = "passive_apply_lane";
 
   public static final String PLATFORM_INFORMATION_REQUEST                       = "platform_information_request";
 
@@ -22,61 +22,70 @@ import com.tc.exception.TCServerRestartException;
 import com.tc.l2.msg.ReplicationResultCode;
 import com.tc.net.NodeID;
 import com.tc.util.Assert;
-import java.util.Collections;
-import java.util.HashMap;
-
-import java.util.HashSet;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * This type is used by ActiveToPassiveReplication in order to wait on all the passives either sending a RECEIVED or
  * COMPLETED acknowledgement for a specific message.
+ * 
+ * One of these is created for every replicated activity, so the state of each passive is kept as bits of a single
+ * long which acks update with compare-and-set, and threads waiting on the acks park until they are woken by the ack
+ * which releases them.
  */
 public class ActivePassiveAckWaiter {
-  private final Set<NodeID> start;
-  private final Set<NodeID> receivedPending;
-  private final Set<NodeID> receivedByComplete;
-  private final Set<NodeID> completedPending;
-  private final Map<NodeID, ReplicationResultCode> results;
+  // Each passive has a bit in each of the three sections of the state.
+  private static final int MAX_PASSIVES = 21;
+  private static final int RECEIVED_PENDING = 0;
+  private static final int COMPLETED_PENDING = MAX_PASSIVES;
+  private static final int RECEIVED_BY_COMPLETE = 2 * MAX_PASSIVES;
+  private static final long SECTION = (1L << MAX_PASSIVES) - 1;
+  private static final NodeID[] NO_PASSIVES = new NodeID[0];
+  private static final ReplicationResultCode[] NO_RESULTS = new ReplicationResultCode[0];
+  private static final AtomicLongFieldUpdater<ActivePassiveAckWaiter> STATE = AtomicLongFieldUpdater.newUpdater(ActivePassiveAckWaiter.class, "state");
+  private static final AtomicReferenceFieldUpdater<ActivePassiveAckWaiter, Waiter> WAITERS = AtomicReferenceFieldUpdater.newUpdater(ActivePassiveAckWaiter.class, Waiter.class, "waiters");
+
+  private final NodeID[] passives;
+  // Written before the completion which clears the passive's pending bit, so visible to anyone who saw it complete.
+  private final ReplicationResultCode[] results;
   private final PassiveReplicationBroker parent;
+  private volatile long state;
+  private volatile Waiter waiters;
 
   public ActivePassiveAckWaiter(Set<NodeID> allPassiveNodes, PassiveReplicationBroker parent) {
-    this.start =  Collections.unmodifiableSet(allPassiveNodes);
-    this.receivedPending =  new HashSet<>(allPassiveNodes);
-    this.completedPending =  new HashSet<>(allPassiveNodes);
-    this.receivedByComplete =  new HashSet<>();
-    this.results = new HashMap<>();
+    Assert.assertTrue(allPassiveNodes.size() <= MAX_PASSIVES);
+    this.passives = allPassiveNodes.isEmpty() ? NO_PASSIVES : allPassiveNodes.toArray(new NodeID[allPassiveNodes.size()]);
+    this.results = allPassiveNodes.isEmpty() ? NO_RESULTS : new ReplicationResultCode[this.passives.length];
+    long all = (1L << this.passives.length) - 1;
+    this.state = (all << RECEIVED_PENDING) | (all << COMPLETED_PENDING);
     this.parent = parent;
   }
 
-  public synchronized void waitForReceived() {
-    try {
-      while (!this.receivedPending.isEmpty()) {
-        wait();
-      }
-    } catch (InterruptedException ie) {
-      throw new RuntimeException(ie);
-    }
+  public void waitForReceived() {
+    await(SECTION << RECEIVED_PENDING);
   }
 
-  public synchronized void waitForCompleted() {
-    try {
-      while (!this.completedPending.isEmpty()) {
-        wait();
-     }
-    } catch (InterruptedException ie) {
-      throw new RuntimeException(ie);
-    }
+  public void waitForCompleted() {
+    await(SECTION << COMPLETED_PENDING);
   }
   
   public boolean verifyLifecycleResult(boolean success) {
-    if(results.entrySet().stream().anyMatch(e->e.getValue() == (success ? ReplicationResultCode.FAIL : ReplicationResultCode.SUCCESS))) {
+    ReplicationResultCode unexpected = success ? ReplicationResultCode.FAIL : ReplicationResultCode.SUCCESS;
+    boolean anyUnexpected = false;
+    for (ReplicationResultCode result : results) {
+      anyUnexpected |= (result == unexpected);
+    }
+    if (anyUnexpected) {
       boolean zapped = false;
-      for (Map.Entry<NodeID, ReplicationResultCode> r : results.entrySet()) {
-        if (r.getValue() == ReplicationResultCode.FAIL) {
-          parent.zapAndWait(r.getKey());
+      for (int i = 0; i < passives.length; ++i) {
+        if (results[i] == ReplicationResultCode.FAIL) {
+          parent.zapAndWait(passives[i]);
           zapped = true;
         }
       }
@@ -88,19 +97,28 @@ public class ActivePassiveAckWaiter {
     return false;
   }
 
-  public synchronized boolean isCompleted() {
-    return this.completedPending.isEmpty();
+  public boolean isCompleted() {
+    return isEmpty(this.state, COMPLETED_PENDING);
   }
 
-  public synchronized void didReceiveOnPassive(NodeID onePassive) {
-    boolean didContain = this.receivedPending.remove(onePassive);
-    // We must have contained this passive in order to receive.
-    if (!didContain) {
-      Assert.assertTrue(onePassive + " " + toString(), this.receivedByComplete.contains(onePassive));
-    }    
-    // Wake everyone up if this changed something.
-    if (this.receivedPending.isEmpty()) {
-      notifyAll();
+  public void didReceiveOnPassive(NodeID onePassive) {
+    int index = indexOf(onePassive);
+    long received = bit(index, RECEIVED_PENDING);
+    while (true) {
+      long current = this.state;
+      if ((current & received) == 0) {
+        // We must have contained this passive in order to receive.
+        Assert.assertTrue(onePassive + " " + toString(), (current & bit(index, RECEIVED_BY_COMPLETE)) != 0);
+        return;
+      }
+      long next = current & ~received;
+      if (STATE.compareAndSet(this, current, next)) {
+        // Wake everyone up if this changed something.
+        if (isEmpty(next, RECEIVED_PENDING)) {
+          wakeAll();
+        }
+        return;
+      }
     }
   }
 
@@ -112,31 +130,112 @@ public class ActivePassiveAckWaiter {
    * @param payload
    * @return True if this was the last outstanding completion required and the waiter is now done.
    */
-  public synchronized boolean didCompleteOnPassive(NodeID onePassive, boolean isNormalComplete, ReplicationResultCode payload) {
-    // Note that we will try to remove from the received set, but usually it will already have been removed.
-    boolean didContainInReceived = this.receivedPending.remove(onePassive);
-    if (didContainInReceived) {
-      this.receivedByComplete.add(onePassive);
+  public boolean didCompleteOnPassive(NodeID onePassive, boolean isNormalComplete, ReplicationResultCode payload) {
+    int index = indexOf(onePassive);
+    long received = bit(index, RECEIVED_PENDING);
+    long completed = bit(index, COMPLETED_PENDING);
+    while (true) {
+      long current = this.state;
+      // Note that we will try to clear the received bit, but usually it will already have been cleared.
+      boolean didContainInReceived = (current & received) != 0;
+      // We know that it must still be pending completion, though.
+      boolean didContainInCompleted = (current & completed) != 0;
+      // We must have contained this passive in order to complete.
+      if (isNormalComplete) {
+        // In the unexpected case, we are just making sure this node is removed from all waiters, even though it might have
+        // already completed on some of them.
+        Assert.assertTrue(didContainInCompleted);
+        this.results[index] = payload;
+      }
+      long next = current & ~(received | completed);
+      if (didContainInReceived) {
+        next |= bit(index, RECEIVED_BY_COMPLETE);
+      }
+      if (next == current || STATE.compareAndSet(this, current, next)) {
+        boolean isDoneWaiting = isEmpty(next, COMPLETED_PENDING);
+        // Wake everyone up if this changed something.
+        if ((didContainInReceived && isEmpty(next, RECEIVED_PENDING)) || (didContainInCompleted && isDoneWaiting)) {
+          wakeAll();
+        }
+        return isDoneWaiting;
+      }
     }
-    // We know that it must still be in the completed set, though.
-    boolean didContainInCompleted = this.completedPending.remove(onePassive);
-    // We must have contained this passive in order to complete.
-    if (isNormalComplete) {
-      // In the unexpected case, we are just making sure this node is removed from all waiters, even though it might have
-      // already completed on some of them.
-      Assert.assertTrue(didContainInCompleted);
-      this.results.put(onePassive, payload);
+  }
+
+  private int indexOf(NodeID passive) {
+    for (int i = 0; i < passives.length; ++i) {
+      if (passives[i].equals(passive)) {
+        return i;
+      }
     }
-    boolean isDoneWaiting = this.completedPending.isEmpty();
-    // Wake everyone up if this changed something.
-    if ((didContainInReceived && this.receivedPending.isEmpty()) || isDoneWaiting) {
-      notifyAll();
+    return -1;
+  }
+
+  /**
+   * @return the bit of the passive in the given section, none if the passive isn't one this waiter is waiting on
+   */
+  private static long bit(int index, int section) {
+    return (index < 0) ? 0L : (1L << (section + index));
+  }
+
+  private static boolean isEmpty(long state, int section) {
+    return (state & (SECTION << section)) == 0;
+  }
+
+  private void await(long pending) {
+    while ((this.state & pending) != 0) {
+      Waiter waiter = new Waiter(Thread.currentThread());
+      do {
+        waiter.next = this.waiters;
+      } while (!WAITERS.compareAndSet(this, waiter.next, waiter));
+      // The ack which clears the bits wakes everyone after it does so, so either it sees this waiter or this sees the bits clear.
+      while ((this.state & pending) != 0 && !waiter.woken) {
+        LockSupport.park(this);
+        if (Thread.interrupted()) {
+          throw new RuntimeException(new InterruptedException());
+        }
+      }
     }
-    return isDoneWaiting;
+  }
+
+  private void wakeAll() {
+    Waiter waiter = WAITERS.getAndSet(this, null);
+    while (waiter != null) {
+      waiter.woken = true;
+      LockSupport.unpark(waiter.thread);
+      waiter = waiter.next;
+    }
+  }
+
+  private List<NodeID> passivesIn(long current, int section) {
+    List<NodeID> list = new ArrayList<>();
+    for (int i = 0; i < passives.length; ++i) {
+      if ((current & bit(i, section)) != 0) {
+        list.add(passives[i]);
+      }
+    }
+    return list;
   }
 
   @Override
   public String toString() {
-    return "ActivePassiveAckWaiter{" + "start=" + start + ", receivedPending=" + receivedPending + ", receivedByComplete=" + receivedByComplete + ", completedPending=" + completedPending + ", results=" + results + '}';
+    long current = this.state;
+    List<String> resultList = new ArrayList<>();
+    for (int i = 0; i < passives.length; ++i) {
+      if (results[i] != null) {
+        resultList.add(passives[i] + "=" + results[i]);
+      }
+    }
+    return "ActivePassiveAckWaiter{" + "start=" + Arrays.asList(passives) + ", receivedPending=" + passivesIn(current, RECEIVED_PENDING) + ", receivedByComplete=" + passivesIn(current, RECEIVED_BY_COMPLETE) + ", completedPending=" + passivesIn(current, COMPLETED_PENDING) + ", results=" + resultList + '}';
+  }
+
+  private static class Waiter {
+    private final Thread thread;
+    private volatile boolean woken;
+    private Waiter next;
+
+    Waiter(Thread thread) {
+      this.thread = thread;
+    }
   }
 }
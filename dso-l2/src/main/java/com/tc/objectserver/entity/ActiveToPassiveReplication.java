@@ -32,8 +32,10 @@ import com.tc.net.groups.GroupManager;
 import com.tc.objectserver.api.ManagedEntity;
 import com.tc.objectserver.handler.ProcessTransactionHandler;
 import com.tc.objectserver.persistence.EntityPersistor;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
@@ -42,6 +44,8 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Executor;
@@ -61,6 +65,15 @@ import java.util.concurrent.TimeUnit;
 public class ActiveToPassiveReplication implements PassiveReplicationBroker, GroupEventsListener {
   
   private static final Logger logger = LoggerFactory.getLogger(PassiveReplicationBroker.class);
+  // Passives which rejoin while the activities they missed are still in the replication log are caught up from it
+  //  rather than zapped and synced again.  0 disables the log.
+  private static final long resyncLogMemory = TCPropertiesImpl.getProperties().getLong("active-passive.resync.memory", 0L);
+  private static final long resyncLogDisk = TCPropertiesImpl.getProperties().getLong("active-passive.resync.disk", 256L * 1024 * 1024);
+  private static final String resyncLogDirectory = TCPropertiesImpl.getProperties().getProperty("active-passive.resync.directory", true);
+  // How long a rejoined passive has to ask to be caught up before it is zapped and resynced as usual.
+  private static final long resyncRequestTimeout = TCPropertiesImpl.getProperties().getLong("active-passive.resync.timeout", 30000L);
+  // Entity sync payloads are streamed to syncing passives until this many bytes are waiting to be received.
+  private static final long syncBytesInFlight = TCPropertiesImpl.getProperties().getLong("active-passive.sync.inflight.bytes", 32L * 1024 * 1024);
   private final Iterable<NodeID> passives;
   private boolean activated = false;
   private final Set<NodeID> passiveNodes = new CopyOnWriteArraySet<>();
@@ -72,9 +85,24 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
   private final GroupManager serverCheck;
   private final ProcessTransactionHandler snapshotter;
   private final ConsistencyManager consistencyMgr;
+  // Null when passives are always resynced from scratch.  Appended to, and replayed from, only on the outgoing stage of
+  //  the replication sender.
+  private final ReplicationLog replicationLog;
+  // Zaps rejoined passives which don't ask to be caught up in time, null without a replication log.
+  private final Timer resyncTimer;
+  // Fully synced passives which have left and may yet resume from the replication log.
+  private final Set<NodeID> departedPassives = ConcurrentHashMap.newKeySet();
+  private final PassiveSyncScheduler syncScheduler = new PassiveSyncScheduler(syncBytesInFlight);
 
   public ActiveToPassiveReplication(ConsistencyManager consistencyMgr, ProcessTransactionHandler snapshotter, Iterable<NodeID> passives, EntityPersistor persistor, ReplicationSender replicationSender, GroupManager serverMatch) {
+    this(consistencyMgr, snapshotter, passives, persistor, replicationSender, serverMatch,
+        (resyncLogMemory > 0) ? new ReplicationLog(resyncLogMemory, resyncLogDisk, (resyncLogDirectory != null) ? new File(resyncLogDirectory) : null) : null);
+  }
+
+  ActiveToPassiveReplication(ConsistencyManager consistencyMgr, ProcessTransactionHandler snapshotter, Iterable<NodeID> passives, EntityPersistor persistor, ReplicationSender replicationSender, GroupManager serverMatch, ReplicationLog replicationLog) {
     this.consistencyMgr = consistencyMgr;
+    this.replicationLog = replicationLog;
+    this.resyncTimer = (replicationLog != null) ? new Timer("Passive resync timer", true) : null;
     this.replicationSender = replicationSender;
     this.passives = passives;
     this.persistor = persistor;
@@ -83,6 +111,10 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
     this.replicationSender.addFailedToSendListener(this::removeWaiters);
   }
 
+  public PassiveSyncScheduler getSyncScheduler() {
+    return syncScheduler;
+  }
+
   @Override
   public void zapAndWait(NodeID node) {
     synchronized(this.standByNodes) {
@@ -195,9 +227,65 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
     return null;
   }
 
+  /**
+   * @return true if the node is a passive which left after completing its sync and which could still be caught up
+   *  from the replication log if it asks, or which already has been.
+   */
+  public boolean isResumable(NodeID node) {
+    return activated && replicationLog != null && (departedPassives.contains(node) || passiveNodes.contains(node));
+  }
+
+  /**
+   * Handles a rejoining passive standby asking for the activities it missed.  If everything after the last activity it
+   *  received is still in the replication log, that is replayed and the passive is back in the stripe.  Otherwise it is
+   *  zapped so that it restarts and syncs from scratch.
+   */
+  public void resumePassiveSync(NodeID node, SyncReplicationActivity.ActivityID lastReceived) {
+    if (!activated) {
+      logger.info("Ignoring resync request from " + node + " since this server is not active");
+      return;
+    }
+    if (replicationLog != null && departedPassives.remove(node)) {
+      if (!consistencyMgr.requestTransition(ServerMode.ACTIVE, node, ConsistencyManager.Transition.ADD_PASSIVE)) {
+        serverCheck.zapNode(node, L2HAZapNodeRequestProcessor.SPLIT_BRAIN, "unable to verify active");
+        return;
+      }
+      // The replay runs on the outgoing stage, where activities are logged as they are sent, so the passive gets those
+      //  logged before it from the replay and those logged after it live, each exactly once.
+      this.replicationSender.inOrder(()->{
+        List<SyncReplicationActivity> missed = null;
+        try {
+          missed = replicationLog.after(lastReceived);
+        } catch (IOException ioe) {
+          logger.warn("Unable to read the replication log for " + node, ioe);
+        }
+        if (missed != null) {
+          logger.info("Resuming " + node + " from the replication log with " + missed.size() + " activities");
+          this.replicationSender.resumePassive(node);
+          for (SyncReplicationActivity activity : missed) {
+            this.replicationSender.replicateMessageInOrder(node, activity, null);
+          }
+          passiveNodes.add(node);
+        } else {
+          resyncFromScratch(node, lastReceived);
+        }
+      });
+    } else {
+      resyncFromScratch(node, lastReceived);
+    }
+  }
+
+  private void resyncFromScratch(NodeID node, SyncReplicationActivity.ActivityID lastReceived) {
+    logger.info("Unable to resume " + node + " from " + lastReceived + ", it will be resynced");
+    this.serverCheck.zapNode(node, L2HAZapNodeRequestProcessor.NODE_JOINED_WITH_DIRTY_DB, "missed activities are no longer available");
+  }
+
   public void batchAckReceived(ReplicationMessageAck context) {
     NodeID messageFrom = context.messageFrom();
+    int completed = 0;
     for (ReplicationAckTuple tuple : context.getBatch()) {
+      this.replicationSender.acknowledged(messageFrom, tuple.respondTo);
+      this.syncScheduler.received(messageFrom, tuple.respondTo);
       if (ReplicationResultCode.RECEIVED == tuple.result) {
         ActivePassiveAckWaiter waiter = waiters.get(tuple.respondTo);
         if (null != waiter) {
@@ -206,9 +294,12 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
       } else {
         // This is a normal completion.
         boolean isNormalComplete = true;
+        this.replicationSender.activityCompleted(messageFrom, tuple.respondTo);
         internalAckCompleted(tuple.respondTo, messageFrom, tuple.result, isNormalComplete);
+        completed += 1;
       }
     }
+    this.replicationSender.completed(messageFrom, completed);
   }
 
   /**
@@ -230,8 +321,64 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
     return passiveNodes;
   }
 
+  @Override
+  public boolean isRecording() {
+    return replicationLog != null;
+  }
+
   @Override
   public ActivePassiveAckWaiter replicateActivity(SyncReplicationActivity activity, Set<NodeID> all) {
+    if (replicationLog != null && isLogged(activity)) {
+      return logAndSendActivity(activity, all);
+    }
+    if (activity.isSyncActivity()) {
+      for (NodeID node : all) {
+        syncScheduler.beforeSend(node, activity);
+      }
+    }
+    return sendActivity(activity, all);
+  }
+
+  private static boolean isLogged(SyncReplicationActivity activity) {
+    switch (activity.getActivityType()) {
+      case FLUSH_LOCAL_PIPELINE:
+      case LOCAL_ENTITY_GC:
+      case RESUME_REPLICATION:
+        return false;
+      default:
+        // Sync activities are only for the passive being synced and are never replayed.
+        return !activity.isSyncActivity();
+    }
+  }
+
+  /**
+   * Appends the activity to the replication log and sends it, in a single task on the outgoing stage, so that the log
+   *  order is the wire order without holding a lock across the sends.
+   */
+  private ActivePassiveAckWaiter logAndSendActivity(SyncReplicationActivity activity, Set<NodeID> all) {
+    Set<NodeID> copy = new HashSet<>(all); 
+// don't replicate to a passive that is no longer there
+    copy.retainAll(passives());
+    ActivePassiveAckWaiter waiter = new ActivePassiveAckWaiter(copy, this);
+    if (!copy.isEmpty()) {
+      waiters.put(activity.getActivityID(), waiter);
+    }
+    this.replicationSender.inOrder(()->{
+      replicationLog.append(activity);
+      for (NodeID node : copy) {
+        this.replicationSender.replicateMessageInOrder(node, activity, notSentCallback(node, activity.getActivityID()));
+      }
+      // A passive resumed after the targets were chosen wasn't replayed this activity, so it gets it live.
+      for (NodeID node : all) {
+        if (!copy.contains(node) && passiveNodes.contains(node)) {
+          this.replicationSender.replicateMessageInOrder(node, activity, null);
+        }
+      }
+    });
+    return waiter;
+  }
+
+  private ActivePassiveAckWaiter sendActivity(SyncReplicationActivity activity, Set<NodeID> all) {
     Set<NodeID> copy = new HashSet<>(all); 
 // don't replicate to a passive that is no longer there
     copy.retainAll(passives());
@@ -247,13 +394,7 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
         boolean didSend = false;
         if (!isLocalFlush) {
           // This isn't local-only so try to replicate.
-          this.replicationSender.replicateMessage(node, activity, sent->{
-            if (!sent) {
-              // We didn't send so just ack complete, internally.
-              boolean isNormalComplete = true;
-              internalAckCompleted(activityID, node, null, isNormalComplete);
-            }
-          });
+          this.replicationSender.replicateMessage(node, activity, notSentCallback(node, activityID));
         }
 
       }
@@ -261,6 +402,17 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
     return waiter;
   }
 
+  private Consumer<Boolean> notSentCallback(NodeID node, SyncReplicationActivity.ActivityID activityID) {
+    return sent->{
+      if (!sent) {
+        // We didn't send so just ack complete, internally.
+        syncScheduler.received(node, activityID);
+        boolean isNormalComplete = true;
+        internalAckCompleted(activityID, node, null, isNormalComplete);
+      }
+    };
+  }
+
   private void removePassive(NodeID nodeID) {
     passiveSyncPool.execute(()->{
       while (!consistencyMgr.requestTransition(ServerMode.ACTIVE, nodeID, ConsistencyManager.Transition.REMOVE_PASSIVE)) {
@@ -273,10 +425,14 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
 // first remove it from the list of passive nodes so that anything sending new messages 
 // will have to remove it from the list of nodes to send to
       passiveNodes.remove(nodeID);
+      if (replicationLog != null && this.replicationSender.hasSyncFinished(nodeID)) {
+        departedPassives.add(nodeID);
+      }
 //  acknowledge all the messages for this node because it is gone, this may result in 
 //  a double ack locally but that is ok.  acknowledge is loose and can tolerate it. 
   //  remove the passive node from the sender first.  nothing else is going out
       this.replicationSender.removePassive(nodeID);
+      this.syncScheduler.removePassive(nodeID);
       removeWaiters(nodeID);
     });
   }
@@ -292,6 +448,17 @@ public class ActiveToPassiveReplication implements PassiveReplicationBroker, Gro
     synchronized(standByNodes) {
       standByNodes.add(nodeID);
     }
+    if (isResumable(nodeID)) {
+      // The state manager lets a departed passive back in as a standby, it must now ask to be caught up.
+      resyncTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          if (departedPassives.remove(nodeID) && serverCheck.isNodeConnected(nodeID)) {
+            serverCheck.zapNode(nodeID, L2HAZapNodeRequestProcessor.NODE_JOINED_WITH_DIRTY_DB, "no resync request received");
+          }
+        }
+      }, resyncRequestTimeout);
+    }
   }
 
   @Override
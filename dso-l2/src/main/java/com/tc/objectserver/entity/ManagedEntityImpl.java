@@ -296,16 +296,20 @@ public class ManagedEntityImpl implements ManagedEntity {
     int key = request.getAction() == ServerEntityAction.FAILOVER_FLUSH ? ConcurrencyStrategy.MANAGEMENT_KEY : ConcurrencyStrategy.UNIVERSAL_KEY;
     scheduleInOrder(request, resp, MessagePayload.emptyPayload(), resp::complete, key);
   }
-//  synchronized here because this method must be mutually exclusive with clearQueue
+//  synchronized here because this method must be mutually exclusive with clearQueue and with other callers.  the
+//  deferment queue is only touched under this lock
   private synchronized SchedulingRunnable scheduleInOrder(ServerEntityRequest request, ResultCapture results, MessagePayload payload, Runnable r, int ckey) {
     Trace.activeTrace().log("ManagedEntityImpl.scheduleInOrder");
-// this all makes sense because this is only called by the PTH single thread
+// on an active this is only called by the PTH single thread.  a passive may also call it from its apply lanes, one
+// lane per concurrency key, so invokes on one key still arrive in order.  the passive only schedules
+// management key and lifecycle requests once every lane is idle
 // deferCleared is cleared by one of the request queues
     if (!DirectExecutionMode.isActivated()) {
       if (isInActiveState) {
         Assert.assertTrue(Thread.currentThread().getName().contains(ServerConfigurationContext.VOLTRON_MESSAGE_STAGE));
       } else {
         Assert.assertTrue(Thread.currentThread().getName().contains(ServerConfigurationContext.PASSIVE_REPLICATION_STAGE) ||
+          Thread.currentThread().getName().contains(ServerConfigurationContext.PASSIVE_APPLY_LANE) ||
           Thread.currentThread().getName().contains(ServerConfigurationContext.L2_STATE_CHANGE_STAGE));
       }
     }
@@ -1059,6 +1063,9 @@ public class ManagedEntityImpl implements ManagedEntity {
 // wait for future is ok, occuring on sync executor thread
     try {
       if (!this.isDestroyed) {
+        // The end of each key is not waited on before the next key is started.  The passive applies sync activities in
+        //  order, so they are all known to be complete once the end of the entity is.
+        List<ActivePassiveAckWaiter> keysEnded = new ArrayList<>();
         for (Integer concurrency : concurrencyStrategy.getKeysForSynchronization()) {
     // make sure that concurrency key is in the valid range
           //  MGMT_KEY and UNIVERSAL keys are not valid for sync
@@ -1075,11 +1082,12 @@ public class ManagedEntityImpl implements ManagedEntity {
         //  wait for completed above waits for acknowledgment from the passive
         //  waitForCompletion below waits for completion of the local request processor
           sectionComplete.waitForCompletion();
-          executor.scheduleSync(SyncReplicationActivity.createEndEntityKeyMessage(id, version, fetchID, concurrency), passive).waitForCompleted();
+          keysEnded.add(executor.scheduleSync(SyncReplicationActivity.createEndEntityKeyMessage(id, version, fetchID, concurrency), passive));
         }
   //  end passive sync for an entity
   // wait for future is ok, occuring on sync executor thread
         executor.scheduleSync(SyncReplicationActivity.createEndEntityMessage(id, version, fetchID), passive).waitForCompleted();
+        keysEnded.forEach(ActivePassiveAckWaiter::waitForCompleted);
       }
     } finally {
       BarrierCompletion syncComplete = new BarrierCompletion();
@@ -1389,8 +1397,9 @@ public class ManagedEntityImpl implements ManagedEntity {
       for (NodeID passive : passives) {
         try {
           byte[] message = syncCodec.encode(concurrencyKey, payload);
+          // Not waited on, the passive sync scheduler holds this back while too many payload bytes are in flight.
           executor.scheduleSync(SyncReplicationActivity.createPayloadMessage(id, version, fetchID,
-                                                                             concurrencyKey, message, ""), passive).waitForReceived();
+                                                                             concurrencyKey, message, ""), passive);
         } catch (MessageCodecException ce) {
           throw new RuntimeException(ce);
         }
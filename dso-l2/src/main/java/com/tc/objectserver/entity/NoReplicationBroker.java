@@ -46,6 +46,11 @@ public class NoReplicationBroker implements PassiveReplicationBroker {
     return Collections.emptySet();
   }
 
+  @Override
+  public boolean isRecording() {
+    return false;
+  }
+
   @Override
   public ActivePassiveAckWaiter replicateActivity(SyncReplicationActivity activity, Set<NodeID> passives) {
     return NOOP_WAITER;
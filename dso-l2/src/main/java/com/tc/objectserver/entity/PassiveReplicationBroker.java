@@ -27,5 +27,10 @@ public interface PassiveReplicationBroker {
   ActivePassiveAckWaiter replicateActivity(SyncReplicationActivity activity, Set<NodeID> passives);
   void zapAndWait(NodeID node);
   Set<NodeID> passives();
+  /**
+   * @return true if replicated activities are to be handed over even when there is no passive to send them to, since a
+   *  passive which left may yet be caught up with them
+   */
+  boolean isRecording();
   void enterActiveState();
 }
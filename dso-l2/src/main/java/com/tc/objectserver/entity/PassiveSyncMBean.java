@@ -0,0 +1,47 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import java.util.Map;
+
+
+public interface PassiveSyncMBean {
+  /**
+   * @return the number of passives currently being synced
+   */
+  int getPassivesSyncing();
+  /**
+   * @return the bytes of entity sync payloads sent to passives but not yet received by them
+   */
+  long getBytesInFlight();
+  /**
+   * @return the most bytes of entity sync payloads that have been in flight at once since the bean was last reset
+   */
+  long getPeakBytesInFlight();
+  /**
+   * @return the maximum bytes of entity sync payloads allowed in flight across all passives being synced
+   */
+  long getMaximumBytesInFlight();
+  /**
+   * the progress of the sync of each passive, with the entities, concurrency keys and bytes synced so far.
+   *
+   * @return a description of the progress keyed by passive
+   */
+  Map<String, String> getSyncProgress();
+}
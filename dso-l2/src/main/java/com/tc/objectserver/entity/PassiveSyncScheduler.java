@@ -0,0 +1,285 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.management.AbstractTerracottaMBean;
+import com.tc.management.TerracottaManagement;
+import com.tc.net.NodeID;
+import com.tc.text.PrettyPrintable;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Paces passive sync and tracks its progress.  Entity sync payloads are streamed to the passives being synced without
+ * waiting for each one to be received, as long as the payloads not yet received stay within a byte budget shared by
+ * all syncs.  The sync activities sent to each passive are counted for the state dump and JMX.
+ */
+public class PassiveSyncScheduler implements PrettyPrintable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PassiveSyncScheduler.class);
+
+  private final long maximumBytesInFlight;
+  private final Map<NodeID, Progress> syncs = new ConcurrentHashMap<>();
+  // guarded by this
+  private long bytesInFlight;
+  // guarded by this
+  private long peakBytesInFlight;
+
+  public PassiveSyncScheduler(long maximumBytesInFlight) {
+    this.maximumBytesInFlight = maximumBytesInFlight;
+  }
+
+  public void initMBean() {
+    try {
+      ObjectName MBEAN_NAME = TerracottaManagement.createObjectName(null, "PassiveSync", TerracottaManagement.MBeanDomain.PUBLIC);
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      // a server started again in the same JVM takes over the name from the scheduler it replaced
+      if (server.isRegistered(MBEAN_NAME)) {
+        server.unregisterMBean(MBEAN_NAME);
+      }
+      server.registerMBean(new PassiveSyncMBeanImpl(), MBEAN_NAME);
+    } catch (Exception e) {
+      LOGGER.warn("Passive sync MBean not initialized", e);
+    }
+  }
+
+  /**
+   * Called on the sync thread before a sync activity is sent to a passive.  Blocks an entity payload until it fits in
+   * the budget of bytes in flight.  A payload larger than the whole budget is let through once nothing else is in flight.
+   */
+  void beforeSend(NodeID passive, SyncReplicationActivity activity) {
+    switch (activity.getActivityType()) {
+      case SYNC_BEGIN:
+        SyncReplicationActivity.EntityCreationTuple[] entities = activity.getEntitiesToCreateForSync();
+        removePassive(passive);
+        syncs.put(passive, new Progress(entities != null ? entities.length : 0));
+        break;
+      case SYNC_ENTITY_CONCURRENCY_PAYLOAD:
+        Progress progress = syncs.get(passive);
+        if (progress != null) {
+          reserve(passive, progress, activity);
+        }
+        break;
+      case SYNC_ENTITY_CONCURRENCY_END:
+        syncs.computeIfPresent(passive, (node, p)->{
+          p.keysSynced += 1;
+          return p;
+        });
+        break;
+      case SYNC_ENTITY_END:
+        syncs.computeIfPresent(passive, (node, p)->{
+          p.entitiesSynced += 1;
+          return p;
+        });
+        break;
+      case SYNC_END:
+        syncs.computeIfPresent(passive, (node, p)->{
+          p.finished = System.nanoTime();
+          return p;
+        });
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Called when a passive has received an activity, or it will never be sent to it, to release its share of the budget
+   * if it is a sync payload.
+   */
+  void received(NodeID passive, SyncReplicationActivity.ActivityID activityID) {
+    Progress progress = syncs.get(passive);
+    if (progress != null) {
+      Integer size = progress.inFlight.remove(activityID);
+      if (size != null) {
+        release(size);
+      }
+    }
+  }
+
+  /**
+   * Forgets a passive which has left, releasing everything it still had in flight.
+   */
+  synchronized void removePassive(NodeID passive) {
+    Progress progress = syncs.remove(passive);
+    if (progress != null) {
+      releaseAll(progress);
+    }
+  }
+
+  private synchronized void removeFinished(NodeID passive, Progress progress) {
+    if (progress.finished != 0 && syncs.remove(passive, progress)) {
+      releaseAll(progress);
+    }
+  }
+
+  private synchronized void releaseAll(Progress progress) {
+    progress.inFlight.keySet().forEach(id->{
+      Integer size = progress.inFlight.remove(id);
+      if (size != null) {
+        bytesInFlight -= size;
+      }
+    });
+    notifyAll();
+  }
+
+  private synchronized void reserve(NodeID passive, Progress progress, SyncReplicationActivity activity) {
+    int size = activity.getEstimatedSize();
+    boolean interrupted = false;
+    while (bytesInFlight > 0 && bytesInFlight + size > maximumBytesInFlight && syncs.get(passive) == progress) {
+      try {
+        wait();
+      } catch (InterruptedException ie) {
+        interrupted = true;
+      }
+    }
+    // A passive which left while this waited is not charged, its payloads are dropped.
+    if (syncs.get(passive) == progress) {
+      bytesInFlight += size;
+      peakBytesInFlight = Math.max(peakBytesInFlight, bytesInFlight);
+      // Recorded before the send so the receipt can't come back ahead of it.
+      progress.inFlight.put(activity.getActivityID(), size);
+      progress.bytesSynced += size;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private synchronized void release(int size) {
+    bytesInFlight -= size;
+    notifyAll();
+  }
+
+  public synchronized long getBytesInFlight() {
+    return bytesInFlight;
+  }
+
+  public synchronized long getPeakBytesInFlight() {
+    return peakBytesInFlight;
+  }
+
+  /**
+   * Forgets the progress of the syncs which have finished and restarts the high-water mark of bytes in flight from
+   * what is in flight now.  Syncs still running keep their progress.
+   */
+  public void reset() {
+    syncs.forEach(this::removeFinished);
+    synchronized (this) {
+      peakBytesInFlight = bytesInFlight;
+    }
+  }
+
+  public int getPassivesSyncing() {
+    return (int)syncs.values().stream().filter(p->p.finished == 0).count();
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("maximumBytesInFlight", maximumBytesInFlight);
+    map.put("bytesInFlight", getBytesInFlight());
+    map.put("peakBytesInFlight", getPeakBytesInFlight());
+    Map<String, Object> passives = new LinkedHashMap<>();
+    map.put("passives", passives);
+    for (Map.Entry<NodeID, Progress> entry : syncs.entrySet()) {
+      Map<String, Object> passive = new LinkedHashMap<>();
+      entry.getValue().reportStateToMap(passive);
+      passives.put(entry.getKey().toString(), passive);
+    }
+    return map;
+  }
+
+  private static class Progress {
+    private final int entities;
+    private final long started = System.nanoTime();
+    private final Map<SyncReplicationActivity.ActivityID, Integer> inFlight = new ConcurrentHashMap<>();
+    // Only updated by the thread syncing the passive.
+    private volatile int entitiesSynced;
+    private volatile int keysSynced;
+    private volatile long bytesSynced;
+    private volatile long finished;
+
+    Progress(int entities) {
+      this.entities = entities;
+    }
+
+    void reportStateToMap(Map<String, Object> map) {
+      map.put("complete", finished != 0);
+      map.put("entities", entities);
+      map.put("entitiesSynced", entitiesSynced);
+      map.put("keysSynced", keysSynced);
+      map.put("bytesSynced", bytesSynced);
+      map.put("bytesInFlight", inFlight.values().stream().mapToLong(Integer::longValue).sum());
+      map.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(((finished != 0) ? finished : System.nanoTime()) - started));
+    }
+
+    @Override
+    public String toString() {
+      return "entities " + entitiesSynced + "/" + entities + ", keys " + keysSynced + ", bytes " + bytesSynced + ((finished != 0) ? ", complete" : "");
+    }
+  }
+
+  public class PassiveSyncMBeanImpl extends AbstractTerracottaMBean implements PassiveSyncMBean {
+
+    public PassiveSyncMBeanImpl() throws Exception {
+      super(PassiveSyncMBean.class, false);
+    }
+
+    @Override
+    public int getPassivesSyncing() {
+      return PassiveSyncScheduler.this.getPassivesSyncing();
+    }
+
+    @Override
+    public long getBytesInFlight() {
+      return PassiveSyncScheduler.this.getBytesInFlight();
+    }
+
+    @Override
+    public long getPeakBytesInFlight() {
+      return PassiveSyncScheduler.this.getPeakBytesInFlight();
+    }
+
+    @Override
+    public long getMaximumBytesInFlight() {
+      return maximumBytesInFlight;
+    }
+
+    @Override
+    public Map<String, String> getSyncProgress() {
+      Map<String, String> progress = new LinkedHashMap<>();
+      syncs.forEach((node, p)->progress.put(node.toString(), p.toString()));
+      return progress;
+    }
+
+    @Override
+    public void reset() {
+      PassiveSyncScheduler.this.reset();
+    }
+  }
+}
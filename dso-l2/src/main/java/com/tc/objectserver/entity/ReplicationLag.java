@@ -0,0 +1,116 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.stats.PowerOfTwoHistogram;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far one passive is behind the active:  the activities replicated to it which it has not yet completed, their
+ * size, and how long the oldest of them has been waiting.  Also keeps a histogram of the time from an activity being
+ * replicated to its completion on the passive, in power of two buckets of microseconds.
+ */
+class ReplicationLag {
+  private static final int BUCKETS = 40;
+
+  private final Map<SyncReplicationActivity.ActivityID, Pending> pending = new ConcurrentHashMap<>();
+  private final AtomicLong bytes = new AtomicLong();
+  private final PowerOfTwoHistogram latency = new PowerOfTwoHistogram(BUCKETS);
+
+  void replicated(SyncReplicationActivity activity, long now) {
+    int size = activity.getEstimatedSize();
+    this.bytes.addAndGet(size);
+    this.pending.put(activity.getActivityID(), new Pending(now, size));
+  }
+
+  /**
+   * The activity will never be acknowledged, it was filtered from the stream.
+   */
+  void discarded(SyncReplicationActivity.ActivityID activityID) {
+    Pending p = this.pending.remove(activityID);
+    if (p != null) {
+      this.bytes.addAndGet(-p.size);
+    }
+  }
+
+  /**
+   * @return the time from replication to completion of the activity in nanoseconds, -1 if it wasn't pending
+   */
+  long completed(SyncReplicationActivity.ActivityID activityID, long now) {
+    Pending p = this.pending.remove(activityID);
+    if (p == null) {
+      return -1;
+    }
+    this.bytes.addAndGet(-p.size);
+    long elapsed = Math.max(0, now - p.replicated);
+    this.latency.add(TimeUnit.NANOSECONDS.toMicros(elapsed));
+    return elapsed;
+  }
+
+  long getActivities() {
+    return this.pending.size();
+  }
+
+  long getBytes() {
+    return this.bytes.get();
+  }
+
+  /**
+   * @return how long the oldest activity the passive has yet to complete has been waiting, in milliseconds
+   */
+  long getLagMillis(long now) {
+    long oldest = now;
+    for (Pending p : this.pending.values()) {
+      oldest = Math.min(oldest, p.replicated);
+    }
+    return TimeUnit.NANOSECONDS.toMillis(now - oldest);
+  }
+
+  /**
+   * @return the upper bound in microseconds of the bucket holding the given fraction of completions
+   */
+  long getLatencyPercentile(double fraction) {
+    return this.latency.percentile(fraction);
+  }
+
+  void reportStateToMap(Map<String, Object> map, long now) {
+    map.put("lagActivities", getActivities());
+    map.put("lagBytes", getBytes());
+    map.put("lagMillis", getLagMillis(now));
+    map.put("completedActivities", this.latency.getCount());
+    map.put("ackLatencyP50Micros", getLatencyPercentile(0.5));
+    map.put("ackLatencyP99Micros", getLatencyPercentile(0.99));
+    map.put("ackLatencyMaxMicros", this.latency.getMaximum());
+    map.put("ackLatencyMicros", this.latency.getBuckets());
+  }
+
+  private static class Pending {
+    private final long replicated;
+    private final int size;
+
+    Pending(long replicated, int size) {
+      this.replicated = replicated;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,414 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.bytes.TCByteBufferFactory;
+import com.tc.io.TCByteBufferInputStream;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.l2.msg.SyncReplicationActivity;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A bounded record of the most recent activities replicated to the passives, in the order they were handed to the
+ * {@link ReplicationSender}.  A passive which drops out of the stripe for a short time can be caught up by replaying
+ * what followed the last activity it received instead of being synced from scratch.
+ * <p>
+ * The newest activities are kept in memory, as they were sent, and counted by their estimated size.  Once they exceed
+ * the memory bound, the oldest are handed to a background thread which serializes and spills them to segment files in
+ * the spill directory, and once those exceed the disk bound the oldest segment is deleted.  Without a spill directory
+ * the oldest activities are simply forgotten.
+ * <p>
+ * Callers are expected to append from the thread which sends the activities so that the log order matches the wire
+ * order.  Appending never touches the disk, so a slow disk does not hold up the sends.  Should the spilling fall a
+ * whole memory bound behind, the oldest activities waiting for it are forgotten instead.
+ */
+class ReplicationLog implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReplicationLog.class);
+  private static final String SEGMENT_PREFIX = "replication-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private final long memoryLimit;
+  private final long diskLimit;
+  private final File directory;
+  private final Executor spiller;
+  private final Deque<Entry> memory = new ArrayDeque<>();
+  // evicted from memory and waiting for the spiller, older than everything in memory
+  private final Deque<Entry> spilling = new ArrayDeque<>();
+  private final Deque<Spilled> spilled = new ArrayDeque<>();
+  private final Deque<Segment> segments = new ArrayDeque<>();
+  private long memoryUsed;
+  private long spillingUsed;
+  private boolean draining;
+  private long diskUsed;
+  private long forgotten;
+  // only used by the spiller
+  private int nextSegment;
+
+  ReplicationLog(long memoryLimit, long diskLimit, File directory) {
+    this(memoryLimit, diskLimit, directory, null);
+  }
+
+  /**
+   * @param spiller runs the spilling, or null for a thread of the log's own
+   */
+  ReplicationLog(long memoryLimit, long diskLimit, File directory, Executor spiller) {
+    this.memoryLimit = memoryLimit;
+    this.diskLimit = (directory == null) ? 0 : diskLimit;
+    this.directory = directory;
+    this.spiller = (this.diskLimit <= 0 || spiller != null) ? spiller : spillerThread(directory);
+    if (directory != null) {
+      directory.mkdirs();
+      // Anything left by a previous run is of no use to the passives of this one.
+      File[] stale = directory.listFiles((dir, name)->name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+      if (stale != null) {
+        for (File file : stale) {
+          file.delete();
+        }
+      }
+    }
+  }
+
+  private static Executor spillerThread(File directory) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, "Replication log spiller - " + directory.getName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static byte[] serialize(SyncReplicationActivity activity) {
+    TCByteBufferOutputStream out = new TCByteBufferOutputStream();
+    activity.serializeTo(out);
+    TCByteBuffer[] buffers = out.toArray();
+    byte[] data = new byte[out.getBytesWritten()];
+    int offset = 0;
+    for (TCByteBuffer buffer : buffers) {
+      int length = buffer.remaining();
+      buffer.get(data, offset, length);
+      offset += length;
+    }
+    return data;
+  }
+
+  private static SyncReplicationActivity deserialize(byte[] data) throws IOException {
+    return SyncReplicationActivity.deserializeFrom(new TCByteBufferInputStream(TCByteBufferFactory.wrap(data)));
+  }
+
+  /**
+   * Records an activity.  It is only serialized if it is spilled to disk, which happens on the spiller's thread.
+   */
+  synchronized void append(SyncReplicationActivity activity) {
+    Entry entry = new Entry(activity);
+    memory.addLast(entry);
+    memoryUsed += entry.size;
+    while (memoryUsed > memoryLimit && !memory.isEmpty()) {
+      Entry oldest = memory.removeFirst();
+      memoryUsed -= oldest.size;
+      if (spiller == null) {
+        forgotten += 1;
+      } else {
+        spilling.addLast(oldest);
+        spillingUsed += oldest.size;
+      }
+    }
+    while (spillingUsed > memoryLimit) {
+      // the disk is a whole memory bound behind, rather than wait for it the oldest activities are given up
+      Entry lost = spilling.removeFirst();
+      spillingUsed -= lost.size;
+      forgotten += 1;
+      forgetSpilled();
+    }
+    if (!spilling.isEmpty() && !draining) {
+      draining = true;
+      spiller.execute(this::drainSpilling);
+    }
+  }
+
+  /**
+   * @return true if an activity with this id is still in the log, so everything after it can be replayed
+   */
+  synchronized boolean contains(SyncReplicationActivity.ActivityID id) {
+    return find(memory, id.id) != null || find(spilling, id.id) != null || find(spilled, id.id) != null;
+  }
+
+  /**
+   * Waits until every activity handed to the spiller has been written or given up.
+   */
+  synchronized void awaitSpilled() throws InterruptedException {
+    while (draining) {
+      wait();
+    }
+  }
+
+  /**
+   * Collects every activity recorded after the given one, in the order they were recorded.
+   *
+   * @return the activities, or null if the given activity is no longer (or was never) in the log
+   */
+  synchronized List<SyncReplicationActivity> after(SyncReplicationActivity.ActivityID id) throws IOException {
+    List<SyncReplicationActivity> replay = new ArrayList<>();
+    Iterator<Entry> fromMemory = find(memory, id.id);
+    if (fromMemory == null) {
+      Iterator<Entry> fromSpilling = find(spilling, id.id);
+      if (fromSpilling == null) {
+        Iterator<Spilled> fromDisk = find(spilled, id.id);
+        if (fromDisk == null) {
+          return null;
+        }
+        while (fromDisk.hasNext()) {
+          replay.add(deserialize(fromDisk.next().read()));
+        }
+        fromSpilling = spilling.iterator();
+      }
+      while (fromSpilling.hasNext()) {
+        replay.add(fromSpilling.next().activity);
+      }
+      fromMemory = memory.iterator();
+    }
+    while (fromMemory.hasNext()) {
+      replay.add(fromMemory.next().activity);
+    }
+    return replay;
+  }
+
+  synchronized void reportStateToMap(Map<String, Object> map) {
+    map.put("inMemory", memory.size());
+    map.put("inMemoryBytes", memoryUsed);
+    map.put("spilling", spilling.size());
+    map.put("spillingBytes", spillingUsed);
+    map.put("onDisk", spilled.size());
+    map.put("onDiskBytes", diskUsed);
+    map.put("forgotten", forgotten);
+  }
+
+  @Override
+  public synchronized void close() {
+    memory.clear();
+    memoryUsed = 0;
+    spilling.clear();
+    spillingUsed = 0;
+    spilled.clear();
+    while (!segments.isEmpty()) {
+      segments.removeFirst().delete();
+    }
+    diskUsed = 0;
+  }
+
+  private static <T extends Record> Iterator<T> find(Deque<T> records, long id) {
+    // Recent activities are the likeliest to be asked for but the deques only iterate forwards, so this is a scan.
+    Iterator<T> it = records.iterator();
+    while (it.hasNext()) {
+      if (it.next().id() == id) {
+        return it;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Spills the activities handed to the spiller, in order, until there are none left.  The serialization and the write
+   * happen outside the log's lock, so appends and lookups only wait for the bookkeeping.
+   */
+  private void drainSpilling() {
+    while (true) {
+      Entry entry;
+      Segment segment;
+      synchronized (this) {
+        entry = spilling.peekFirst();
+        if (entry == null) {
+          draining = false;
+          notifyAll();
+          return;
+        }
+        segment = segments.peekLast();
+      }
+      Segment created = null;
+      try {
+        if (segment == null || segment.size >= diskLimit / 2) {
+          created = new Segment(new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX)));
+          segment = created;
+        }
+        byte[] data = serialize(entry.activity);
+        long offset = segment.append(data);
+        synchronized (this) {
+          if (spilling.peekFirst() != entry) {
+            // given up or the log closed while it was written
+            if (created != null) {
+              created.delete();
+            }
+            continue;
+          }
+          if (created != null) {
+            segments.addLast(created);
+          }
+          spilling.removeFirst();
+          spillingUsed -= entry.size;
+          spilled.addLast(new Spilled(entry.id(), segment, offset, data.length));
+          diskUsed += data.length;
+          while (diskUsed > diskLimit && segments.size() > 1) {
+            Segment oldest = segments.removeFirst();
+            while (!spilled.isEmpty() && spilled.peekFirst().segment == oldest) {
+              spilled.removeFirst();
+              forgotten += 1;
+            }
+            diskUsed -= oldest.size;
+            oldest.delete();
+          }
+        }
+      } catch (IOException ioe) {
+        if (created != null) {
+          created.delete();
+        }
+        synchronized (this) {
+          if (spilling.peekFirst() == entry) {
+            LOGGER.warn("unable to spill replicated activity to " + directory + ", it will not be available for resync", ioe);
+            spilling.removeFirst();
+            spillingUsed -= entry.size;
+            forgotten += 1;
+            forgetSpilled();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets everything on disk since an activity which followed it was lost, and a replay must never skip one.  The
+   * last segment is left for the spiller, which may be writing to it.
+   */
+  private void forgetSpilled() {
+    forgotten += spilled.size();
+    spilled.clear();
+    while (segments.size() > 1) {
+      segments.removeFirst().delete();
+    }
+    Segment last = segments.peekLast();
+    diskUsed = (last == null) ? 0 : last.size;
+  }
+
+  private interface Record {
+    long id();
+  }
+
+  private static class Entry implements Record {
+    private final SyncReplicationActivity activity;
+    private final int size;
+
+    Entry(SyncReplicationActivity activity) {
+      this.activity = activity;
+      this.size = activity.getEstimatedSize();
+    }
+
+    @Override
+    public long id() {
+      return activity.getActivityID().id;
+    }
+  }
+
+  private static class Spilled implements Record {
+    private final long id;
+    private final Segment segment;
+    private final long offset;
+    private final int length;
+
+    Spilled(long id, Segment segment, long offset, int length) {
+      this.id = id;
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public long id() {
+      return id;
+    }
+
+    byte[] read() throws IOException {
+      return segment.read(offset, length);
+    }
+  }
+
+  private static class Segment {
+    private final File file;
+    private final FileChannel channel;
+    // written by the spiller only
+    private volatile long size;
+
+    Segment(File file) throws IOException {
+      this.file = file;
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      this.channel.truncate(0);
+    }
+
+    long append(byte[] data) throws IOException {
+      long offset = size;
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer, offset + buffer.position());
+      }
+      size += data.length;
+      return offset;
+    }
+
+    byte[] read(long offset, int length) throws IOException {
+      byte[] data = new byte[length];
+      ByteBuffer buffer = ByteBuffer.wrap(data);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          throw new IOException("truncated replication log segment " + file);
+        }
+      }
+      return data;
+    }
+
+    void delete() {
+      try {
+        channel.close();
+      } catch (IOException ioe) {
+        LOGGER.debug("closing " + file, ioe);
+      }
+      if (!file.delete()) {
+        LOGGER.warn("unable to delete replication log segment " + file);
+      }
+    }
+  }
+}
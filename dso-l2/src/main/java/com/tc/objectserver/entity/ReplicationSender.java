@@ -28,16 +28,24 @@ import com.tc.net.groups.GroupException;
 import com.tc.net.groups.GroupManager;
 import com.tc.object.FetchID;
 import com.tc.objectserver.handler.GroupMessageBatchContext;
+import com.tc.objectserver.handler.ReplicationWindow;
 import com.tc.properties.TCPropertiesImpl;
+import com.tc.text.PrettyPrintable;
 import com.tc.util.Assert;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import org.slf4j.Logger;
@@ -45,12 +53,28 @@ import org.slf4j.LoggerFactory;
 import org.terracotta.entity.ConcurrencyStrategy;
 
 
-public class ReplicationSender {
+public class ReplicationSender implements PrettyPrintable {
   private static final int DEFAULT_BATCH_LIMIT = 64;
   private static final int DEFAULT_INFLIGHT_MESSAGES = 1;
+  private static final int DEFAULT_MAX_INFLIGHT_MESSAGES = 16;
+  private static final int DEFAULT_MAX_BATCH_LIMIT = 64 * DEFAULT_BATCH_LIMIT;
+  private static final long DEFAULT_BATCH_BYTES = 1024 * 1024;
+  private static final long DEFAULT_LAG_ALARM_MILLIS = 10000;
   // Find out how many messages we should keep in-flight and our maximum batch size.
   private static int maximumBatchSize = TCPropertiesImpl.getProperties().getInt("active-passive.batchsize", DEFAULT_BATCH_LIMIT);
   private static int idealMessagesInFlight = TCPropertiesImpl.getProperties().getInt("active-passive.inflight", DEFAULT_INFLIGHT_MESSAGES);
+  // Batches are also closed once their activities reach this many (estimated) bytes, and an activity of at least this
+  //  size is sent in a message of its own.  0 disables the byte bound.
+  private static long maximumBatchBytes = TCPropertiesImpl.getProperties().getLong("active-passive.batchbytes", DEFAULT_BATCH_BYTES);
+  // When adaptive, in-flight batches and batch size are driven by the measured ack round trip and passive apply rate,
+  //  between the limits below and the fixed values above, starting from the fixed values.  Off by default since it
+  //  counts a batch as in flight until the passive acks it, rather than until it is written to the network.
+  private static boolean adaptiveWindow = TCPropertiesImpl.getProperties().getBoolean("active-passive.adaptive", false);
+  private static int maximumMessagesInFlight = TCPropertiesImpl.getProperties().getInt("active-passive.inflight.max", DEFAULT_MAX_INFLIGHT_MESSAGES);
+  private static int maximumAdaptiveBatchSize = TCPropertiesImpl.getProperties().getInt("active-passive.batchsize.max", DEFAULT_MAX_BATCH_LIMIT);
+  // Lag listeners are told when the oldest activity a passive has yet to complete is older than this, and again once
+  //  it has caught up to half of it.  0 disables the alarm.
+  private static long lagAlarmMillis = TCPropertiesImpl.getProperties().getLong("active-passive.lag.alarm", DEFAULT_LAG_ALARM_MILLIS);
   //  this is all single threaded.  If there is any attempt to make this multi-threaded,
   //  control structures must be fixed
   private final GroupManager<AbstractGroupMessage> group;
@@ -61,17 +85,51 @@ public class ReplicationSender {
   private static final boolean debugMessaging = PLOGGER.isDebugEnabled();
 
   private final Collection<Consumer<NodeID>> failureListeners = new CopyOnWriteArrayList<>();
+  private final Collection<BiConsumer<NodeID, Map<String, Object>>> lagListeners = new CopyOnWriteArrayList<>();
   private final Sink<Runnable> outgoing;
+  // Replication and completions also check the lag, the timer catches a passive which stopped completing while nothing
+  //  is being replicated.
+  private final Timer lagTimer;
 
   public ReplicationSender(Stage<Runnable> outgoing, GroupManager<AbstractGroupMessage> group) {
     this.group = group;
     this.outgoing = outgoing.getSink();
+    if (lagAlarmMillis > 0) {
+      long period = Math.max(1, lagAlarmMillis / 4);
+      this.lagTimer = new Timer("Replication lag timer", true);
+      this.lagTimer.schedule(new TimerTask() {
+        @Override
+        public void run() {
+          checkLag();
+        }
+      }, period, period);
+    } else {
+      this.lagTimer = null;
+    }
+  }
+
+  /**
+   * Measures the lag of every passive against the alarm threshold.
+   */
+  void checkLag() {
+    long now = System.nanoTime();
+    for (SyncState state : filtering.values()) {
+      state.checkLag(now);
+    }
   }
 
   public void addFailedToSendListener(Consumer<NodeID> failed) {
     failureListeners.add(failed);
   }
   
+  /**
+   * Registers for the lag of a passive crossing the alarm threshold, either way.  The listener gets the passive's lag
+   * state, with "lagging" set if it is over the threshold.
+   */
+  public void addLagListener(BiConsumer<NodeID, Map<String, Object>> listener) {
+    lagListeners.add(listener);
+  }
+
   private void notifySendFailure(NodeID node) {
     failureListeners.forEach(c->c.accept(node));
   }
@@ -80,6 +138,59 @@ public class ReplicationSender {
     filtering.remove(dest);
   }
 
+  /**
+   * Called when a passive acknowledges an activity, either on receipt or on completion.
+   */
+  public void acknowledged(NodeID passive, SyncReplicationActivity.ActivityID activityID) {
+    SyncState state = filtering.get(passive);
+    if (state != null) {
+      state.batchContext.acknowledged(activityID);
+    }
+  }
+
+  /**
+   * Called when a passive reports it finished applying an activity.
+   */
+  public void activityCompleted(NodeID passive, SyncReplicationActivity.ActivityID activityID) {
+    SyncState state = filtering.get(passive);
+    if (state != null) {
+      long now = System.nanoTime();
+      state.lag.completed(activityID, now);
+      state.checkLag(now);
+    }
+  }
+
+  /**
+   * Called when a passive reports it finished applying some activities.
+   */
+  public void completed(NodeID passive, int count) {
+    SyncState state = filtering.get(passive);
+    if (state != null) {
+      state.batchContext.completed(count);
+    }
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("adaptive", adaptiveWindow);
+    map.put("maximumBatchBytes", maximumBatchBytes);
+    Map<String, Object> passives = new LinkedHashMap<>();
+    map.put("passives", passives);
+    for (Map.Entry<NodeID, SyncState> entry : filtering.entrySet()) {
+      Map<String, Object> passive = new LinkedHashMap<>();
+      passive.put("syncing", entry.getValue().isSyncOccuring());
+      entry.getValue().lag.reportStateToMap(passive, System.nanoTime());
+      ReplicationWindow window = entry.getValue().batchContext.getWindow();
+      if (window != null) {
+        window.reportStateToMap(passive);
+      }
+      passives.put(entry.getKey().toString(), passive);
+    }
+    return map;
+  }
+
   public void addPassive(NodeID dest, SyncReplicationActivity activity) {
     // Set up the sync state.
     SyncState state = createAndRegisterSyncState(dest);
@@ -87,7 +198,47 @@ public class ReplicationSender {
     state.attemptToSend(activity);
   }
 
+  /**
+   * Starts a new stream to a passive which already holds a fully synced copy of the active's state, so everything sent
+   * to it passes without sync filtering.
+   */
+  public void resumePassive(NodeID dest) {
+    SyncState state = createAndRegisterSyncState(dest);
+    state.begun = true;
+    state.complete = true;
+  }
+
+  /**
+   * @return true if the passive is known and its sync has completed
+   */
+  public boolean hasSyncFinished(NodeID dest) {
+    SyncState state = filtering.get(dest);
+    return state != null && state.hasSyncFinished();
+  }
+
   public void replicateMessage(NodeID dest, SyncReplicationActivity activity, Consumer<Boolean> sentCallback) {
+    Optional<SyncState> syncing = prepareToSend(dest, activity);
+    outgoing.addToSink(()->deliver(syncing, activity, sentCallback));
+  }
+
+  /**
+   * Runs the task on the outgoing stage.  That stage is single threaded, so the task sees the activities queued by
+   * {@link #replicateMessage(NodeID, SyncReplicationActivity, Consumer)} before it already sent, and none of those queued
+   * after it, to every passive.
+   */
+  public void inOrder(Runnable task) {
+    outgoing.addToSink(task);
+  }
+
+  /**
+   * Like {@link #replicateMessage(NodeID, SyncReplicationActivity, Consumer)} but sends immediately, so it may only be
+   * called from a task given to {@link #inOrder(Runnable)}.
+   */
+  public void replicateMessageInOrder(NodeID dest, SyncReplicationActivity activity, Consumer<Boolean> sentCallback) {
+    deliver(prepareToSend(dest, activity), activity, sentCallback);
+  }
+
+  private Optional<SyncState> prepareToSend(NodeID dest, SyncReplicationActivity activity) {
     if (debugLogging) {
       logger.debug("WIRE:" + activity);
     }
@@ -95,13 +246,22 @@ public class ReplicationSender {
       PLOGGER.debug("SENDING:" + activity.getDebugID());
     }
     Optional<SyncState> syncing = getSyncState(dest, activity);
-    outgoing.addToSink(()->{
-      Optional<Boolean> didSend = syncing.map(state->state.attemptToSend(activity));
-      if (sentCallback != null) {
-        sentCallback.accept(didSend.orElse(false));
-      }
+    syncing.ifPresent(state->{
+      long now = System.nanoTime();
+      state.lag.replicated(activity, now);
+      state.checkLag(now);
     });
+    return syncing;
+  }
 
+  private void deliver(Optional<SyncState> syncing, SyncReplicationActivity activity, Consumer<Boolean> sentCallback) {
+    Optional<Boolean> didSend = syncing.map(state->state.attemptToSend(activity));
+    if (!didSend.orElse(true)) {
+      syncing.get().lag.discarded(activity.getActivityID());
+    }
+    if (sentCallback != null) {
+      sentCallback.accept(didSend.orElse(false));
+    }
   }
   
   private SyncState createAndRegisterSyncState(NodeID nodeid) {
@@ -154,12 +314,47 @@ public class ReplicationSender {
 
     private final GroupMessageBatchContext<ReplicationMessage, SyncReplicationActivity> batchContext;
     private final NodeID  target;
+    private final ReplicationLag lag = new ReplicationLag();
+    // The lag is only measured against the alarm threshold a few times per threshold period.
+    private final AtomicLong nextLagCheck = new AtomicLong(System.nanoTime());
+    private volatile boolean lagging;
     
     public SyncState(NodeID target) {  
       this.target = target;
-      this.batchContext = new GroupMessageBatchContext<>(ReplicationMessage::createActivityContainer, group, target, maximumBatchSize, idealMessagesInFlight, (node)->flushBatch());  
+      ReplicationWindow window = adaptiveWindow ? new ReplicationWindow(maximumBatchSize, maximumAdaptiveBatchSize, idealMessagesInFlight, Math.max(idealMessagesInFlight, maximumMessagesInFlight)) : null;
+      // Payloads compressed on the way in are only sent that way to passives which said they can read them.
+      boolean compress = group.acceptsCompression(target);
+      this.batchContext = new GroupMessageBatchContext<>(activity->{
+            ReplicationMessage message = ReplicationMessage.createActivityContainer(activity);
+            message.setCompressPayloads(compress);
+            return message;
+          }, group, target, maximumBatchSize, idealMessagesInFlight, (node)->flushBatch(),
+          maximumBatchBytes, SyncReplicationActivity::getEstimatedSize, window, SyncReplicationActivity::getActivityID);
     }
     
+    void checkLag(long now) {
+      long next = nextLagCheck.get();
+      if (lagAlarmMillis <= 0 || now - next < 0 || !nextLagCheck.compareAndSet(next, now + TimeUnit.MILLISECONDS.toNanos(lagAlarmMillis) / 4)) {
+        return;
+      }
+      long lagMillis = lag.getLagMillis(now);
+      boolean over = lagging ? lagMillis > lagAlarmMillis / 2 : lagMillis > lagAlarmMillis;
+      if (over != lagging) {
+        lagging = over;
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("passive", target.toString());
+        state.put("lagging", over);
+        state.put("lagAlarmMillis", lagAlarmMillis);
+        lag.reportStateToMap(state, now);
+        if (over) {
+          logger.warn("passive " + target + " is " + lagMillis + "ms behind with " + state.get("lagActivities") + " activities outstanding");
+        } else {
+          logger.info("passive " + target + " has caught up to " + lagMillis + "ms behind");
+        }
+        lagListeners.forEach(l->l.accept(target, state));
+      }
+    }
+
     public boolean isSyncOccuring() {
       return (begun && !complete);
     }
@@ -21,6 +21,7 @@ package com.tc.objectserver.entity;
 import com.tc.async.api.MultiThreadedEventContext;
 import com.tc.async.api.Sink;
 import com.tc.async.api.StageManager;
+import com.tc.l2.msg.ReplicationCompression;
 import com.tc.l2.msg.SyncReplicationActivity;
 import com.tc.net.ClientID;
 import com.tc.net.NodeID;
@@ -39,6 +40,8 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,6 +54,11 @@ public class RequestProcessor {
   private final Sink<EntityRequest> syncExecution;
   private boolean isActive = false;
   private static final Logger PLOGGER = LoggerFactory.getLogger(MessagePayload.class);
+  // Replicated payloads of at least this many bytes are deflated for passives which accept compression.  0 disables it.
+  // The payload is only deflated when the activity is first sent to such a passive, on the replication sender stage.
+  private static final int compressionThreshold = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.ACTIVE_PASSIVE_COMPRESSION_THRESHOLD, 0);
+  private static final int compressionLevel = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.ACTIVE_PASSIVE_COMPRESSION_LEVEL, Deflater.BEST_SPEED);
+  private final ReplicationCompression compression = (compressionThreshold > 0) ? new ReplicationCompression(compressionThreshold, compressionLevel) : null;
   
   public RequestProcessor(StageManager stageManager, boolean use_direct) {
     int MIN_NUM_PROCESSORS = TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.MIN_ENTITY_PROCESSOR_THREADS);
@@ -81,14 +89,28 @@ public class RequestProcessor {
   }
 
   public ActivePassiveAckWaiter scheduleSync(SyncReplicationActivity activity, NodeID passive) {
+    if (compression != null && activity.getActivityType() == SyncReplicationActivity.ActivityType.SYNC_ENTITY_CONCURRENCY_PAYLOAD) {
+      activity = activity.withCompression(compressorFor(activity.getEntityID()));
+    }
     return passives.replicateActivity(activity, Collections.singleton(passive));
   }
+
+  /**
+   * @return the compression of replicated payloads, null if it is disabled
+   */
+  public ReplicationCompression getCompression() {
+    return compression;
+  }
   
   public void setReplication(PassiveReplicationBroker passives) {
     Assert.assertNull(this.passives);
     this.passives = passives;
   }
 
+  private Function<byte[], byte[]> compressorFor(EntityID eid) {
+    return (compression != null) ? raw -> compression.compress(eid.getClassName(), raw) : null;
+  }
+
 //  this is synchronized because both PTH and Request Processor thread has access to this method.  the replication and schduling on the executor needs
 //  to happen in the same order.  synchronizing this method enforces that
   public synchronized void scheduleRequest(boolean inSync, EntityID eid, long version, FetchID fetchID, ServerEntityRequest request, MessagePayload payload, Consumer<ActivePassiveAckWaiter> call, boolean replicate, int concurrencyKey) {
@@ -109,9 +131,12 @@ public class RequestProcessor {
         replicateTo = Collections.emptySet();
       }
     }
-    ActivePassiveAckWaiter token = (!replicateTo.isEmpty())
+    // Even with nowhere to send it, a replicated request is handed to a recording broker so a passive which left can be
+    //  caught up with it.
+    boolean isRecorded = replicateTo.isEmpty() && replicate && isActive && isActionReplicated && passives != null && passives.isRecording();
+    ActivePassiveAckWaiter token = (!replicateTo.isEmpty() || isRecorded)
         ? passives.replicateActivity(createReplicationActivity(eid, version, fetchID, request.getNodeID(), request.getClientInstance(), requestAction, 
-            request.getTransaction(), request.getOldestTransactionOnClient(), payload, concurrencyKey), replicateTo)
+            request.getTransaction(), request.getOldestTransactionOnClient(), payload, compressorFor(eid), concurrencyKey), replicateTo)
         : NoReplicationBroker.NOOP_WAITER;
     EntityRequest entityRequest =  new EntityRequest(eid, call, token, concurrencyKey);
     if (PLOGGER.isDebugEnabled()) {
@@ -139,7 +164,7 @@ public class RequestProcessor {
   }
   
   private static SyncReplicationActivity createReplicationActivity(EntityID id, long version, FetchID fetchID, ClientID src, ClientInstanceID instance, 
-      ServerEntityAction type, TransactionID tid, TransactionID oldest, MessagePayload payload, int concurrency) {
+      ServerEntityAction type, TransactionID tid, TransactionID oldest, MessagePayload payload, Function<byte[], byte[]> compressor, int concurrency) {
     SyncReplicationActivity.ActivityType actionCode = typeMap.get(type);
     Assert.assertNotNull(actionCode);
     
@@ -154,6 +179,9 @@ public class RequestProcessor {
         break;
       case INVOKE_ACTION:
         activity = SyncReplicationActivity.createInvokeMessage(fetchID, src, instance, tid, oldest, actionCode, payload.getRawPayload(), concurrency, payload.getDebugId());
+        if (compressor != null) {
+          activity = activity.withCompression(compressor);
+        }
         break;
       default:
         // Normal replication.
@@ -23,6 +23,7 @@ import com.tc.async.api.Sink;
 import com.tc.async.api.Stage;
 import com.tc.entity.NetworkVoltronEntityMessage;
 import com.tc.entity.VoltronEntityMessage;
+import com.tc.entity.VoltronEntityMultiMessage;
 import com.tc.net.core.TCComm;
 import com.tc.net.protocol.tcm.HydrateContext;
 import com.tc.net.protocol.tcm.TCMessage;
@@ -36,6 +37,13 @@ public class VoltronMessageSink extends TCMessageHydrateSink<VoltronEntityMessag
   private final Stage<HydrateContext> helper;
   private final Sink<VoltronEntityMessage> dest;
   private static final Logger LOGGER = LoggerFactory.getLogger(VoltronMessageSink.class);
+  // hands each message of a hydrated multi-message on in order, as if they had arrived separately
+  private final Sink<TCMessage> unpacker = message -> {
+    for (VoltronEntityMessage m : ((VoltronEntityMultiMessage)message).getMessages()) {
+      this.dest.addToSink(m);
+    }
+  };
+  private final TCMessageHydrateSink<TCMessage> multiHydrator = new TCMessageHydrateSink<>(unpacker);
 
   public VoltronMessageSink(Stage<HydrateContext> helper, Sink<VoltronEntityMessage> destSink, MessageCodecSupplier codecSupplier) {
     super(destSink);
@@ -53,6 +61,13 @@ public class VoltronMessageSink extends TCMessageHydrateSink<VoltronEntityMessag
       } else {
         super.putMessage(message);
       }
+    } else if (message instanceof VoltronEntityMultiMessage) {
+      ((VoltronEntityMultiMessage)message).setMessageCodecSupplier(codecSupplier);
+      if (TCComm.hasPendingRead() || !helper.isEmpty()) {
+        helper.getSink().addToSink(new HydrateContext(message, unpacker));
+      } else {
+        multiHydrator.putMessage(message);
+      }
     } else {
       Assert.fail();
     }
@@ -0,0 +1,90 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.text.PrettyPrintable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether an invoke is shed because the deadline its client sent with it passed before the server got to it.
+ * A shed invoke is failed without being run or replicated, since nobody waits for its result anymore.  Keeps counts of
+ * the shed invokes by entity type and how late the latest of them was.
+ */
+public class ExpiredRequests implements PrettyPrintable {
+  private final boolean enabled;
+  private final LongAdder withDeadline = new LongAdder();
+  private final Map<String, LongAdder> shed = new ConcurrentHashMap<>();
+  private final AtomicLong maximumLateness = new AtomicLong();
+
+  /**
+   * @param enabled false to count invokes carrying a deadline but never shed them
+   */
+  public ExpiredRequests(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @param entityType the class name of the entity invoked
+   * @param deadline the local {@link System#nanoTime()} deadline of the invoke, 0 for none
+   * @return true if the invoke must be failed instead of run
+   */
+  public boolean shed(String entityType, long deadline, long now) {
+    if (deadline == 0) {
+      return false;
+    }
+    withDeadline.increment();
+    long late = now - deadline;
+    if (!enabled || late < 0) {
+      return false;
+    }
+    shed.computeIfAbsent(entityType, t -> new LongAdder()).increment();
+    maximumLateness.accumulateAndGet(TimeUnit.NANOSECONDS.toMicros(late), Math::max);
+    return true;
+  }
+
+  public long getShedCount() {
+    long total = 0;
+    for (LongAdder count : shed.values()) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("enabled", enabled);
+    map.put("invokesWithDeadline", withDeadline.sum());
+    map.put("shedInvokes", getShedCount());
+    map.put("maxLatenessMicros", maximumLateness.get());
+    Map<String, Long> byType = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> e : shed.entrySet()) {
+      byType.put(e.getKey(), e.getValue().sum());
+    }
+    map.put("shedByEntityType", byType);
+    return map;
+  }
+}
@@ -26,8 +26,14 @@ import com.tc.net.NodeID;
 import com.tc.net.groups.AbstractGroupMessage;
 import com.tc.net.groups.GroupException;
 import com.tc.net.groups.GroupManager;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 
 public class GroupMessageBatchContext<M extends IBatchableGroupMessage<E>, E> {
@@ -39,19 +45,43 @@ public class GroupMessageBatchContext<M extends IBatchableGroupMessage<E>, E> {
   private final int maximumBatchSize;
   private final int idealMessagesInFlight;
   private final Consumer<NodeID> networkDoneTarget;
+  // When set, batches are also bounded by the estimated serialized size of their elements.  An element which is
+  //  larger than the bound on its own is always sent in a message of its own.
+  private final long maximumBatchBytes;
+  private final ToIntFunction<E> elementSize;
+  // When set, the window decides how many batches may be in flight, counting a batch as in flight until the target
+  //  acknowledges the first element in it, and how large a batch may grow before it is sent regardless.
+  private final ReplicationWindow window;
+  private final Function<E, ?> ackKey;
+  private final Map<Object, Long> awaitingAck = new ConcurrentHashMap<>();
   
   private int messagesInFlight;
-  private M cachedMessage;
+  // Batches which can't grow any further, waiting to be sent ahead of the open batch.
+  private final Deque<Batch<M>> sealedBatches = new ArrayDeque<>();
+  private Batch<M> openBatch;
   private long nextReplicationID;
 
 
   public GroupMessageBatchContext(Function<E, M> messageFactory, GroupManager<AbstractGroupMessage> groupManager, NodeID target, int maximumBatchSize, int idealMessagesInFlight, Consumer<NodeID> networkDoneTarget) {
+    this(messageFactory, groupManager, target, maximumBatchSize, idealMessagesInFlight, networkDoneTarget, 0, null, null, null);
+  }
+
+  /**
+   * Creates a context which bounds batches by estimated bytes as well as element count and, if window is not null,
+   *  whose in-flight and batch limits are driven by the given window.  ackKey maps an element to the key the target
+   *  will acknowledge it with (see {@link #acknowledged(Object)}).
+   */
+  public GroupMessageBatchContext(Function<E, M> messageFactory, GroupManager<AbstractGroupMessage> groupManager, NodeID target, int maximumBatchSize, int idealMessagesInFlight, Consumer<NodeID> networkDoneTarget, long maximumBatchBytes, ToIntFunction<E> elementSize, ReplicationWindow window, Function<E, ?> ackKey) {
     this.messageFactory = messageFactory;
     this.groupManager = groupManager;
     this.target = target;
     this.maximumBatchSize = maximumBatchSize;
     this.idealMessagesInFlight = idealMessagesInFlight;
     this.networkDoneTarget = networkDoneTarget;
+    this.maximumBatchBytes = (null != elementSize) ? maximumBatchBytes : 0;
+    this.elementSize = elementSize;
+    this.window = window;
+    this.ackKey = ackKey;
   }
 
   /**
@@ -62,18 +92,31 @@ public class GroupMessageBatchContext<M extends IBatchableGroupMessage<E>, E> {
    * @return True if this required creating a new batch (the message is batched, either way).
    */
   public synchronized boolean batchMessage(E activity) {
+    int size = (null != this.elementSize) ? this.elementSize.applyAsInt(activity) : 0;
+    
+    // If this activity would push the open batch over its byte bound, seal the batch so the activity starts a new one.
+    if ((null != this.openBatch) && (this.maximumBatchBytes > 0) && (this.openBatch.bytes + size > this.maximumBatchBytes)) {
+      sealOpenBatch();
+    }
     
     // See if we have an existing message we must batch.
     boolean didCreateNewBatch = false;
-    if (null != this.cachedMessage) {
+    if (null != this.openBatch) {
       // Just add to this batch.
-      this.cachedMessage.addToBatch(activity);
+      this.openBatch.message.addToBatch(activity);
+      this.openBatch.bytes += size;
     } else {
       // Create a new batch.
-      this.cachedMessage = this.messageFactory.apply(activity);
-      this.cachedMessage.setSequenceID(nextReplicationID++);
+      M message = this.messageFactory.apply(activity);
+      message.setSequenceID(nextReplicationID++);
+      this.openBatch = new Batch<>(message, (null != this.window) ? this.ackKey.apply(activity) : null, size);
       didCreateNewBatch = true;
     }
+    
+    // An activity at or over the bound on its own gets a batch to itself so the activities after it aren't added to it.
+    if ((this.maximumBatchBytes > 0) && (this.openBatch.bytes >= this.maximumBatchBytes)) {
+      sealOpenBatch();
+    }
     return didCreateNewBatch;
   }
 
@@ -87,16 +130,35 @@ public class GroupMessageBatchContext<M extends IBatchableGroupMessage<E>, E> {
   public long flushBatch() throws GroupException {
     IBatchableGroupMessage<E> messageToSend = null;
     synchronized (this) {
-      // See if we have a batched message and are ready to send one.
+      // See if we have a batched message and are ready to send one.  Sealed batches go before the open one but, like
+      //  it, wait for the in-flight limit.
       // Note that we will override the ideal number of in-flight messages if the batch is getting too large.
-      if ((null != this.cachedMessage) && (
-          ((0 == this.idealMessagesInFlight) || (this.messagesInFlight < this.idealMessagesInFlight))
-          || (this.cachedMessage.getBatchSize() >= this.maximumBatchSize))
-        ) {
-        // There is a batched message so send it.
-        messageToSend = this.cachedMessage;
-        this.cachedMessage = null;
-        this.messagesInFlight += 1;
+      boolean isSealed = !this.sealedBatches.isEmpty();
+      Batch<M> next = isSealed ? this.sealedBatches.peekFirst() : this.openBatch;
+      if (null != next) {
+        boolean shouldSend;
+        if (null != this.window) {
+          long now = System.nanoTime();
+          expireUnacknowledged(now);
+          shouldSend = (this.awaitingAck.size() < this.window.getMessagesInFlight())
+              || (next.message.getBatchSize() >= this.window.getBatchLimit());
+          if (shouldSend) {
+            this.awaitingAck.put(next.ackKey, now);
+          }
+        } else {
+          shouldSend = ((0 == this.idealMessagesInFlight) || (this.messagesInFlight < this.idealMessagesInFlight))
+              || (next.message.getBatchSize() >= this.maximumBatchSize);
+        }
+        if (shouldSend) {
+          // There is a batched message so send it.
+          messageToSend = next.message;
+          if (isSealed) {
+            this.sealedBatches.removeFirst();
+          } else {
+            this.openBatch = null;
+          }
+          this.messagesInFlight += 1;
+        }
       }
     }
     
@@ -127,4 +189,63 @@ public class GroupMessageBatchContext<M extends IBatchableGroupMessage<E>, E> {
       this.networkDoneTarget.accept(target);
     }
   }
+
+  /**
+   * Called when the target acknowledges an element.  If it was the first element of a batch still awaiting its ack,
+   *  the round trip is fed to the window and the batch no longer counts against it.
+   */
+  public void acknowledged(Object key) {
+    if (null != this.window) {
+      Long sent = this.awaitingAck.remove(key);
+      if (null != sent) {
+        this.window.rttSample(System.nanoTime() - sent, System.nanoTime());
+        if (this.networkDoneTarget != null) {
+          this.networkDoneTarget.accept(target);
+        }
+      }
+    }
+  }
+
+  /**
+   * Called when the target reports it finished applying some elements.
+   */
+  public void completed(int count) {
+    if (null != this.window) {
+      this.window.completed(count, System.nanoTime());
+    }
+  }
+
+  public ReplicationWindow getWindow() {
+    return this.window;
+  }
+
+  private void sealOpenBatch() {
+    this.sealedBatches.addLast(this.openBatch);
+    // Note that the flush requested when this batch was created will send it ahead of any new open batch once the
+    //  in-flight limit allows (otherwise the flush requested when an in-flight message completes will).
+    this.openBatch = null;
+  }
+
+  private void expireUnacknowledged(long now) {
+    long timeout = this.window.getAckTimeout();
+    Iterator<Long> sent = this.awaitingAck.values().iterator();
+    while (sent.hasNext()) {
+      if (now - sent.next() > timeout) {
+        sent.remove();
+        this.window.lost(now);
+      }
+    }
+  }
+
+  private static class Batch<M> {
+    private final M message;
+    private final Object ackKey;
+    private long bytes;
+
+    Batch(M message, Object ackKey, long bytes) {
+      this.message = message;
+      this.ackKey = ackKey;
+      this.bytes = bytes;
+    }
+  }
 }
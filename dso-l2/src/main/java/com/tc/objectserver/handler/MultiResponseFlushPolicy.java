@@ -0,0 +1,122 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.stats.PowerOfTwoHistogram;
+import com.tc.text.PrettyPrintable;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a multi-response to a client is sent.  A response is sent as soon as the respond stage has nothing
+ * else to do so a lone request is answered without delay.  While the stage is busy, a response that is still small
+ * and young is put back on the stage so more results for the same client can accumulate in it, until it reaches
+ * the operation limit or the age limit.  Also keeps a histogram of operations per response sent, in power of two
+ * buckets.
+ */
+public class MultiResponseFlushPolicy implements PrettyPrintable {
+  private static final int BUCKETS = 16;
+
+  public enum Flush {
+    DIRECT, IDLE, SIZE, AGE, BACKLOG, SUPERSEDED
+  }
+
+  private final int maxOperations;
+  private final long maxAgeNanos;
+  private final int maxQueued;
+
+  private final Map<Flush, LongAdder> flushes = new EnumMap<>(Flush.class);
+  private final LongAdder deferrals = new LongAdder();
+  private final LongAdder operations = new LongAdder();
+  private final PowerOfTwoHistogram sizes = new PowerOfTwoHistogram(BUCKETS);
+
+  /**
+   * @param maxOperations a response holding this many operations is sent immediately
+   * @param maxAgeMicros a response this old is sent immediately, 0 sends every response as soon as the stage reaches it
+   * @param maxQueued a response is never put back on a stage holding this many events
+   */
+  public MultiResponseFlushPolicy(int maxOperations, long maxAgeMicros, int maxQueued) {
+    this.maxOperations = maxOperations;
+    this.maxAgeNanos = TimeUnit.MICROSECONDS.toNanos(maxAgeMicros);
+    this.maxQueued = maxQueued;
+    for (Flush f : Flush.values()) {
+      flushes.put(f, new LongAdder());
+    }
+  }
+
+  /**
+   * @param operations the operations already in the response
+   * @param created when the response was created, in {@link System#nanoTime()}
+   * @param queued the number of events waiting behind the response on the respond stage
+   * @return why the response should be sent now or null if it should wait for more operations
+   */
+  public Flush decide(int operations, long created, int queued, long now) {
+    if (queued == 0) {
+      return Flush.IDLE;
+    } else if (operations >= maxOperations) {
+      return Flush.SIZE;
+    } else if (now - created >= maxAgeNanos) {
+      return Flush.AGE;
+    } else if (queued >= maxQueued) {
+      return Flush.BACKLOG;
+    } else {
+      deferrals.increment();
+      return null;
+    }
+  }
+
+  public void flushed(Flush reason, int count) {
+    flushes.get(reason).increment();
+    operations.add(count);
+    sizes.add(count);
+  }
+
+  private long getResponses() {
+    long total = 0;
+    for (LongAdder count : flushes.values()) {
+      total += count.sum();
+    }
+    return total;
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("maxOperations", maxOperations);
+    map.put("maxAgeMicros", TimeUnit.NANOSECONDS.toMicros(maxAgeNanos));
+    map.put("maxQueued", maxQueued);
+    long responses = getResponses();
+    map.put("responses", responses);
+    map.put("operations", operations.sum());
+    map.put("operationsPerResponse", responses == 0 ? 0D : (double) operations.sum() / responses);
+    map.put("largestResponse", sizes.getMaximum());
+    map.put("deferrals", deferrals.sum());
+    Map<String, Long> reasons = new LinkedHashMap<>();
+    for (Map.Entry<Flush, LongAdder> e : flushes.entrySet()) {
+      reasons.put(e.getKey().name(), e.getValue().sum());
+    }
+    map.put("flushes", reasons);
+    map.put("operationsPerResponseHistogram", sizes.getBuckets());
+    return map;
+  }
+}
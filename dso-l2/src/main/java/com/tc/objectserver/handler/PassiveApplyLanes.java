@@ -0,0 +1,120 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.objectserver.core.api.ServerConfigurationContext;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * A fixed set of ordered lanes the passive uses to apply replicated activities in parallel.  Work submitted with the
+ * same lane key runs in submission order, on the same thread.  {@link #drain()} waits for every lane to go idle so the
+ * caller can run a barrier (lifecycle operations, sync activities, management invokes) with nothing else in flight.
+ * <p>
+ * The lane threads are named for {@link ServerConfigurationContext#PASSIVE_APPLY_LANE}, which the entities accept as
+ * scheduling threads on a passive.
+ */
+class PassiveApplyLanes {
+  private final ExecutorService[] lanes;
+  // Guarded by this.
+  private int outstanding;
+  private Throwable failure;
+
+  PassiveApplyLanes(int count) {
+    this.lanes = new ExecutorService[count];
+    for (int i = 0; i < count; ++i) {
+      String name = ServerConfigurationContext.PASSIVE_APPLY_LANE + " - " + i;
+      ThreadPoolExecutor lane = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+      });
+      // an idle lane gives up its thread, so the lanes cost nothing once this server stops being a passive
+      lane.allowCoreThreadTimeOut(true);
+      this.lanes[i] = lane;
+    }
+  }
+
+  int getLaneCount() {
+    return this.lanes.length;
+  }
+
+  void execute(long laneKey, Runnable work) {
+    synchronized (this) {
+      this.outstanding += 1;
+    }
+    this.lanes[(int) Math.floorMod(laneKey, (long) this.lanes.length)].execute(() -> {
+      try {
+        work.run();
+      } catch (Throwable t) {
+        synchronized (this) {
+          if (this.failure == null) {
+            this.failure = t;
+          }
+        }
+      } finally {
+        synchronized (this) {
+          this.outstanding -= 1;
+          if (this.outstanding == 0) {
+            notifyAll();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits until every lane is idle.
+   *
+   * @throws RuntimeException wrapping the first failure seen on a lane, if any
+   */
+  synchronized void drain() {
+    boolean interrupted = false;
+    while (this.outstanding > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    checkFailure();
+  }
+
+  /**
+   * @throws RuntimeException wrapping the first failure seen on a lane, if any
+   */
+  synchronized void checkFailure() {
+    if (this.failure != null) {
+      throw new RuntimeException("Failure applying replicated activity", this.failure);
+    }
+  }
+
+  void shutdown() {
+    for (ExecutorService lane : this.lanes) {
+      lane.shutdown();
+    }
+  }
+}
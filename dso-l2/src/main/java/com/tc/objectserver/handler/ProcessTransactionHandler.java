@@ -51,10 +51,13 @@ import com.tc.objectserver.entity.ActivePassiveAckWaiter;
 import com.tc.objectserver.entity.ClientDisconnectMessage;
 import com.tc.objectserver.entity.ReconnectListener;
 import com.tc.objectserver.entity.ReferenceMessage;
+import com.tc.objectserver.entity.RequestProcessor;
 import com.tc.objectserver.entity.ServerEntityRequestImpl;
 import com.tc.objectserver.entity.ServerEntityRequestResponse;
 import com.tc.objectserver.persistence.EntityData;
 import com.tc.objectserver.persistence.Persistor;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.services.ClientMessageSender;
 import com.tc.services.EntityMessengerService;
 import com.tc.util.Assert;
@@ -79,12 +82,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terracotta.entity.EntityMessage;
 import org.terracotta.entity.ReconnectRejectedException;
+import org.terracotta.exception.EntityBusyException;
 import org.terracotta.exception.EntityException;
 import org.terracotta.exception.EntityNotFoundException;
 
 
 public class ProcessTransactionHandler implements ReconnectListener {
   private static final Logger LOGGER = LoggerFactory.getLogger(ProcessTransactionHandler.class);
+  private static final String MULTI_RESPONSE_FLUSH_OPERATIONS = "l2.multiresponse.flush.operations";
+  private static final String MULTI_RESPONSE_FLUSH_AGE = "l2.multiresponse.flush.age.micros";
+  private static final int DEFAULT_MULTI_RESPONSE_FLUSH_OPERATIONS = 256;
+  private static final long DEFAULT_MULTI_RESPONSE_FLUSH_AGE_MICROS = 100;
+  private static final String REQUEST_CREDIT_MAX = "l2.request.credit.max";
+  private static final String REQUEST_CREDIT_MIN = "l2.request.credit.min";
+  private static final String REQUEST_CREDIT_QUEUE_TARGET = "l2.request.credit.queue.target";
+  private static final int DEFAULT_REQUEST_CREDIT_MAX = 5000;
+  private static final int DEFAULT_REQUEST_CREDIT_MIN = 16;
+  private static final int DEFAULT_REQUEST_CREDIT_QUEUE_TARGET = 50000;
+  private static final String REQUEST_DEADLINE_SHED = "l2.request.deadline.shed";
   
   private final Persistor persistor;
   private final Runnable stateManagerCleanup;
@@ -100,7 +115,18 @@ public class ProcessTransactionHandler implements ReconnectListener {
   private boolean reconnecting = true;
   
   private Stage<TCMessage> multiSend;
+  private final List<Stage<?>> requestStages = new ArrayList<>();
   private final ConcurrentHashMap<ClientID, VoltronEntityMultiResponse> invokeReturn = new ConcurrentHashMap<>();
+  private final MultiResponseFlushPolicy flushPolicy = new MultiResponseFlushPolicy(
+      TCPropertiesImpl.getProperties().getInt(MULTI_RESPONSE_FLUSH_OPERATIONS, DEFAULT_MULTI_RESPONSE_FLUSH_OPERATIONS),
+      TCPropertiesImpl.getProperties().getLong(MULTI_RESPONSE_FLUSH_AGE, DEFAULT_MULTI_RESPONSE_FLUSH_AGE_MICROS),
+      TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.L2_SEDA_STAGE_SINK_CAPACITY, Integer.MAX_VALUE) / 2);
+  private final RequestCreditPolicy creditPolicy = new RequestCreditPolicy(
+      TCPropertiesImpl.getProperties().getInt(REQUEST_CREDIT_MAX, DEFAULT_REQUEST_CREDIT_MAX),
+      TCPropertiesImpl.getProperties().getInt(REQUEST_CREDIT_MIN, DEFAULT_REQUEST_CREDIT_MIN),
+      TCPropertiesImpl.getProperties().getInt(REQUEST_CREDIT_QUEUE_TARGET, DEFAULT_REQUEST_CREDIT_QUEUE_TARGET));
+  private final ExpiredRequests expiredRequests = new ExpiredRequests(
+      TCPropertiesImpl.getProperties().getBoolean(REQUEST_DEADLINE_SHED, true));
   private final ConcurrentHashMap<ClientID, Integer> inflightFetch = new ConcurrentHashMap<>();
   private final ConcurrentHashMap<TransactionID, Future<Void>> transactionOrderPersistenceFutures = new ConcurrentHashMap<>();
   
@@ -114,11 +140,21 @@ public class ProcessTransactionHandler implements ReconnectListener {
     @Override
     public void handleEvent(TCMessage context) throws EventHandlerException {
       NodeID destinationID = context.getDestinationNodeID();
+      MultiResponseFlushPolicy.Flush reason = null;
+      if (context instanceof VoltronEntityMultiResponse) {
+        reason = flushReason((ClientID)destinationID, (VoltronEntityMultiResponse)context);
+        if (reason == null) {
+          // put back on the stage to gather more operations
+          return;
+        }
+      }
       invokeReturn.remove((ClientID)destinationID, context);
       if(context instanceof VoltronEntityMultiResponse) {
         VoltronEntityMultiResponse voltronEntityMultiResponse = (com.tc.entity.VoltronEntityMultiResponse) context;
         voltronEntityMultiResponse.stopAdding();
+        grantCredit(voltronEntityMultiResponse);
         waitForTransactions(voltronEntityMultiResponse);
+        flushPolicy.flushed(reason, voltronEntityMultiResponse.getOperationCount());
       } else if(context instanceof VoltronEntityAppliedResponse) {
         waitForTransactionOrderPersistenceFuture(((VoltronEntityAppliedResponse)context).getTransactionID());
       } else {
@@ -137,6 +173,54 @@ public class ProcessTransactionHandler implements ReconnectListener {
     return multiSender;
   }
 
+  public MultiResponseFlushPolicy getMultiResponseFlushPolicy() {
+    return flushPolicy;
+  }
+
+  public RequestCreditPolicy getRequestCreditPolicy() {
+    return creditPolicy;
+  }
+
+  public ExpiredRequests getExpiredRequests() {
+    return expiredRequests;
+  }
+
+  /**
+   * Grants the client of the response its share of the room left on the request stages.  The clients sharing the room
+   * are the ones with responses on the way, this one included.
+   */
+  private void grantCredit(VoltronEntityMultiResponse vmr) {
+    if (creditPolicy.isEnabled()) {
+      int queued = 0;
+      for (Stage<?> stage : requestStages) {
+        queued += stage.size();
+      }
+      vmr.setCredit(creditPolicy.grant(queued, Math.max(1, invokeReturn.size())));
+    }
+  }
+
+  /**
+   * Puts the response back on the respond stage if the flush policy wants it to gather more operations.  This is only
+   * done while the response is still the one mapped for the client, otherwise later messages to the client are already
+   * queued behind it and it must go now to keep the client's responses in order.
+   * 
+   * @return why the response is sent now or null if it was put back on the stage
+   */
+  private MultiResponseFlushPolicy.Flush flushReason(ClientID client, VoltronEntityMultiResponse vmr) {
+    long now = System.nanoTime();
+    MultiResponseFlushPolicy.Flush[] reason = new MultiResponseFlushPolicy.Flush[] {MultiResponseFlushPolicy.Flush.SUPERSEDED};
+    invokeReturn.computeIfPresent(client, (c, current) -> {
+      if (current == vmr) {
+        reason[0] = flushPolicy.decide(vmr.getOperationCount(), vmr.getCreationTime(), multiSend.size(), now);
+        if (reason[0] == null) {
+          multiSend.getSink().addToSink(vmr);
+        }
+      }
+      return current;
+    });
+    return reason[0];
+  }
+
   private void waitForTransactions(VoltronEntityMultiResponse vmr) {
     vmr.replay(new VoltronEntityMultiResponse.ReplayReceiver() {
       @Override
@@ -210,7 +294,7 @@ public class ProcessTransactionHandler implements ReconnectListener {
           break;
       }
       MessagePayload payload =  MessagePayload.commonMessagePayload(extendedData, entityMessage, doesRequireReplication, !message.getSource().isNull());
-      ProcessTransactionHandler.this.addMessage(sourceNodeID, descriptor, action, payload, transactionID, oldestTransactionOnClient, completion, exception, requestedReceived);
+      ProcessTransactionHandler.this.addMessage(sourceNodeID, descriptor, action, payload, transactionID, oldestTransactionOnClient, completion, exception, requestedReceived, message.getDeadline());
     }
 
     @Override
@@ -222,6 +306,8 @@ public class ProcessTransactionHandler implements ReconnectListener {
       server.getL2Coordinator().getReplicatedClusterStateManager().goActiveAndSyncState();
       
       multiSend = server.getStage(ServerConfigurationContext.RESPOND_TO_REQUEST_STAGE, TCMessage.class);
+      addRequestStage(server.getStage(ServerConfigurationContext.VOLTRON_MESSAGE_STAGE, VoltronEntityMessage.class));
+      addRequestStage(server.getStage(ServerConfigurationContext.REQUEST_PROCESSOR_STAGE, RequestProcessor.EntityRequest.class));
       
 //  go right to active state.  this only gets initialized once ACTIVE-COORDINATOR is entered
       reconnectDone = entityManager.enterActiveState();
@@ -230,6 +316,12 @@ public class ProcessTransactionHandler implements ReconnectListener {
     }
   };
   
+  private void addRequestStage(Stage<?> stage) {
+    if (stage != null) {
+      requestStages.add(stage);
+    }
+  }
+
   private final ClientMessageSender sender = new ClientMessageSender() {
       @Override
       public void send(ClientID client, ClientInstanceID clientInstance, byte[] payload) {
@@ -289,8 +381,10 @@ public class ProcessTransactionHandler implements ReconnectListener {
           boolean added = adder.test(vmr);
           Assert.assertTrue(added);
           if (DirectExecutionMode.isActivated() && multiSend.isEmpty()) {
+            grantCredit(vmr);
             waitForTransactions(vmr);
             vmr.send();
+            flushPolicy.flushed(MultiResponseFlushPolicy.Flush.DIRECT, vmr.getOperationCount());
             vmr = null;
           } else {
             multiSend.getSink().addToSink(vmr);
@@ -302,7 +396,7 @@ public class ProcessTransactionHandler implements ReconnectListener {
   }
 
 // only the process transaction thread will add messages here except for on reconnect
-  private void addMessage(ClientID sourceNodeID, EntityDescriptor descriptor, ServerEntityAction action, MessagePayload entityMessage, TransactionID transactionID, TransactionID oldestTransactionOnClient, Consumer<byte[]> chaincomplete, Consumer<EntityException> chainfail, boolean requiresReceived) {
+  private void addMessage(ClientID sourceNodeID, EntityDescriptor descriptor, ServerEntityAction action, MessagePayload entityMessage, TransactionID transactionID, TransactionID oldestTransactionOnClient, Consumer<byte[]> chaincomplete, Consumer<EntityException> chainfail, boolean requiresReceived, long deadline) {
     // Version error or duplicate creation requests will manifest as exceptions here so catch them so we can send them back
     //  over the wire as an error in the request.
 
@@ -370,7 +464,13 @@ public class ProcessTransactionHandler implements ReconnectListener {
         if(transactionOrderPersistenceFuture != null) {
           transactionOrderPersistenceFutures.put(transactionID, transactionOrderPersistenceFuture);
         }
-        entity.addRequestMessage(handler, entityMessage, handler);
+        EntityID eid = entity.getID();
+        if (expiredRequests.shed(eid.getClassName(), deadline, System.nanoTime())) {
+          // the client gave up on this invoke while it was queued, fail it before it is run or replicated
+          handler.failure(new EntityBusyException(eid.getClassName(), eid.getEntityName(), "invoke deadline passed before execution"));
+        } else {
+          entity.addRequestMessage(handler, entityMessage, handler);
+        }
       } else if (action.isLifecycle()) {
         EntityID eid;
         long version;
@@ -588,7 +688,7 @@ public class ProcessTransactionHandler implements ReconnectListener {
     if (message instanceof Runnable) {
       completion = (r)->((Runnable)message).run();
     }
-    ProcessTransactionHandler.this.addMessage(sourceNodeID, descriptor, action, payload, transactionID, oldestTransactionOnClient, completion, null, requestedReceived);
+    ProcessTransactionHandler.this.addMessage(sourceNodeID, descriptor, action, payload, transactionID, oldestTransactionOnClient, completion, null, requestedReceived, 0L);
   }
 
   private static ServerEntityAction decodeMessageType(VoltronEntityMessage.Type type) {
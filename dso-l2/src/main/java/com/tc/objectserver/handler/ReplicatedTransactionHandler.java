@@ -81,8 +81,15 @@ import org.terracotta.exception.EntityException;
 public class ReplicatedTransactionHandler {
   private static final int DEFAULT_BATCH_LIMIT = 64;
   private static final int DEFAULT_INFLIGHT_MESSAGES = 1;
+  private static final long DEFAULT_BATCH_BYTES = 64 * 1024;
+  private static final int DEFAULT_APPLY_LANES = 1;
   private static final int maximumBatchSize = TCPropertiesImpl.getProperties().getInt("passive-active.batchsize", DEFAULT_BATCH_LIMIT);
   private static final int idealMessagesInFlight = TCPropertiesImpl.getProperties().getInt("passive-active.inflight", DEFAULT_INFLIGHT_MESSAGES);
+  private static final long maximumBatchBytes = TCPropertiesImpl.getProperties().getLong("passive-active.batchbytes", DEFAULT_BATCH_BYTES);
+  // The number of lanes invokes are applied on, by concurrency key.  1 applies everything on the replication stage.
+  private static final int applyLanes = TCPropertiesImpl.getProperties().getInt("passive.apply.lanes", DEFAULT_APPLY_LANES);
+  // When the active keeps a replication log, a standby which loses its active briefly asks to be caught up from it.
+  private static final boolean resumeReplication = TCPropertiesImpl.getProperties().getLong("active-passive.resync.memory", 0L) > 0;
 
   private static final Logger PLOGGER = LoggerFactory.getLogger(MessagePayload.class);
   private static final Logger LOGGER = LoggerFactory.getLogger(ReplicatedTransactionHandler.class);
@@ -99,6 +106,11 @@ public class ReplicatedTransactionHandler {
   private NodeID cachedMessageAckFrom;
   private GroupMessageBatchContext<ReplicationMessageAck, ReplicationAckTuple> cachedBatchAck;
   private final Sink<Runnable> sentToActive;
+  // The last replicated (not sync) activity received, and the active it came from.
+  private volatile ServerID lastActivityFrom = ServerID.NULL_ID;
+  private volatile SyncReplicationActivity.ActivityID lastActivityID;
+  // Null when everything is applied on the replication stage thread.
+  private final PassiveApplyLanes lanes;
   
   public ReplicatedTransactionHandler(StateManager state, Stage<Runnable> sendToActive, Persistor persistor, 
       EntityManager manager, GroupManager<AbstractGroupMessage> groupManager) {
@@ -107,6 +119,7 @@ public class ReplicatedTransactionHandler {
     this.entityManager = manager;
     this.persistor = persistor;
     this.groupManager = groupManager;
+    this.lanes = (applyLanes > 1) ? new PassiveApplyLanes(applyLanes) : null;
     try {
       platform = entityManager.getEntity(EntityDescriptor.createDescriptorForLifecycle(PlatformEntity.PLATFORM_ID, PlatformEntity.VERSION)).get();
     } catch (EntityException ee) {
@@ -138,6 +151,10 @@ public class ReplicatedTransactionHandler {
 
     @Override
     public void destroy() {
+      if (lanes != null) {
+        // Everything already handed to a lane must reach its entity before the flush below.
+        lanes.drain();
+      }
       ServerEntityRequest req = new ServerEntityRequest() {
         @Override
         public ServerEntityAction getAction() {
@@ -194,6 +211,13 @@ public class ReplicatedTransactionHandler {
     return eventHorizon;
   }
 
+  /**
+   * @return true if this passive could be caught up by the given server, which it was receiving replication from
+   */
+  public boolean isResumableFrom(NodeID node) {
+    return resumeReplication && node.equals(lastActivityFrom);
+  }
+
   private void processMessage(ReplicationMessage rep) throws EntityException {
     if (PLOGGER.isDebugEnabled()) {
       PLOGGER.debug("RECEIVED:" + rep.getDebugId());
@@ -202,17 +226,25 @@ public class ReplicatedTransactionHandler {
       LOGGER.debug("BATCH:" + rep.getSequenceID());
     }
     ServerID activeSender = (ServerID) rep.messageFrom();
+    if (this.lanes != null) {
+      this.lanes.checkFailure();
+    }
     for (SyncReplicationActivity activity : rep.getActivities()) {
+      if (ActivityType.RESUME_REPLICATION == activity.getActivityType()) {
+        requestResume();
+        continue;
+      }
       EntityID eid = null;
-      if (activity.getActivityType() != ActivityType.SYNC_BEGIN) {
+      // The entity is only looked up for logging.
+      if (LOGGER.isDebugEnabled() && activity.getActivityType() != ActivityType.SYNC_BEGIN) {
         Optional<ManagedEntity> opt = entityManager.getEntity(EntityDescriptor.createDescriptorForInvoke(activity.getFetchID(), activity.getClientInstanceID()));
         eid = opt.map(ManagedEntity::getID).orElse(activity.getEntityID());
         Long fid = opt.map(ManagedEntity::getConsumerID).orElse(activity.getFetchID().toLong());
-        if (LOGGER.isDebugEnabled()) {
-          LOGGER.debug("RECEIVING:" + eid + ":" + fid + " " + activity.getActivityType() + " " + activity.getActivityID().id);
-        }
+        LOGGER.debug("RECEIVING:" + eid + ":" + fid + " " + activity.getActivityType() + " " + activity.getActivityID().id);
       }
       if (activity.isSyncActivity()) {
+        // Sync activities are barriers for the apply lanes.
+        drainLanes();
         if (SyncReplicationActivity.ActivityType.SYNC_BEGIN == activity.getActivityType()) {
           syncBeginEntityListReceived(activeSender, activity);
         } else {
@@ -222,6 +254,10 @@ public class ReplicatedTransactionHandler {
           syncActivityReceived(activeSender, activity);
         }
       } else {
+        if (!activeSender.equals(ServerID.NULL_ID)) {
+          lastActivityFrom = activeSender;
+          lastActivityID = activity.getActivityID();
+        }
         if (state.ignore(activity)) {
           if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Ignoring:" + eid + " " + activity.getActivityType());
@@ -271,8 +307,6 @@ public class ReplicatedTransactionHandler {
 
 //  don't need to worry about resends here for lifecycle messages.  active will filer them  
   private void replicatedActivityReceived(ServerID activeSender, SyncReplicationActivity activity) throws EntityException {
-    Trace trace = new Trace(String.valueOf(activity.getActivityID().id), "Replication");
-    trace.start();
     ClientID sourceNodeID = activity.getSource();
     TransactionID transactionID = activity.getTransactionID();
     TransactionID oldestTransactionOnClient = activity.getOldestTransactionOnClient();
@@ -280,12 +314,49 @@ public class ReplicatedTransactionHandler {
     Future<Void> tmpFuture = null;
     // Note that we only want to persist the messages with a true sourceNodeID.  Synthetic invocations and sync messages
     // don't have one (although sync messages shouldn't come down this path).
+    // This always happens here, in stream order, since the persisted order is what a failover replays.
     if (sourceNodeID != null && !sourceNodeID.isNull() && transactionID.isValid()) {
       Assert.assertTrue(oldestTransactionOnClient.isValid());
       tmpFuture = this.persistor.getTransactionOrderPersistor().updateWithNewMessage(sourceNodeID, transactionID,oldestTransactionOnClient);
     }
 
     final Future<Void> transactionOrderPersistenceFuture = tmpFuture;
+    if (this.lanes != null && isLaneActivity(activity)) {
+      // Invokes on the same entity and concurrency key share a lane so they reach the entity in stream order.
+      this.lanes.execute(31L * activity.getFetchID().toLong() + activity.getConcurrency(), ()->{
+        try {
+          applyReplicatedActivity(activeSender, activity, transactionOrderPersistenceFuture);
+        } catch (EntityException ee) {
+          throw new RuntimeException(ee);
+        }
+      });
+    } else {
+      // Everything else is a barrier:  it is only applied once nothing is in flight on the lanes.
+      drainLanes();
+      applyReplicatedActivity(activeSender, activity, transactionOrderPersistenceFuture);
+    }
+  }
+
+  private static boolean isLaneActivity(SyncReplicationActivity activity) {
+    if (activity.getActivityType() != ActivityType.INVOKE_ACTION) {
+      return false;
+    }
+    int concurrencyKey = activity.getConcurrency();
+    return concurrencyKey != ConcurrencyStrategy.MANAGEMENT_KEY && concurrencyKey != ConcurrencyStrategy.UNIVERSAL_KEY;
+  }
+
+  private void drainLanes() {
+    if (this.lanes != null) {
+      this.lanes.drain();
+    }
+  }
+
+  private void applyReplicatedActivity(ServerID activeSender, SyncReplicationActivity activity, Future<Void> transactionOrderPersistenceFuture) throws EntityException {
+    Trace trace = new Trace(String.valueOf(activity.getActivityID().id), "Replication");
+    trace.start();
+    ClientID sourceNodeID = activity.getSource();
+    TransactionID transactionID = activity.getTransactionID();
+    TransactionID oldestTransactionOnClient = activity.getOldestTransactionOnClient();
 
     byte[] extendedData = activity.getExtendedData();
 
@@ -397,6 +468,29 @@ public class ReplicatedTransactionHandler {
   
   private void establishNewPassive() {
     entityManager.resetReferences();
+    lastActivityID = null;
+  }
+
+  /**
+   * Asks the active this standby was replicating from for everything after the last activity received.  Anything the
+   * active can no longer provide gets this server zapped and synced from scratch.
+   */
+  private void requestResume() {
+    ServerID active = lastActivityFrom;
+    SyncReplicationActivity.ActivityID last = lastActivityID;
+    if (stateManager.getCurrentMode() != ServerMode.PASSIVE || active.isNull() || last == null) {
+      return;
+    }
+    synchronized (this) {
+      // acks in flight on the old connection are lost, start a new batch context
+      this.cachedMessageAckFrom = null;
+    }
+    try {
+      LOGGER.info("Requesting replication resume from " + active + " after " + last.id);
+      groupManager.sendTo(active, ReplicationMessageAck.createResumeRequestMessage(last));
+    } catch (GroupException ge) {
+      LOGGER.warn("can't request replication resume", ge);
+    }
   }
   
   private void requestPassiveSync() {
@@ -613,7 +707,8 @@ public class ReplicatedTransactionHandler {
     // The batch context is cached and constructed lazily when the sender changes.
     if (!sender.equals(this.cachedMessageAckFrom)) {
       this.cachedMessageAckFrom = sender;
-      this.cachedBatchAck = new GroupMessageBatchContext<>(this::createAckMessage, this.groupManager, this.cachedMessageAckFrom, maximumBatchSize, idealMessagesInFlight, (node)->sendToActive());
+      this.cachedBatchAck = new GroupMessageBatchContext<>(this::createAckMessage, this.groupManager, this.cachedMessageAckFrom, maximumBatchSize, idealMessagesInFlight, (node)->sendToActive(),
+          maximumBatchBytes, (tuple)->ReplicationAckTuple.SERIALIZED_SIZE, null, null);
     }
     
     boolean didCreate = this.cachedBatchAck.batchMessage(new ReplicationAckTuple(respondTo, code));
@@ -0,0 +1,155 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Sizes the replication window to one passive from what the active observes of it, much like a TCP congestion
+ * window.
+ * <p>
+ * The number of batches allowed in flight grows by one per window of acknowledged batches while the smoothed round
+ * trip stays close to the smallest one seen, and is halved (at most once per round trip) when the round trip grows,
+ * which means batches are queueing somewhere between the two servers.  The batch limit is the number of activities the
+ * passive applies per round trip, spread over the window, so that a full window keeps the passive busy.
+ */
+public class ReplicationWindow {
+  // A smoothed round trip this many times the smallest one means the link or the passive is queueing.
+  private static final int QUEUEING_FACTOR = 2;
+  // The smallest round trip is re-learned periodically in case the path between the servers changes.
+  private static final int MIN_RTT_SAMPLES = 1024;
+  private static final long RATE_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MIN_ACK_TIMEOUT = TimeUnit.SECONDS.toNanos(1);
+
+  private final int minBatch;
+  private final int maxBatch;
+  private final int maxInFlight;
+
+  private double window = 1;
+  private long smoothedRtt;
+  private long minRtt = Long.MAX_VALUE;
+  private int minRttSamples;
+  private long lastDecrease;
+  private double applyRate;
+  private long rateStart;
+  private long rateCount;
+  private long samples;
+  private long decreases;
+  private long lost;
+
+  public ReplicationWindow(int minBatch, int maxBatch, int maxInFlight) {
+    this(minBatch, maxBatch, 1, maxInFlight);
+  }
+
+  /**
+   * @param initialInFlight the batches allowed in flight before anything has been measured, so a window can start
+   * where a fixed configuration would have been rather than at a single batch
+   */
+  public ReplicationWindow(int minBatch, int maxBatch, int initialInFlight, int maxInFlight) {
+    this.minBatch = minBatch;
+    this.maxBatch = Math.max(minBatch, maxBatch);
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.window = Math.max(1, Math.min(this.maxInFlight, initialInFlight));
+  }
+
+  public synchronized int getMessagesInFlight() {
+    return (int) this.window;
+  }
+
+  public synchronized int getBatchLimit() {
+    if (this.smoothedRtt == 0 || this.applyRate == 0) {
+      return this.minBatch;
+    }
+    double perRoundTrip = this.applyRate * this.smoothedRtt / TimeUnit.SECONDS.toNanos(1);
+    long limit = (long) Math.ceil(perRoundTrip / (int) this.window);
+    return (int) Math.max(this.minBatch, Math.min(this.maxBatch, limit));
+  }
+
+  /**
+   * @return how long a batch may go unacknowledged before it is assumed lost
+   */
+  public synchronized long getAckTimeout() {
+    return Math.max(MIN_ACK_TIMEOUT, 8 * this.smoothedRtt);
+  }
+
+  /**
+   * Records the round trip of a batch, from being handed to the network to the passive's first ack of it.
+   */
+  public synchronized void rttSample(long rtt, long now) {
+    this.samples += 1;
+    this.smoothedRtt = (this.smoothedRtt == 0) ? rtt : this.smoothedRtt + (rtt - this.smoothedRtt) / 8;
+    if (rtt < this.minRtt || ++this.minRttSamples >= MIN_RTT_SAMPLES) {
+      this.minRtt = Math.max(1, rtt);
+      this.minRttSamples = 0;
+    }
+    if (this.smoothedRtt > QUEUEING_FACTOR * this.minRtt) {
+      decrease(now);
+    } else if (this.window < this.maxInFlight) {
+      this.window = Math.min(this.maxInFlight, this.window + 1 / this.window);
+    }
+  }
+
+  /**
+   * Records that a batch was never acknowledged.
+   */
+  public synchronized void lost(long now) {
+    this.lost += 1;
+    decrease(now);
+  }
+
+  /**
+   * Records activities the passive finished applying.
+   */
+  public synchronized void completed(int count, long now) {
+    if (this.rateStart == 0) {
+      // nothing to measure the first completions against
+      this.rateStart = now;
+      return;
+    }
+    this.rateCount += count;
+    long elapsed = now - this.rateStart;
+    if (elapsed >= RATE_INTERVAL) {
+      double rate = (double) this.rateCount * TimeUnit.SECONDS.toNanos(1) / elapsed;
+      this.applyRate = (this.applyRate == 0) ? rate : 0.75 * this.applyRate + 0.25 * rate;
+      this.rateStart = now;
+      this.rateCount = 0;
+    }
+  }
+
+  public synchronized void reportStateToMap(Map<String, Object> map) {
+    map.put("messagesInFlight", getMessagesInFlight());
+    map.put("batchLimit", getBatchLimit());
+    map.put("smoothedRttMicros", TimeUnit.NANOSECONDS.toMicros(this.smoothedRtt));
+    map.put("minRttMicros", (this.minRtt == Long.MAX_VALUE) ? 0 : TimeUnit.NANOSECONDS.toMicros(this.minRtt));
+    map.put("applyRatePerSecond", (long) this.applyRate);
+    map.put("rttSamples", this.samples);
+    map.put("windowDecreases", this.decreases);
+    map.put("lostBatches", this.lost);
+  }
+
+  private void decrease(long now) {
+    if (now - this.lastDecrease > this.smoothedRtt) {
+      this.window = Math.max(1, this.window / 2);
+      this.lastDecrease = now;
+      this.decreases += 1;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.text.PrettyPrintable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides how many requests a client may have in flight, granted to the client with every multi-response sent to it.
+ * The free space below the target queue depth of the request stages is split evenly among the clients currently
+ * receiving responses, and the share is held between the minimum and maximum credit.  The minimum is at least one so
+ * a client with nothing in flight can always send the request that earns it a new grant.
+ */
+public class RequestCreditPolicy implements PrettyPrintable {
+  /**
+   * Credit value meaning no grant was made, the client keeps its own window.
+   */
+  public static final int NO_CREDIT = -1;
+
+  private final int maxCredit;
+  private final int minCredit;
+  private final int targetQueued;
+
+  private final LongAdder grants = new LongAdder();
+  private final LongAdder throttled = new LongAdder();
+  private final AtomicInteger lowest = new AtomicInteger(Integer.MAX_VALUE);
+  private volatile int last = NO_CREDIT;
+
+  /**
+   * @param maxCredit the largest window granted, 0 disables credits
+   * @param minCredit the smallest window granted, raised to 1 if lower
+   * @param targetQueued the depth of the request stages at which every client is held to the minimum
+   */
+  public RequestCreditPolicy(int maxCredit, int minCredit, int targetQueued) {
+    this.maxCredit = Math.max(0, maxCredit);
+    this.minCredit = Math.max(1, Math.min(minCredit, this.maxCredit));
+    this.targetQueued = Math.max(1, targetQueued);
+  }
+
+  public boolean isEnabled() {
+    return maxCredit > 0;
+  }
+
+  /**
+   * @param queued the number of requests waiting on the request stages
+   * @param clients the number of clients competing for the free space
+   * @return the window to grant or {@link #NO_CREDIT} if credits are disabled
+   */
+  public int grant(int queued, int clients) {
+    if (!isEnabled()) {
+      return NO_CREDIT;
+    }
+    long free = Math.max(0, targetQueued - queued);
+    int credit = (int) Math.max(minCredit, Math.min(maxCredit, free / Math.max(1, clients)));
+    grants.increment();
+    if (credit < maxCredit) {
+      throttled.increment();
+    }
+    lowest.accumulateAndGet(credit, Math::min);
+    last = credit;
+    return credit;
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("maxCredit", maxCredit);
+    map.put("minCredit", minCredit);
+    map.put("targetQueued", targetQueued);
+    map.put("grants", grants.sum());
+    map.put("throttledGrants", throttled.sum());
+    int low = lowest.get();
+    map.put("lowestGrant", low == Integer.MAX_VALUE ? NO_CREDIT : low);
+    map.put("lastGrant", last);
+    return map;
+  }
+}
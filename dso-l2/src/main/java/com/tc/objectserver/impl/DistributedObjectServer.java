@@ -56,6 +56,7 @@ import com.tc.entity.DiagnosticMessageImpl;
 import com.tc.entity.DiagnosticResponseImpl;
 import com.tc.entity.LinearVoltronEntityMultiResponse;
 import com.tc.entity.NetworkVoltronEntityMessageImpl;
+import com.tc.entity.NetworkVoltronEntityMultiMessageImpl;
 import com.tc.entity.VoltronEntityAppliedResponseImpl;
 import com.tc.entity.VoltronEntityMessage;
 import com.tc.entity.VoltronEntityReceivedResponseImpl;
@@ -87,6 +88,7 @@ import com.tc.l2.handler.L2StateMessageHandler;
 import com.tc.l2.handler.PlatformInfoRequestHandler;
 import com.tc.l2.msg.L2StateMessage;
 import com.tc.l2.msg.PlatformInfoRequest;
+import com.tc.l2.msg.ReplicationCompression;
 import com.tc.l2.msg.ReplicationMessage;
 import com.tc.l2.msg.ReplicationMessageAck;
 import com.tc.l2.msg.SyncReplicationActivity;
@@ -150,11 +152,17 @@ import com.tc.objectserver.core.api.ServerConfigurationContext;
 import com.tc.objectserver.core.impl.ManagementTopologyEventCollector;
 import com.tc.objectserver.core.impl.ServerManagementContext;
 import com.tc.objectserver.entity.ActiveToPassiveReplication;
+import com.tc.objectserver.entity.PassiveSyncScheduler;
 import com.tc.objectserver.handler.ChannelLifeCycleHandler;
 import com.tc.objectserver.handler.ClientHandshakeHandler;
+import com.tc.objectserver.handler.ExpiredRequests;
+import com.tc.objectserver.handler.MultiResponseFlushPolicy;
+import com.tc.objectserver.handler.RequestCreditPolicy;
 import com.tc.objectserver.handler.ProcessTransactionHandler;
 import com.tc.objectserver.handshakemanager.ServerClientHandshakeManager;
 import com.tc.objectserver.persistence.ClientStatePersistor;
+import com.tc.objectserver.persistence.MappedPlatformStorageProviderConfiguration;
+import com.tc.objectserver.persistence.MappedPlatformStorageServiceProvider;
 import com.tc.objectserver.persistence.Persistor;
 import com.tc.objectserver.persistence.NullPlatformStorageServiceProvider;
 import com.tc.objectserver.persistence.NullPlatformStorageProviderConfiguration;
@@ -187,6 +195,7 @@ import com.tc.util.UUID;
 import com.tc.util.startuplock.FileNotCreatedException;
 import com.tc.util.startuplock.LocationNotCreatedException;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
@@ -257,6 +266,12 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
   private L2Coordinator                          l2Coordinator;
 
   private TCProperties                           tcProperties;
+  private ReplicationSender                      replicationSender;
+  private PassiveSyncScheduler                   passiveSyncScheduler;
+  private ReplicationCompression                 replicationCompression;
+  private MultiResponseFlushPolicy               multiResponseFlushPolicy;
+  private RequestCreditPolicy                    requestCreditPolicy;
+  private ExpiredRequests                        expiredRequests;
 
   private ConnectionIDFactoryImpl                connectionIdFactory;
 
@@ -326,6 +341,24 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     collectState(this.groupCommManager, pp);
     collectState(this.l2Coordinator, pp);
     collectState(this.entityManager, pp);
+    if (this.replicationSender != null) {
+      collectState(this.replicationSender, pp);
+    }
+    if (this.passiveSyncScheduler != null) {
+      collectState(this.passiveSyncScheduler, pp);
+    }
+    if (this.replicationCompression != null) {
+      collectState(this.replicationCompression, pp);
+    }
+    if (this.multiResponseFlushPolicy != null) {
+      collectState(this.multiResponseFlushPolicy, pp);
+    }
+    if (this.requestCreditPolicy != null) {
+      collectState(this.requestCreditPolicy, pp);
+    }
+    if (this.expiredRequests != null) {
+      collectState(this.expiredRequests, pp);
+    }
     collectState(this.serviceRegistry, pp);
     addExtendedConfigState(pp);
     return pp.toString().getBytes(set);
@@ -431,7 +464,25 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
 
     
     // See if we need to add an in-memory service for IPlatformPersistence.
-    if (!this.serviceRegistry.hasUserProvidedServiceProvider(IPlatformPersistence.class)) {
+    String platformPersistenceDirectory = tcProperties.getProperty(TCPropertiesConsts.L2_PERSISTENCE_MMAP_DIRECTORY, true);
+    if (!this.serviceRegistry.hasUserProvidedServiceProvider(IPlatformPersistence.class) && platformPersistenceDirectory != null && !platformPersistenceDirectory.trim().isEmpty()) {
+      // A directory was configured for the built-in provider so keep platform state on disk, in memory-mapped logs.
+      MappedPlatformStorageServiceProvider mappedPlatformStorageServiceProvider = new MappedPlatformStorageServiceProvider();
+      MappedPlatformStorageProviderConfiguration mappedConfiguration = new MappedPlatformStorageProviderConfiguration(new File(platformPersistenceDirectory.trim()),
+          tcProperties.getInt(TCPropertiesConsts.L2_PERSISTENCE_MMAP_SEGMENT_SIZE));
+      if (!mappedPlatformStorageServiceProvider.initialize(mappedConfiguration, platformConfiguration)) {
+        throw new TCRuntimeException("Unable to create platform persistence directory " + mappedConfiguration.getDirectory());
+      }
+      serviceRegistry.registerExternal(mappedPlatformStorageServiceProvider);
+      // the server has no orderly stop, so force and unmap the logs as the JVM exits
+      CommonShutDownHook.addShutdownHook(() -> {
+        try {
+          mappedPlatformStorageServiceProvider.close();
+        } catch (IOException ioe) {
+          logger.warn("unable to close platform persistence", ioe);
+        }
+      });
+    } else if (!this.serviceRegistry.hasUserProvidedServiceProvider(IPlatformPersistence.class)) {
       // In this case, we do still need to provide an implementation of IPlatformPersistence, backed by memory, so that entities can request a service which is as persistent as this server is.
       NullPlatformStorageServiceProvider nullPlatformStorageServiceProvider = new NullPlatformStorageServiceProvider();
       nullPlatformStorageServiceProvider.initialize(new NullPlatformStorageProviderConfiguration(), platformConfiguration);
@@ -627,6 +678,7 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
       logger.info("disabling the use for direct sinks");
     }
     RequestProcessor processor = new RequestProcessor(stageManager, USE_DIRECT);
+    this.replicationCompression = processor.getCompression();
     
     ManagementTopologyEventCollector eventCollector = new ManagementTopologyEventCollector(serviceInterface);
     ClientEntityStateManager clientEntityStateManager = new ClientEntityStateManagerImpl();
@@ -635,6 +687,9 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     // We need to set up a stage to point at the ProcessTransactionHandler and we also need to register it for events, below.
     final ProcessTransactionHandler processTransactionHandler = new ProcessTransactionHandler(this.persistor, channelManager, entityManager, () -> l2Coordinator.getStateManager().cleanupKnownServers());
     final Stage<VoltronEntityMessage> processTransactionStage_voltron = stageManager.createStage(ServerConfigurationContext.VOLTRON_MESSAGE_STAGE, VoltronEntityMessage.class, processTransactionHandler.getVoltronMessageHandler(), 1, maxStageSize, USE_DIRECT);
+    this.multiResponseFlushPolicy = processTransactionHandler.getMultiResponseFlushPolicy();
+    this.requestCreditPolicy = processTransactionHandler.getRequestCreditPolicy();
+    this.expiredRequests = processTransactionHandler.getExpiredRequests();
     final Stage<TCMessage> multiRespond = stageManager.createStage(ServerConfigurationContext.RESPOND_TO_REQUEST_STAGE, TCMessage.class, processTransactionHandler.getMultiResponseSender(), 1, maxStageSize, false);
     final Sink<VoltronEntityMessage> voltronMessageSink = processTransactionStage_voltron.getSink();
 //  add the server -> client communicator service
@@ -667,7 +722,9 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     Stage<HydrateContext> hydrator = stageManager.createStage(ServerConfigurationContext.HYDRATE_MESSAGE_STAGE, HydrateContext.class, new HydrateHandler(), L2Utils.getOptimalCommWorkerThreads(), maxStageSize);
     
     messageRouter.routeMessageType(TCMessageType.CLIENT_HANDSHAKE_MESSAGE, new TCMessageHydrateSink<>(clientHandshake.getSink()));
-    messageRouter.routeMessageType(TCMessageType.VOLTRON_ENTITY_MESSAGE, new VoltronMessageSink(hydrator, fast.getSink(), entityManager));
+    VoltronMessageSink voltronMessageSink = new VoltronMessageSink(hydrator, fast.getSink(), entityManager);
+    messageRouter.routeMessageType(TCMessageType.VOLTRON_ENTITY_MESSAGE, voltronMessageSink);
+    messageRouter.routeMessageType(TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE, voltronMessageSink);
     messageRouter.routeMessageType(TCMessageType.DIAGNOSTIC_REQUEST, new DiagnosticsHandler(this));    
 
     HASettingsChecker haChecker = new HASettingsChecker(configSetupManager, tcProperties);
@@ -675,7 +732,7 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
 
     L2StateChangeHandler stateHandler = new L2StateChangeHandler(createStageController(monitoringShimService), eventCollector);
     final Stage<StateChangedEvent> stateChange = stageManager.createStage(ServerConfigurationContext.L2_STATE_CHANGE_STAGE, StateChangedEvent.class, stateHandler, 1, maxStageSize);
-    StateManager state = new StateManagerImpl(DistributedObjectServer.consoleLogger, this.groupCommManager, 
+    StateManagerImpl state = new StateManagerImpl(DistributedObjectServer.consoleLogger, this.groupCommManager, 
         stateChange.getSink(), stageManager, 
         configSetupManager.getActiveServerGroupForThisL2().getMembers().length,
         configSetupManager.getActiveServerGroupForThisL2().getElectionTimeInSecs(),
@@ -709,10 +766,17 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     connectServerStateToReplicatedState(processTransactionHandler, state, clientEntityStateManager, l2Coordinator.getReplicatedClusterStateManager());
 // setup replication    
     final Stage<Runnable> replicationSenderStage = stageManager.createStage(ServerConfigurationContext.ACTIVE_TO_PASSIVE_DRIVER_STAGE, Runnable.class, new GenericHandler<>(), 1, maxStageSize);
-    ReplicationSender replicationSender = new ReplicationSender(replicationSenderStage, groupCommManager);
+    this.replicationSender = new ReplicationSender(replicationSenderStage, groupCommManager);
+    if (serviceInterface != null) {
+      final IMonitoringProducer lagMonitoring = serviceInterface;
+      this.replicationSender.addLagListener((passive, lag)->lagMonitoring.pushBestEffortsData("replication-lag", new HashMap<>(lag)));
+    }
     
-    final ActiveToPassiveReplication passives = new ActiveToPassiveReplication(consistencyMgr, processTransactionHandler, l2Coordinator.getReplicatedClusterStateManager().getPassives(), this.persistor.getEntityPersistor(), replicationSender, this.getGroupManager());
+    final ActiveToPassiveReplication passives = new ActiveToPassiveReplication(consistencyMgr, processTransactionHandler, l2Coordinator.getReplicatedClusterStateManager().getPassives(), this.persistor.getEntityPersistor(), this.replicationSender, this.getGroupManager());
     processor.setReplication(passives); 
+    this.passiveSyncScheduler = passives.getSyncScheduler();
+    this.passiveSyncScheduler.initMBean();
+    state.setResumablePassives(passives::isResumable);
 
     Stage<ReplicationMessageAck> replicationStageAck = stageManager.createStage(ServerConfigurationContext.PASSIVE_REPLICATION_ACK_STAGE, ReplicationMessageAck.class, 
         new AbstractEventHandler<ReplicationMessageAck>() {
@@ -725,6 +789,9 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
               case ReplicationMessageAck.START_SYNC:
                 passives.startPassiveSync(context.messageFrom());
                 break;
+              case ReplicationMessageAck.RESUME_SYNC:
+                passives.resumePassiveSync(context.messageFrom(), context.getLastReceived());
+                break;
               default:
                 throw new AssertionError("bad message " + context);
           }
@@ -743,8 +810,25 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     this.groupCommManager.registerForGroupEvents(dispatchHandler.createDispatcher(groupEvents.getSink()));
   //  TODO:  These stages should probably be activated and destroyed dynamically    
 //  Replicated messages need to be ordered
-    Sink<ReplicationMessage> replication = new OrderedSink<ReplicationMessage>(logger, replicationStage.getSink());
+    OrderedSink<ReplicationMessage> replication = new OrderedSink<ReplicationMessage>(logger, replicationStage.getSink());
     this.groupCommManager.routeMessages(ReplicationMessage.class, replication);
+//  a standby whose active drops out and rejoins asks to be caught up from the active's replication log
+    dispatchHandler.addListener(new GroupEventsListener() {
+      @Override
+      public void nodeJoined(NodeID nodeID) {
+        if (replicatedTransactionHandler.isResumableFrom(nodeID)) {
+          replicationStage.getSink().addToSink(ReplicationMessage.createLocalContainer(SyncReplicationActivity.createResumeReplicationMessage()));
+        }
+      }
+
+      @Override
+      public void nodeLeft(NodeID nodeID) {
+        if (replicatedTransactionHandler.isResumableFrom(nodeID)) {
+          // messages queued behind one lost with the connection are replayed on resume, in a new sequence
+          replication.discardPending();
+        }
+      }
+    });
 
     this.groupCommManager.routeMessages(ReplicationMessageAck.class, replicationStageAck.getSink());
     Sink<PlatformInfoRequest> info = createPlatformInformationStages(stageManager, maxStageSize, monitoringShimService);
@@ -985,6 +1069,7 @@ public class DistributedObjectServer implements TCDumper, ServerConnectionValida
     messageTypeClassMapping.put(TCMessageType.CLUSTER_MEMBERSHIP_EVENT_MESSAGE, ClusterMembershipMessage.class);
 
     messageTypeClassMapping.put(TCMessageType.VOLTRON_ENTITY_MESSAGE, NetworkVoltronEntityMessageImpl.class);
+    messageTypeClassMapping.put(TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE, NetworkVoltronEntityMultiMessageImpl.class);
     messageTypeClassMapping.put(TCMessageType.VOLTRON_ENTITY_RECEIVED_RESPONSE, VoltronEntityReceivedResponseImpl.class);
     messageTypeClassMapping.put(TCMessageType.VOLTRON_ENTITY_COMPLETED_RESPONSE, VoltronEntityAppliedResponseImpl.class);
     messageTypeClassMapping.put(TCMessageType.VOLTRON_ENTITY_RETIRED_RESPONSE, VoltronEntityRetiredResponseImpl.class);
@@ -0,0 +1,137 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import java.util.Arrays;
+
+/**
+ * A growable ring buffer of (local, global) transaction sequence pairs for one client.
+ * Local sequence IDs are always appended in increasing order so the head can be trimmed by binary search without
+ * walking or allocating per-entry objects.
+ */
+class ClientSequenceBuffer {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] locals;
+  private long[] globals;
+  private int head;
+  private int size;
+
+  ClientSequenceBuffer() {
+    this(INITIAL_CAPACITY);
+  }
+
+  ClientSequenceBuffer(int capacity) {
+    int initial = Integer.highestOneBit(Math.max(capacity, 1) - 1) << 1;
+    this.locals = new long[Math.max(initial, 1)];
+    this.globals = new long[this.locals.length];
+  }
+
+  /**
+   * Appends a new pair at the tail, growing the buffer if it is full.
+   */
+  void add(long localSequenceID, long globalSequenceID) {
+    if (size == locals.length) {
+      resize(locals.length << 1);
+    }
+    int tail = (head + size) & (locals.length - 1);
+    locals[tail] = localSequenceID;
+    globals[tail] = globalSequenceID;
+    size += 1;
+  }
+
+  /**
+   * Drops every pair at the head whose local sequence ID is less than oldestValidSequenceID.
+   *
+   * @return the number of pairs dropped
+   */
+  int trimBefore(long oldestValidSequenceID) {
+    if (size == 0 || localAt(0) >= oldestValidSequenceID) {
+      return 0;
+    }
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (localAt(mid) < oldestValidSequenceID) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    head = (head + low) & (locals.length - 1);
+    size -= low;
+    if (size == 0) {
+      head = 0;
+    }
+    if (locals.length > INITIAL_CAPACITY && size < (locals.length >> 2)) {
+      resize(locals.length >> 1);
+    }
+    return low;
+  }
+
+  long localAt(int index) {
+    return locals[(head + index) & (locals.length - 1)];
+  }
+
+  long globalAt(int index) {
+    return globals[(head + index) & (locals.length - 1)];
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  void clear() {
+    head = 0;
+    size = 0;
+  }
+
+  /**
+   * @return the number of bytes retained by the backing arrays of this buffer
+   */
+  long getFootprint() {
+    return (long) locals.length * Long.BYTES * 2;
+  }
+
+  private void resize(int capacity) {
+    long[] newLocals = new long[capacity];
+    long[] newGlobals = new long[capacity];
+    for (int x = 0; x < size; x++) {
+      newLocals[x] = localAt(x);
+      newGlobals[x] = globalAt(x);
+    }
+    locals = newLocals;
+    globals = newGlobals;
+    head = 0;
+  }
+
+  @Override
+  public String toString() {
+    long[] l = new long[size];
+    for (int x = 0; x < size; x++) {
+      l[x] = localAt(x);
+    }
+    return "ClientSequenceBuffer{size=" + size + ", capacity=" + locals.length + ", locals=" + Arrays.toString(l) + '}';
+  }
+}
@@ -20,44 +20,60 @@ package com.tc.objectserver.persistence;
 
 import com.tc.net.ClientID;
 import com.tc.objectserver.api.ClientNotFoundException;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import com.tc.util.ProductID;
 import com.tc.util.sequence.MutableSequence;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import org.terracotta.persistence.IPlatformPersistence;
 
 
+/**
+ * Tracks the clients connected to the stripe.  Each connect or disconnect is appended to a {@link RecordLog} as one
+ * constant-size {@link ClientRecord}, with the whole set only written by the periodic background checkpoint.
+ */
 public class ClientStatePersistor {
   private static final String CLIENTS_MAP_FILE_NAME =  "clients_map.map";
+  private static final String CLIENTS_LOG_NAME =  "clients.log";
   private static final String NEXT_CLIENT_ID_FILE_NAME =  "next_client_id.dat";
   
   
   private final IPlatformPersistence storageManager;
-  private final ConcurrentHashMap<ClientID, Boolean> clients;
+  private final ConcurrentHashMap<ClientID, Boolean> clients = new ConcurrentHashMap<>();
+  private final RecordLog<ClientRecord> log;
   private final MutableSequence clientIDSequence;
 
-  @SuppressWarnings("unchecked")
   public ClientStatePersistor(IPlatformPersistence storageManager) {
+    this(storageManager, TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.L2_PERSISTENCE_LOG_COMPACTION_THRESHOLD, 1024), 
+        RecordLog.createCompactionExecutor("ClientStatePersistor"));
+  }
+
+  ClientStatePersistor(IPlatformPersistence storageManager, int compactionThreshold, Executor compactionExecutor) {
     this.storageManager = storageManager;
-    
-    ConcurrentHashMap<ClientID, Boolean> clientsMap = null;
+    this.log = new RecordLog<>(storageManager, CLIENTS_LOG_NAME, compactionThreshold, compactionExecutor);
     try {
-      clientsMap = (ConcurrentHashMap<ClientID, Boolean>) this.storageManager.loadDataElement(CLIENTS_MAP_FILE_NAME);
-      if (null == clientsMap) {
-        clientsMap = new ConcurrentHashMap<>();
+      boolean[] legacy = new boolean[1];
+      this.log.load((state) -> legacy[0] = restoreCheckpoint(state), this::apply);
+      if (legacy[0]) {
+        // Only remove the old map once its content is safely covered by a checkpoint.
+        this.log.reset(takeCheckpoint());
+        this.storageManager.storeDataElement(CLIENTS_MAP_FILE_NAME, null);
       }
     } catch (IOException e) {
       // We don't expect this during startup so just throw it as runtime.
       throw new RuntimeException("Failure reading ClientStatePersistor data", e);
     }
-    this.clients = clientsMap;
     this.clientIDSequence = new Sequence(this.storageManager);
     Assert.assertNotNull(this.clients);
   }
@@ -82,20 +98,26 @@ public class ClientStatePersistor {
     return clients.containsKey(id);
   }
 
-  public boolean saveClientState(ClientID channelID, ProductID product) {
-    if (clients.put(channelID, product.isPermanent()) == null) {
-      safeStoreClients();
+  public synchronized boolean saveClientState(ClientID channelID, ProductID product) {
+    ClientRecord record = new ClientRecord();
+    record.clientID = channelID;
+    record.permanent = product.isPermanent();
+    if (clients.put(channelID, record.permanent) == null) {
+      safeStoreClient(record);
       return true;
     } else {
       return false;
     }
   }
 
-  public void deleteClientState(ClientID id) throws ClientNotFoundException {
+  public synchronized void deleteClientState(ClientID id) throws ClientNotFoundException {
     if (clients.remove(id) == null) {
       throw new ClientNotFoundException();
     }
-    safeStoreClients();
+    ClientRecord record = new ClientRecord();
+    record.clientID = id;
+    record.removed = true;
+    safeStoreClient(record);
   }
 
   Map<String, Object> reportStateToMap(Map<String, Object> map) {
@@ -110,15 +132,59 @@ public class ClientStatePersistor {
     return map;
   }
   
-  private void safeStoreClients() {
+  private void safeStoreClient(ClientRecord record) {
     try {
-      this.storageManager.storeDataElement(CLIENTS_MAP_FILE_NAME, this.clients);
+      this.log.append(record, this::takeCheckpoint);
     } catch (IOException e) {
       // Not expected during run.
       Assert.fail(e.getLocalizedMessage());
     }
   }
 
+  private void apply(ClientRecord record) {
+    if (record.removed) {
+      this.clients.remove(record.clientID);
+    } else {
+      this.clients.put(record.clientID, record.permanent);
+    }
+  }
+
+  private HashMap<ClientID, Boolean> takeCheckpoint() {
+    return new HashMap<>(this.clients);
+  }
+
+  /**
+   * @return true if the state came from the whole map stored by older versions
+   */
+  @SuppressWarnings("unchecked")
+  private boolean restoreCheckpoint(Serializable state) {
+    if (null != state) {
+      this.clients.putAll((Map<ClientID, Boolean>) state);
+      return false;
+    }
+    try {
+      Map<ClientID, Boolean> clientsMap = (Map<ClientID, Boolean>) this.storageManager.loadDataElement(CLIENTS_MAP_FILE_NAME);
+      if (null != clientsMap) {
+        this.clients.putAll(clientsMap);
+        return true;
+      }
+      return false;
+    } catch (IOException e) {
+      throw new RuntimeException("Failure reading ClientStatePersistor data", e);
+    }
+  }
+
+  /**
+   * A single connect or disconnect, appended to the client log.
+   */
+  static class ClientRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    ClientID clientID;
+    boolean permanent;
+    boolean removed;
+  }
+
 
   private static class Sequence implements MutableSequence {
     private final IPlatformPersistence storageManager;
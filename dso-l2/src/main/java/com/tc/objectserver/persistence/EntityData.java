@@ -18,7 +18,11 @@
  */
 package com.tc.objectserver.persistence;
 
+import com.tc.net.ClientID;
+
 import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
 
 import org.terracotta.exception.EntityException;
 
@@ -64,6 +68,17 @@ public class EntityData {
     public boolean canDelete;
     public String entityName;
     public byte[] configuration;
+
+    public Value copy() {
+      Value copy = new Value();
+      copy.className = this.className;
+      copy.version = this.version;
+      copy.consumerID = this.consumerID;
+      copy.canDelete = this.canDelete;
+      copy.entityName = this.entityName;
+      copy.configuration = this.configuration;
+      return copy;
+    }
   }
 
   public static enum Operation implements Serializable {
@@ -88,4 +103,51 @@ public class EntityData {
       return "JournalEntry{" + "operation=" + operation + ", transactionID=" + transactionID + '}';
     }
   }
+
+  /**
+   * The kinds of change recorded in the entity lifecycle log.
+   */
+  public static enum RecordType implements Serializable {
+    ENTITY_STORED,
+    ENTITY_REMOVED,
+    JOURNAL_ENTRY_ADDED,
+    JOURNAL_REPLACED,
+    CLIENT_ADDED,
+    CLIENT_REMOVED,
+    JOURNAL_CLEARED,
+    CONSUMER_ID_SET,
+  }
+
+  /**
+   * One change to the entity persistor state, appended to its log instead of rewriting the whole state.  Only the fields
+   * relevant to the type are set.
+   */
+  public static class LogRecord implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public RecordType type;
+    public Key key;
+    public Value value;
+    public ClientID clientID;
+    public long oldestTransactionOnClient;
+    public JournalEntry entry;
+    public List<JournalEntry> journal;
+    public long counter;
+
+    @Override
+    public String toString() {
+      return "LogRecord{" + "type=" + type + ", clientID=" + clientID + ", entry=" + entry + '}';
+    }
+  }
+
+  /**
+   * The full state of the entity persistor, written when its log is compacted.
+   */
+  public static class Snapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public HashMap<Key, Value> entities;
+    public HashMap<ClientID, List<JournalEntry>> entityLifeJournal;
+    public HashMap<String, Long> counters;
+  }
 }
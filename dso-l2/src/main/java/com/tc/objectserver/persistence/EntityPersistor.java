@@ -22,7 +22,12 @@ import com.tc.net.ClientID;
 import com.tc.object.EntityID;
 import com.tc.objectserver.persistence.EntityData.JournalEntry;
 import com.tc.objectserver.persistence.EntityData.Key;
+import com.tc.objectserver.persistence.EntityData.LogRecord;
+import com.tc.objectserver.persistence.EntityData.RecordType;
+import com.tc.objectserver.persistence.EntityData.Snapshot;
 import com.tc.objectserver.persistence.EntityData.Value;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -36,6 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +51,10 @@ import org.terracotta.persistence.IPlatformPersistence;
 
 /**
  * Stores the information relating to the entities currently alive on the platform into persistent storage.
+ * <p>
+ * Every change is appended to a {@link RecordLog} as a single {@link LogRecord}, which is periodically compacted into a
+ * {@link Snapshot} in the background.  At startup, the snapshot and the records which follow it are replayed into the same
+ * in-memory view.  Data stored by older versions as whole maps is migrated into a snapshot the first time it is loaded.
  */
 public class EntityPersistor {
   private static final Logger LOGGER = LoggerFactory.getLogger(EntityPersistor.class);
@@ -53,28 +63,36 @@ public class EntityPersistor {
   private static final String JOURNAL_CONTAINER_FILE_NAME = "journal_container.map";
   private static final String COUNTERS_FILE_NAME = "counters.map";
   private static final String COUNTERS_CONSUMER_ID = "counters:consumerID";
+  private static final String ENTITY_LOG_NAME = "entity_persistor.log";
 
   private final IPlatformPersistence storageManager;
-  private final HashMap<EntityData.Key, EntityData.Value> entities;
+  private final HashMap<EntityData.Key, EntityData.Value> entities = new HashMap<>();
   private final HashMap<EntityData.Key, EntityData.Value> deletes = new HashMap<>();
-  private final HashMap<ClientID, List<EntityData.JournalEntry>> entityLifeJournal;
-  private final HashMap<String, Long> counters;
+  private final HashMap<ClientID, List<EntityData.JournalEntry>> entityLifeJournal = new HashMap<>();
+  private final HashMap<String, Long> counters = new HashMap<>();
   private final Map<EntityID, PermanentEntityResult> result = new ConcurrentHashMap<>();
+  private final RecordLog<LogRecord> log;
+  private boolean hasLegacyMaps;
 
-  @SuppressWarnings({ "unchecked" })
   public EntityPersistor(IPlatformPersistence storageManager) {
+    this(storageManager, TCPropertiesImpl.getProperties().getInt(TCPropertiesConsts.L2_PERSISTENCE_LOG_COMPACTION_THRESHOLD, 1024), 
+        RecordLog.createCompactionExecutor("EntityPersistor"));
+  }
+
+  EntityPersistor(IPlatformPersistence storageManager, int compactionThreshold, Executor compactionExecutor) {
     this.storageManager = storageManager;
+    this.log = new RecordLog<>(storageManager, ENTITY_LOG_NAME, compactionThreshold, compactionExecutor);
     try {
-      HashMap<EntityData.Key, EntityData.Value> entities = (HashMap<Key, Value>) this.storageManager.loadDataElement(ENTITIES_ALIVE_FILE_NAME);
-      this.entities = (null != entities) ? entities : new HashMap<>();
-      HashMap<ClientID, List<EntityData.JournalEntry>> entityLifeJournal = (HashMap<ClientID, List<JournalEntry>>) this.storageManager.loadDataElement(JOURNAL_CONTAINER_FILE_NAME);
-      this.entityLifeJournal = (null != entityLifeJournal) ? entityLifeJournal : new HashMap<>();
-      HashMap<String, Long> counters = (HashMap<String, Long>) this.storageManager.loadDataElement(COUNTERS_FILE_NAME);
-      this.counters = (null != counters) ? counters : new HashMap<>();
+      this.log.load(this::restoreSnapshot, this::apply);
       // Make sure that the consumerID is initialized to 1 (0 reserved for platform).
       if (!this.counters.containsKey(COUNTERS_CONSUMER_ID)) {
         this.counters.put(COUNTERS_CONSUMER_ID, new Long(1));
       }
+      if (this.hasLegacyMaps) {
+        // Only remove the old maps once their content is safely covered by a snapshot.
+        this.log.reset(takeSnapshot());
+        deleteLegacyMaps();
+      }
     } catch (IOException e) {
       // We don't expect this during startup so just throw it as runtime.
       throw new RuntimeException("Failure reading EntityPersistor map files", e);
@@ -90,9 +108,8 @@ public class EntityPersistor {
     }
     // We can destroy the backing for these objects.
     try {
-      this.storageManager.storeDataElement(ENTITIES_ALIVE_FILE_NAME, null);
-      this.storageManager.storeDataElement(JOURNAL_CONTAINER_FILE_NAME, null);
-      this.storageManager.storeDataElement(COUNTERS_FILE_NAME, null);
+      this.log.reset(takeSnapshot());
+      deleteLegacyMaps();
     } catch (IOException e) {
       // In general, we have no way of solving this problem so throw it.
       throw new RuntimeException("Failure storing EntityPersistor map files", e);
@@ -100,7 +117,9 @@ public class EntityPersistor {
   }
   
   public synchronized void clearEntityClientJournal() {
-    this.entityLifeJournal.clear();
+    LogRecord record = new LogRecord();
+    record.type = RecordType.JOURNAL_CLEARED;
+    commit(record);
     try {
       this.storageManager.storeDataElement(JOURNAL_CONTAINER_FILE_NAME, null);
     } catch (IOException e) {
@@ -202,9 +221,11 @@ public class EntityPersistor {
     key.entityName = id.getEntityName();
     Assert.assertTrue(this.entities.containsKey(key) || this.deletes.containsKey(key));
     if (this.deletes.remove(key) == null) {
-      this.entities.remove(key);
+      LogRecord record = new LogRecord();
+      record.type = RecordType.ENTITY_REMOVED;
+      record.key = key;
+      commit(record);
     }
-    storeToDisk(ENTITIES_ALIVE_FILE_NAME, this.entities);
     
     // Record this in the journal - null error on success.
     addToJournal(clientID, transactionID, oldestTransactionOnClient, EntityData.Operation.DESTROY, null, null);
@@ -242,14 +263,18 @@ public class EntityPersistor {
     key.className = className;
     key.entityName = entityName;
     
-    EntityData.Value val = this.entities.get(key);
+    // Values are never modified in place since they may still be referenced by a pending snapshot.
+    EntityData.Value val = this.entities.get(key).copy();
     byte[] previousConfiguration = val.configuration;
     Assert.assertNotNull(previousConfiguration);
     val.configuration = configuration;
     Assert.assertEquals(version, val.version);
     
-    this.entities.put(key, val);
-    storeToDisk(ENTITIES_ALIVE_FILE_NAME, this.entities);
+    LogRecord record = new LogRecord();
+    record.type = RecordType.ENTITY_STORED;
+    record.key = key;
+    record.value = val;
+    commit(record);
     
     // Record this in the journal.
     addToJournal(clientID, transactionID, oldestTransactionOnClient, EntityData.Operation.RECONFIGURE, previousConfiguration, null);
@@ -260,28 +285,33 @@ public class EntityPersistor {
 
   public synchronized long getNextConsumerID() {
     long consumerID = this.counters.get(COUNTERS_CONSUMER_ID);
-    this.counters.put(COUNTERS_CONSUMER_ID, new Long(consumerID + 1));
-    storeToDisk(COUNTERS_FILE_NAME, this.counters);
+    storeNextConsumerID(consumerID + 1);
     return consumerID;
   }
 
   public synchronized void setNextConsumerID(long consumerID) {
     long checkID = this.counters.get(COUNTERS_CONSUMER_ID);
     if (consumerID >= checkID) {
-      this.counters.put(COUNTERS_CONSUMER_ID, new Long(consumerID + 1));
-      storeToDisk(COUNTERS_FILE_NAME, this.counters);
+      storeNextConsumerID(consumerID + 1);
     }
   }
   
   public synchronized void addTrackingForClient(ClientID sourceNodeID) {
-    if (this.entityLifeJournal.putIfAbsent(sourceNodeID, new ArrayList<>()) == null) {
-      storeToDisk(JOURNAL_CONTAINER_FILE_NAME, this.entityLifeJournal);
+    if (!this.entityLifeJournal.containsKey(sourceNodeID)) {
+      LogRecord record = new LogRecord();
+      record.type = RecordType.CLIENT_ADDED;
+      record.clientID = sourceNodeID;
+      commit(record);
     }
   }
   
   public synchronized void removeTrackingForClient(ClientID sourceNodeID) {
-    this.entityLifeJournal.remove(sourceNodeID);
-    storeToDisk(JOURNAL_CONTAINER_FILE_NAME, this.entityLifeJournal);
+    if (this.entityLifeJournal.containsKey(sourceNodeID)) {
+      LogRecord record = new LogRecord();
+      record.type = RecordType.CLIENT_REMOVED;
+      record.clientID = sourceNodeID;
+      commit(record);
+    }
   }
 
   public void reportStateToMap(Map<String, Object> map) {
@@ -307,6 +337,7 @@ public class EntityPersistor {
     }
 
     map.put("nextConsumerID", this.counters.get(COUNTERS_CONSUMER_ID));
+    map.put("pendingLogRecords", this.log.getPendingRecordCount());
   }
   
   private List<JournalEntry> filterJournal(List<JournalEntry> list, long oldestTransactionOnClient) {
@@ -321,19 +352,127 @@ public class EntityPersistor {
   }
 
   private void addToJournal(ClientID clientID, long transactionID, long oldestTransactionOnClient, EntityData.Operation operation, byte[] reconfigureResult, EntityException error) {
-    if (!clientID.isNull()) {
-      List<EntityData.JournalEntry> rawJournal = this.entityLifeJournal.get(clientID);
-      // If the list is not here, the client has already left the custer, don't bother saving the result
-      if (rawJournal != null) {
-        List<EntityData.JournalEntry> clientJournal = filterJournal(rawJournal, oldestTransactionOnClient);
-        JournalEntry newEntry = new JournalEntry();
-        newEntry.operation = operation;
-        newEntry.transactionID = transactionID;
-        newEntry.failure = error;
-        newEntry.reconfigureResponse = reconfigureResult;
-        clientJournal.add(newEntry);
-        this.entityLifeJournal.put(clientID, clientJournal);
-        storeToDisk(JOURNAL_CONTAINER_FILE_NAME, this.entityLifeJournal);
+    // If the list is not here, the client has already left the custer, don't bother saving the result
+    if (!clientID.isNull() && this.entityLifeJournal.containsKey(clientID)) {
+      JournalEntry newEntry = new JournalEntry();
+      newEntry.operation = operation;
+      newEntry.transactionID = transactionID;
+      newEntry.failure = error;
+      newEntry.reconfigureResponse = reconfigureResult;
+      LogRecord record = new LogRecord();
+      record.type = RecordType.JOURNAL_ENTRY_ADDED;
+      record.clientID = clientID;
+      record.oldestTransactionOnClient = oldestTransactionOnClient;
+      record.entry = newEntry;
+      commit(record);
+    }
+  }
+
+  private void storeNextConsumerID(long next) {
+    LogRecord record = new LogRecord();
+    record.type = RecordType.CONSUMER_ID_SET;
+    record.counter = next;
+    commit(record);
+  }
+
+  /**
+   * Applies the change to the in-memory view and appends it to the log.
+   */
+  private void commit(LogRecord record) {
+    apply(record);
+    try {
+      this.log.append(record, this::takeSnapshot);
+    } catch (IOException e) {
+      // In general, we have no way of solving this problem so throw it.
+      throw new RuntimeException("Failure storing EntityPersistor log record", e);
+    }
+  }
+
+  private void deleteLegacyMaps() throws IOException {
+    this.storageManager.storeDataElement(ENTITIES_ALIVE_FILE_NAME, null);
+    this.storageManager.storeDataElement(JOURNAL_CONTAINER_FILE_NAME, null);
+    this.storageManager.storeDataElement(COUNTERS_FILE_NAME, null);
+    this.hasLegacyMaps = false;
+  }
+
+  /**
+   * Called for every change, both as it is made and when the log is replayed at startup.
+   */
+  private void apply(LogRecord record) {
+    switch (record.type) {
+      case ENTITY_STORED:
+        this.entities.put(record.key, record.value);
+        break;
+      case ENTITY_REMOVED:
+        this.entities.remove(record.key);
+        break;
+      case JOURNAL_ENTRY_ADDED: {
+        List<EntityData.JournalEntry> rawJournal = this.entityLifeJournal.get(record.clientID);
+        if (rawJournal != null) {
+          List<EntityData.JournalEntry> clientJournal = filterJournal(rawJournal, record.oldestTransactionOnClient);
+          clientJournal.add(record.entry);
+          this.entityLifeJournal.put(record.clientID, clientJournal);
+        }
+        break;
+      }
+      case JOURNAL_REPLACED:
+        this.entityLifeJournal.put(record.clientID, new ArrayList<>(record.journal));
+        break;
+      case CLIENT_ADDED:
+        this.entityLifeJournal.putIfAbsent(record.clientID, new ArrayList<>());
+        break;
+      case CLIENT_REMOVED:
+        this.entityLifeJournal.remove(record.clientID);
+        break;
+      case JOURNAL_CLEARED:
+        this.entityLifeJournal.clear();
+        break;
+      case CONSUMER_ID_SET:
+        this.counters.put(COUNTERS_CONSUMER_ID, record.counter);
+        break;
+      default:
+        throw new AssertionError("unknown record type " + record.type);
+    }
+  }
+
+  /**
+   * Journal lists and entity values are never modified once they are in the maps so a shallow copy is consistent.
+   */
+  private Snapshot takeSnapshot() {
+    Snapshot snapshot = new Snapshot();
+    snapshot.entities = new HashMap<>(this.entities);
+    snapshot.entityLifeJournal = new HashMap<>(this.entityLifeJournal);
+    snapshot.counters = new HashMap<>(this.counters);
+    return snapshot;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void restoreSnapshot(Serializable state) {
+    if (null != state) {
+      Snapshot snapshot = (Snapshot) state;
+      this.entities.putAll(snapshot.entities);
+      this.entityLifeJournal.putAll(snapshot.entityLifeJournal);
+      this.counters.putAll(snapshot.counters);
+    } else {
+      // No snapshot was ever written so look for the whole maps stored by older versions.
+      try {
+        HashMap<EntityData.Key, EntityData.Value> entities = (HashMap<Key, Value>) this.storageManager.loadDataElement(ENTITIES_ALIVE_FILE_NAME);
+        HashMap<ClientID, List<EntityData.JournalEntry>> entityLifeJournal = (HashMap<ClientID, List<JournalEntry>>) this.storageManager.loadDataElement(JOURNAL_CONTAINER_FILE_NAME);
+        HashMap<String, Long> counters = (HashMap<String, Long>) this.storageManager.loadDataElement(COUNTERS_FILE_NAME);
+        if (null != entities) {
+          this.entities.putAll(entities);
+          this.hasLegacyMaps = true;
+        }
+        if (null != entityLifeJournal) {
+          this.entityLifeJournal.putAll(entityLifeJournal);
+          this.hasLegacyMaps = true;
+        }
+        if (null != counters) {
+          this.counters.putAll(counters);
+          this.hasLegacyMaps = true;
+        }
+      } catch (IOException e) {
+        throw new RuntimeException("Failure reading EntityPersistor map files", e);
       }
     }
   }
@@ -368,11 +507,14 @@ public class EntityPersistor {
     value.canDelete = canDelete;
     value.entityName = entityName;
     value.configuration = configuration;
-    EntityData.Value previous = this.entities.put(key, value);
-    if (previous != null) {
+    if (this.entities.containsKey(key)) {
       deletes.put(key, value);
     }
-    storeToDisk(ENTITIES_ALIVE_FILE_NAME, this.entities);
+    LogRecord record = new LogRecord();
+    record.type = RecordType.ENTITY_STORED;
+    record.key = key;
+    record.value = value;
+    commit(record);
   }
   
   private void permanentEntityCreated(EntityID id, long consumerid, Exception e) {
@@ -386,8 +528,15 @@ public class EntityPersistor {
   }
   
   public synchronized void removeOrphanedClientsFromJournal(Set<ClientID> connectedClients) {
-    this.entityLifeJournal.entrySet().removeIf(e->!connectedClients.contains(e.getKey()));
-    storeToDisk(JOURNAL_CONTAINER_FILE_NAME, this.entityLifeJournal);
+    List<ClientID> orphans = new ArrayList<>();
+    for (ClientID client : this.entityLifeJournal.keySet()) {
+      if (!connectedClients.contains(client)) {
+        orphans.add(client);
+      }
+    }
+    for (ClientID orphan : orphans) {
+      removeTrackingForClient(orphan);
+    }
   }
   
   public synchronized void serialize(ObjectOutput bucket) throws IOException {
@@ -409,11 +558,15 @@ public class EntityPersistor {
         ClientID key = (ClientID)bucket.readObject();
         @SuppressWarnings("unchecked")
         List<EntityData.JournalEntry> journal = (List<EntityData.JournalEntry>)bucket.readObject();
-        List<EntityData.JournalEntry> check = (List<EntityData.JournalEntry>)this.entityLifeJournal.get(key);
-        if (check == null) {
-          this.entityLifeJournal.put(key, journal);
+        List<EntityData.JournalEntry> current = (List<EntityData.JournalEntry>)this.entityLifeJournal.get(key);
+        LogRecord record = new LogRecord();
+        record.type = RecordType.JOURNAL_REPLACED;
+        record.clientID = key;
+        if (current == null) {
+          record.journal = journal;
           LOGGER.debug(key + " putting " + journal);
         } else {
+          List<EntityData.JournalEntry> check = new ArrayList<>(current);
           int pos = 0;
           for (JournalEntry je : journal) {
             while (pos < check.size() && check.get(pos).transactionID < je.transactionID) {
@@ -424,25 +577,15 @@ public class EntityPersistor {
             }
           }
           LOGGER.debug(key + " layering " + journal + " " + check);
-          this.entityLifeJournal.put(key, check);
+          record.journal = check;
         }
+        commit(record);
       }
     } catch (ClassNotFoundException cnf) {
       throw new IOException(cnf);
     }
-    storeToDisk(JOURNAL_CONTAINER_FILE_NAME, this.entityLifeJournal);
     long nextConsumer = bucket.readLong();
-    this.counters.put(COUNTERS_CONSUMER_ID, nextConsumer);
-    storeToDisk(COUNTERS_FILE_NAME, this.counters);
-  }
-
-  private void storeToDisk(String dataName, Serializable dataElement) {
-    try {
-      this.storageManager.storeDataElement(dataName, dataElement);
-    } catch (IOException e) {
-      // In general, we have no way of solving this problem so throw it.
-      throw new RuntimeException("Failure storing EntityPersistor map file", e);
-    }
+    storeNextConsumerID(nextConsumer);
   }
   
   private static class PermanentEntityResult {
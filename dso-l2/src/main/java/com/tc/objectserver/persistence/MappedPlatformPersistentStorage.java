@@ -0,0 +1,370 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.entity.StateDumpCollector;
+import org.terracotta.entity.StateDumpable;
+import org.terracotta.persistence.IPlatformPersistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * An {@link IPlatformPersistence} which survives restarts by appending every change to a {@link MappedSegmentLog} and
+ * rebuilding its state from that log when opened.
+ * <p>
+ * Data elements are kept in memory in their serialized form and each store is forced to disk before it returns.
+ * Sequence updates are only appended: the returned future is completed by a background thread once a force covering
+ * the update has finished, so concurrent updates share a single force.  Neither force is made while holding the lock
+ * the updates take.  A batch of sequence updates is appended under one lock and shares one future.
+ * <p>
+ * Once the log has grown enough, the live state is copied under that lock and written out as a checkpoint by another
+ * background thread, which then deletes the segments the checkpoint replaces.
+ */
+public class MappedPlatformPersistentStorage implements IPlatformPersistence, SequenceBatchPersistence, StateDumpable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedPlatformPersistentStorage.class);
+
+  private static final byte DATA_PUT = 0;
+  private static final byte DATA_REMOVE = 1;
+  private static final byte SEQUENCE_ADD = 2;
+  private static final byte SEQUENCE_DELETE = 3;
+
+  private final MappedSegmentLog log;
+  private final Map<String, byte[]> data = new HashMap<>();
+  private final Map<Long, Deque<SequenceTuple>> sequences = new HashMap<>();
+  private final ExecutorService flusher;
+  private final ExecutorService compactor;
+  private List<CompletableFuture<Void>> pendingForce = new ArrayList<>();
+  private long compactions;
+
+  public MappedPlatformPersistentStorage(File directory, int segmentSize) throws IOException {
+    this.log = new MappedSegmentLog(directory, segmentSize);
+    this.log.recover(this::replay);
+    this.flusher = backgroundThread("Platform persistence flusher - " + directory.getName());
+    this.compactor = backgroundThread("Platform persistence compactor - " + directory.getName());
+  }
+
+  private static ExecutorService backgroundThread(String name) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+      Thread thread = new Thread(r, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  public Serializable loadDataElement(String name) throws IOException {
+    return loadDataElementInLoader(name, null);
+  }
+
+  @Override
+  public Serializable loadDataElementInLoader(String name, ClassLoader loader) throws IOException {
+    byte[] serialized;
+    synchronized (this) {
+      serialized = this.data.get(name);
+    }
+    if (serialized == null) {
+      return null;
+    }
+    try (ObjectInputStream input = new LoaderObjectInputStream(new ByteArrayInputStream(serialized), loader)) {
+      return (Serializable) input.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public void storeDataElement(String name, Serializable element) throws IOException {
+    synchronized (this) {
+      if (null == element) {
+        if (this.data.remove(name) == null) {
+          return;
+        }
+        this.log.append(DATA_REMOVE, encodeRemove(name));
+      } else {
+        byte[] serialized = serialize(element);
+        this.data.put(name, serialized);
+        this.log.append(DATA_PUT, encodePut(name, serialized));
+      }
+      compactIfNecessary();
+    }
+    this.log.force();
+  }
+
+  @Override
+  public synchronized Future<Void> fastStoreSequence(long sequenceIndex, SequenceTuple newEntry, long oldestValidSequenceID) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      appendToSequence(sequenceIndex, newEntry, oldestValidSequenceID);
+      compactIfNecessary();
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    forceLater(future);
+    return future;
+  }
+
+  @Override
+  public synchronized Future<Void> fastStoreSequences(List<SequenceUpdate> updates) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    try {
+      for (SequenceUpdate update : updates) {
+        appendToSequence(update.sequenceIndex, update.entry, update.oldestValidSequenceID);
+      }
+      compactIfNecessary();
+    } catch (IOException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    forceLater(future);
+    return future;
+  }
+
+  private void appendToSequence(long sequenceIndex, SequenceTuple newEntry, long oldestValidSequenceID) throws IOException {
+    addToSequence(sequenceIndex, newEntry, oldestValidSequenceID);
+    ByteBuffer record = ByteBuffer.allocate(4 * Long.BYTES);
+    record.putLong(sequenceIndex).putLong(newEntry.localSequenceID).putLong(newEntry.globalSequenceID).putLong(oldestValidSequenceID);
+    this.log.append(SEQUENCE_ADD, record.array());
+  }
+
+  private void forceLater(CompletableFuture<Void> future) {
+    if (this.pendingForce.isEmpty()) {
+      this.flusher.execute(this::forcePending);
+    }
+    this.pendingForce.add(future);
+  }
+
+  @Override
+  public synchronized List<SequenceTuple> loadSequence(long sequenceIndex) {
+    Deque<SequenceTuple> sequence = this.sequences.get(sequenceIndex);
+    return (sequence != null) ? new ArrayList<>(sequence) : null;
+  }
+
+  @Override
+  public synchronized void deleteSequence(long sequenceIndex) throws IOException {
+    if (this.sequences.remove(sequenceIndex) != null) {
+      this.log.append(SEQUENCE_DELETE, ByteBuffer.allocate(Long.BYTES).putLong(sequenceIndex).array());
+      compactIfNecessary();
+    }
+  }
+
+  /**
+   * Discards all state, including everything on disk.
+   */
+  public synchronized void clear() throws IOException {
+    this.data.clear();
+    this.sequences.clear();
+    this.log.clear();
+  }
+
+  public void close() throws IOException {
+    this.compactor.shutdown();
+    this.flusher.shutdown();
+    try {
+      this.compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      this.flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    this.log.close();
+  }
+
+  @Override
+  public synchronized void addStateTo(StateDumpCollector stateDumpCollector) {
+    for (String key : this.data.keySet()) {
+      stateDumpCollector.addState("key", key);
+    }
+    stateDumpCollector.addState("sequences", String.valueOf(this.sequences.size()));
+    stateDumpCollector.addState("segments", String.valueOf(this.log.getSegmentCount()));
+    stateDumpCollector.addState("logSize", String.valueOf(this.log.getSize()));
+    stateDumpCollector.addState("compactions", String.valueOf(this.compactions));
+  }
+
+  private void forcePending() {
+    List<CompletableFuture<Void>> toComplete;
+    synchronized (this) {
+      toComplete = this.pendingForce;
+      this.pendingForce = new ArrayList<>();
+    }
+    try {
+      this.log.force();
+      toComplete.forEach(f -> f.complete(null));
+    } catch (RuntimeException e) {
+      LOGGER.warn("Failed to force platform persistence log", e);
+      toComplete.forEach(f -> f.completeExceptionally(e));
+    }
+  }
+
+  private void compactIfNecessary() throws IOException {
+    if (this.log.shouldCompact()) {
+      // the serialized elements are never modified so a shallow copy is a snapshot
+      long boundary = this.log.startCheckpoint();
+      Map<String, byte[]> dataCopy = new HashMap<>(this.data);
+      Map<Long, List<SequenceTuple>> sequencesCopy = new HashMap<>();
+      for (Map.Entry<Long, Deque<SequenceTuple>> entry : this.sequences.entrySet()) {
+        sequencesCopy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+      }
+      this.compactor.execute(() -> writeCheckpoint(boundary, dataCopy, sequencesCopy));
+    }
+  }
+
+  private void writeCheckpoint(long boundary, Map<String, byte[]> dataCopy, Map<Long, List<SequenceTuple>> sequencesCopy) {
+    try {
+      this.log.writeCheckpoint(boundary, writer -> {
+        for (Map.Entry<String, byte[]> entry : dataCopy.entrySet()) {
+          writer.record(DATA_PUT, encodePut(entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<Long, List<SequenceTuple>> entry : sequencesCopy.entrySet()) {
+          for (SequenceTuple tuple : entry.getValue()) {
+            ByteBuffer record = ByteBuffer.allocate(4 * Long.BYTES);
+            record.putLong(entry.getKey()).putLong(tuple.localSequenceID).putLong(tuple.globalSequenceID).putLong(Long.MIN_VALUE);
+            writer.record(SEQUENCE_ADD, record.array());
+          }
+        }
+      });
+      synchronized (this) {
+        this.compactions += 1;
+      }
+    } catch (IOException | RuntimeException e) {
+      // the log is left as it was, so the next append tries again
+      LOGGER.warn("Failed to compact platform persistence log", e);
+    }
+  }
+
+  private void replay(byte type, ByteBuffer payload) throws IOException {
+    switch (type) {
+      case DATA_PUT: {
+        String name = readString(payload);
+        byte[] serialized = new byte[payload.getInt()];
+        payload.get(serialized);
+        this.data.put(name, serialized);
+        break;
+      }
+      case DATA_REMOVE:
+        this.data.remove(readString(payload));
+        break;
+      case SEQUENCE_ADD: {
+        long index = payload.getLong();
+        SequenceTuple tuple = new SequenceTuple();
+        tuple.localSequenceID = payload.getLong();
+        tuple.globalSequenceID = payload.getLong();
+        addToSequence(index, tuple, payload.getLong());
+        break;
+      }
+      case SEQUENCE_DELETE:
+        this.sequences.remove(payload.getLong());
+        break;
+      default:
+        throw new IOException("Unknown record type " + type);
+    }
+  }
+
+  private void addToSequence(long sequenceIndex, SequenceTuple newEntry, long oldestValidSequenceID) {
+    Deque<SequenceTuple> sequence = this.sequences.computeIfAbsent(sequenceIndex, i -> new ArrayDeque<>());
+    // sequences are always updated in an increasing fashion so stop trimming at the first valid entry
+    while (!sequence.isEmpty() && sequence.peekFirst().localSequenceID < oldestValidSequenceID) {
+      sequence.removeFirst();
+    }
+    sequence.addLast(newEntry);
+  }
+
+  private static byte[] serialize(Serializable element) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+      output.writeObject(element);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodePut(String name, byte[] serialized) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(serialized.length + name.length() + 8);
+    DataOutputStream output = new DataOutputStream(bytes);
+    writeString(output, name);
+    output.writeInt(serialized.length);
+    output.write(serialized);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] encodeRemove(String name) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(name.length() + 4);
+    writeString(new DataOutputStream(bytes), name);
+    return bytes.toByteArray();
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+    output.writeInt(encoded.length);
+    output.write(encoded);
+  }
+
+  private static String readString(ByteBuffer payload) {
+    byte[] encoded = new byte[payload.getInt()];
+    payload.get(encoded);
+    return new String(encoded, StandardCharsets.UTF_8);
+  }
+
+  private static class LoaderObjectInputStream extends ObjectInputStream {
+    private final ClassLoader loader;
+
+    LoaderObjectInputStream(InputStream in, ClassLoader loader) throws IOException {
+      super(in);
+      this.loader = loader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      if (this.loader != null) {
+        try {
+          return Class.forName(desc.getName(), false, this.loader);
+        } catch (ClassNotFoundException e) {
+          // fall back to the default resolution
+        }
+      }
+      return super.resolveClass(desc);
+    }
+  }
+}
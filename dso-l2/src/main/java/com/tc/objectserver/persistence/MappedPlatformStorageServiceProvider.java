@@ -0,0 +1,140 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import org.terracotta.entity.PlatformConfiguration;
+import org.terracotta.entity.ServiceConfiguration;
+import org.terracotta.entity.ServiceProvider;
+import org.terracotta.entity.ServiceProviderConfiguration;
+import org.terracotta.entity.ServiceProviderCleanupException;
+import org.terracotta.entity.StateDumpCollector;
+import org.terracotta.entity.StateDumpable;
+import org.terracotta.persistence.IPlatformPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Provides a {@link MappedPlatformPersistentStorage} per consumer, each in its own sub-directory of the configured
+ * directory.  Used in place of {@link NullPlatformStorageServiceProvider} when a platform persistence directory is
+ * configured and no other IPlatformPersistence provider is installed.
+ */
+public class MappedPlatformStorageServiceProvider implements ServiceProvider, StateDumpable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedPlatformStorageServiceProvider.class);
+
+  private final Map<Long, MappedPlatformPersistentStorage> providers = new ConcurrentHashMap<>();
+  private File directory;
+  private int segmentSize;
+
+  @Override
+  public boolean initialize(ServiceProviderConfiguration serviceProviderConfiguration, PlatformConfiguration platformConfiguration) {
+    MappedPlatformStorageProviderConfiguration config = (MappedPlatformStorageProviderConfiguration) serviceProviderConfiguration;
+    this.directory = config.getDirectory();
+    this.segmentSize = config.getSegmentSize();
+    return this.directory.isDirectory() || this.directory.mkdirs();
+  }
+
+  @Override
+  public <T> T getService(long entityID, ServiceConfiguration<T> serviceConfiguration) {
+    MappedPlatformPersistentStorage storage = providers.get(entityID);
+    if (storage == null) {
+      storage = open(entityID);
+    }
+    return serviceConfiguration.getServiceType().cast(storage);
+  }
+
+  /**
+   * Opens the consumer's storage outside the map, since recovery reads its whole log.  getService can't throw a checked
+   * exception so a failure is logged and rethrown with its IOException intact.
+   */
+  private synchronized MappedPlatformPersistentStorage open(long entityID) {
+    MappedPlatformPersistentStorage storage = providers.get(entityID);
+    if (storage == null) {
+      File consumerDirectory = new File(directory, String.valueOf(entityID));
+      try {
+        storage = new MappedPlatformPersistentStorage(consumerDirectory, segmentSize);
+      } catch (IOException e) {
+        LOGGER.error("Unable to open platform persistence in " + consumerDirectory, e);
+        throw new UncheckedIOException("Unable to open platform persistence in " + consumerDirectory, e);
+      }
+      providers.put(entityID, storage);
+    }
+    return storage;
+  }
+
+  @Override
+  public Collection<Class<?>> getProvidedServiceTypes() {
+    return Collections.singleton(IPlatformPersistence.class);
+  }
+
+  public synchronized void close() throws IOException {
+    for (MappedPlatformPersistentStorage storage : providers.values()) {
+      storage.close();
+    }
+    providers.clear();
+  }
+
+  @Override
+  public synchronized void prepareForSynchronization() throws ServiceProviderCleanupException {
+    try {
+      for (MappedPlatformPersistentStorage storage : providers.values()) {
+        storage.clear();
+        storage.close();
+      }
+      providers.clear();
+      // consumers which have not asked for their storage yet still have state on disk
+      File[] children = directory.listFiles();
+      if (children != null) {
+        for (File child : children) {
+          delete(child);
+        }
+      }
+    } catch (IOException e) {
+      throw new ServiceProviderCleanupException("Unable to clear platform persistence in " + directory, e);
+    }
+  }
+
+  @Override
+  public void addStateTo(StateDumpCollector stateDumpCollector) {
+    stateDumpCollector.addState("directory", directory.getAbsolutePath());
+    for (Map.Entry<Long, MappedPlatformPersistentStorage> entry : providers.entrySet()) {
+      entry.getValue().addStateTo(stateDumpCollector.subStateDumpCollector(String.valueOf(entry.getKey())));
+    }
+  }
+
+  private static void delete(File file) throws IOException {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    if (!file.delete() && file.exists()) {
+      throw new IOException("Unable to delete " + file);
+    }
+  }
+}
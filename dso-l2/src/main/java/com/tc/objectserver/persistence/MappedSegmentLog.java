@@ -0,0 +1,530 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An append-only log of checksummed records stored in a directory of fixed-size, memory-mapped segment files.
+ * <p>
+ * Each record is laid out as its payload length, the CRC32 of its type and payload, its type and then the payload.  A
+ * zero length marks the unused remainder of a segment.  On recovery, the first record with a bad length or checksum is
+ * treated as torn by a crash: it and everything after it is discarded.
+ * <p>
+ * The owner compacts the log in two steps.  Under its own lock it calls {@link #startCheckpoint()}, which moves
+ * appends to a fresh segment, and takes a copy of its live state.  It then writes that copy with
+ * {@link #writeCheckpoint(long, CheckpointSource)}, from any thread and while appends carry on.  The checkpoint goes to
+ * its own file, named for the first segment it does not cover, and is forced and renamed into place before the
+ * segments it replaces are deleted.  Recovery replays the newest checkpoint and then every segment from its boundary.
+ */
+class MappedSegmentLog implements Closeable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(MappedSegmentLog.class);
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String CHECKPOINT_PREFIX = "checkpoint-";
+  private static final String SUFFIX = ".log";
+  private static final String TEMPORARY_SUFFIX = ".tmp";
+  private static final int HEADER_SIZE = 4 + 4 + 1;
+
+  interface RecordReader {
+    void record(byte type, ByteBuffer payload) throws IOException;
+  }
+
+  interface RecordWriter {
+    void record(byte type, byte[] payload) throws IOException;
+  }
+
+  interface CheckpointSource {
+    void writeTo(RecordWriter writer) throws IOException;
+  }
+
+  private final File directory;
+  private final int segmentSize;
+  private final List<Segment> segments = new ArrayList<>();
+  private final Set<Segment> dirty = new LinkedHashSet<>();
+  // Held while forcing or unmapping segments, never while appending.
+  private final Object mappingLock = new Object();
+  private Segment current;
+  private long nextSegment;
+  private long bytesSinceCheckpoint;
+  private long checkpointBytes;
+  // The boundary of the checkpoint being written, -1 if there is none.
+  private long checkpointBoundary = -1;
+
+  MappedSegmentLog(File directory, int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Replays the newest checkpoint and then every record after it, discarding anything torn.  Must be called once
+   * before the log is used.
+   */
+  synchronized void recover(RecordReader reader) throws IOException {
+    if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+      throw new IOException("Unable to create " + this.directory);
+    }
+    deleteFiles(CHECKPOINT_PREFIX, TEMPORARY_SUFFIX, Long.MAX_VALUE);
+    long[] checkpoints = listNumbers(CHECKPOINT_PREFIX, SUFFIX);
+    long boundary = 0;
+    if (checkpoints.length > 0) {
+      boundary = checkpoints[checkpoints.length - 1];
+      File checkpoint = checkpointFile(boundary);
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint.toPath()));
+      int size;
+      while ((size = readRecord(buffer, reader)) > 0) {
+        this.checkpointBytes += size;
+      }
+      if (size < 0) {
+        // checkpoints are forced before they are renamed into place so this is not a crash
+        throw new IOException("Corrupt checkpoint " + checkpoint);
+      }
+      // an older checkpoint or segment can only be left behind by a crash while they were being deleted
+      deleteFiles(CHECKPOINT_PREFIX, SUFFIX, boundary);
+      deleteFiles(SEGMENT_PREFIX, SUFFIX, boundary);
+    }
+    this.nextSegment = boundary;
+
+    boolean torn = false;
+    for (long number : listNumbers(SEGMENT_PREFIX, SUFFIX)) {
+      Segment segment = new Segment(number, segmentFile(number), 0);
+      this.nextSegment = number + 1;
+      if (torn) {
+        // Anything after a torn record was written after the crash point.
+        retire(segment, true);
+        continue;
+      }
+      this.segments.add(segment);
+      ByteBuffer buffer = segment.buffer.duplicate();
+      buffer.position(0);
+      while (true) {
+        int start = buffer.position();
+        int result = readRecord(buffer, reader);
+        if (result == 0) {
+          segment.end = start;
+          break;
+        } else if (result < 0) {
+          LOGGER.warn("Discarding torn record in " + segment.file + " at " + start);
+          segment.end = start;
+          torn = true;
+          break;
+        }
+      }
+    }
+    if (!this.segments.isEmpty()) {
+      this.current = this.segments.get(this.segments.size() - 1);
+      // Clear whatever a torn write may have left after the last good record.
+      ByteBuffer tail = this.current.buffer.duplicate();
+      tail.position(this.current.end);
+      while (tail.hasRemaining()) {
+        tail.put((byte) 0);
+      }
+      this.current.buffer.position(this.current.end);
+      this.dirty.add(this.current);
+    }
+    this.bytesSinceCheckpoint = totalBytes();
+  }
+
+  /**
+   * Appends the record, rolling to a new segment if it doesn't fit in the current one.  The record is not durable until
+   * {@link #force()} returns.
+   */
+  synchronized void append(byte type, byte[] payload) throws IOException {
+    write(type, payload);
+  }
+
+  /**
+   * @return true once enough has been appended since the last checkpoint that rewriting the live state is cheaper than
+   * keeping the log around, and no checkpoint is being written
+   */
+  synchronized boolean shouldCompact() {
+    return this.checkpointBoundary < 0 && this.bytesSinceCheckpoint >= 2L * this.segmentSize && this.bytesSinceCheckpoint >= this.checkpointBytes;
+  }
+
+  /**
+   * Moves appends to a fresh segment.  The caller must take the state the checkpoint will hold at the same point, under
+   * the same lock as its appends.
+   *
+   * @return the boundary to pass to {@link #writeCheckpoint(long, CheckpointSource)}
+   */
+  synchronized long startCheckpoint() throws IOException {
+    roll(0);
+    this.checkpointBoundary = this.current.number;
+    return this.checkpointBoundary;
+  }
+
+  /**
+   * Writes and forces the checkpoint, then deletes every segment before its boundary.  Appends are not blocked while it
+   * runs.  Must be called, once, after every {@link #startCheckpoint()}.
+   */
+  void writeCheckpoint(long boundary, CheckpointSource source) throws IOException {
+    File temporary = new File(this.directory, CHECKPOINT_PREFIX + number(boundary) + TEMPORARY_SUFFIX);
+    File checkpoint = checkpointFile(boundary);
+    long size;
+    try {
+      try (FileOutputStream file = new FileOutputStream(temporary);
+           DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+        source.writeTo((type, payload) -> writeRecord(output, type, payload));
+        output.flush();
+        file.getChannel().force(true);
+        size = file.getChannel().size();
+      }
+      Files.move(temporary.toPath(), checkpoint.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      forceDirectory();
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        this.checkpointBoundary = -1;
+        notifyAll();
+      }
+      Files.deleteIfExists(temporary.toPath());
+      Files.deleteIfExists(checkpoint.toPath());
+      throw e;
+    }
+    List<Segment> replaced = new ArrayList<>();
+    synchronized (this) {
+      while (!this.segments.isEmpty() && this.segments.get(0).number < boundary) {
+        Segment old = this.segments.remove(0);
+        this.dirty.remove(old);
+        replaced.add(old);
+      }
+      this.checkpointBytes = size;
+      this.bytesSinceCheckpoint = totalBytes();
+      this.checkpointBoundary = -1;
+      notifyAll();
+    }
+    for (Segment old : replaced) {
+      retire(old, true);
+    }
+    deleteFiles(CHECKPOINT_PREFIX, SUFFIX, boundary);
+  }
+
+  /**
+   * Flushes every segment written since the last force to disk.
+   */
+  void force() {
+    List<Segment> toForce;
+    synchronized (this) {
+      toForce = new ArrayList<>(this.dirty);
+      this.dirty.clear();
+      if (this.current != null) {
+        // The current segment will keep receiving writes.
+        this.dirty.add(this.current);
+      }
+    }
+    synchronized (this.mappingLock) {
+      for (Segment segment : toForce) {
+        // a segment replaced by a checkpoint since the copy above is already unmapped
+        if (!segment.retired) {
+          segment.buffer.force();
+        }
+      }
+    }
+  }
+
+  /**
+   * Deletes every segment and checkpoint, once any checkpoint being written is done.
+   */
+  void clear() throws IOException {
+    List<Segment> removed;
+    synchronized (this) {
+      awaitCheckpoint();
+      removed = new ArrayList<>(this.segments);
+      this.segments.clear();
+      this.dirty.clear();
+      this.current = null;
+      this.bytesSinceCheckpoint = 0;
+      this.checkpointBytes = 0;
+      deleteFiles(CHECKPOINT_PREFIX, SUFFIX, Long.MAX_VALUE);
+    }
+    for (Segment segment : removed) {
+      retire(segment, true);
+    }
+  }
+
+  synchronized long getSegmentCount() {
+    return this.segments.size();
+  }
+
+  synchronized long getSize() {
+    return totalBytes();
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    List<Segment> closed;
+    synchronized (this) {
+      closed = new ArrayList<>(this.segments);
+      this.segments.clear();
+      this.dirty.clear();
+      this.current = null;
+    }
+    for (Segment segment : closed) {
+      retire(segment, false);
+    }
+  }
+
+  private void awaitCheckpoint() {
+    boolean interrupted = false;
+    while (this.checkpointBoundary >= 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void write(byte type, byte[] payload) throws IOException {
+    int needed = HEADER_SIZE + payload.length;
+    if (this.current == null || this.current.buffer.remaining() < needed) {
+      roll(needed);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(payload, 0, payload.length);
+    MappedByteBuffer buffer = this.current.buffer;
+    int start = buffer.position();
+    buffer.position(start + 4);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(type);
+    buffer.put(payload);
+    // The length goes last so a reader never sees a length for a record which was not written.
+    buffer.putInt(start, payload.length + 1);
+    this.current.end = buffer.position();
+    this.dirty.add(this.current);
+    this.bytesSinceCheckpoint += needed;
+  }
+
+  private static void writeRecord(DataOutputStream output, byte type, byte[] payload) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(payload, 0, payload.length);
+    output.writeInt(payload.length + 1);
+    output.writeInt((int) crc.getValue());
+    output.writeByte(type);
+    output.write(payload);
+  }
+
+  private void roll(int needed) throws IOException {
+    Segment segment = new Segment(this.nextSegment, segmentFile(this.nextSegment), Math.max(this.segmentSize, needed));
+    this.nextSegment += 1;
+    this.segments.add(segment);
+    this.current = segment;
+  }
+
+  /**
+   * Reads one record at the buffer's position, passing it to reader (if not null).
+   *
+   * @return the size of the record, 0 at the end of the segment or -1 if the record is torn
+   */
+  private static int readRecord(ByteBuffer buffer, RecordReader reader) throws IOException {
+    int start = buffer.position();
+    if (buffer.remaining() < HEADER_SIZE) {
+      return 0;
+    }
+    int length = buffer.getInt(start);
+    if (length == 0) {
+      return 0;
+    }
+    if (length < 0 || length - 1 > buffer.remaining() - HEADER_SIZE) {
+      return -1;
+    }
+    int checksum = buffer.getInt(start + 4);
+    byte type = buffer.get(start + 8);
+    ByteBuffer payload = buffer.duplicate();
+    payload.position(start + HEADER_SIZE);
+    payload.limit(start + HEADER_SIZE + length - 1);
+    CRC32 crc = new CRC32();
+    crc.update(type);
+    crc.update(payload.duplicate());
+    if ((int) crc.getValue() != checksum) {
+      return -1;
+    }
+    buffer.position(start + HEADER_SIZE + length - 1);
+    if (reader != null) {
+      reader.record(type, payload);
+    }
+    return HEADER_SIZE + length - 1;
+  }
+
+  /**
+   * Unmaps the segment, so its memory and file handle are released now rather than when the buffer is collected, and
+   * optionally deletes its file.
+   */
+  private void retire(Segment segment, boolean delete) throws IOException {
+    synchronized (this.mappingLock) {
+      segment.retired = true;
+      unmap(segment.buffer);
+    }
+    if (delete) {
+      segment.delete();
+    }
+  }
+
+  private void forceDirectory() {
+    // makes the rename durable, not every platform can open a directory for this
+    try (FileChannel channel = FileChannel.open(this.directory.toPath(), StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      LOGGER.debug("Unable to force " + this.directory, e);
+    }
+  }
+
+  private long totalBytes() {
+    long total = 0;
+    for (Segment segment : this.segments) {
+      total += segment.end;
+    }
+    return total;
+  }
+
+  private void deleteFiles(String prefix, String suffix, long before) throws IOException {
+    for (long number : listNumbers(prefix, suffix)) {
+      if (number < before) {
+        File file = new File(this.directory, prefix + number(number) + suffix);
+        if (!file.delete() && file.exists()) {
+          throw new IOException("Unable to delete " + file);
+        }
+      }
+    }
+  }
+
+  private long[] listNumbers(String prefix, String suffix) {
+    String[] names = this.directory.list((dir, name) -> name.startsWith(prefix) && name.endsWith(suffix));
+    if (names == null) {
+      return new long[0];
+    }
+    long[] numbers = new long[names.length];
+    for (int x = 0; x < names.length; x++) {
+      numbers[x] = Long.parseLong(names[x].substring(prefix.length(), names[x].length() - suffix.length()));
+    }
+    Arrays.sort(numbers);
+    return numbers;
+  }
+
+  private File segmentFile(long number) {
+    return new File(this.directory, SEGMENT_PREFIX + number(number) + SUFFIX);
+  }
+
+  private File checkpointFile(long boundary) {
+    return new File(this.directory, CHECKPOINT_PREFIX + number(boundary) + SUFFIX);
+  }
+
+  private static String number(long number) {
+    return String.format("%019d", number);
+  }
+
+  private static final Unmapper UNMAPPER = Unmapper.find();
+
+  private static void unmap(MappedByteBuffer buffer) {
+    if (UNMAPPER != null) {
+      try {
+        UNMAPPER.unmap(buffer);
+      } catch (Exception e) {
+        LOGGER.debug("Unable to unmap segment", e);
+      }
+    }
+  }
+
+  /**
+   * Releases a mapping ahead of garbage collection, through Unsafe.invokeCleaner on Java 9 and later or the buffer's
+   * cleaner on Java 8.  Without either, mappings are released when their buffers are collected.
+   */
+  private interface Unmapper {
+    void unmap(ByteBuffer buffer) throws Exception;
+
+    static Unmapper find() {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+        theUnsafe.setAccessible(true);
+        Object unsafe = theUnsafe.get(null);
+        return buffer -> invokeCleaner.invoke(unsafe, buffer);
+      } catch (Exception | LinkageError java9) {
+        try {
+          Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+          Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+          return buffer -> clean.invoke(cleaner.invoke(buffer));
+        } catch (Exception | LinkageError java8) {
+          LOGGER.info("Mapped segments will be released by the garbage collector");
+          return null;
+        }
+      }
+    }
+  }
+
+  private static class Segment {
+    private final long number;
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int end;
+    // Set, under the mapping lock, once the buffer is unmapped and must no longer be touched.
+    private boolean retired;
+
+    /**
+     * Maps the file, creating it with the given size if it doesn't exist.  A size of 0 maps an existing file as is.
+     */
+    Segment(long number, File file, int size) throws IOException {
+      this.number = number;
+      this.file = file;
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        if (size > 0) {
+          raf.setLength(size);
+        }
+        // The mapping stays valid after the channel is closed, until it is unmapped or the buffer is collected.
+        this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+      }
+    }
+
+    void delete() throws IOException {
+      if (!this.file.delete() && this.file.exists()) {
+        throw new IOException("Unable to delete " + this.file);
+      }
+    }
+  }
+}
@@ -16,7 +16,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 
 
-public class NullPlatformPersistentStorage implements IPlatformPersistence, StateDumpable {
+public class NullPlatformPersistentStorage implements IPlatformPersistence, SequenceBatchPersistence, StateDumpable {
     final Map<String, Serializable> nameToDataMap = new ConcurrentHashMap<>();
     final Map<Long, List<SequenceTuple>> fastSequenceCache = new HashMap<>();
 
@@ -62,6 +62,14 @@ public class NullPlatformPersistentStorage implements IPlatformPersistence, Stat
       return CompletableFuture.completedFuture(null);
     }
 
+    @Override
+    public synchronized Future<Void> fastStoreSequences(List<SequenceUpdate> updates) {
+      for (SequenceUpdate update : updates) {
+        fastStoreSequence(update.sequenceIndex, update.entry, update.oldestValidSequenceID);
+      }
+      return CompletableFuture.completedFuture(null);
+    }
+
     @Override
     public synchronized List<SequenceTuple> loadSequence(long sequenceIndex) {
       return fastSequenceCache.get(sequenceIndex);
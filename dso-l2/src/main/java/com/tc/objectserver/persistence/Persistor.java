@@ -65,6 +65,9 @@ public class Persistor implements PrettyPrintable {
   }
 
   public void close() {
+    if (transactionOrderPersistor != null) {
+      transactionOrderPersistor.close();
+    }
   }
   
   public void addClientState(ClientID node, ProductID product) {
@@ -0,0 +1,211 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terracotta.persistence.IPlatformPersistence;
+
+
+/**
+ * An append-only log of records layered on top of the named data elements of {@link IPlatformPersistence}.
+ * <p>
+ * Each record is stored as its own small data element, so the cost of a write is proportional to the size of the change
+ * rather than the size of the state it applies to.  Once enough records are pending, the log captures the owner's state
+ * and folds it into a checkpoint in the background (a single data element holding the full state plus the index of the
+ * first record not covered by it) after which the covered records are deleted.  At startup, the owner reloads the
+ * checkpoint and replays the remaining records on top of it.
+ * <p>
+ * Since the checkpoint and the index of its first uncovered record are written as one element, a crash at any point during
+ * a checkpoint leaves either the old or the new checkpoint in place and never replays a record twice.
+ */
+class RecordLog<R extends Serializable> {
+  private static final Logger LOGGER = LoggerFactory.getLogger(RecordLog.class);
+
+  private final IPlatformPersistence storageManager;
+  private final String checkpointName;
+  private final String recordPrefix;
+  // Checkpoints are written outside of the monitor so appends are not blocked by them.
+  private final Object checkpointLock = new Object();
+
+  private final int compactionThreshold;
+  private final Executor compactionExecutor;
+
+  private long firstRecord;
+  private long nextRecord;
+  private boolean compacting;
+
+  RecordLog(IPlatformPersistence storageManager, String name, int compactionThreshold, Executor compactionExecutor) {
+    this.storageManager = storageManager;
+    this.checkpointName = name + ".checkpoint";
+    this.recordPrefix = name + ".record.";
+    this.compactionThreshold = compactionThreshold;
+    this.compactionExecutor = compactionExecutor;
+  }
+
+  /**
+   * @return a single, daemon thread executor suitable for compacting the log of one owner
+   */
+  static Executor createCompactionExecutor(String owner) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (r) -> {
+      Thread t = new Thread(r, owner + " compaction");
+      t.setDaemon(true);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Passes the state stored by the most recent checkpoint (null if there has never been one) to restore and then every
+   * record appended after it to replay, in order.
+   */
+  @SuppressWarnings("unchecked")
+  synchronized void load(Consumer<Serializable> restore, Consumer<R> replay) throws IOException {
+    Checkpoint checkpoint = (Checkpoint) this.storageManager.loadDataElement(this.checkpointName);
+    this.firstRecord = (null != checkpoint) ? checkpoint.firstRecord : 0L;
+    // A crash part-way through deleting covered records can leave some behind, just below the checkpoint.
+    for (long index = this.firstRecord - 1; index >= 0 && null != this.storageManager.loadDataElement(recordName(index)); index--) {
+      this.storageManager.storeDataElement(recordName(index), null);
+    }
+    restore.accept((null != checkpoint) ? checkpoint.state : null);
+    long index = this.firstRecord;
+    R record = (R) this.storageManager.loadDataElement(recordName(index));
+    while (null != record) {
+      replay.accept(record);
+      index += 1;
+      record = (R) this.storageManager.loadDataElement(recordName(index));
+    }
+    this.nextRecord = index;
+  }
+
+  /**
+   * Appends the record.  Once enough records are pending and no compaction is running, the owner's state is captured from
+   * snapshot on the calling thread and written as a checkpoint on the compaction executor.  The caller must hold whatever
+   * lock keeps its state consistent with the records appended so far.
+   */
+  void append(R record, Supplier<? extends Serializable> snapshot) throws IOException {
+    long mark;
+    synchronized (this) {
+      this.storageManager.storeDataElement(recordName(this.nextRecord), record);
+      this.nextRecord += 1;
+      if (this.compacting || (this.nextRecord - this.firstRecord) < this.compactionThreshold) {
+        return;
+      }
+      this.compacting = true;
+      mark = this.nextRecord;
+    }
+    Serializable state = snapshot.get();
+    this.compactionExecutor.execute(() -> compact(state, mark));
+  }
+
+  private void compact(Serializable state, long mark) {
+    try {
+      checkpoint(state, mark);
+    } catch (IOException e) {
+      // The records are still intact so the next compaction can try again.
+      LOGGER.warn("Failure compacting " + this.recordPrefix + " log", e);
+    } finally {
+      synchronized (this) {
+        this.compacting = false;
+      }
+    }
+  }
+
+  /**
+   * @return the number of records which are not yet covered by a checkpoint
+   */
+  synchronized long getPendingRecordCount() {
+    return this.nextRecord - this.firstRecord;
+  }
+
+  /**
+   * @return the index that a checkpoint of the current state should cover up to.  Must be called while the state being
+   * captured is consistent with the records appended so far.
+   */
+  synchronized long mark() {
+    return this.nextRecord;
+  }
+
+  /**
+   * Stores the given state as covering every record before mark, then deletes those records.  A checkpoint which is not
+   * newer than the one already stored is ignored so a background checkpoint can never overwrite a more recent one.
+   */
+  void checkpoint(Serializable state, long mark) throws IOException {
+    synchronized (this.checkpointLock) {
+      long covered;
+      synchronized (this) {
+        covered = this.firstRecord;
+      }
+      if (mark > covered) {
+        writeCheckpoint(state, covered, mark);
+      }
+    }
+  }
+
+  /**
+   * Replaces the entire log with a checkpoint of the given state, regardless of any pending records.
+   */
+  void reset(Serializable state) throws IOException {
+    synchronized (this.checkpointLock) {
+      long covered;
+      long mark;
+      synchronized (this) {
+        covered = this.firstRecord;
+        // Skip an index so this checkpoint is strictly newer than any which might be pending.
+        this.nextRecord += 1;
+        mark = this.nextRecord;
+      }
+      writeCheckpoint(state, covered, mark);
+    }
+  }
+
+  private void writeCheckpoint(Serializable state, long covered, long mark) throws IOException {
+    Checkpoint checkpoint = new Checkpoint();
+    checkpoint.firstRecord = mark;
+    checkpoint.state = state;
+    this.storageManager.storeDataElement(this.checkpointName, checkpoint);
+    synchronized (this) {
+      this.firstRecord = mark;
+    }
+    for (long index = covered; index < mark; index++) {
+      this.storageManager.storeDataElement(recordName(index), null);
+    }
+  }
+
+  private String recordName(long index) {
+    return this.recordPrefix + index;
+  }
+
+  private static class Checkpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    long firstRecord;
+    Serializable state;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import org.terracotta.persistence.IPlatformPersistence;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+
+/**
+ * Implemented by the platform's own {@link IPlatformPersistence} providers which can store a batch of sequence updates
+ * as one write, so a {@link SequenceGroupCommitter} batch costs the provider one lock and one force rather than one of
+ * each per update.
+ */
+public interface SequenceBatchPersistence {
+  /**
+   * Applies the updates in order, exactly as if each had been passed to
+   * {@link IPlatformPersistence#fastStoreSequence(long, IPlatformPersistence.SequenceTuple, long)}.
+   *
+   * @return a future which completes once every update in the batch is durable
+   */
+  Future<Void> fastStoreSequences(List<SequenceUpdate> updates);
+
+  class SequenceUpdate {
+    public final long sequenceIndex;
+    public final IPlatformPersistence.SequenceTuple entry;
+    public final long oldestValidSequenceID;
+
+    public SequenceUpdate(long sequenceIndex, IPlatformPersistence.SequenceTuple entry, long oldestValidSequenceID) {
+      this.sequenceIndex = sequenceIndex;
+      this.entry = entry;
+      this.oldestValidSequenceID = oldestValidSequenceID;
+    }
+  }
+}
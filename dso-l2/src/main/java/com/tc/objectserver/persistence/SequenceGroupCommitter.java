@@ -0,0 +1,158 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.terracotta.persistence.IPlatformPersistence;
+
+
+/**
+ * Batches transaction order updates from all clients so they are handed to the storage provider together and become
+ * durable as a group.  A batch is flushed once it reaches maxBatchSize or once the flush interval has elapsed since its
+ * first entry, whichever comes first.  Every update in a batch shares one future, which completes only after all of
+ * the provider's writes for that batch have completed.  A provider which implements {@link SequenceBatchPersistence}
+ * gets the whole batch as one write; any other provider gets one write per update.
+ * <p>
+ * Entries are handed to the provider in the order they were stored, under this object's monitor, so callers which need
+ * the provider to observe every pending update (before loading or deleting a sequence) only need to call
+ * {@link #flush()} first.
+ */
+class SequenceGroupCommitter {
+  private final IPlatformPersistence storageManager;
+  private final int maxBatchSize;
+  private final long flushIntervalNanos;
+  private final ScheduledExecutorService flusher;
+
+  private List<SequenceBatchPersistence.SequenceUpdate> pending = new ArrayList<>();
+  private CompletableFuture<Void> batchFuture = new CompletableFuture<>();
+  private boolean flushScheduled;
+
+  // Statistics, only updated by the flusher thread but read by state dumps.
+  private volatile long batchCount;
+  private volatile long batchedSequenceCount;
+  private volatile long maxBatch;
+  private volatile long totalFlushNanos;
+  private volatile long maxFlushNanos;
+
+  SequenceGroupCommitter(IPlatformPersistence storageManager, int maxBatchSize, long flushInterval, TimeUnit unit) {
+    this.storageManager = storageManager;
+    this.maxBatchSize = maxBatchSize;
+    this.flushIntervalNanos = unit.toNanos(flushInterval);
+    this.flusher = new ScheduledThreadPoolExecutor(1, (r) -> {
+      Thread t = new Thread(r, "Transaction order group commit");
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  /**
+   * Adds the update to the current batch.
+   *
+   * @return a future which completes once the batch containing this update is durable
+   */
+  synchronized Future<Void> store(long sequenceIndex, IPlatformPersistence.SequenceTuple newEntry, long oldestValidSequenceID) {
+    this.pending.add(new SequenceBatchPersistence.SequenceUpdate(sequenceIndex, newEntry, oldestValidSequenceID));
+    CompletableFuture<Void> future = this.batchFuture;
+    if (this.pending.size() >= this.maxBatchSize) {
+      flush();
+    } else if (!this.flushScheduled) {
+      this.flushScheduled = true;
+      this.flusher.schedule(this::flush, this.flushIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+    return future;
+  }
+
+  /**
+   * Hands every pending update to the storage provider.  Waiting for the provider to make them durable happens on the
+   * flusher thread.
+   */
+  void flush() {
+    List<SequenceBatchPersistence.SequenceUpdate> batch;
+    CompletableFuture<Void> done;
+    List<Future<Void>> writes = new ArrayList<>();
+    long start;
+    synchronized (this) {
+      this.flushScheduled = false;
+      if (this.pending.isEmpty()) {
+        return;
+      }
+      batch = this.pending;
+      done = this.batchFuture;
+      this.pending = new ArrayList<>();
+      this.batchFuture = new CompletableFuture<>();
+      start = System.nanoTime();
+      if (this.storageManager instanceof SequenceBatchPersistence) {
+        writes.add(((SequenceBatchPersistence) this.storageManager).fastStoreSequences(batch));
+      } else {
+        for (SequenceBatchPersistence.SequenceUpdate sequence : batch) {
+          writes.add(this.storageManager.fastStoreSequence(sequence.sequenceIndex, sequence.entry, sequence.oldestValidSequenceID));
+        }
+      }
+    }
+    this.flusher.execute(() -> complete(writes, done, batch.size(), start));
+  }
+
+  private void complete(List<Future<Void>> writes, CompletableFuture<Void> done, int size, long start) {
+    try {
+      for (Future<Void> write : writes) {
+        if (null != write) {
+          write.get();
+        }
+      }
+      recordBatch(size, System.nanoTime() - start);
+      done.complete(null);
+    } catch (InterruptedException | ExecutionException e) {
+      done.completeExceptionally(e);
+    }
+  }
+
+  private void recordBatch(int size, long nanos) {
+    this.batchCount += 1;
+    this.batchedSequenceCount += size;
+    this.maxBatch = Math.max(this.maxBatch, size);
+    this.totalFlushNanos += nanos;
+    this.maxFlushNanos = Math.max(this.maxFlushNanos, nanos);
+  }
+
+  void shutdown() {
+    flush();
+    this.flusher.shutdown();
+  }
+
+  Map<String, Object> reportStateToMap(Map<String, Object> map) {
+    long batches = this.batchCount;
+    map.put("maxBatchSize", this.maxBatchSize);
+    map.put("flushIntervalMicros", TimeUnit.NANOSECONDS.toMicros(this.flushIntervalNanos));
+    map.put("batches", batches);
+    map.put("averageBatch", (batches > 0) ? (double) this.batchedSequenceCount / batches : 0d);
+    map.put("maxBatch", this.maxBatch);
+    map.put("averageFlushMicros", (batches > 0) ? TimeUnit.NANOSECONDS.toMicros(this.totalFlushNanos / batches) : 0L);
+    map.put("maxFlushMicros", TimeUnit.NANOSECONDS.toMicros(this.maxFlushNanos));
+    return map;
+  }
+}
@@ -22,6 +22,9 @@ import org.terracotta.persistence.IPlatformPersistence;
 
 import com.tc.net.ClientID;
 import com.tc.object.tx.TransactionID;
+import com.tc.properties.TCProperties;
+import com.tc.properties.TCPropertiesConsts;
+import com.tc.properties.TCPropertiesImpl;
 import com.tc.util.Assert;
 import com.tc.util.ProductID;
 
@@ -30,21 +33,23 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * Stores the information mapping the client-local TransactionIDs of in-flight transactions into a global order.
  * This is persisted because reconnect on restart needs to ensure that the transactions being replayed are done so in
  * the same order as their original order.
+ * <p>
+ * When l2.persistence.sequence.groupcommit.maxBatch is greater than 1, the updates for permanent clients are handed to
+ * the storage provider in batches by a {@link SequenceGroupCommitter} rather than one at a time.
  */
 public class TransactionOrderPersistor {
   private final IPlatformPersistence storageManager;
@@ -52,16 +57,29 @@ public class TransactionOrderPersistor {
     
   private List<ClientTransaction> globalList = null;
   private final Set<ClientID> permNodeIDs = new HashSet<>();
-  private final Map<ClientID, List<ClientTransaction>> fastSequenceCache = new HashMap<>();
+  private final Map<ClientID, ClientSequenceBuffer> fastSequenceCache = new HashMap<>();
+  private final SequenceGroupCommitter groupCommitter;
   
   public TransactionOrderPersistor(IPlatformPersistence storageManager, Set<ClientID> clients) {
+    this(storageManager, clients, createGroupCommitter(storageManager));
+  }
+
+  TransactionOrderPersistor(IPlatformPersistence storageManager, Set<ClientID> clients, SequenceGroupCommitter groupCommitter) {
     this.storageManager = storageManager;
+    this.groupCommitter = groupCommitter;
     // these are permanent clients because we steart with them
     for (ClientID oneClient : clients) {
       this.permNodeIDs.add(oneClient);
     }
   }
 
+  private static SequenceGroupCommitter createGroupCommitter(IPlatformPersistence storageManager) {
+    TCProperties properties = TCPropertiesImpl.getProperties();
+    int maxBatch = properties.getInt(TCPropertiesConsts.L2_PERSISTENCE_SEQUENCE_GROUPCOMMIT_MAXBATCH, 1);
+    long interval = properties.getLong(TCPropertiesConsts.L2_PERSISTENCE_SEQUENCE_GROUPCOMMIT_INTERVAL_MICROS, 500L);
+    return (maxBatch > 1) ? new SequenceGroupCommitter(storageManager, maxBatch, interval, TimeUnit.MICROSECONDS) : null;
+  }
+
   /**
    * Called to handle the changes to persisted transactions, based on a new one.
    * This new transactionID will be enqueued as the most recent transaction for the given source but also globally.
@@ -92,12 +110,13 @@ public class TransactionOrderPersistor {
         transaction.localSequenceID = transactionID.toLong();
         transaction.globalSequenceID = this.receivedTransactionCount;
 
-        return this.storageManager.fastStoreSequence(source.toLong(), transaction, oldestTransactionOnClient.toLong());
+        if (this.groupCommitter != null) {
+          return this.groupCommitter.store(source.toLong(), transaction, oldestTransactionOnClient.toLong());
+        } else {
+          return this.storageManager.fastStoreSequence(source.toLong(), transaction, oldestTransactionOnClient.toLong());
+        }
       } else {
-        ClientTransaction transaction = new ClientTransaction();
-        transaction.localTransactionID = transactionID.toLong();
-        transaction.globalTransactionID = this.receivedTransactionCount;
-        return fastStoreSequence(source, transaction, oldestTransactionOnClient.toLong());
+        return fastStoreSequence(source, transactionID.toLong(), this.receivedTransactionCount, oldestTransactionOnClient.toLong());
       }
     } else {
       return CompletableFuture.completedFuture(null);
@@ -109,7 +128,7 @@ public class TransactionOrderPersistor {
     if (product.isPermanent()) {
       this.permNodeIDs.add(source);
     } else if (product.isReconnectEnabled()) {
-      this.fastSequenceCache.put(source, new LinkedList<>());
+      this.fastSequenceCache.put(source, new ClientSequenceBuffer());
     } else {
       // do nothing, this type of client will never reconnect
     }
@@ -122,6 +141,7 @@ public class TransactionOrderPersistor {
     long sourceID = source.toLong();
     try {
       if (this.permNodeIDs.remove(source)) {
+        flushPendingSequences();
         this.storageManager.deleteSequence(sourceID);
       } else {
         fastSequenceCache.remove(source);
@@ -131,22 +151,22 @@ public class TransactionOrderPersistor {
     }
   }
 
-  private Future<Void> fastStoreSequence(ClientID sequenceIndex, ClientTransaction newEntry, long oldestValidSequenceID) {
-    List<ClientTransaction> sequence = fastSequenceCache.get(sequenceIndex);
+  /**
+   * Makes sure the storage provider has seen every update still waiting in the current group commit batch.
+   */
+  private void flushPendingSequences() {
+    if (this.groupCommitter != null) {
+      this.groupCommitter.flush();
+    }
+  }
+
+  private Future<Void> fastStoreSequence(ClientID sequenceIndex, long localSequenceID, long globalSequenceID, long oldestValidSequenceID) {
+    ClientSequenceBuffer sequence = fastSequenceCache.get(sequenceIndex);
     if (sequence != null) {
-      if (!sequence.isEmpty()) {
-  //  exploiting the knowledge that sequences are always updated in an increasing fashion, as soon as the first
-  //  cleaning function fails, bail on the iteration
-        Iterator<ClientTransaction> tuple = sequence.iterator();
-        while (tuple.hasNext()) {
-          if (tuple.next().localTransactionID < oldestValidSequenceID) {
-            tuple.remove();
-          } else {
-            break;
-          }
-        }
-      }
-      sequence.add(newEntry);
+  //  exploiting the knowledge that sequences are always updated in an increasing fashion, the buffer can trim 
+  //  its head without walking the entries
+      sequence.trimBefore(oldestValidSequenceID);
+      sequence.add(localSequenceID, globalSequenceID);
     } else {
       // must be a client that will not reconnect
     }
@@ -187,6 +207,7 @@ public class TransactionOrderPersistor {
   
   private synchronized List<ClientTransaction> buildGlobalListIfNecessary() {
     if (null == this.globalList) {
+      flushPendingSequences();
       TreeMap<Long, ClientTransaction> sortMap = new TreeMap<>();
       for (ClientID clientID : this.permNodeIDs) {
         List<IPlatformPersistence.SequenceTuple> transactions = null;
@@ -205,10 +226,15 @@ public class TransactionOrderPersistor {
           }
         }
       }
-      for (List<ClientTransaction> all : this.fastSequenceCache.values()) {
+      for (Map.Entry<ClientID, ClientSequenceBuffer> entry : this.fastSequenceCache.entrySet()) {
+        ClientSequenceBuffer all = entry.getValue();
         if (all != null) {
-          for (ClientTransaction t : all) {
-            sortMap.put(t.globalTransactionID, t);
+          for (int x = 0; x < all.size(); x++) {
+            ClientTransaction transaction = new ClientTransaction();
+            transaction.clientID = entry.getKey().toLong();
+            transaction.localTransactionID = all.localAt(x);
+            transaction.globalTransactionID = all.globalAt(x);
+            sortMap.put(transaction.globalTransactionID, transaction);
           }
         }
       }
@@ -239,11 +265,21 @@ public class TransactionOrderPersistor {
     return index;
   }
 
+  /**
+   * Writes any pending group commit batch and stops the group commit thread.
+   */
+  public synchronized void close() {
+    if (this.groupCommitter != null) {
+      this.groupCommitter.shutdown();
+    }
+  }
+
   /**
    * Clears all internal state.
    */
   public synchronized  void clearAllRecords() {
     this.globalList = null;
+    flushPendingSequences();
     for (ClientID nodeID : this.permNodeIDs) {
       try {
         this.storageManager.deleteSequence(nodeID.toLong());
@@ -260,10 +296,22 @@ public class TransactionOrderPersistor {
   public long getReceivedTransactionCount() {
     return this.receivedTransactionCount;
   }
+
+  /**
+   * @return The number of bytes retained by the in-memory sequence buffer of a reconnect-enabled client, or 0 if the
+   * client is not tracked in memory.
+   */
+  public synchronized long getSequenceFootprint(ClientID source) {
+    ClientSequenceBuffer sequence = this.fastSequenceCache.get(source);
+    return (sequence != null) ? sequence.getFootprint() : 0L;
+  }
   
   public Map<String, Object> reportStateToMap(Map<String, Object> map) {
     map.put("className", this.getClass().getName());
     map.put("receivedTransactions", getReceivedTransactionCount());
+    if (this.groupCommitter != null) {
+      map.put("groupCommit", this.groupCommitter.reportStateToMap(new LinkedHashMap<>()));
+    }
     if(this.permNodeIDs != null && storageManager != null) {
       Map<String, Object> clientMap = new LinkedHashMap<>();
       map.put("permanentClients", clientMap);
@@ -285,13 +333,17 @@ public class TransactionOrderPersistor {
     }
 
     Map<String, Object> clientMap = new LinkedHashMap<>();
+    Map<String, Object> footprintMap = new LinkedHashMap<>();
     map.put("regularClients", clientMap);
-    for (Map.Entry<ClientID, List<ClientTransaction>> entry : fastSequenceCache.entrySet()) {
+    map.put("regularClientsFootprint", footprintMap);
+    for (Map.Entry<ClientID, ClientSequenceBuffer> entry : fastSequenceCache.entrySet()) {
       List<String> trans = new ArrayList<>();
-      if (entry.getValue() != null) {
+      ClientSequenceBuffer sequence = entry.getValue();
+      if (sequence != null) {
         clientMap.put(entry.getKey().toString(), trans);
-        for (ClientTransaction transaction : entry.getValue()) {
-          trans.add("Global seq Id = " + transaction.globalTransactionID + ", local seq id = " + transaction.localTransactionID);
+        footprintMap.put(entry.getKey().toString(), sequence.getFootprint());
+        for (int x = 0; x < sequence.size(); x++) {
+          trans.add("Global seq Id = " + sequence.globalAt(x) + ", local seq id = " + sequence.localAt(x));
         }
       }
     }
@@ -177,6 +177,29 @@ public class TCGroupMessageWrapperTest extends TestCase {
     return (receivedMesg);
   }
 
+  public void testSharedPayloadSentTwice() throws Exception {
+    NetworkListener lsnr = initServer();
+    channelManager = lsnr.getChannelManager();
+    ClientMessageChannel channel = openChannel(lsnr);
+
+    long weights[] = new long[] { 1, 23, 44, 78 };
+    AbstractGroupMessage sendMesg = new GroupZapNodeMessage(GroupZapNodeMessage.ZAP_NODE_REQUEST,
+                                                    L2HAZapNodeRequestProcessor.SPLIT_BRAIN, "Zapping node", weights);
+    TCGroupMessageWrapper serialized = (TCGroupMessageWrapper) channel.createMessage(TCMessageType.GROUP_WRAPPER_MESSAGE);
+    serialized.setGroupMessage(sendMesg);
+    serialized.dehydrate();
+
+    for (int i = 0; i < 2; i++) {
+      TCGroupMessageWrapper wrapper = (TCGroupMessageWrapper) channel.createMessage(TCMessageType.GROUP_WRAPPER_MESSAGE);
+      wrapper.setGroupMessage(sendMesg);
+      wrapper.cloneAndSend(serialized);
+      GroupMessage receivedMesg = queue.poll(timeout, unit);
+      assertNotNull(receivedMesg);
+      verifyGroupMessage(sendMesg, receivedMesg);
+    }
+    serialized.releasePayload();
+  }
+
   public void testClusterStateMessage() throws Exception {
     AbstractGroupMessage sendMesg = new ClusterStateMessage(ClusterStateMessage.OPERATION_SUCCESS, new MessageID(1000));
     sendGroupMessage(sendMesg);
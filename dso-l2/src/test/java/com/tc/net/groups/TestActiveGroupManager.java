@@ -177,6 +177,11 @@ public class TestActiveGroupManager implements GroupManager<GroupMessage> {
     throw new UnsupportedOperationException();
   }
 
+  @Override
+  public boolean acceptsCompression(NodeID node) {
+    return false;
+  }
+
   @Override
   public void closeMember(ServerID next) {
 
@@ -23,8 +23,10 @@ import com.tc.l2.msg.ReplicationResultCode;
 import com.tc.net.NodeID;
 import com.tc.util.Assert;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Test;
@@ -182,6 +184,49 @@ public class ActivePassiveAckWaiterTest {
   }
 
 
+  @Test
+  public void testConcurrentAcksFromManyPassives() throws Exception {
+    List<NodeID> nodes = new ArrayList<NodeID>();
+    for (int i = 0; i < 8; ++i) {
+      nodes.add(mock(NodeID.class));
+    }
+    ActivePassiveAckWaiter waiter = new ActivePassiveAckWaiter(new HashSet<NodeID>(nodes), null);
+    Interlock interlock = new Interlock(2);
+    LockStep lockStep1 = new LockStep(waiter, interlock);
+    LockStep lockStep2 = new LockStep(waiter, interlock);
+    lockStep1.start();
+    lockStep2.start();
+    interlock.waitOnStarts();
+    List<Thread> ackers = new ArrayList<Thread>();
+    for (NodeID node : nodes) {
+      Thread acker = new Thread(()->{
+        waiter.didReceiveOnPassive(node);
+        waiter.didCompleteOnPassive(node, true, ReplicationResultCode.SUCCESS);
+      });
+      ackers.add(acker);
+      acker.start();
+    }
+    for (Thread acker : ackers) {
+      acker.join();
+    }
+    interlock.waitOnCompletes();
+    lockStep1.join();
+    lockStep2.join();
+    Assert.assertTrue(waiter.isCompleted());
+    Assert.assertFalse(waiter.verifyLifecycleResult(true));
+  }
+
+  @Test
+  public void testReceiveAfterComplete() throws Exception {
+    NodeID onePassive = mock(NodeID.class);
+    ActivePassiveAckWaiter waiter = new ActivePassiveAckWaiter(Collections.singleton(onePassive), null);
+    Assert.assertTrue(waiter.didCompleteOnPassive(onePassive, true, ReplicationResultCode.SUCCESS));
+    // The receive ack can be processed after the complete, that is tolerated.
+    waiter.didReceiveOnPassive(onePassive);
+    waiter.waitForReceived();
+    Assert.assertTrue(waiter.isCompleted());
+  }
+
   private static class LockStep extends Thread {
     private final ActivePassiveAckWaiter waiter;
     private final Interlock interlock;
@@ -31,6 +31,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import com.tc.l2.state.ConsistencyManager;
@@ -38,6 +39,18 @@ import com.tc.l2.state.ConsistencyManager.Transition;
 import com.tc.l2.state.ServerMode;
 import com.tc.net.NodeID;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import com.tc.l2.ha.L2HAZapNodeRequestProcessor;
+import com.tc.net.ClientID;
+import com.tc.object.ClientInstanceID;
+import com.tc.object.FetchID;
+import com.tc.object.tx.TransactionID;
+import org.mockito.ArgumentCaptor;
 
 
 public class ActiveToPassiveReplicationTest {
@@ -87,6 +100,74 @@ public class ActiveToPassiveReplicationTest {
     Assert.assertTrue(ack.isCompleted());
   }
   
+  @Test
+  public void testResumeReplaysMissedActivities() throws Exception {
+    ReplicationSender replicate = mock(ReplicationSender.class);
+    when(replicate.hasSyncFinished(passive)).thenReturn(true);
+    GroupManager group = mock(GroupManager.class);
+    ActiveToPassiveReplication logged = createLogged(replicate, group);
+    logged.enterActiveState();
+    SyncReplicationActivity received = createInvoke();
+    logged.replicateActivity(received, logged.passives());
+    logged.nodeLeft(passive);
+    waitForRemoval(logged);
+    SyncReplicationActivity missed = createInvoke();
+    logged.replicateActivity(missed, Collections.singleton(passive));
+    Assert.assertTrue(logged.isResumable(passive));
+
+    logged.resumePassiveSync(passive, received.getActivityID());
+    verify(replicate).resumePassive(passive);
+    ArgumentCaptor<SyncReplicationActivity> sent = ArgumentCaptor.forClass(SyncReplicationActivity.class);
+    verify(replicate, times(2)).replicateMessageInOrder(eq(passive), sent.capture(), any());
+    Assert.assertEquals(missed.getActivityID(), sent.getValue().getActivityID());
+    Assert.assertTrue(logged.passives().contains(passive));
+    verify(group, never()).zapNode(eq(passive), anyInt(), anyString());
+
+    // once resumed, the passive is sent new activities live, once each
+    SyncReplicationActivity live = createInvoke();
+    logged.replicateActivity(live, logged.passives());
+    verify(replicate, times(3)).replicateMessageInOrder(eq(passive), sent.capture(), any());
+    Assert.assertEquals(live.getActivityID(), sent.getValue().getActivityID());
+  }
+
+  @Test
+  public void testResumeFromUnknownActivityZaps() throws Exception {
+    ReplicationSender replicate = mock(ReplicationSender.class);
+    when(replicate.hasSyncFinished(passive)).thenReturn(true);
+    GroupManager group = mock(GroupManager.class);
+    ActiveToPassiveReplication logged = createLogged(replicate, group);
+    logged.enterActiveState();
+    logged.replicateActivity(createInvoke(), logged.passives());
+    logged.nodeLeft(passive);
+    waitForRemoval(logged);
+
+    logged.resumePassiveSync(passive, SyncReplicationActivity.ActivityID.getNextID());
+    verify(replicate, never()).resumePassive(passive);
+    verify(group).zapNode(eq(passive), eq(L2HAZapNodeRequestProcessor.NODE_JOINED_WITH_DIRTY_DB), anyString());
+    Assert.assertFalse(logged.passives().contains(passive));
+  }
+
+  private ActiveToPassiveReplication createLogged(ReplicationSender replicate, GroupManager group) {
+    // The outgoing stage runs its tasks as they are queued.
+    doAnswer(invoke->{
+      ((Runnable) invoke.getArguments()[0]).run();
+      return null;
+    }).when(replicate).inOrder(any(Runnable.class));
+    ConsistencyManager cmgr = mock(ConsistencyManager.class);
+    when(cmgr.requestTransition(any(ServerMode.class), any(NodeID.class), any(Transition.class))).thenReturn(Boolean.TRUE);
+    return new ActiveToPassiveReplication(cmgr, mock(ProcessTransactionHandler.class), Collections.singleton(passive), mock(EntityPersistor.class), replicate, group, new ReplicationLog(1024 * 1024, 0, null));
+  }
+
+  private SyncReplicationActivity createInvoke() {
+    return SyncReplicationActivity.createInvokeMessage(new FetchID(1), new ClientID(1), new ClientInstanceID(1), new TransactionID(1), new TransactionID(1), SyncReplicationActivity.ActivityType.INVOKE_ACTION, new byte[16], 1, "");
+  }
+
+  private void waitForRemoval(ActiveToPassiveReplication logged) throws InterruptedException {
+    while (logged.passives().contains(passive) || !logged.isResumable(passive)) {
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+  }
+
   @After
   public void tearDown() {
   }
@@ -64,16 +64,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -805,6 +810,88 @@ public class ManagedEntityImplTest {
     managedEntity.sync(mock(NodeID.class));
   }
   
+  @Test
+  public void testConcurrentPassiveScheduling() throws Exception {
+    when(serverEntityService.getMessageCodec()).thenReturn(new MessageCodec<EntityMessage, EntityResponse>() {
+      @Override
+      public byte[] encodeMessage(EntityMessage message) throws MessageCodecException {
+        throw new UnsupportedOperationException("not supported!");
+      }
+
+      @Override
+      public EntityMessage decodeMessage(byte[] payload) throws MessageCodecException {
+        return new KeyedInvoke(payload[0], payload[1]);
+      }
+
+      @Override
+      public byte[] encodeResponse(EntityResponse response) throws MessageCodecException {
+        return new byte[0];
+      }
+
+      @Override
+      public EntityResponse decodeResponse(byte[] payload) throws MessageCodecException {
+        throw new UnsupportedOperationException("not supported!");
+      }
+    });
+    managedEntity = new ManagedEntityImpl(entityID, version, consumerID, loopback, serviceRegistry, clientEntityStateManager, eventCollector, messageSelf, requestMulti, serverEntityService, false, true);
+    TestingResponse created = mockResponse();
+    invokeOnTransactionHandler(()->managedEntity.addRequestMessage(mockCreateEntityRequest(), MessagePayload.emptyPayload(), created));
+    created.waitFor();
+
+    Map<Integer, List<Integer>> seen = new ConcurrentHashMap<>();
+    doAnswer((invoke)->{
+      KeyedInvoke message = (KeyedInvoke) invoke.getArguments()[1];
+      seen.computeIfAbsent(message.key, (key)->Collections.synchronizedList(new ArrayList<>())).add(message.sequence);
+      return null;
+    }).when(passiveServerEntity).invokePassive(any(), any(EntityMessage.class));
+
+    // each lane schedules one concurrency key, as the passive apply lanes do
+    int lanes = 4;
+    int perLane = 100;
+    ServerEntityRequest[][] requests = new ServerEntityRequest[lanes][perLane];
+    TestingResponse[][] responses = new TestingResponse[lanes][perLane];
+    for (int lane = 0; lane < lanes; ++lane) {
+      for (int i = 0; i < perLane; ++i) {
+        requests[lane][i] = mockInvokeRequest();
+        responses[lane][i] = mockResponse();
+      }
+    }
+    CyclicBarrier start = new CyclicBarrier(lanes);
+    ExecutorService laneThreads = Executors.newFixedThreadPool(lanes, (r)->new Thread(r, ServerConfigurationContext.PASSIVE_APPLY_LANE));
+    try {
+      List<Future<Void>> scheduled = new ArrayList<>();
+      for (int lane = 0; lane < lanes; ++lane) {
+        int key = lane + 1;
+        scheduled.add(laneThreads.submit(()->{
+          start.await();
+          for (int i = 0; i < perLane; ++i) {
+            managedEntity.addRequestMessage(requests[key - 1][i], MessagePayload.syncPayloadNormal(new byte[] {(byte) key, (byte) i}, key), responses[key - 1][i]);
+          }
+          return null;
+        }));
+      }
+      for (Future<Void> lane : scheduled) {
+        lane.get();
+      }
+    } finally {
+      laneThreads.shutdown();
+    }
+    for (TestingResponse[] lane : responses) {
+      for (TestingResponse response : lane) {
+        response.waitFor();
+      }
+    }
+
+    Assert.assertEquals(lanes, seen.size());
+    for (int key = 1; key <= lanes; ++key) {
+      List<Integer> sequence = seen.get(key);
+      Assert.assertEquals(perLane, sequence.size());
+      for (int i = 0; i < perLane; ++i) {
+        Assert.assertEquals(i, (int) sequence.get(i));
+      }
+    }
+  }
+
   @Test
   public void testDestroy() throws Exception {
     TestingResponse response = mockResponse();
@@ -977,4 +1064,14 @@ public class ManagedEntityImplTest {
   public interface LocationInvoke extends EntityMessage {
     ExecutionStrategy.Location getLocation();
   }
+
+  private static class KeyedInvoke implements EntityMessage {
+    private final int key;
+    private final int sequence;
+
+    private KeyedInvoke(int key, int sequence) {
+      this.key = key;
+      this.sequence = sequence;
+    }
+  }
 }
@@ -0,0 +1,159 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.net.NodeID;
+import com.tc.net.ServerID;
+import com.tc.object.EntityID;
+import com.tc.object.FetchID;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class PassiveSyncSchedulerTest {
+
+  private static final EntityID ENTITY = new EntityID("TestEntity", "test");
+  private static final FetchID FETCH = new FetchID(1L);
+
+  @Test
+  public void testPayloadsHeldToBudget() throws Exception {
+    NodeID passive = new ServerID("passive", new byte[] {1});
+    SyncReplicationActivity first = payload(1024);
+    SyncReplicationActivity second = payload(1024);
+    PassiveSyncScheduler scheduler = new PassiveSyncScheduler(first.getEstimatedSize() + 16);
+    scheduler.beforeSend(passive, startSync(1));
+    scheduler.beforeSend(passive, first);
+    assertEquals(first.getEstimatedSize(), scheduler.getBytesInFlight());
+
+    CountDownLatch sent = new CountDownLatch(1);
+    Thread sender = new Thread(()->{
+      scheduler.beforeSend(passive, second);
+      sent.countDown();
+    });
+    sender.start();
+    assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+
+    scheduler.received(passive, first.getActivityID());
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertEquals(second.getEstimatedSize(), scheduler.getBytesInFlight());
+    scheduler.received(passive, second.getActivityID());
+    assertEquals(0, scheduler.getBytesInFlight());
+  }
+
+  @Test
+  public void testOversizedPayloadSentAlone() throws Exception {
+    NodeID passive = new ServerID("passive", new byte[] {1});
+    PassiveSyncScheduler scheduler = new PassiveSyncScheduler(16);
+    scheduler.beforeSend(passive, startSync(1));
+    SyncReplicationActivity big = payload(1024);
+    scheduler.beforeSend(passive, big);
+    assertEquals(big.getEstimatedSize(), scheduler.getBytesInFlight());
+  }
+
+  @Test
+  public void testLeavingPassiveReleasesBudget() throws Exception {
+    NodeID leaving = new ServerID("leaving", new byte[] {1});
+    NodeID staying = new ServerID("staying", new byte[] {2});
+    SyncReplicationActivity stuck = payload(1024);
+    PassiveSyncScheduler scheduler = new PassiveSyncScheduler(stuck.getEstimatedSize());
+    scheduler.beforeSend(leaving, startSync(1));
+    scheduler.beforeSend(staying, startSync(1));
+    scheduler.beforeSend(leaving, stuck);
+
+    CountDownLatch sent = new CountDownLatch(1);
+    SyncReplicationActivity next = payload(1024);
+    Thread sender = new Thread(()->{
+      scheduler.beforeSend(staying, next);
+      sent.countDown();
+    });
+    sender.start();
+    assertFalse(sent.await(200, TimeUnit.MILLISECONDS));
+
+    scheduler.removePassive(leaving);
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertEquals(next.getEstimatedSize(), scheduler.getBytesInFlight());
+    assertEquals(1, scheduler.getPassivesSyncing());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testProgressReported() throws Exception {
+    NodeID passive = new ServerID("passive", new byte[] {1});
+    PassiveSyncScheduler scheduler = new PassiveSyncScheduler(1024 * 1024);
+    scheduler.beforeSend(passive, startSync(2));
+    SyncReplicationActivity data = payload(100);
+    scheduler.beforeSend(passive, data);
+    scheduler.received(passive, data.getActivityID());
+    scheduler.beforeSend(passive, SyncReplicationActivity.createEndEntityKeyMessage(ENTITY, 1L, FETCH, 1));
+    scheduler.beforeSend(passive, SyncReplicationActivity.createEndEntityMessage(ENTITY, 1L, FETCH));
+    assertEquals(1, scheduler.getPassivesSyncing());
+
+    Map<String, Object> progress = (Map<String, Object>)((Map<String, Object>)scheduler.getStateMap().get("passives")).get(passive.toString());
+    assertEquals(2, progress.get("entities"));
+    assertEquals(1, progress.get("entitiesSynced"));
+    assertEquals(1, progress.get("keysSynced"));
+    assertEquals((long)data.getEstimatedSize(), progress.get("bytesSynced"));
+    assertEquals(false, progress.get("complete"));
+
+    scheduler.beforeSend(passive, SyncReplicationActivity.createEndSyncMessage(null));
+    assertEquals(0, scheduler.getPassivesSyncing());
+  }
+
+  @Test
+  public void testResetForgetsFinishedSyncsAndPeak() throws Exception {
+    NodeID finished = new ServerID("finished", new byte[] {1});
+    NodeID running = new ServerID("running", new byte[] {2});
+    PassiveSyncScheduler scheduler = new PassiveSyncScheduler(1024 * 1024);
+    scheduler.beforeSend(finished, startSync(1));
+    scheduler.beforeSend(running, startSync(1));
+    SyncReplicationActivity done = payload(100);
+    SyncReplicationActivity pending = payload(100);
+    scheduler.beforeSend(finished, done);
+    scheduler.beforeSend(running, pending);
+    scheduler.received(finished, done.getActivityID());
+    scheduler.beforeSend(finished, SyncReplicationActivity.createEndSyncMessage(null));
+    assertEquals((long)done.getEstimatedSize() + pending.getEstimatedSize(), scheduler.getPeakBytesInFlight());
+
+    scheduler.reset();
+    Map<?, ?> passives = (Map<?, ?>)scheduler.getStateMap().get("passives");
+    assertFalse(passives.containsKey(finished.toString()));
+    assertTrue(passives.containsKey(running.toString()));
+    assertEquals(pending.getEstimatedSize(), scheduler.getPeakBytesInFlight());
+    assertEquals(1, scheduler.getPassivesSyncing());
+  }
+
+  private static SyncReplicationActivity startSync(int entities) {
+    SyncReplicationActivity.EntityCreationTuple[] tuples = new SyncReplicationActivity.EntityCreationTuple[entities];
+    for (int i = 0; i < entities; ++i) {
+      tuples[i] = new SyncReplicationActivity.EntityCreationTuple(new EntityID("TestEntity", "test" + i), 1L, i, new byte[0], true);
+    }
+    return SyncReplicationActivity.createStartSyncMessage(tuples);
+  }
+
+  private static SyncReplicationActivity payload(int size) {
+    return SyncReplicationActivity.createPayloadMessage(ENTITY, 1L, FETCH, 1, new byte[size], "");
+  }
+}
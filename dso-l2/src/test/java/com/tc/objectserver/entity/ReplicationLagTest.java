@@ -0,0 +1,95 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.net.ClientID;
+import com.tc.object.ClientInstanceID;
+import com.tc.object.FetchID;
+import com.tc.object.tx.TransactionID;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class ReplicationLagTest {
+
+  @Test
+  public void testLagOfOutstandingActivities() throws Exception {
+    ReplicationLag lag = new ReplicationLag();
+    long start = TimeUnit.SECONDS.toNanos(100);
+    SyncReplicationActivity first = invoke(100);
+    SyncReplicationActivity second = invoke(200);
+    lag.replicated(first, start);
+    lag.replicated(second, start + TimeUnit.MILLISECONDS.toNanos(5));
+    assertEquals(2, lag.getActivities());
+    assertEquals(first.getEstimatedSize() + second.getEstimatedSize(), lag.getBytes());
+    assertEquals(20, lag.getLagMillis(start + TimeUnit.MILLISECONDS.toNanos(20)));
+
+    lag.completed(first.getActivityID(), start + TimeUnit.MILLISECONDS.toNanos(20));
+    assertEquals(1, lag.getActivities());
+    assertEquals(second.getEstimatedSize(), lag.getBytes());
+    assertEquals(15, lag.getLagMillis(start + TimeUnit.MILLISECONDS.toNanos(20)));
+
+    lag.discarded(second.getActivityID());
+    assertEquals(0, lag.getActivities());
+    assertEquals(0, lag.getBytes());
+    assertEquals(0, lag.getLagMillis(start + TimeUnit.MILLISECONDS.toNanos(20)));
+  }
+
+  @Test
+  public void testUnknownCompletionIgnored() throws Exception {
+    ReplicationLag lag = new ReplicationLag();
+    assertEquals(-1, lag.completed(SyncReplicationActivity.ActivityID.getNextID(), System.nanoTime()));
+    assertEquals(0, lag.getLatencyPercentile(0.5));
+  }
+
+  @Test
+  public void testLatencyHistogram() throws Exception {
+    ReplicationLag lag = new ReplicationLag();
+    long now = TimeUnit.SECONDS.toNanos(100);
+    for (int i = 0; i < 99; ++i) {
+      SyncReplicationActivity activity = invoke(10);
+      lag.replicated(activity, now);
+      lag.completed(activity.getActivityID(), now + TimeUnit.MICROSECONDS.toNanos(100));
+    }
+    SyncReplicationActivity slow = invoke(10);
+    lag.replicated(slow, now);
+    lag.completed(slow.getActivityID(), now + TimeUnit.MILLISECONDS.toNanos(50));
+
+    assertEquals(127, lag.getLatencyPercentile(0.5));
+    assertEquals(127, lag.getLatencyPercentile(0.99));
+    assertEquals(65535, lag.getLatencyPercentile(1.0));
+    Map<String, Object> state = new LinkedHashMap<>();
+    lag.reportStateToMap(state, now);
+    assertEquals(100L, state.get("completedActivities"));
+    assertEquals(50000L, state.get("ackLatencyMaxMicros"));
+    Map<String, Long> histogram = new LinkedHashMap<>();
+    histogram.put("<=127", 99L);
+    histogram.put("<=65535", 1L);
+    assertEquals(histogram, state.get("ackLatencyMicros"));
+  }
+
+  private static SyncReplicationActivity invoke(int size) {
+    return SyncReplicationActivity.createInvokeMessage(new FetchID(1L), ClientID.NULL_ID, ClientInstanceID.NULL_ID, TransactionID.NULL_ID, TransactionID.NULL_ID, SyncReplicationActivity.ActivityType.INVOKE_ACTION, new byte[size], 1, "");
+  }
+}
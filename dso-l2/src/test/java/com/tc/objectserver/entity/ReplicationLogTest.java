@@ -0,0 +1,167 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.entity;
+
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.net.ClientID;
+import com.tc.object.ClientInstanceID;
+import com.tc.object.FetchID;
+import com.tc.object.tx.TransactionID;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class ReplicationLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testReplayAfterActivity() throws Exception {
+    ReplicationLog log = new ReplicationLog(1024 * 1024, 0, null);
+    List<SyncReplicationActivity> appended = appendInvokes(log, 5, 16);
+
+    List<SyncReplicationActivity> replay = log.after(appended.get(1).getActivityID());
+    assertEquals(3, replay.size());
+    for (int i = 0; i < 3; ++i) {
+      assertSame(appended.get(i + 2), replay.get(i));
+    }
+    assertTrue(log.after(appended.get(4).getActivityID()).isEmpty());
+    assertNull(log.after(SyncReplicationActivity.ActivityID.getNextID()));
+  }
+
+  @Test
+  public void testForgetsOldestWithoutSpillDirectory() throws Exception {
+    ReplicationLog log = new ReplicationLog(1024, 0, null);
+    List<SyncReplicationActivity> appended = appendInvokes(log, 10, 256);
+
+    assertFalse(log.contains(appended.get(0).getActivityID()));
+    assertTrue(log.contains(appended.get(9).getActivityID()));
+    assertNull(log.after(appended.get(0).getActivityID()));
+  }
+
+  @Test
+  public void testSpillsToDisk() throws Exception {
+    File dir = folder.newFolder("spill");
+    ReplicationLog log = new ReplicationLog(1024, 1024 * 1024, dir);
+    List<SyncReplicationActivity> appended = appendInvokes(log, 20, 256);
+
+    assertTrue(dir.list().length > 0);
+    List<SyncReplicationActivity> replay = log.after(appended.get(0).getActivityID());
+    assertEquals(19, replay.size());
+    for (int i = 0; i < 19; ++i) {
+      assertSame(appended.get(i + 1), replay.get(i));
+    }
+    log.close();
+    assertEquals(0, dir.list().length);
+  }
+
+  @Test
+  public void testDiskBoundDropsOldestSegment() throws Exception {
+    File dir = folder.newFolder("bounded");
+    ReplicationLog log = new ReplicationLog(1024, 4 * 1024, dir);
+    List<SyncReplicationActivity> appended = appendInvokes(log, 100, 256);
+
+    assertFalse(log.contains(appended.get(0).getActivityID()));
+    assertTrue(log.contains(appended.get(99).getActivityID()));
+    long onDisk = 0;
+    for (File file : dir.listFiles()) {
+      onDisk += file.length();
+    }
+    assertTrue(onDisk <= 4 * 1024 + 2 * 1024);
+  }
+
+  @Test
+  public void testAppendDoesNotWaitForTheDisk() throws Exception {
+    File dir = folder.newFolder("held");
+    List<Runnable> held = new ArrayList<>();
+    ReplicationLog log = new ReplicationLog(1024, 1024 * 1024, dir, held::add);
+    List<SyncReplicationActivity> appended = new ArrayList<>();
+    for (int i = 0; i < 6; ++i) {
+      appended.add(appendInvoke(log, i, 256));
+    }
+
+    // nothing is written until the spiller runs, but everything can be replayed
+    assertEquals(1, held.size());
+    assertEquals(0, dir.list().length);
+    List<SyncReplicationActivity> replay = log.after(appended.get(0).getActivityID());
+    assertEquals(5, replay.size());
+    for (int i = 0; i < 5; ++i) {
+      assertSame(appended.get(i + 1), replay.get(i));
+    }
+
+    held.get(0).run();
+    log.awaitSpilled();
+    assertTrue(dir.list().length > 0);
+    replay = log.after(appended.get(0).getActivityID());
+    assertEquals(5, replay.size());
+    for (int i = 0; i < 5; ++i) {
+      assertSame(appended.get(i + 1), replay.get(i));
+    }
+  }
+
+  @Test
+  public void testStalledSpillerForgetsOldest() throws Exception {
+    File dir = folder.newFolder("stalled");
+    ReplicationLog log = new ReplicationLog(1024, 1024 * 1024, dir, r -> {});
+    List<SyncReplicationActivity> appended = new ArrayList<>();
+    for (int i = 0; i < 20; ++i) {
+      appended.add(appendInvoke(log, i, 256));
+    }
+
+    assertFalse(log.contains(appended.get(0).getActivityID()));
+    assertNull(log.after(appended.get(0).getActivityID()));
+    assertTrue(log.contains(appended.get(19).getActivityID()));
+  }
+
+  private static SyncReplicationActivity appendInvoke(ReplicationLog log, int i, int payloadSize) {
+    byte[] payload = new byte[payloadSize];
+    payload[0] = (byte) i;
+    SyncReplicationActivity activity = SyncReplicationActivity.createInvokeMessage(new FetchID(1), new ClientID(1), new ClientInstanceID(1), new TransactionID(i + 1), new TransactionID(1), SyncReplicationActivity.ActivityType.INVOKE_ACTION, payload, 1, "invoke-" + i);
+    log.append(activity);
+    return activity;
+  }
+
+  /**
+   * Appends and waits for the spilling after each, so what is on disk does not depend on how fast the disk is.
+   */
+  private static List<SyncReplicationActivity> appendInvokes(ReplicationLog log, int count, int payloadSize) throws InterruptedException {
+    List<SyncReplicationActivity> appended = new ArrayList<>();
+    for (int i = 0; i < count; ++i) {
+      appended.add(appendInvoke(log, i, payloadSize));
+      log.awaitSpilled();
+    }
+    return appended;
+  }
+
+  private static void assertSame(SyncReplicationActivity expected, SyncReplicationActivity actual) {
+    assertEquals(expected.getActivityID(), actual.getActivityID());
+    assertEquals(expected.getTransactionID(), actual.getTransactionID());
+    assertEquals(expected.getExtendedData()[0], actual.getExtendedData()[0]);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class ExpiredRequestsTest {
+
+  @Test
+  public void testNoDeadlineIsNeverShed() throws Exception {
+    ExpiredRequests expired = new ExpiredRequests(true);
+    assertFalse(expired.shed("Type", 0, Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testShedOnlyAfterDeadline() throws Exception {
+    ExpiredRequests expired = new ExpiredRequests(true);
+    long deadline = TimeUnit.SECONDS.toNanos(10);
+    assertFalse(expired.shed("Type", deadline, deadline - 1));
+    assertTrue(expired.shed("Type", deadline, deadline));
+    assertTrue(expired.shed("Type", deadline, deadline + TimeUnit.MILLISECONDS.toNanos(5)));
+    assertEquals(2, expired.getShedCount());
+  }
+
+  @Test
+  public void testDisabledNeverSheds() throws Exception {
+    ExpiredRequests expired = new ExpiredRequests(false);
+    assertFalse(expired.shed("Type", 1, 2));
+    assertEquals(0, expired.getShedCount());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMetrics() throws Exception {
+    ExpiredRequests expired = new ExpiredRequests(true);
+    long deadline = TimeUnit.SECONDS.toNanos(10);
+    expired.shed("A", deadline, deadline + TimeUnit.MICROSECONDS.toNanos(30));
+    expired.shed("B", deadline, deadline + TimeUnit.MICROSECONDS.toNanos(10));
+    expired.shed("B", deadline, deadline - 1);
+    Map<String, Object> state = (Map<String, Object>) expired.getStateMap();
+    assertEquals(3L, state.get("invokesWithDeadline"));
+    assertEquals(2L, state.get("shedInvokes"));
+    assertEquals(30L, state.get("maxLatenessMicros"));
+    Map<String, Long> byType = (Map<String, Long>) state.get("shedByEntityType");
+    assertEquals(Long.valueOf(1), byType.get("A"));
+    assertEquals(Long.valueOf(1), byType.get("B"));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.tc.l2.msg.ReplicationAckTuple;
+import com.tc.l2.msg.ReplicationMessageAck;
+import com.tc.l2.msg.ReplicationResultCode;
+import com.tc.l2.msg.SyncReplicationActivity;
+import com.tc.net.NodeID;
+import com.tc.net.ServerID;
+import com.tc.net.groups.AbstractGroupMessage;
+import com.tc.net.groups.GroupManager;
+
+import java.util.List;
+
+
+public class GroupMessageBatchContextTest {
+  private GroupManager<AbstractGroupMessage> groupManager;
+  private GroupMessageBatchContext<ReplicationMessageAck, ReplicationAckTuple> context;
+
+  @SuppressWarnings("unchecked")
+  @Before
+  public void setUp() throws Exception {
+    this.groupManager = mock(GroupManager.class);
+    // The activity ID doubles as the element's size, and the network never reports a send as done, so only one
+    //  unsealed batch can be in flight.
+    this.context = new GroupMessageBatchContext<>(this::createMessage, this.groupManager, ServerID.NULL_ID, 64, 1, null,
+        100, (tuple)->(int) tuple.respondTo.id, null, null);
+  }
+
+  @Test
+  public void testBatchesAreBoundedByBytes() throws Exception {
+    Assert.assertTrue(this.context.batchMessage(element(40)));
+    Assert.assertFalse(this.context.batchMessage(element(40)));
+    // this one would take the batch over the bound so it starts a new one
+    Assert.assertTrue(this.context.batchMessage(element(41)));
+    this.context.flushBatch();
+    // the open batch waits for the in-flight one
+    this.context.flushBatch();
+
+    List<ReplicationMessageAck> sent = sentMessages();
+    Assert.assertEquals(1, sent.size());
+    Assert.assertEquals(2, sent.get(0).getBatchSize());
+  }
+
+  @Test
+  public void testLargeElementIsSentAlone() throws Exception {
+    this.context.batchMessage(element(10));
+    this.context.flushBatch();
+    this.context.batchMessage(element(20));
+    this.context.batchMessage(element(500));
+    this.context.batchMessage(element(30));
+    // the sealed batches wait for the in-flight batch, like the open one
+    this.context.flushBatch();
+    Assert.assertEquals(1, sentMessages().size());
+    // each completed send lets the next sealed batch go, in order, ahead of the open one
+    this.context.handleNetworkDone();
+    this.context.flushBatch();
+    this.context.flushBatch();
+    this.context.handleNetworkDone();
+    this.context.flushBatch();
+
+    List<ReplicationMessageAck> sent = sentMessages();
+    Assert.assertEquals(3, sent.size());
+    Assert.assertEquals(20, sent.get(1).getBatch().get(0).respondTo.id);
+    Assert.assertEquals(1, sent.get(2).getBatchSize());
+    Assert.assertEquals(500, sent.get(2).getBatch().get(0).respondTo.id);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<ReplicationMessageAck> sentMessages() throws Exception {
+    ArgumentCaptor<AbstractGroupMessage> captor = ArgumentCaptor.forClass(AbstractGroupMessage.class);
+    verify(this.groupManager, atLeastOnce()).sendToWithSentCallback(any(NodeID.class), captor.capture(), any(Runnable.class));
+    return (List<ReplicationMessageAck>) (List<?>) captor.getAllValues();
+  }
+
+  private ReplicationMessageAck createMessage(ReplicationAckTuple tuple) {
+    ReplicationMessageAck message = ReplicationMessageAck.createBatchAck();
+    message.addToBatch(tuple);
+    return message;
+  }
+
+  private static ReplicationAckTuple element(long size) {
+    return new ReplicationAckTuple(new SyncReplicationActivity.ActivityID(size), ReplicationResultCode.SUCCESS);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.objectserver.handler.MultiResponseFlushPolicy.Flush;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class MultiResponseFlushPolicyTest {
+
+  @Test
+  public void testIdleStageFlushesImmediately() throws Exception {
+    MultiResponseFlushPolicy policy = new MultiResponseFlushPolicy(16, 100, 1000);
+    assertEquals(Flush.IDLE, policy.decide(1, 0, 0, 0));
+  }
+
+  @Test
+  public void testBusyStageDefersUntilLimit() throws Exception {
+    MultiResponseFlushPolicy policy = new MultiResponseFlushPolicy(16, 100, 1000);
+    long created = TimeUnit.SECONDS.toNanos(10);
+    assertNull(policy.decide(1, created, 5, created + TimeUnit.MICROSECONDS.toNanos(50)));
+    assertEquals(Flush.SIZE, policy.decide(16, created, 5, created + TimeUnit.MICROSECONDS.toNanos(50)));
+    assertEquals(Flush.AGE, policy.decide(1, created, 5, created + TimeUnit.MICROSECONDS.toNanos(100)));
+    assertEquals(Flush.BACKLOG, policy.decide(1, created, 1000, created));
+  }
+
+  @Test
+  public void testZeroAgeDisablesBatching() throws Exception {
+    MultiResponseFlushPolicy policy = new MultiResponseFlushPolicy(16, 0, 1000);
+    assertEquals(Flush.AGE, policy.decide(1, 0, 5, 0));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMetrics() throws Exception {
+    MultiResponseFlushPolicy policy = new MultiResponseFlushPolicy(16, 100, 1000);
+    policy.decide(1, 0, 5, 0);
+    policy.flushed(Flush.DIRECT, 1);
+    policy.flushed(Flush.SIZE, 16);
+    policy.flushed(Flush.IDLE, 4);
+    Map<String, Object> state = (Map<String, Object>) policy.getStateMap();
+    assertEquals(3L, state.get("responses"));
+    assertEquals(21L, state.get("operations"));
+    assertEquals(7D, (Double) state.get("operationsPerResponse"), 0.001);
+    assertEquals(16L, state.get("largestResponse"));
+    assertEquals(1L, state.get("deferrals"));
+    Map<String, Long> histogram = (Map<String, Long>) state.get("operationsPerResponseHistogram");
+    assertEquals(1L, (long) histogram.get("<=1"));
+    assertEquals(1L, (long) histogram.get("<=7"));
+    assertEquals(1L, (long) histogram.get("<=31"));
+  }
+}
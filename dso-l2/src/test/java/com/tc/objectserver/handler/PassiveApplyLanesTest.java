@@ -0,0 +1,115 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import com.tc.objectserver.core.api.ServerConfigurationContext;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class PassiveApplyLanesTest {
+  private PassiveApplyLanes lanes;
+
+  @Before
+  public void setUp() {
+    this.lanes = new PassiveApplyLanes(4);
+  }
+
+  @After
+  public void tearDown() {
+    this.lanes.shutdown();
+  }
+
+  @Test
+  public void testSameKeyRunsInOrder() {
+    List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 1000; ++i) {
+      int value = i;
+      this.lanes.execute(7, ()->seen.add(value));
+    }
+    this.lanes.drain();
+    Assert.assertEquals(1000, seen.size());
+    for (int i = 0; i < 1000; ++i) {
+      Assert.assertEquals(i, (int) seen.get(i));
+    }
+  }
+
+  @Test
+  public void testLanesAreNamedForEntityScheduling() {
+    List<String> names = Collections.synchronizedList(new ArrayList<>());
+    for (int key = 0; key < 4; ++key) {
+      this.lanes.execute(key, ()->names.add(Thread.currentThread().getName()));
+    }
+    this.lanes.drain();
+    Assert.assertEquals(4, names.size());
+    for (String name : names) {
+      Assert.assertTrue(name, name.contains(ServerConfigurationContext.PASSIVE_APPLY_LANE));
+      Assert.assertFalse(name, name.contains(ServerConfigurationContext.PASSIVE_REPLICATION_STAGE));
+    }
+  }
+
+  @Test
+  public void testDrainWaitsForEveryLane() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger done = new AtomicInteger();
+    for (int key = 0; key < 4; ++key) {
+      this.lanes.execute(key, ()->{
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        done.incrementAndGet();
+      });
+    }
+    Thread releaser = new Thread(()->{
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        // release anyway
+      }
+      release.countDown();
+    });
+    releaser.start();
+    this.lanes.drain();
+    Assert.assertEquals(4, done.get());
+    releaser.join();
+  }
+
+  @Test
+  public void testFailureIsReportedOnDrain() {
+    this.lanes.execute(1, ()->{
+      throw new IllegalStateException("boom");
+    });
+    try {
+      this.lanes.drain();
+      Assert.fail();
+    } catch (RuntimeException expected) {
+      Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+
+public class ReplicationWindowTest {
+  private static final long RTT = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testWindowGrowsWhileRoundTripIsStable() {
+    ReplicationWindow window = new ReplicationWindow(64, 4096, 8);
+    Assert.assertEquals(1, window.getMessagesInFlight());
+    long now = 0;
+    for (int i = 0; i < 100; ++i) {
+      now += RTT;
+      window.rttSample(RTT, now);
+    }
+    Assert.assertEquals(8, window.getMessagesInFlight());
+  }
+
+  @Test
+  public void testWindowStartsAtInitialInFlight() {
+    ReplicationWindow window = new ReplicationWindow(64, 4096, 4, 8);
+    Assert.assertEquals(4, window.getMessagesInFlight());
+    Assert.assertEquals(8, new ReplicationWindow(64, 4096, 20, 8).getMessagesInFlight());
+  }
+
+  @Test
+  public void testWindowHalvesOncePerRoundTripWhenQueueing() {
+    ReplicationWindow window = new ReplicationWindow(64, 4096, 16);
+    long now = 0;
+    for (int i = 0; i < 200; ++i) {
+      now += RTT;
+      window.rttSample(RTT, now);
+    }
+    Assert.assertEquals(16, window.getMessagesInFlight());
+    // round trips balloon: the smoothed value crosses the threshold and the window is cut
+    int before = window.getMessagesInFlight();
+    for (int i = 0; i < 20 && window.getMessagesInFlight() == before; ++i) {
+      now += 1;
+      window.rttSample(10 * RTT, now);
+    }
+    Assert.assertEquals(before / 2, window.getMessagesInFlight());
+    // further samples within the same round trip don't cut it again
+    window.rttSample(10 * RTT, now + 1);
+    Assert.assertEquals(before / 2, window.getMessagesInFlight());
+  }
+
+  @Test
+  public void testLostBatchShrinksWindow() {
+    ReplicationWindow window = new ReplicationWindow(64, 4096, 16);
+    long now = 0;
+    for (int i = 0; i < 200; ++i) {
+      now += RTT;
+      window.rttSample(RTT, now);
+    }
+    window.lost(now + 10 * RTT);
+    Assert.assertEquals(8, window.getMessagesInFlight());
+  }
+
+  @Test
+  public void testBatchLimitFollowsApplyRate() {
+    ReplicationWindow window = new ReplicationWindow(64, 4096, 1);
+    Assert.assertEquals(64, window.getBatchLimit());
+    window.rttSample(TimeUnit.MILLISECONDS.toNanos(10), 1);
+    // 100,000 activities per second over a 10ms round trip is 1000 activities per round trip
+    long now = 1;
+    for (int i = 0; i < 10; ++i) {
+      now += TimeUnit.MILLISECONDS.toNanos(100);
+      window.completed(10_000, now);
+    }
+    Assert.assertEquals(1000, window.getBatchLimit(), 10);
+    // a slow passive never shrinks the batch below the configured minimum
+    for (int i = 0; i < 50; ++i) {
+      now += TimeUnit.MILLISECONDS.toNanos(100);
+      window.completed(1, now);
+    }
+    Assert.assertEquals(64, window.getBatchLimit());
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.handler;
+
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+
+public class RequestCreditPolicyTest {
+
+  @Test
+  public void testIdleServerGrantsMaximum() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(100, 4, 10000);
+    assertEquals(100, policy.grant(0, 1));
+    assertEquals(100, policy.grant(0, 10));
+  }
+
+  @Test
+  public void testFreeSpaceIsShared() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(100, 4, 1000);
+    assertEquals(50, policy.grant(0, 20));
+    assertEquals(25, policy.grant(500, 20));
+  }
+
+  @Test
+  public void testFullServerGrantsMinimum() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(100, 4, 1000);
+    assertEquals(4, policy.grant(1000, 1));
+    assertEquals(4, policy.grant(5000, 3));
+  }
+
+  @Test
+  public void testMinimumIsAtLeastOne() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(100, 0, 10);
+    assertEquals(1, policy.grant(10, 1));
+  }
+
+  @Test
+  public void testZeroMaximumDisables() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(0, 4, 1000);
+    assertFalse(policy.isEnabled());
+    assertEquals(RequestCreditPolicy.NO_CREDIT, policy.grant(0, 1));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testMetrics() throws Exception {
+    RequestCreditPolicy policy = new RequestCreditPolicy(100, 4, 1000);
+    policy.grant(0, 1);
+    policy.grant(950, 1);
+    policy.grant(0, 1);
+    Map<String, Object> state = (Map<String, Object>) policy.getStateMap();
+    assertEquals(3L, state.get("grants"));
+    assertEquals(1L, state.get("throttledGrants"));
+    assertEquals(50, state.get("lowestGrant"));
+    assertEquals(100, state.get("lastGrant"));
+  }
+}
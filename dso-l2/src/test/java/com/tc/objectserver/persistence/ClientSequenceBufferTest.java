@@ -0,0 +1,72 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import com.tc.test.TCTestCase;
+
+
+public class ClientSequenceBufferTest extends TCTestCase {
+
+  public void testAddAndTrim() {
+    ClientSequenceBuffer buffer = new ClientSequenceBuffer(4);
+    for (int i = 1; i <= 10; ++i) {
+      buffer.add(i, i * 100);
+    }
+    assertEquals(10, buffer.size());
+    assertEquals(1, buffer.localAt(0));
+    assertEquals(1000, buffer.globalAt(9));
+
+    assertEquals(4, buffer.trimBefore(5));
+    assertEquals(6, buffer.size());
+    assertEquals(5, buffer.localAt(0));
+    assertEquals(500, buffer.globalAt(0));
+    // trimming below the head is a no-op
+    assertEquals(0, buffer.trimBefore(3));
+    assertEquals(6, buffer.trimBefore(11));
+    assertTrue(buffer.isEmpty());
+  }
+
+  public void testWrapAround() {
+    ClientSequenceBuffer buffer = new ClientSequenceBuffer(4);
+    long next = 1;
+    for (int round = 0; round < 100; ++round) {
+      buffer.add(next, next);
+      buffer.add(next + 1, next + 1);
+      next += 2;
+      buffer.trimBefore(next - 2);
+      assertEquals(2, buffer.size());
+      assertEquals(next - 2, buffer.localAt(0));
+      assertEquals(next - 1, buffer.localAt(1));
+    }
+    // steady state should never have grown beyond the initial capacity
+    assertEquals(4 * Long.BYTES * 2, buffer.getFootprint());
+  }
+
+  public void testShrinksAfterBurst() {
+    ClientSequenceBuffer buffer = new ClientSequenceBuffer();
+    for (int i = 1; i <= 1024; ++i) {
+      buffer.add(i, i);
+    }
+    long grown = buffer.getFootprint();
+    buffer.trimBefore(1024);
+    assertEquals(1, buffer.size());
+    assertEquals(1024, buffer.localAt(0));
+    assertTrue(buffer.getFootprint() < grown);
+  }
+}
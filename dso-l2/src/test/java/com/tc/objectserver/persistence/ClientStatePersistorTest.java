@@ -0,0 +1,58 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import com.tc.net.ClientID;
+import com.tc.test.TCTestCase;
+import com.tc.util.ProductID;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+
+public class ClientStatePersistorTest extends TCTestCase {
+
+  public void testReloadAfterConnectsAndDisconnects() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    ClientStatePersistor persistor = new ClientStatePersistor(storage, 8, Runnable::run);
+    for (int i = 0; i < 20; ++i) {
+      persistor.saveClientState(new ClientID(i), (i % 2 == 0) ? ProductID.PERMANENT : ProductID.STRIPE);
+    }
+    for (int i = 0; i < 10; ++i) {
+      persistor.deleteClientState(new ClientID(i));
+    }
+
+    ClientStatePersistor reloaded = new ClientStatePersistor(storage, 8, Runnable::run);
+    assertEquals(10, reloaded.loadAllClientIDs().size());
+    assertFalse(reloaded.containsClient(new ClientID(9)));
+    assertTrue(reloaded.loadPermanentClientIDs().contains(new ClientID(10)));
+    assertTrue(reloaded.loadOrphanClientIDs().contains(new ClientID(11)));
+  }
+
+  public void testLoadLegacyMap() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    ConcurrentHashMap<ClientID, Boolean> legacy = new ConcurrentHashMap<>();
+    legacy.put(new ClientID(1), Boolean.TRUE);
+    storage.storeDataElement("clients_map.map", legacy);
+
+    ClientStatePersistor persistor = new ClientStatePersistor(storage);
+    assertTrue(persistor.loadPermanentClientIDs().contains(new ClientID(1)));
+    assertNull(storage.loadDataElement("clients_map.map"));
+    assertTrue(new ClientStatePersistor(storage).containsClient(new ClientID(1)));
+  }
+}
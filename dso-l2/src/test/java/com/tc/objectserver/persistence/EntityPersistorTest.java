@@ -23,6 +23,7 @@ import com.tc.object.EntityID;
 import com.tc.object.tx.TransactionID;
 import com.tc.test.TCTestCase;
 import java.util.Collections;
+import java.util.HashMap;
 
 import org.junit.Assert;
 import org.terracotta.exception.EntityException;
@@ -248,4 +249,74 @@ public class EntityPersistorTest extends TCTestCase {
       // expected
     }
   }    
+
+  /**
+   * Test that a new persistor over the same storage replays the log into the same view.
+   */
+  public void testReloadReplaysLog() throws Exception {
+    EntityID kept = new EntityID("class name", "kept");
+    EntityID destroyed = new EntityID("class name", "destroyed");
+    this.entityPersistor.entityCreated(this.client, 1L, 1L, kept, 1L, this.entityPersistor.getNextConsumerID(), true, new byte[0]);
+    this.entityPersistor.entityCreated(this.client, 2L, 1L, destroyed, 1L, this.entityPersistor.getNextConsumerID(), true, new byte[0]);
+    this.entityPersistor.entityReconfigureSucceeded(this.client, 3L, 1L, kept, 1L, new byte[3]);
+    this.entityPersistor.entityDestroyed(this.client, 4L, 1L, destroyed);
+    
+    EntityPersistor reloaded = new EntityPersistor(this.persistentStorage);
+    Assert.assertTrue(reloaded.containsEntity(kept));
+    Assert.assertFalse(reloaded.containsEntity(destroyed));
+    Assert.assertEquals(3, reloaded.loadEntityData().iterator().next().configuration.length);
+    Assert.assertTrue(reloaded.wasEntityCreatedInJournal(this.client, 1L));
+    Assert.assertTrue(reloaded.wasEntityDestroyedInJournal(this.client, 4L));
+    Assert.assertEquals(3L, reloaded.getNextConsumerID());
+  }
+
+  /**
+   * Test that compacting the log into a snapshot does not change what is reloaded.
+   */
+  public void testReloadAfterCompaction() throws Exception {
+    EntityPersistor compacting = new EntityPersistor(this.persistentStorage, 4, Runnable::run);
+    compacting.addTrackingForClient(this.client);
+    for (long i = 1; i <= 20; ++i) {
+      EntityID id = new EntityID("class name", "entity " + i);
+      compacting.entityCreated(this.client, i, i, id, 1L, compacting.getNextConsumerID(), true, new byte[0]);
+    }
+    HashMap<String, Object> state = new HashMap<>();
+    compacting.reportStateToMap(state);
+    Assert.assertTrue((Long) state.get("pendingLogRecords") < 4L);
+    
+    EntityPersistor reloaded = new EntityPersistor(this.persistentStorage, 4, Runnable::run);
+    Assert.assertEquals(20, reloaded.loadEntityData().size());
+    Assert.assertTrue(reloaded.wasEntityCreatedInJournal(this.client, 20L));
+    // Older entries were filtered out by the oldest transaction of each create.
+    Assert.assertFalse(reloaded.wasEntityCreatedInJournal(this.client, 19L));
+    Assert.assertEquals(21L, reloaded.getNextConsumerID());
+    
+    reloaded.clear();
+    Assert.assertEquals(0, new EntityPersistor(this.persistentStorage).loadEntityData().size());
+  }
+
+  /**
+   * Test that the whole maps stored by older versions are still loaded.
+   */
+  public void testLoadLegacyMaps() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    HashMap<EntityData.Key, EntityData.Value> entities = new HashMap<>();
+    EntityData.Key key = new EntityData.Key();
+    key.className = "class name";
+    key.entityName = "legacy";
+    EntityData.Value value = new EntityData.Value();
+    value.className = key.className;
+    value.entityName = key.entityName;
+    value.version = 1L;
+    value.canDelete = true;
+    value.configuration = new byte[0];
+    entities.put(key, value);
+    storage.storeDataElement("entities_alive.map", entities);
+    
+    EntityPersistor legacy = new EntityPersistor(storage);
+    Assert.assertTrue(legacy.containsEntity(new EntityID("class name", "legacy")));
+    // The legacy maps are migrated into a snapshot.
+    Assert.assertNull(storage.loadDataElement("entities_alive.map"));
+    Assert.assertTrue(new EntityPersistor(storage).containsEntity(new EntityID("class name", "legacy")));
+  }
 }
@@ -0,0 +1,201 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import com.tc.test.TCTestCase;
+import org.terracotta.persistence.IPlatformPersistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+public class MappedPlatformPersistentStorageTest extends TCTestCase {
+
+  private static final int SEGMENT_SIZE = 4096;
+
+  public void testReloadRestoresState() throws Exception {
+    File dir = new File(getTempDirectory(), "reload");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    HashMap<String, Long> map = new HashMap<>();
+    map.put("a", 1L);
+    storage.storeDataElement("map", map);
+    storage.storeDataElement("gone", "soon");
+    storage.storeDataElement("gone", null);
+    for (long i = 0; i < 10; ++i) {
+      storage.fastStoreSequence(1, tuple(i, i + 100), i - 2).get();
+    }
+    storage.fastStoreSequence(2, tuple(0, 0), 0).get();
+    storage.deleteSequence(2);
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals(map, storage.loadDataElement("map"));
+    assertNull(storage.loadDataElement("gone"));
+    List<IPlatformPersistence.SequenceTuple> sequence = storage.loadSequence(1);
+    assertEquals(3, sequence.size());
+    assertEquals(7, sequence.get(0).localSequenceID);
+    assertEquals(109, sequence.get(2).globalSequenceID);
+    assertNull(storage.loadSequence(2));
+    storage.close();
+  }
+
+  public void testBatchReloads() throws Exception {
+    File dir = new File(getTempDirectory(), "batch");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    List<SequenceBatchPersistence.SequenceUpdate> batch = new ArrayList<>();
+    for (long i = 0; i < 10; ++i) {
+      batch.add(new SequenceBatchPersistence.SequenceUpdate(1, tuple(i, i + 100), i - 2));
+    }
+    batch.add(new SequenceBatchPersistence.SequenceUpdate(2, tuple(0, 0), 0));
+    storage.fastStoreSequences(batch).get();
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    List<IPlatformPersistence.SequenceTuple> sequence = storage.loadSequence(1);
+    assertEquals(3, sequence.size());
+    assertEquals(7, sequence.get(0).localSequenceID);
+    assertEquals(1, storage.loadSequence(2).size());
+    storage.close();
+  }
+
+  public void testTornRecordIsDiscarded() throws Exception {
+    File dir = new File(getTempDirectory(), "torn");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    storage.storeDataElement("first", "one");
+    storage.storeDataElement("second", "two");
+    storage.close();
+
+    // corrupt the last byte written, as a crash in the middle of the second record would
+    File[] segments = dir.listFiles();
+    assertEquals(1, segments.length);
+    try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+      long last = raf.length() - 1;
+      while (last >= 0) {
+        raf.seek(last);
+        if (raf.read() != 0) {
+          break;
+        }
+        last -= 1;
+      }
+      raf.seek(last);
+      raf.write(0);
+    }
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals("one", storage.loadDataElement("first"));
+    assertNull(storage.loadDataElement("second"));
+    // the log continues cleanly after the discarded record
+    storage.storeDataElement("third", "three");
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals("one", storage.loadDataElement("first"));
+    assertEquals("three", storage.loadDataElement("third"));
+    storage.close();
+  }
+
+  public void testCompactionBoundsLog() throws Exception {
+    File dir = new File(getTempDirectory(), "compaction");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    for (int i = 0; i < 2000; ++i) {
+      storage.storeDataElement("counter", i);
+      storage.fastStoreSequence(1, tuple(i, i), i);
+    }
+    storage.fastStoreSequence(1, tuple(2000, 2000), 1999).get();
+    storage.close();
+    // compaction runs in the background, so a few segments may be appended while a checkpoint is written
+    assertTrue(dir.listFiles().length <= 8);
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals(1999, storage.loadDataElement("counter"));
+    List<IPlatformPersistence.SequenceTuple> sequence = storage.loadSequence(1);
+    assertEquals(2, sequence.size());
+    assertEquals(1999, sequence.get(0).localSequenceID);
+    assertEquals(2000, sequence.get(1).localSequenceID);
+    storage.close();
+  }
+
+  public void testCompactionSurvivesReopen() throws Exception {
+    File dir = new File(getTempDirectory(), "reopen-compacted");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    for (int i = 0; i < 500; ++i) {
+      storage.storeDataElement("counter", i);
+    }
+    storage.storeDataElement("kept", "value");
+    storage.close();
+    assertEquals(1, dir.list((d, name) -> name.startsWith("checkpoint-")).length);
+    // a checkpoint left half written by a crash is ignored
+    assertTrue(new File(dir, "checkpoint-0000000000000999999.tmp").createNewFile());
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals(499, storage.loadDataElement("counter"));
+    assertEquals("value", storage.loadDataElement("kept"));
+    storage.storeDataElement("counter", 500);
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertEquals(500, storage.loadDataElement("counter"));
+    assertEquals("value", storage.loadDataElement("kept"));
+    storage.close();
+  }
+
+  public void testLargeElementGetsItsOwnSegment() throws Exception {
+    File dir = new File(getTempDirectory(), "large");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    byte[] large = new byte[SEGMENT_SIZE * 3];
+    large[large.length - 1] = 1;
+    storage.storeDataElement("large", large);
+    storage.storeDataElement("small", "small");
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    byte[] loaded = (byte[]) storage.loadDataElement("large");
+    assertEquals(large.length, loaded.length);
+    assertEquals(1, loaded[loaded.length - 1]);
+    assertEquals("small", storage.loadDataElement("small"));
+    storage.close();
+  }
+
+  public void testClearRemovesEverything() throws Exception {
+    File dir = new File(getTempDirectory(), "clear");
+    MappedPlatformPersistentStorage storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    storage.storeDataElement("key", "value");
+    storage.fastStoreSequence(1, tuple(1, 1), 0).get();
+    storage.clear();
+    storage.storeDataElement("after", "clear");
+    storage.close();
+
+    storage = new MappedPlatformPersistentStorage(dir, SEGMENT_SIZE);
+    assertNull(storage.loadDataElement("key"));
+    assertNull(storage.loadSequence(1));
+    assertEquals("clear", storage.loadDataElement("after"));
+    storage.close();
+  }
+
+  private static IPlatformPersistence.SequenceTuple tuple(long local, long global) {
+    IPlatformPersistence.SequenceTuple tuple = new IPlatformPersistence.SequenceTuple();
+    tuple.localSequenceID = local;
+    tuple.globalSequenceID = global;
+    return tuple;
+  }
+}
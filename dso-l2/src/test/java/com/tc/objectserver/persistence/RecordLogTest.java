@@ -0,0 +1,105 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import com.tc.test.TCTestCase;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+
+public class RecordLogTest extends TCTestCase {
+
+  public void testReplayWithoutCheckpoint() throws IOException {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    RecordLog<Long> log = new RecordLog<>(storage, "test", Integer.MAX_VALUE, Runnable::run);
+    log.load(s -> assertNull(s), r -> fail());
+    for (long i = 0; i < 5; ++i) {
+      log.append(i, () -> null);
+    }
+    assertEquals(5, log.getPendingRecordCount());
+
+    List<Long> replayed = new ArrayList<>();
+    new RecordLog<Long>(storage, "test", Integer.MAX_VALUE, Runnable::run).load(s -> assertNull(s), replayed::add);
+    assertEquals(5, replayed.size());
+    assertEquals(Long.valueOf(4), replayed.get(4));
+  }
+
+  public void testCheckpointCoversRecords() throws IOException {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    RecordLog<Long> log = new RecordLog<>(storage, "test", Integer.MAX_VALUE, Runnable::run);
+    log.load(s -> {}, r -> {});
+    for (long i = 0; i < 5; ++i) {
+      log.append(i, () -> null);
+    }
+    log.checkpoint("five", log.mark());
+    log.append(5L, () -> null);
+    assertEquals(1, log.getPendingRecordCount());
+    // an older checkpoint must not replace the newer one
+    log.checkpoint("three", 3);
+
+    List<Serializable> restored = new ArrayList<>();
+    List<Long> replayed = new ArrayList<>();
+    new RecordLog<Long>(storage, "test", Integer.MAX_VALUE, Runnable::run).load(restored::add, replayed::add);
+    assertEquals("five", restored.get(0));
+    assertEquals(1, replayed.size());
+    assertEquals(Long.valueOf(5), replayed.get(0));
+    assertNull(storage.loadDataElement("test.record.0"));
+  }
+
+  public void testResetDiscardsRecords() throws IOException {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    RecordLog<Long> log = new RecordLog<>(storage, "test", Integer.MAX_VALUE, Runnable::run);
+    log.load(s -> {}, r -> {});
+    log.append(1L, () -> null);
+    long mark = log.mark();
+    log.reset("empty");
+    // a checkpoint taken before the reset is stale
+    log.checkpoint("stale", mark);
+    log.append(2L, () -> null);
+
+    List<Serializable> restored = new ArrayList<>();
+    List<Long> replayed = new ArrayList<>();
+    new RecordLog<Long>(storage, "test", Integer.MAX_VALUE, Runnable::run).load(restored::add, replayed::add);
+    assertEquals("empty", restored.get(0));
+    assertEquals(1, replayed.size());
+    assertEquals(Long.valueOf(2), replayed.get(0));
+  }
+
+  public void testCompactsOnThreshold() throws IOException {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    RecordLog<Long> log = new RecordLog<>(storage, "test", 3, Runnable::run);
+    log.load(s -> {}, r -> {});
+    List<Long> state = new ArrayList<>();
+    for (long i = 0; i < 7; ++i) {
+      state.add(i);
+      log.append(i, () -> new ArrayList<>(state));
+    }
+    assertEquals(1, log.getPendingRecordCount());
+
+    List<Serializable> restored = new ArrayList<>();
+    List<Long> replayed = new ArrayList<>();
+    new RecordLog<Long>(storage, "test", 3, Runnable::run).load(restored::add, replayed::add);
+    assertEquals(6, ((List<?>) restored.get(0)).size());
+    assertEquals(1, replayed.size());
+    assertEquals(Long.valueOf(6), replayed.get(0));
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.objectserver.persistence;
+
+import com.tc.net.ClientID;
+import com.tc.object.tx.TransactionID;
+import com.tc.test.TCTestCase;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.terracotta.persistence.IPlatformPersistence;
+
+
+public class SequenceGroupCommitterTest extends TCTestCase {
+
+  public void testBatchSharesFutureAndFlushesOnSize() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    // a long interval so only the size threshold triggers a flush
+    SequenceGroupCommitter committer = new SequenceGroupCommitter(storage, 4, 1, TimeUnit.HOURS);
+    Future<Void> first = committer.store(1L, tuple(1, 1), 1);
+    Future<Void> second = committer.store(2L, tuple(1, 2), 1);
+    assertSame(first, second);
+    assertNull(storage.loadSequence(1L));
+
+    committer.store(1L, tuple(2, 3), 1);
+    Future<Void> last = committer.store(2L, tuple(2, 4), 1);
+    last.get(10, TimeUnit.SECONDS);
+    assertTrue(first.isDone());
+    assertEquals(2, storage.loadSequence(1L).size());
+    assertEquals(2, storage.loadSequence(2L).size());
+
+    // the next update starts a new batch
+    Future<Void> next = committer.store(1L, tuple(3, 5), 3);
+    assertNotSame(first, next);
+    committer.shutdown();
+    next.get(10, TimeUnit.SECONDS);
+    assertEquals(1, storage.loadSequence(1L).size());
+
+    Map<String, Object> stats = committer.reportStateToMap(new LinkedHashMap<>());
+    assertEquals(2L, stats.get("batches"));
+    assertEquals(4L, stats.get("maxBatch"));
+  }
+
+  public void testFlushesOnInterval() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    SequenceGroupCommitter committer = new SequenceGroupCommitter(storage, 1000, 1, TimeUnit.MILLISECONDS);
+    committer.store(1L, tuple(1, 1), 1).get(10, TimeUnit.SECONDS);
+    assertEquals(1, storage.loadSequence(1L).size());
+    committer.shutdown();
+  }
+
+  public void testBatchIsOneProviderWrite() throws Exception {
+    AtomicInteger batchWrites = new AtomicInteger();
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage() {
+      @Override
+      public synchronized Future<Void> fastStoreSequences(List<SequenceUpdate> updates) {
+        batchWrites.incrementAndGet();
+        return super.fastStoreSequences(updates);
+      }
+    };
+    SequenceGroupCommitter committer = new SequenceGroupCommitter(storage, 3, 1, TimeUnit.HOURS);
+    committer.store(1L, tuple(1, 1), 1);
+    committer.store(2L, tuple(1, 2), 1);
+    committer.store(1L, tuple(2, 3), 1).get(10, TimeUnit.SECONDS);
+    assertEquals(1, batchWrites.get());
+    assertEquals(2, storage.loadSequence(1L).size());
+    assertEquals(1, storage.loadSequence(2L).size());
+    committer.shutdown();
+  }
+
+  public void testPersistorFlushesBeforeReading() throws Exception {
+    NullPlatformPersistentStorage storage = new NullPlatformPersistentStorage();
+    SequenceGroupCommitter committer = new SequenceGroupCommitter(storage, 1000, 1, TimeUnit.HOURS);
+    ClientID client = new ClientID(1);
+    TransactionOrderPersistor persistor = new TransactionOrderPersistor(storage, Collections.singleton(client), committer);
+    for (int i = 1; i < 10; ++i) {
+      persistor.updateWithNewMessage(client, new TransactionID(i), new TransactionID(1));
+    }
+    // nothing has reached the provider yet but the replay index must still see every update
+    assertEquals(8, persistor.getIndexToReplay(client, new TransactionID(9)));
+    persistor.close();
+  }
+
+  private static IPlatformPersistence.SequenceTuple tuple(long local, long global) {
+    IPlatformPersistence.SequenceTuple tuple = new IPlatformPersistence.SequenceTuple();
+    tuple.localSequenceID = local;
+    tuple.globalSequenceID = global;
+    return tuple;
+  }
+}
@@ -338,6 +338,26 @@ public class TransactionOrderPersistorTest extends TCTestCase {
     }
   }
 
+  public void testReconnectEnabledClientInterleavedGlobally() {
+    ClientID client3 = new ClientID(3);
+    this.orderPersistor.addTrackingForClient(client3, ProductID.STRIPE);
+    TransactionID oldest = new TransactionID(1L);
+
+    for (int i = 1; i < 10; ++i) {
+      TransactionID transaction = new TransactionID(i);
+      this.orderPersistor.updateWithNewMessage(this.client1, transaction, oldest);
+      this.orderPersistor.updateWithNewMessage(client3, transaction, oldest);
+    }
+    for (int i = 1; i < 10; ++i) {
+      TransactionID transaction = new TransactionID(i);
+      assertEquals((i - 1) * 2 + 1, this.orderPersistor.getIndexToReplay(client3, transaction));
+    }
+    assertTrue(this.orderPersistor.getSequenceFootprint(client3) > 0);
+    assertEquals(0L, this.orderPersistor.getSequenceFootprint(this.client1));
+    this.orderPersistor.removeTrackingForClient(client3);
+    assertEquals(0L, this.orderPersistor.getSequenceFootprint(client3));
+  }
+
   public void testSaveReloadMultipleThreads() throws IOException, InterruptedException {
     TransactionID oldest = new TransactionID(1L);
 
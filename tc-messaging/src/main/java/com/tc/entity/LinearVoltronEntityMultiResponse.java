@@ -41,6 +41,7 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
   
   private final byte OP_ID = 1;
   private final byte DONE_ID = 2;
+  private final byte CREDIT_ID = 3;
   
   public enum Operation {
     RECEIVED,
@@ -75,6 +76,8 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
   private List<Op> timeline = new LinkedList<>();
 
   private boolean stopAdding;
+  private final long created = System.nanoTime();
+  private volatile int credit = -1;
   
   private static class Op {
     private final Operation type;
@@ -203,6 +206,26 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
     stopAdding = true;
     timeline = Collections.unmodifiableList(timeline);
   }
+
+  @Override
+  public synchronized int getOperationCount() {
+    return timeline.size();
+  }
+
+  @Override
+  public long getCreationTime() {
+    return created;
+  }
+  
+  @Override
+  public void setCredit(int credit) {
+    this.credit = credit;
+  }
+
+  @Override
+  public int getCredit() {
+    return credit;
+  }
   
   @Override
   protected boolean hydrateValue(byte name) throws IOException {
@@ -220,6 +243,9 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
     } else if (name == DONE_ID) {
       Assert.assertEquals(getIntValue(), timeline.size());
       return true;
+    } else if (name == CREDIT_ID) {
+      credit = getIntValue();
+      return true;
     }
     return false;
   }
@@ -236,6 +262,9 @@ public class LinearVoltronEntityMultiResponse extends DSOMessageBase implements
       }
       count++;
     }
+    if (credit >= 0) {
+      putNVPair(CREDIT_ID, credit);
+    }
     putNVPair(DONE_ID,count);
   }
 }
@@ -42,4 +42,10 @@ public interface NetworkVoltronEntityMessage extends VoltronEntityMessage, TCMes
   public void setContents(ClientID clientID, TransactionID transactionID, EntityID eid, EntityDescriptor entityDescriptor, Type type, boolean requiresReplication, byte[] extendedData, TransactionID oldestTransactionPending, Set<VoltronEntityMessage.Acks> acks);
 
   public void setMessageCodecSupplier(MessageCodecSupplier supplier);
+
+  /**
+   * Sets the {@link System#nanoTime()} after which the sender stops waiting for the result.  The time left until then
+   * is carried to the server when the message is sent, so the server can skip the request once nobody waits for it.
+   */
+  public void setDeadline(long deadline);
 }
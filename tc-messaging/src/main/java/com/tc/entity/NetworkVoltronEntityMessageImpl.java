@@ -44,6 +44,10 @@ import org.terracotta.entity.MessageCodecException;
 
 
 public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements NetworkVoltronEntityMessage {
+  // optional, follows the contents when the sender set a deadline, which a client only does for a server which
+  // advertised it in the handshake since older servers reject the pair
+  private static final byte TIMEOUT_ID = 1;
+
   private ClientID clientID;
   private TransactionID transactionID;
   private EntityID eid;  // only used locally for exception handling on invokes DO NOT PUT OVER THE NETWORK
@@ -55,6 +59,7 @@ public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements N
   private MessageCodecSupplier supplier;
   private EntityMessage message;
   private Set<VoltronEntityMessage.Acks> requestedAcks;
+  private long deadline;
 
   @Override
   public ClientID getSource() {
@@ -109,6 +114,30 @@ public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements N
   public Set<Acks> getRequestedAcks() {
     return requestedAcks;
   }
+
+  @Override
+  public long getDeadline() {
+    return this.deadline;
+  }
+
+  @Override
+  public void setDeadline(long deadline) {
+    this.deadline = deadline;
+  }
+
+  /**
+   * @return the time left until the local deadline in nanoseconds, at least 1, or 0 for no deadline
+   */
+  static long toTimeout(long deadline) {
+    return (deadline == 0) ? 0 : Math.max(1, deadline - System.nanoTime());
+  }
+
+  /**
+   * @return the local deadline for a timeout received from the sender, or 0 for no deadline
+   */
+  static long toDeadline(long timeout) {
+    return (timeout <= 0) ? 0 : System.nanoTime() + timeout;
+  }
   
   @Override
   public void setContents(ClientID clientID, TransactionID transactionID, EntityID eid, EntityDescriptor entityDescriptor, 
@@ -178,10 +207,18 @@ public class NetworkVoltronEntityMessageImpl extends DSOMessageBase implements N
     for (VoltronEntityMessage.Acks ack : this.requestedAcks) {
       outputStream.writeByte(ack.ordinal());
     }
+
+    if (this.deadline != 0) {
+      putNVPair(TIMEOUT_ID, toTimeout(this.deadline));
+    }
   }
   
   @Override
   protected boolean hydrateValue(byte name) throws IOException {
+    if (TIMEOUT_ID == name) {
+      this.deadline = toDeadline(getLongValue());
+      return true;
+    }
     Assert.assertTrue(0 == name);
     Assert.assertTrue(null == this.clientID);
     // Read our dummy byte.
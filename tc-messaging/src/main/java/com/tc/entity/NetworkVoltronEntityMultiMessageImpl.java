@@ -0,0 +1,235 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+
+package com.tc.entity;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.io.TCByteBufferInputStream;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.net.ClientID;
+import com.tc.net.protocol.tcm.MessageChannel;
+import com.tc.net.protocol.tcm.MessageMonitor;
+import com.tc.net.protocol.tcm.TCMessageHeader;
+import com.tc.net.protocol.tcm.TCMessageType;
+import com.tc.object.EntityDescriptor;
+import com.tc.object.msg.DSOMessageBase;
+import com.tc.object.session.SessionID;
+import com.tc.object.tx.TransactionID;
+import com.tc.util.Assert;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.terracotta.entity.EntityMessage;
+import org.terracotta.entity.EntityResponse;
+import org.terracotta.entity.MessageCodec;
+import org.terracotta.entity.MessageCodecException;
+
+
+public class NetworkVoltronEntityMultiMessageImpl extends DSOMessageBase implements VoltronEntityMultiMessage {
+  private final List<VoltronEntityMessage> messages = new ArrayList<>();
+  private MessageCodecSupplier supplier;
+
+  public NetworkVoltronEntityMultiMessageImpl(SessionID sessionID, MessageMonitor monitor, TCByteBufferOutputStream out, MessageChannel channel, TCMessageType type) {
+    super(sessionID, monitor, out, channel, type);
+  }
+
+  public NetworkVoltronEntityMultiMessageImpl(SessionID sessionID, MessageMonitor monitor, MessageChannel channel, TCMessageHeader header, TCByteBuffer[] data) {
+    super(sessionID, monitor, channel, header, data);
+  }
+
+  @Override
+  public void addMessage(NetworkVoltronEntityMessage message) {
+    if (!this.messages.isEmpty()) {
+      // the client is only written once for the whole frame
+      Assert.assertEquals(this.messages.get(0).getSource(), message.getSource());
+    }
+    this.messages.add(message);
+  }
+
+  @Override
+  public int getMessageCount() {
+    return this.messages.size();
+  }
+
+  @Override
+  public List<VoltronEntityMessage> getMessages() {
+    return Collections.unmodifiableList(this.messages);
+  }
+
+  @Override
+  public void setMessageCodecSupplier(MessageCodecSupplier supplier) {
+    this.supplier = supplier;
+  }
+
+  @Override
+  protected void dehydrateValues() {
+    Assert.assertFalse(this.messages.isEmpty());
+    TCByteBufferOutputStream outputStream = getOutputStream();
+    // same layout as NetworkVoltronEntityMessageImpl, without the NVpair stuff, repeated for each message
+    putNVPair((byte)0, (byte)0);
+
+    this.messages.get(0).getSource().serializeTo(outputStream);
+    outputStream.writeInt(this.messages.size());
+    for (VoltronEntityMessage message : this.messages) {
+      outputStream.writeLong(message.getTransactionID().toLong());
+      message.getEntityDescriptor().serializeTo(outputStream);
+      outputStream.writeInt(message.getVoltronType().ordinal());
+      byte[] extendedData = message.getExtendedData();
+      outputStream.writeInt(extendedData.length);
+      outputStream.write(extendedData);
+      outputStream.writeBoolean(message.doesRequireReplication());
+      outputStream.writeLong(message.getOldestTransactionOnClient().toLong());
+      Set<VoltronEntityMessage.Acks> acks = ((NetworkVoltronEntityMessage)message).getRequestedAcks();
+      outputStream.writeByte(acks.size());
+      for (VoltronEntityMessage.Acks ack : acks) {
+        outputStream.writeByte(ack.ordinal());
+      }
+      outputStream.writeLong(NetworkVoltronEntityMessageImpl.toTimeout(message.getDeadline()));
+    }
+  }
+
+  @Override
+  protected boolean hydrateValue(byte name) throws IOException {
+    Assert.assertTrue(0 == name);
+    Assert.assertTrue(this.messages.isEmpty());
+    // Read our dummy byte.
+    getByteValue();
+
+    TCByteBufferInputStream in = getInputStream();
+    ClientID clientID = ClientID.readFrom(in);
+    int count = getIntValue();
+    for (int x = 0; x < count; x++) {
+      TransactionID transactionID = new TransactionID(getLongValue());
+      EntityDescriptor descriptor = EntityDescriptor.readFrom(in);
+      VoltronEntityMessage.Type type = VoltronEntityMessage.Type.values()[getIntValue()];
+      byte[] extendedData = getBytesArray();
+      boolean requiresReplication = getBooleanValue();
+      TransactionID oldest = new TransactionID(getLongValue());
+      int ac = getByteValue();
+      Set<VoltronEntityMessage.Acks> acks = EnumSet.noneOf(VoltronEntityMessage.Acks.class);
+      for (int y = 0; y < ac; y++) {
+        acks.add(VoltronEntityMessage.Acks.values()[getByteValue()]);
+      }
+      long deadline = NetworkVoltronEntityMessageImpl.toDeadline(getLongValue());
+      this.messages.add(new BatchedMessage(clientID, transactionID, descriptor, type, extendedData, requiresReplication, oldest, acks, deadline, decode(descriptor, type, extendedData)));
+    }
+    return true;
+  }
+
+  private EntityMessage decode(EntityDescriptor descriptor, VoltronEntityMessage.Type type, byte[] extendedData) {
+    try {
+      if (type == VoltronEntityMessage.Type.INVOKE_ACTION && this.supplier != null) {
+        MessageCodec<? extends EntityMessage, ? extends EntityResponse> codec = this.supplier.getMessageCodec(descriptor);
+        return codec.decodeMessage(extendedData);
+      }
+    } catch (MessageCodecException exception) {
+/*  swallow it - as in NetworkVoltronEntityMessageImpl, a later stage decodes the message 
+    again and handles the failure there.
+      */
+    }
+    return null;
+  }
+
+  private static class BatchedMessage implements VoltronEntityMessage {
+    private final ClientID clientID;
+    private final TransactionID transactionID;
+    private final EntityDescriptor entityDescriptor;
+    private final Type type;
+    private final byte[] extendedData;
+    private final boolean requiresReplication;
+    private final TransactionID oldestTransactionPending;
+    private final Set<Acks> requestedAcks;
+    private final long deadline;
+    private final EntityMessage message;
+
+    BatchedMessage(ClientID clientID, TransactionID transactionID, EntityDescriptor entityDescriptor, Type type, byte[] extendedData,
+        boolean requiresReplication, TransactionID oldestTransactionPending, Set<Acks> requestedAcks, long deadline, EntityMessage message) {
+      this.clientID = clientID;
+      this.transactionID = transactionID;
+      this.entityDescriptor = entityDescriptor;
+      this.type = type;
+      this.extendedData = extendedData;
+      this.requiresReplication = requiresReplication;
+      this.oldestTransactionPending = oldestTransactionPending;
+      this.requestedAcks = requestedAcks;
+      this.deadline = deadline;
+      this.message = message;
+    }
+
+    @Override
+    public ClientID getSource() {
+      return this.clientID;
+    }
+
+    @Override
+    public TransactionID getTransactionID() {
+      return this.transactionID;
+    }
+
+    @Override
+    public EntityDescriptor getEntityDescriptor() {
+      return this.entityDescriptor;
+    }
+
+    @Override
+    public boolean doesRequireReplication() {
+      return this.requiresReplication;
+    }
+
+    @Override
+    public boolean doesRequestReceived() {
+      return this.requestedAcks.contains(Acks.RECEIVED);
+    }
+
+    @Override
+    public Type getVoltronType() {
+      return this.type;
+    }
+
+    @Override
+    public byte[] getExtendedData() {
+      return this.extendedData;
+    }
+
+    @Override
+    public TransactionID getOldestTransactionOnClient() {
+      return this.oldestTransactionPending;
+    }
+
+    @Override
+    public long getDeadline() {
+      return this.deadline;
+    }
+
+    @Override
+    public EntityMessage getEntityMessage() {
+      return this.message;
+    }
+
+    @Override
+    public String toString() {
+      return "BatchedMessage{" + "clientID=" + clientID + ", transactionID=" + transactionID + ", type=" + type + '}';
+    }
+  }
+}
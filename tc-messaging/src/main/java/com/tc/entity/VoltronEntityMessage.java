@@ -113,6 +113,14 @@ public interface VoltronEntityMessage {
    * re-send order in the case of a restart or fail-over.
    */
   TransactionID getOldestTransactionOnClient();
+
+  /**
+   * @return the {@link System#nanoTime()} on this node after which the sender no longer waits for the result, 0 if
+   * the sender waits indefinitely
+   */
+  default long getDeadline() {
+    return 0;
+  }
   
   /**
    * Provided for the cases where an entity message instance already exists.  Note that getExtendedData is expected to
@@ -0,0 +1,44 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+
+package com.tc.entity;
+
+import com.tc.net.protocol.tcm.TCMessage;
+import java.util.List;
+
+
+/**
+ * Several invokes from one client, sent in a single frame.  Once hydrated on the server, each one is handled exactly as
+ * if it had arrived in its own {@link NetworkVoltronEntityMessage}.
+ */
+public interface VoltronEntityMultiMessage extends TCMessage {
+  /**
+   * Adds a message which has been populated but not sent.
+   */
+  void addMessage(NetworkVoltronEntityMessage message);
+
+  int getMessageCount();
+
+  /**
+   * @return the messages in the order they were added, only valid once hydrated
+   */
+  List<VoltronEntityMessage> getMessages();
+
+  void setMessageCodecSupplier(MessageCodecSupplier supplier);
+}
@@ -49,4 +49,22 @@ public interface VoltronEntityMultiResponse extends TCMessage {
   boolean addServerMessage(ClientInstanceID cid, byte[] message);
   boolean addServerMessage(TransactionID cid, byte[] message);
   void stopAdding();
+  /**
+   * @return the number of operations added to this response so far
+   */
+  int getOperationCount();
+  /**
+   * @return the {@link System#nanoTime()} at which this response was created
+   */
+  long getCreationTime();
+  /**
+   * Grants the client a window of requests it may have in flight.
+   * 
+   * @param credit the window or a negative value for no grant
+   */
+  void setCredit(int credit);
+  /**
+   * @return the window granted with this response or a negative value if there was no grant
+   */
+  int getCredit();
 }
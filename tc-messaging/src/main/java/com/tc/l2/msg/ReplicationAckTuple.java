@@ -24,6 +24,9 @@ package com.tc.l2.msg;
  * The respondTo is the message to which we are responding.  The result determines if this is a RECEIVED, SUCCESS, or FAIL.
  */
 public class ReplicationAckTuple {
+  // The activity ID and the result code.
+  public static final int SERIALIZED_SIZE = Long.BYTES + Integer.BYTES;
+
   public final SyncReplicationActivity.ActivityID respondTo;
   public final ReplicationResultCode result;
   
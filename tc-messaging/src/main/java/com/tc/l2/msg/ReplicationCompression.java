@@ -0,0 +1,136 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.l2.msg;
+
+import com.tc.text.PrettyPrintable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates large replicated payloads on the active so that they can go to the passives which accepted compression in
+ * the group handshake in fewer bytes.  The compression ratio and CPU time spent are recorded by entity type.
+ */
+public class ReplicationCompression implements PrettyPrintable {
+  // Compressed payloads which don't save at least this fraction of the original are sent as they are.
+  private static final double MINIMUM_SAVING = 0.1;
+
+  private final int threshold;
+  private final int level;
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+  private final ThreadLocal<Deflater> deflaters;
+
+  public ReplicationCompression(int threshold, int level) {
+    this.threshold = threshold;
+    this.level = level;
+    this.deflaters = ThreadLocal.withInitial(()->new Deflater(level));
+  }
+
+  /**
+   * @return the deflated payload, or null if it is under the threshold or didn't compress well enough to be worth it
+   */
+  public byte[] compress(String entityType, byte[] payload) {
+    if (payload == null || payload.length < threshold) {
+      return null;
+    }
+    long start = System.nanoTime();
+    Deflater deflater = this.deflaters.get();
+    deflater.reset();
+    deflater.setInput(payload);
+    deflater.finish();
+    int limit = (int) (payload.length * (1 - MINIMUM_SAVING));
+    byte[] buffer = new byte[limit + 1];
+    int length = 0;
+    while (!deflater.finished() && length < buffer.length) {
+      length += deflater.deflate(buffer, length, buffer.length - length);
+    }
+    boolean worthIt = deflater.finished() && length <= limit;
+    this.stats.computeIfAbsent(entityType, t->new Stats()).record(payload.length, worthIt ? length : payload.length, System.nanoTime() - start);
+    return worthIt ? Arrays.copyOf(buffer, length) : null;
+  }
+
+  public static byte[] decompress(byte[] deflated, int length) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(deflated);
+      byte[] payload = new byte[length];
+      int read = 0;
+      while (read < length && !inflater.finished()) {
+        int count = inflater.inflate(payload, read, length - read);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += count;
+      }
+      if (read != length) {
+        throw new IOException("deflated payload inflated to " + read + " bytes rather than " + length);
+      }
+      return payload;
+    } catch (DataFormatException format) {
+      throw new IOException(format);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public Map<String, ?> getStateMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("className", this.getClass().getName());
+    map.put("threshold", this.threshold);
+    map.put("level", this.level);
+    Map<String, Object> types = new LinkedHashMap<>();
+    map.put("entityTypes", types);
+    this.stats.forEach((type, s)->types.put(type, s.getStateMap()));
+    return map;
+  }
+
+  private static class Stats {
+    private final LongAdder payloads = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+
+    void record(int raw, int sent, long elapsed) {
+      this.payloads.increment();
+      this.rawBytes.add(raw);
+      this.sentBytes.add(sent);
+      this.nanos.add(elapsed);
+    }
+
+    Map<String, Object> getStateMap() {
+      Map<String, Object> map = new LinkedHashMap<>();
+      long raw = this.rawBytes.sum();
+      long sent = this.sentBytes.sum();
+      map.put("payloads", this.payloads.sum());
+      map.put("rawBytes", raw);
+      map.put("compressedBytes", sent);
+      map.put("ratio", (sent == 0) ? 1.0 : (double) raw / sent);
+      map.put("cpuMicros", TimeUnit.NANOSECONDS.toMicros(this.nanos.sum()));
+      return map;
+    }
+  }
+}
@@ -54,6 +54,8 @@ public class ReplicationMessage extends AbstractGroupMessage implements OrderedE
   // (Note that this check can be removed in the future - it is mostly to validate during refactoring and buffering
   //  implementation).
   private boolean didCreateLocally;
+  // Set on outgoing messages to a passive which accepted compression in the group handshake.
+  private boolean compressPayloads;
   
   public ReplicationMessage() {
     super(IGNORED);
@@ -73,6 +75,10 @@ public class ReplicationMessage extends AbstractGroupMessage implements OrderedE
     this.didCreateLocally = true;
   }
   
+  public void setCompressPayloads(boolean compress) {
+    this.compressPayloads = compress;
+  }
+
   @Override
   public void setSequenceID(long rid) {
     this.rid = rid;
@@ -132,7 +138,7 @@ public class ReplicationMessage extends AbstractGroupMessage implements OrderedE
         Assert.assertTrue(batchSize > 0);
         out.writeInt(batchSize);
         for (SyncReplicationActivity activity : this.activities) {
-          activity.serializeTo(out);
+          activity.serializeTo(out, this.compressPayloads);
         }
         break;
     }
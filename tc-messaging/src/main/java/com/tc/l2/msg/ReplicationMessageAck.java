@@ -33,6 +33,7 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
   public static final int INVALID               = 0; // Sent to replicate a request on the passive
   public static final int START_SYNC                = 4; // Sent from the passive when it wants the active to start passive sync.
   public static final int BATCH                = 5; // Sent from the passive to ack a batch of messages.
+  public static final int RESUME_SYNC                = 6; // Sent from a rejoining passive standby with the last activity it received.
 
   // Factory methods.
   public static ReplicationMessageAck createSyncRequestMessage() {
@@ -43,8 +44,15 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
     return new ReplicationMessageAck(BATCH);
   }
 
+  public static ReplicationMessageAck createResumeRequestMessage(SyncReplicationActivity.ActivityID lastReceived) {
+    ReplicationMessageAck message = new ReplicationMessageAck(RESUME_SYNC);
+    message.lastReceived = lastReceived;
+    return message;
+  }
+
 
   private List<ReplicationAckTuple> batch;
+  private SyncReplicationActivity.ActivityID lastReceived;
 
   public ReplicationMessageAck() {
     super(INVALID);
@@ -74,6 +82,11 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
   public List<ReplicationAckTuple> getBatch() {
     return this.batch;
   }
+
+  public SyncReplicationActivity.ActivityID getLastReceived() {
+    Assert.assertTrue(RESUME_SYNC == this.getType());
+    return this.lastReceived;
+  }
   
   @Override
   public void setSequenceID(long rid) {
@@ -92,6 +105,8 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
         ReplicationResultCode result = ReplicationResultCode.decode(in.readInt());
         this.batch.add(new ReplicationAckTuple(respondTo, result));
       }
+    } else if (RESUME_SYNC == this.getType()) {
+      this.lastReceived = new SyncReplicationActivity.ActivityID(in.readLong());
     }
   }
 
@@ -106,6 +121,8 @@ public class ReplicationMessageAck extends AbstractGroupMessage implements IBatc
         out.writeLong(tuple.respondTo.id);
         out.writeInt(tuple.result.code());
       }
+    } else if (RESUME_SYNC == this.getType()) {
+      out.writeLong(this.lastReceived.id);
     }
   }
 
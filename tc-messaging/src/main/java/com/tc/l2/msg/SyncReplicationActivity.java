@@ -33,6 +33,7 @@ import com.tc.util.Assert;
 import java.io.IOException;
 import java.util.EnumSet;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 
 public class SyncReplicationActivity implements OrderedEventContext {
@@ -86,7 +87,13 @@ public class SyncReplicationActivity implements OrderedEventContext {
     SYNC_ENTITY_CONCURRENCY_PAYLOAD,
     SYNC_ENTITY_CONCURRENCY_END,
     
-    DISCONNECT_CLIENT;
+    DISCONNECT_CLIENT,
+
+    /**
+     * Only used locally - tells a passive standby that its former active has rejoined, so it should ask for the
+     *  activities it missed rather than wait to be zapped and synced from scratch.
+     */
+    RESUME_REPLICATION;
   }
 
 
@@ -190,11 +197,19 @@ public class SyncReplicationActivity implements OrderedEventContext {
     return new SyncReplicationActivity(ActivityID.getNextID(), null, id, version, fetchID, ClientID.NULL_ID, ClientInstanceID.NULL_ID, TransactionID.NULL_ID, TransactionID.NULL_ID, ActivityType.SYNC_ENTITY_CONCURRENCY_PAYLOAD, payload, concurrency, referenceCount, debugId);
   }
 
+  public static SyncReplicationActivity createResumeReplicationMessage() {
+    int referenceCount = 0;
+    return new SyncReplicationActivity(ActivityID.getNextID(), null, EntityID.NULL_ID, 0L, FetchID.NULL_ID, ClientID.NULL_ID, ClientInstanceID.NULL_ID, TransactionID.NULL_ID, TransactionID.NULL_ID, ActivityType.RESUME_REPLICATION, null, 0, referenceCount, null);
+  }
+
   public static SyncReplicationActivity createStartMessage() {
     int referenceCount = 0;
     return new SyncReplicationActivity(ActivityID.getNextID(), null, EntityID.NULL_ID, 0L, FetchID.NULL_ID, ClientID.NULL_ID, ClientInstanceID.NULL_ID, TransactionID.NULL_ID, TransactionID.NULL_ID, ActivityType.SYNC_START, null, 0, referenceCount, null);
   }
 
+  // A rough size for the fixed-width fields of a serialized activity (or sync entity tuple).
+  private static final int ESTIMATED_HEADER_SIZE = 64;
+
   private final ActivityID id;
   final ActivityType action;
   private final EntityCreationTuple[] entitiesForSyncStart;
@@ -206,6 +221,11 @@ public class SyncReplicationActivity implements OrderedEventContext {
   final TransactionID oldest;
 
   final byte[] payload;
+  // Deflates the payload, or returns null if it isn't worth it.  Only run the first time the activity is serialized for
+  //  a passive which accepts compression, so the work happens where the activity is sent rather than where it is made.
+  private final Function<byte[], byte[]> compressor;
+  private byte[] compressedPayload;
+  private boolean compressionAttempted;
   final int concurrency;
   // NOTE:  referenceCount is only used by SYNC_ENTITY_BEGIN.
   final int referenceCount;
@@ -215,6 +235,10 @@ public class SyncReplicationActivity implements OrderedEventContext {
   final String debugId;
 
   private SyncReplicationActivity(ActivityID id, EntityCreationTuple[] entitiesForSyncStart, EntityID entity, long version, FetchID fetch, ClientID src, ClientInstanceID instance, TransactionID tid, TransactionID oldest, ActivityType action, byte[] payload, int concurrency, int referenceCount, String debugId) {
+    this(id, entitiesForSyncStart, entity, version, fetch, src, instance, tid, oldest, action, payload, null, concurrency, referenceCount, debugId);
+  }
+
+  private SyncReplicationActivity(ActivityID id, EntityCreationTuple[] entitiesForSyncStart, EntityID entity, long version, FetchID fetch, ClientID src, ClientInstanceID instance, TransactionID tid, TransactionID oldest, ActivityType action, byte[] payload, Function<byte[], byte[]> compressor, int concurrency, int referenceCount, String debugId) {
     Assert.assertNotNull(id);
     Assert.assertNotNull(action);
     if (ActivityType.SYNC_BEGIN == action) {
@@ -238,6 +262,7 @@ public class SyncReplicationActivity implements OrderedEventContext {
     this.tid = tid;
     this.oldest = oldest;
     this.payload = payload;
+    this.compressor = compressor;
     this.concurrency = concurrency;
     this.referenceCount = referenceCount;
     this.debugId = debugId;
@@ -320,11 +345,57 @@ public class SyncReplicationActivity implements OrderedEventContext {
     return this.debugId;
   }
 
+  /**
+   * @return An estimate of the serialized size of this activity, used to bound replication batches by bytes.
+   */
+  public int getEstimatedSize() {
+    // The fixed-size header fields plus the variable-length ones.
+    int size = ESTIMATED_HEADER_SIZE;
+    if (ActivityType.SYNC_BEGIN == this.action) {
+      for (EntityCreationTuple tuple : this.entitiesForSyncStart) {
+        size += ESTIMATED_HEADER_SIZE + ((null != tuple.configPayload) ? tuple.configPayload.length : 0);
+      }
+    } else {
+      size += (null != this.payload) ? this.payload.length : 0;
+      size += (null != this.debugId) ? this.debugId.length() : 0;
+    }
+    return size;
+  }
+
+  /**
+   * @param compressor deflates the payload or returns null if it isn't worth it
+   * @return a copy of this activity, with the same ID, which deflates its payload the first time it is serialized for a
+   * passive which accepts compression
+   */
+  public SyncReplicationActivity withCompression(Function<byte[], byte[]> compressor) {
+    Assert.assertNotNull(this.payload);
+    return new SyncReplicationActivity(this.id, this.entitiesForSyncStart, this.entityID, this.version, this.fetchID, this.src, this.instance, this.tid, this.oldest, this.action, this.payload, compressor, this.concurrency, this.referenceCount, this.debugId);
+  }
+
+  public boolean isCompressed() {
+    return this.compressor != null;
+  }
+
+  private synchronized byte[] getCompressedPayload() {
+    if (!this.compressionAttempted) {
+      this.compressionAttempted = true;
+      this.compressedPayload = this.compressor.apply(this.payload);
+    }
+    return this.compressedPayload;
+  }
+
   public boolean isSyncActivity() {
     return (this.action.ordinal() >= ActivityType.SYNC_START.ordinal() && this.action.ordinal() < ActivityType.DISCONNECT_CLIENT.ordinal());
   }
 
-  protected void serializeTo(TCByteBufferOutput out) {
+  public void serializeTo(TCByteBufferOutput out) {
+    serializeTo(out, false);
+  }
+
+  /**
+   * @param compress true to send the deflated payload, if there is one, which only a peer that accepts compression can read
+   */
+  public void serializeTo(TCByteBufferOutput out, boolean compress) {
     // This activity better be valid.
     Assert.assertTrue(ActivityType.INVALID != this.action);
     // We should NOT be serializing local flush activities.
@@ -355,7 +426,13 @@ public class SyncReplicationActivity implements OrderedEventContext {
       out.writeLong(tid.toLong());
       out.writeLong(oldest.toLong());
       
-      if (payload != null) {
+      byte[] compressed = (compress && compressor != null) ? getCompressedPayload() : null;
+      if (compressed != null) {
+        // A negative length marks a deflated payload and is followed by the inflated length.
+        out.writeInt(-compressed.length);
+        out.writeInt(payload.length);
+        out.write(compressed);
+      } else if (payload != null) {
         out.writeInt(payload.length);
         out.write(payload);
       } else {
@@ -414,8 +491,15 @@ public class SyncReplicationActivity implements OrderedEventContext {
       oldest = new TransactionID(in.readLong());
       
       int length = in.readInt();
-      payload = new byte[length];
-      in.readFully(payload);
+      if (length < 0) {
+        int inflated = in.readInt();
+        byte[] deflated = new byte[-length];
+        in.readFully(deflated);
+        payload = ReplicationCompression.decompress(deflated, inflated);
+      } else {
+        payload = new byte[length];
+        in.readFully(payload);
+      }
       
       // Note that we only pass concurrency key or reference count in certain cases.
       concurrency = 0;
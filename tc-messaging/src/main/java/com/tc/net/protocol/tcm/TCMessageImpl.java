@@ -33,6 +33,8 @@ import com.tc.util.Assert;
 import com.tc.util.concurrent.SetOnceFlag;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 /**
  * @author teck
@@ -40,6 +42,8 @@ import java.io.IOException;
 public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements TCMessage {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(TCMessageImpl.class);
+  private static final AtomicIntegerFieldUpdater<TCMessageImpl> PAYLOAD_HOLDERS = AtomicIntegerFieldUpdater.newUpdater(TCMessageImpl.class, "payloadHolders");
+  private static final AtomicReferenceFieldUpdater<TCMessageImpl, TCMessageImpl> PAYLOAD_SOURCE = AtomicReferenceFieldUpdater.newUpdater(TCMessageImpl.class, TCMessageImpl.class, "payloadSource");
   private final MessageMonitor          monitor;
   private final SetOnceFlag             processed         = new SetOnceFlag();
   private final SetOnceFlag             isSent            = new SetOnceFlag();
@@ -50,6 +54,11 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   private TCByteBufferOutputStream      out;
   private TCByteBufferInputStream       bbis;
   private int                           messageVersion;
+  private volatile boolean              sharedPayload;
+  // Whoever dehydrated this message plus every clone still sending views of its payload.
+  private volatile int                  payloadHolders    = 1;
+  // The message whose payload this clone sends, until this clone no longer needs it.
+  private volatile TCMessageImpl        payloadSource;
 
   /**
    * Creates a new TCMessage to write data into (ie. to send to the network)
@@ -390,12 +399,56 @@ public abstract class TCMessageImpl extends AbstractTCNetworkMessage implements
   }
 
   /*
-   * send with payload from a dehydrated message
+   * send with payload from a dehydrated message. The payload buffers are shared with the source message through
+   * read-only views so that the same serialized form can be written to several channels at once.  The source's
+   * buffers are recycled once it is released and every clone has been written (see releasePayload()).
    */
   public void cloneAndSend(TCMessageImpl message) throws IOException {
     if (isSent.attemptSet()) {
-      dehydrate(message.getPayload());
-      basicSend();
+      TCByteBuffer[] source = message.getPayload();
+      TCByteBuffer[] views = new TCByteBuffer[source.length];
+      for (int i = 0; i < source.length; i++) {
+        views[i] = source[i].asReadOnlyBuffer();
+      }
+      PAYLOAD_HOLDERS.incrementAndGet(message);
+      payloadSource = message;
+      sharedPayload = true;
+      dehydrate(views);
+      try {
+        basicSend();
+      } catch (IOException ioe) {
+        releasePayloadSource();
+        throw ioe;
+      }
+    }
+  }
+
+  /**
+   * Gives up the hold, taken by dehydrating it, on the payload of a message which was only sent through cloneAndSend.
+   * Its pooled buffers are recycled once every clone has been written too.
+   */
+  public void releasePayload() {
+    if (PAYLOAD_HOLDERS.decrementAndGet(this) == 0) {
+      recycle();
+    }
+  }
+
+  private void releasePayloadSource() {
+    TCMessageImpl source = PAYLOAD_SOURCE.getAndSet(this, null);
+    if (source != null) {
+      source.releasePayload();
+    }
+  }
+
+  @Override
+  public void doRecycleOnWrite() {
+    if (!sharedPayload) {
+      super.doRecycleOnWrite();
+    } else {
+      // views over another message's buffers must not hand the underlying pooled buffers back while other channels may
+      // still be writing them, so only the header is recycled here and the source once its last clone is written
+      getHeader().getDataBuffer().recycle();
+      releasePayloadSource();
     }
   }
 
@@ -44,7 +44,8 @@ public enum TCMessageType {
     VOLTRON_ENTITY_MULTI_RESPONSE(true),
     NOOP_MESSAGE(true),
     DIAGNOSTIC_REQUEST(true),
-    DIAGNOSTIC_RESPONSE(true);
+    DIAGNOSTIC_RESPONSE(true),
+    VOLTRON_ENTITY_MULTI_MESSAGE(true);
     
   private final boolean validType;
 
@@ -34,4 +34,14 @@ public interface ClientHandshakeAckMessage extends ClientHandshakeResponse {
 
   public String getServerVersion();
 
+  /**
+   * @return true if the server decodes invokes sent together in one multi-message
+   */
+  public boolean isMultiMessageSupported();
+
+  /**
+   * @return true if the server decodes the deadline of an invoke
+   */
+  public boolean isInvokeDeadlineSupported();
+
 }
@@ -39,6 +39,12 @@ public class ClientHandshakeAckMessageImpl extends DSOMessageBase implements Cli
   private static final byte      THIS_NODE_ID      = 3;
   private static final byte      SERVER_VERSION    = 4;
 
+  // The message version of an ack tells the client which optional messages the server decodes.  Clients which predate
+  // it ignore the version and servers which predate it send 0, so the handshake itself is unchanged.
+  private static final int       MULTI_MESSAGE_VERSION = 1;
+  private static final int       INVOKE_DEADLINE_VERSION = 2;
+  private static final int       CURRENT_VERSION   = INVOKE_DEADLINE_VERSION;
+
   private final Set<NodeID>      allNodes          = new HashSet<NodeID>();
   private ClientID               thisNodeId;
   private String                 serverVersion;
@@ -89,6 +95,7 @@ public class ClientHandshakeAckMessageImpl extends DSOMessageBase implements Cli
 
     this.thisNodeId = thisNodeID;
     this.serverVersion = sv;
+    setMessageVersion(CURRENT_VERSION);
   }
 
   @Override
@@ -105,4 +112,14 @@ public class ClientHandshakeAckMessageImpl extends DSOMessageBase implements Cli
   public String getServerVersion() {
     return serverVersion;
   }
+
+  @Override
+  public boolean isMultiMessageSupported() {
+    return getMessageVersion() >= MULTI_MESSAGE_VERSION;
+  }
+
+  @Override
+  public boolean isInvokeDeadlineSupported() {
+    return getMessageVersion() >= INVOKE_DEADLINE_VERSION;
+  }
 }
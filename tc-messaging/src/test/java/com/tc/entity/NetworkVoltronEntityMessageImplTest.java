@@ -36,10 +36,12 @@ import com.tc.object.EntityID;
 import com.tc.object.session.SessionID;
 import com.tc.object.tx.TransactionID;
 import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 
@@ -78,4 +80,46 @@ public class NetworkVoltronEntityMessageImplTest {
     assertEquals(messageType, decodingMessage.getVoltronType());
     assertEquals(oldestTransactionPending, decodingMessage.getOldestTransactionOnClient());
   }
+
+  @Test
+  public void testDeadlineSerialization() throws UnknownNameException, IOException {
+    MessageMonitor monitor = mock(MessageMonitor.class);
+    TCByteBufferOutputStream outputStream = new TCByteBufferOutputStream(4, 4096, false);
+    NetworkVoltronEntityMessageImpl message = new NetworkVoltronEntityMessageImpl(new SessionID(0), monitor, outputStream, null, TCMessageType.VOLTRON_ENTITY_MESSAGE);
+    EntityDescriptor entityDescriptor = EntityDescriptor.createDescriptorForLifecycle(EntityID.NULL_ID, 3);
+    message.setContents(new ClientID(1), new TransactionID(2), EntityID.NULL_ID, entityDescriptor, Type.FETCH_ENTITY, 
+            false, new byte[1], new TransactionID(1), EnumSet.of(Acks.RECEIVED));
+    long timeout = TimeUnit.SECONDS.toNanos(30);
+    long before = System.nanoTime();
+    message.setDeadline(before + timeout);
+    message.dehydrate();
+
+    TCMessageHeader header = (TCMessageHeader) message.getHeader();
+    TCByteBuffer[] payload = message.getPayload();
+    outputStream.close();
+    NetworkVoltronEntityMessageImpl decodingMessage = new NetworkVoltronEntityMessageImpl(SessionID.NULL_ID, monitor, null, header, payload);
+    decodingMessage.hydrate();
+    long deadline = decodingMessage.getDeadline();
+    assertTrue(deadline - before <= timeout);
+    assertTrue(deadline - before > 0);
+    assertEquals(new TransactionID(2), decodingMessage.getTransactionID());
+  }
+
+  @Test
+  public void testNoDeadline() throws UnknownNameException, IOException {
+    MessageMonitor monitor = mock(MessageMonitor.class);
+    TCByteBufferOutputStream outputStream = new TCByteBufferOutputStream(4, 4096, false);
+    NetworkVoltronEntityMessageImpl message = new NetworkVoltronEntityMessageImpl(new SessionID(0), monitor, outputStream, null, TCMessageType.VOLTRON_ENTITY_MESSAGE);
+    EntityDescriptor entityDescriptor = EntityDescriptor.createDescriptorForLifecycle(EntityID.NULL_ID, 3);
+    message.setContents(new ClientID(1), new TransactionID(2), EntityID.NULL_ID, entityDescriptor, Type.FETCH_ENTITY, 
+            false, new byte[1], new TransactionID(1), EnumSet.of(Acks.RECEIVED));
+    message.dehydrate();
+
+    TCMessageHeader header = (TCMessageHeader) message.getHeader();
+    TCByteBuffer[] payload = message.getPayload();
+    outputStream.close();
+    NetworkVoltronEntityMessageImpl decodingMessage = new NetworkVoltronEntityMessageImpl(SessionID.NULL_ID, monitor, null, header, payload);
+    decodingMessage.hydrate();
+    assertEquals(0L, decodingMessage.getDeadline());
+  }
 }
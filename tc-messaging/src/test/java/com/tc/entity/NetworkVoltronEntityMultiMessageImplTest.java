@@ -0,0 +1,91 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.entity;
+
+import java.io.IOException;
+
+import com.tc.bytes.TCByteBuffer;
+import com.tc.entity.VoltronEntityMessage.Acks;
+import com.tc.entity.VoltronEntityMessage.Type;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.net.ClientID;
+import com.tc.net.protocol.tcm.MessageMonitor;
+import com.tc.net.protocol.tcm.TCMessageHeader;
+import com.tc.net.protocol.tcm.TCMessageType;
+import com.tc.net.protocol.tcm.UnknownNameException;
+import com.tc.object.EntityDescriptor;
+import com.tc.object.EntityID;
+import com.tc.object.session.SessionID;
+import com.tc.object.tx.TransactionID;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+
+public class NetworkVoltronEntityMultiMessageImplTest {
+  @Test
+  public void testSerialization() throws UnknownNameException, IOException {
+    MessageMonitor monitor = mock(MessageMonitor.class);
+    ClientID clientID = new ClientID(1);
+    EntityDescriptor entityDescriptor = EntityDescriptor.createDescriptorForLifecycle(EntityID.NULL_ID, 3);
+
+    TCByteBufferOutputStream outputStream = new TCByteBufferOutputStream(4, 4096, false);
+    NetworkVoltronEntityMultiMessageImpl message = new NetworkVoltronEntityMultiMessageImpl(new SessionID(0), monitor, outputStream, null, TCMessageType.VOLTRON_ENTITY_MULTI_MESSAGE);
+    message.addMessage(createMessage(clientID, 2, entityDescriptor, Type.FETCH_ENTITY, new byte[] {1}, EnumSet.of(Acks.RECEIVED)));
+    message.addMessage(createMessage(clientID, 3, entityDescriptor, Type.RELEASE_ENTITY, new byte[] {2, 3}, EnumSet.noneOf(Acks.class)));
+    message.dehydrate();
+
+    TCMessageHeader header = (TCMessageHeader) message.getHeader();
+    TCByteBuffer[] payload = message.getPayload();
+    outputStream.close();
+    NetworkVoltronEntityMultiMessageImpl decodingMessage = new NetworkVoltronEntityMultiMessageImpl(SessionID.NULL_ID, monitor, null, header, payload);
+    decodingMessage.hydrate();
+    List<VoltronEntityMessage> messages = decodingMessage.getMessages();
+    assertEquals(2, messages.size());
+
+    VoltronEntityMessage first = messages.get(0);
+    assertEquals(clientID, first.getSource());
+    assertEquals(new TransactionID(2), first.getTransactionID());
+    assertEquals(entityDescriptor, first.getEntityDescriptor());
+    assertEquals(Type.FETCH_ENTITY, first.getVoltronType());
+    assertArrayEquals(new byte[] {1}, first.getExtendedData());
+    assertTrue(first.doesRequestReceived());
+    assertEquals(new TransactionID(1), first.getOldestTransactionOnClient());
+
+    VoltronEntityMessage second = messages.get(1);
+    assertEquals(clientID, second.getSource());
+    assertEquals(new TransactionID(3), second.getTransactionID());
+    assertEquals(Type.RELEASE_ENTITY, second.getVoltronType());
+    assertArrayEquals(new byte[] {2, 3}, second.getExtendedData());
+    assertFalse(second.doesRequestReceived());
+  }
+
+  private static NetworkVoltronEntityMessage createMessage(ClientID clientID, long tid, EntityDescriptor descriptor, Type type, byte[] data, EnumSet<Acks> acks) {
+    NetworkVoltronEntityMessageImpl message = new NetworkVoltronEntityMessageImpl(new SessionID(0), mock(MessageMonitor.class), new TCByteBufferOutputStream(), null, TCMessageType.VOLTRON_ENTITY_MESSAGE);
+    message.setContents(clientID, new TransactionID(tid), EntityID.NULL_ID, descriptor, type, false, data, new TransactionID(1), acks);
+    return message;
+  }
+}
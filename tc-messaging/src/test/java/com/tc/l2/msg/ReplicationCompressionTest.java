@@ -0,0 +1,109 @@
+/*
+ *
+ *  The contents of this file are subject to the Terracotta Public License Version
+ *  2.0 (the "License"); You may not use this file except in compliance with the
+ *  License. You may obtain a copy of the License at
+ *
+ *  http://terracotta.org/legal/terracotta-public-license.
+ *
+ *  Software distributed under the License is distributed on an "AS IS" basis,
+ *  WITHOUT WARRANTY OF ANY KIND, either express or implied. See the License for
+ *  the specific language governing rights and limitations under the License.
+ *
+ *  The Covered Software is Terracotta Core.
+ *
+ *  The Initial Developer of the Covered Software is
+ *  Terracotta, Inc., a Software AG company
+ *
+ */
+package com.tc.l2.msg;
+
+import com.tc.io.TCByteBufferInputStream;
+import com.tc.io.TCByteBufferOutputStream;
+import com.tc.net.ClientID;
+import com.tc.object.ClientInstanceID;
+import com.tc.object.FetchID;
+import com.tc.object.tx.TransactionID;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicationCompressionTest {
+
+  @Test
+  public void testSmallPayloadNotCompressed() throws Exception {
+    ReplicationCompression compression = new ReplicationCompression(1024, 1);
+    assertNull(compression.compress("type", new byte[512]));
+    assertNull(compression.compress("type", null));
+  }
+
+  @Test
+  public void testIncompressiblePayloadNotCompressed() throws Exception {
+    ReplicationCompression compression = new ReplicationCompression(1024, 1);
+    byte[] random = new byte[8192];
+    new Random(42).nextBytes(random);
+    assertNull(compression.compress("type", random));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCompressAndDecompress() throws Exception {
+    ReplicationCompression compression = new ReplicationCompression(1024, 1);
+    byte[] payload = repetitive(64 * 1024);
+    byte[] compressed = compression.compress("type", payload);
+    assertTrue(compressed.length < payload.length / 10);
+    assertTrue(Arrays.equals(payload, ReplicationCompression.decompress(compressed, payload.length)));
+
+    Map<String, Object> stats = (Map<String, Object>) ((Map<String, Object>) compression.getStateMap().get("entityTypes")).get("type");
+    assertEquals(1L, stats.get("payloads"));
+    assertEquals((long) payload.length, stats.get("rawBytes"));
+    assertEquals((long) compressed.length, stats.get("compressedBytes"));
+  }
+
+  @Test
+  public void testActivitySerializedCompressedOnlyWhenAsked() throws Exception {
+    ReplicationCompression compression = new ReplicationCompression(1024, 1);
+    byte[] payload = repetitive(16 * 1024);
+    SyncReplicationActivity activity = SyncReplicationActivity.createInvokeMessage(new FetchID(1L), ClientID.NULL_ID, ClientInstanceID.NULL_ID, TransactionID.NULL_ID, TransactionID.NULL_ID, SyncReplicationActivity.ActivityType.INVOKE_ACTION, payload, 1, "");
+    AtomicInteger deflations = new AtomicInteger();
+    SyncReplicationActivity compressed = activity.withCompression(raw -> {
+      deflations.incrementAndGet();
+      return compression.compress("type", raw);
+    });
+    assertTrue(compressed.isCompressed());
+    assertFalse(activity.isCompressed());
+    assertEquals(activity.getActivityID(), compressed.getActivityID());
+
+    // nothing is deflated until the activity is sent compressed, and then only once
+    TCByteBufferOutputStream plain = new TCByteBufferOutputStream();
+    compressed.serializeTo(plain);
+    assertEquals(0, deflations.get());
+    TCByteBufferOutputStream deflated = new TCByteBufferOutputStream();
+    compressed.serializeTo(deflated, true);
+    compressed.serializeTo(new TCByteBufferOutputStream(), true);
+    assertEquals(1, deflations.get());
+    assertTrue(deflated.getBytesWritten() < plain.getBytesWritten() / 4);
+
+    for (TCByteBufferOutputStream out : Arrays.asList(plain, deflated)) {
+      SyncReplicationActivity read = SyncReplicationActivity.deserializeFrom(new TCByteBufferInputStream(out.toArray()));
+      assertEquals(activity.getActivityID(), read.getActivityID());
+      assertTrue(Arrays.equals(payload, read.getExtendedData()));
+      assertEquals(1, read.getConcurrency());
+    }
+  }
+
+  private static byte[] repetitive(int size) {
+    byte[] data = new byte[size];
+    for (int i = 0; i < size; ++i) {
+      data[i] = (byte) (i % 17);
+    }
+    return data;
+  }
+}